@@ -2,11 +2,18 @@ package com.joklek.fakec;
 
 import com.joklek.fakec.codegen.*;
 import com.joklek.fakec.error.Error;
+import com.joklek.fakec.jvm.CompiledProgram;
+import com.joklek.fakec.jvm.JvmCodeGenerator;
+import com.joklek.fakec.jvm.TieredCompiler;
 import com.joklek.fakec.lexing.Scanner;
 import com.joklek.fakec.lexing.ScannerResults;
 import com.joklek.fakec.lexing.error.LexerError;
 import com.joklek.fakec.lexing.sourceproviders.CodeCollector;
 import com.joklek.fakec.lexing.sourceproviders.SourceFromFile;
+import com.joklek.fakec.optimisation.ConstantFolder;
+import com.joklek.fakec.optimisation.DeadCodeEliminator;
+import com.joklek.fakec.optimisation.FunctionInliner;
+import com.joklek.fakec.optimisation.SlotAllocator;
 import com.joklek.fakec.parsing.AstPrinter;
 import com.joklek.fakec.parsing.Parser;
 import com.joklek.fakec.parsing.ParserResults;
@@ -22,7 +29,21 @@ import com.joklek.fakec.scope.error.ScopeError;
 import com.joklek.fakec.scope.error.TypeError;
 import com.joklek.fakec.tokens.Token;
 import com.joklek.fakec.tokens.TokenType;
+import com.joklek.fakec.vm.ExecutionEngine;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.InputSource;
+import com.joklek.fakec.vm.OutputTarget;
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+import com.joklek.fakec.vm.RegisterInterpreter;
+import com.joklek.fakec.vm.ThreadedInterpreter;
+import com.joklek.fakec.vm.VirtualMachine;
 
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -34,7 +55,8 @@ public class Compiler {
     public static void main(String[] args) {
         List<Error> compilerErrors = new ArrayList<>();
 
-        String filename = args[0];
+        CompilerOptions options = CompilerOptions.parse(args);
+        String filename = options.getFilename();
         CodeCollector codeCollector = new CodeCollector(new SourceFromFile());
 
         Map<String, List<LexerError>> errorsForFiles = new HashMap<>();
@@ -85,17 +107,46 @@ public class Compiler {
         }
 
         // 4.4
+        new FunctionInliner().inline(program);
+        new ConstantFolder().fold(program);
+        new DeadCodeEliminator().eliminate(program);
+        new SlotAllocator().allocate(program);
+
+        // 4.5
         InstructionResolver resolver = new InstructionResolver();
         CodeGenerator generator = new CodeGenerator(resolver);
         IntermediateRepresentation intermediateRepresentation = generator.generate(program);
+        new InductionVariableReducer().reduce(intermediateRepresentation);
+        new LoopInvariantHoister().hoist(intermediateRepresentation);
+        new PeepholeOptimiser(options.getPeepholeRules()).optimise(intermediateRepresentation);
+        if(options.isPrintControlFlow()) {
+            ControlFlowGraph.build(intermediateRepresentation).forEach(graph -> graph.describe().forEach(System.out::println));
+        }
+        if(options.getFusionProfile() != null) {
+            OpcodeProfile profile = readProfile(options.getFusionProfile(), resolver);
+            SuperinstructionFuser fuser = new SuperinstructionFuser(profile);
+            int fused = fuser.fuse(intermediateRepresentation);
+            System.err.printf("Fused %d sequences using %s%n", fused, fuser.selectSuperinstructions());
+        }
         List<Integer> bytes = intermediateRepresentation.getInstructionBytes();
-        String bytesInString = bytes.stream()
-                .map(Object::toString)
-                .collect(Collectors.joining(", "));
+        List<Integer> loadedCode = bytes;
+        if(options.getCodeFormat() == CodeFormat.COMPACT) {
+            CompactEncoding encoding = new CompactEncoding(resolver);
+            byte[] compact = encoding.encode(bytes);
+            printCompact(compact, bytes.size());
+            // Compact code is only a storage format, the machine runs the int code decoded from it, so a program that
+            // does not survive the round trip shows up when it is run
+            loadedCode = Arrays.stream(encoding.decode(compact)).boxed().collect(Collectors.toList());
+        }
+        else {
+            String bytesInString = bytes.stream()
+                    .map(Object::toString)
+                    .collect(Collectors.joining(", "));
 
-        System.out.print("[");
-        System.out.print(bytesInString);
-        System.out.printf("]%n");
+            System.out.print("[");
+            System.out.print(bytesInString);
+            System.out.printf("]%n");
+        }
 
         for(int offset = 0; offset < bytes.size(); offset++) {
             int opcode = bytes.get(offset);
@@ -106,9 +157,13 @@ public class Compiler {
                 continue;
             }
 
+            int operands = instruction.getOps(bytes, offset);
             StringBuilder ops = new StringBuilder();
-            for(int j = 1; j <= instruction.getOps(); j++) {
+            for(int j = 1; j <= operands; j++) {
                 Integer codeFromIR = bytes.get(offset + j);
+                if (j > 1) {
+                    ops.append(", ");
+                }
                 if(instruction == InstructionType.POPF || instruction == InstructionType.ADDF || instruction == PUSHF) {
                     ops.append(Float.intBitsToFloat(codeFromIR));
                 }
@@ -118,13 +173,180 @@ public class Compiler {
             }
 
             System.out.printf("%04d: %-10s %s%n", offset, instruction, ops.toString());
-            offset += instruction.getOps();
+            offset += operands;
         }
 
         // 5
         // RUN THIS
-        Interpreter vm = new Interpreter(filename, bytes, intermediateRepresentation.getStringTable());
-        vm.execute();
+        if(options.getProfileOutput() != null) {
+            runProfiled(options.getProfileOutput(), filename, intermediateRepresentation);
+            return;
+        }
+        if(options.isCompare()) {
+            compareBackends(filename, intermediateRepresentation, program);
+            return;
+        }
+        StackDepths stackDepths = verify(filename, resolver, loadedCode);
+        VirtualMachine vm = createVirtualMachine(options, filename, program, intermediateRepresentation, loadedCode, stackDepths);
+        execute(vm, options.getInputFile(), options.getOutputFile());
+        if (vm instanceof Interpreter && ((Interpreter) vm).getTieredCompiler() != null) {
+            TieredCompiler tiers = ((Interpreter) vm).getTieredCompiler();
+            System.err.println(tiers.getStatistics());
+            tiers.close();
+        }
+    }
+
+    private static void printCompact(byte[] compact, int intCodeSize) {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : compact) {
+            hex.append(String.format("%02X", value));
+        }
+        System.out.println(hex);
+        System.err.printf("Compact code takes %d bytes, int code takes %d%n", compact.length, intCodeSize * Integer.BYTES);
+    }
+
+    private static void execute(VirtualMachine vm, String inputFile, String outputFile) {
+        try (FileChannel in = inputFile == null ? null : FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+             FileChannel out = outputFile == null ? null : FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (in != null) {
+                vm.setInput(new ProgramInput(InputSource.channel(in)));
+            }
+            if (out != null) {
+                vm.setOutput(new ProgramOutput(OutputTarget.channel(out)));
+            }
+            vm.execute();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not open program input or output", e);
+        }
+    }
+
+    private static void compareBackends(String filename, IntermediateRepresentation intermediateRepresentation, Stmt.Program program) {
+        // Input read by the stack machine is recorded and replayed to the register machine, so both get the same input
+        InputStream standardIn = new FileInputStream(FileDescriptor.in);
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        Interpreter stackMachine = new Interpreter(filename, intermediateRepresentation.getInstructionBytes(), intermediateRepresentation.getStringTable());
+        stackMachine.setInput(new ProgramInput(InputSource.stream(new TeeInputStream(standardIn, input))));
+        long stackStart = System.nanoTime();
+        String stackOutput = captureOutput(stackMachine);
+        long stackTime = System.nanoTime() - stackStart;
+
+        RegisterProgram registerProgram = new RegisterCodeGenerator().generate(program);
+        RegisterInterpreter registerMachine = new RegisterInterpreter(filename, registerProgram);
+        registerMachine.setInput(new ProgramInput(InputSource.stream(new SequenceInputStream(new ByteArrayInputStream(input.toByteArray()), standardIn))));
+        long registerStart = System.nanoTime();
+        String registerOutput = captureOutput(registerMachine);
+        long registerTime = System.nanoTime() - registerStart;
+
+        System.out.print(stackOutput);
+        System.err.printf("%n%-10s %10s %14s %10s%n", "BACKEND", "CODE SIZE", "INSTRUCTIONS", "TIME MS");
+        System.err.printf("%-10s %10d %14d %10d%n", "stack", intermediateRepresentation.getInstructionBytes().size(), stackMachine.getExecutedInstructions(), stackTime / 1_000_000);
+        System.err.printf("%-10s %10d %14d %10d%n", "register", registerProgram.getCode().size(), registerMachine.getExecutedInstructions(), registerTime / 1_000_000);
+        if(stackOutput.equals(registerOutput)) {
+            System.err.println("Outputs match");
+        }
+        else {
+            System.err.printf("Outputs differ, register machine printed:%n%s%n", registerOutput);
+        }
+    }
+
+    private static String captureOutput(VirtualMachine vm) {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            vm.execute();
+        }
+        finally {
+            System.setOut(originalOut);
+        }
+        return output.toString();
+    }
+
+    private static void runProfiled(String profileOutput, String filename, IntermediateRepresentation intermediateRepresentation) {
+        InstructionResolver resolver = intermediateRepresentation.getResolver();
+        Interpreter interpreter = new Interpreter(filename, intermediateRepresentation.getInstructionBytes(), intermediateRepresentation.getStringTable());
+        OpcodeProfile profile = new OpcodeProfile();
+        interpreter.setProfile(profile);
+        interpreter.execute();
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(profileOutput))) {
+            profile.write(writer, resolver);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not write profile to \"%s\"", profileOutput), e);
+        }
+
+        System.err.printf("%nExecuted %d instructions, hottest sequences:%n", profile.getDispatches());
+        for (int length = 2; length <= OpcodeProfile.MAX_LENGTH; length++) {
+            profile.getHottest(length, resolver).stream()
+                    .limit(5)
+                    .forEach(sequence -> System.err.printf("%12d %s%n", sequence.getValue(), sequence.getKey()));
+        }
+    }
+
+    private static OpcodeProfile readProfile(String profileFile, InstructionResolver resolver) {
+        try (Reader reader = Files.newBufferedReader(Paths.get(profileFile))) {
+            return OpcodeProfile.read(reader, resolver);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not read profile from \"%s\"", profileFile), e);
+        }
+    }
+
+    private static StackDepths verify(String filename, InstructionResolver resolver, List<Integer> code) {
+        try {
+            return new BytecodeVerifier(resolver).verify(code);
+        }
+        catch (VerificationException e) {
+            System.err.printf("%s: note: running with stack checks, generated code failed verification, %s%n", filename, e.getMessage());
+            return null;
+        }
+    }
+
+    private static VirtualMachine createVirtualMachine(CompilerOptions options, String filename, Stmt.Program program,
+                                                       IntermediateRepresentation intermediateRepresentation, List<Integer> bytes,
+                                                       StackDepths stackDepths) {
+        StringTable strings = intermediateRepresentation.getStringTable();
+        ExecutionEngine engine = options.getEngine();
+        MemoryLayout layout = options.getMemoryLayout();
+        switch (engine) {
+            case SWITCH:
+                return createInterpreter(filename, bytes, strings, layout, stackDepths);
+            case THREADED:
+                ThreadedInterpreter threaded = new ThreadedInterpreter(filename, bytes, strings, intermediateRepresentation.getResolver(), layout);
+                if (stackDepths != null) {
+                    threaded.setStackDepths(stackDepths);
+                }
+                return threaded;
+            case REGISTER:
+                RegisterProgram registerProgram = new RegisterCodeGenerator().generate(program);
+                registerProgram.disassemble().forEach(System.out::println);
+                return new RegisterInterpreter(filename, registerProgram, layout);
+            case JVM:
+                try {
+                    return new CompiledProgram(filename, new JvmCodeGenerator().generate(program));
+                }
+                catch (UnsupportedOperationException | LinkageError e) {
+                    System.err.printf("%s: note: falling back to the interpreter, %s%n", filename, e.getMessage());
+                    return createInterpreter(filename, bytes, strings, layout, stackDepths);
+                }
+            case TIERED:
+                Interpreter interpreter = createInterpreter(filename, bytes, strings, layout, stackDepths);
+                interpreter.setTieredCompiler(new TieredCompiler(program, bytes.size(), strings,
+                        options.getTierInvocationThreshold(), options.getTierBackEdgeThreshold(), true));
+                return interpreter;
+            default:
+                throw new UnsupportedOperationException("Unsupported execution engine " + engine);
+        }
+    }
+
+    private static Interpreter createInterpreter(String filename, List<Integer> code, StringTable strings, MemoryLayout layout, StackDepths stackDepths) {
+        Interpreter interpreter = new Interpreter(filename, code, strings, layout);
+        if (stackDepths != null) {
+            interpreter.setStackDepths(stackDepths);
+        }
+        return interpreter;
     }
 
     private static void printErrors(List<Error> compilerErrors, String filename) {
@@ -188,4 +410,34 @@ public class Compiler {
     private static void report(int line, String filename, String message) {
         System.err.printf("%s:%d: error: %s%n", filename, line, message);
     }
+
+    /**
+     * Copies every byte read from the wrapped stream into a sink
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream sink;
+
+        TeeInputStream(InputStream in, OutputStream sink) {
+            super(in);
+            this.sink = sink;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                sink.write(read);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                sink.write(buffer, offset, read);
+            }
+            return read;
+        }
+    }
 }
@@ -0,0 +1,223 @@
+package com.joklek.fakec;
+
+import com.joklek.fakec.codegen.CodeFormat;
+import com.joklek.fakec.codegen.PeepholeOptimiser;
+import com.joklek.fakec.jvm.TieredCompiler;
+import com.joklek.fakec.vm.ExecutionEngine;
+import com.joklek.fakec.vm.MemoryLayout;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Command line options for the compiler. The first argument is the source file, the rest are flags in the form of
+ * {@code --name=value}
+ */
+public class CompilerOptions {
+
+    private final String filename;
+    private ExecutionEngine engine;
+    private String profileOutput;
+    private String fusionProfile;
+    private boolean compare;
+    private int tierInvocationThreshold;
+    private int tierBackEdgeThreshold;
+    private MemoryLayout memoryLayout;
+    private String inputFile;
+    private String outputFile;
+    private Set<PeepholeOptimiser.Rule> peepholeRules;
+    private boolean printControlFlow;
+    private CodeFormat codeFormat;
+
+    private CompilerOptions(String filename) {
+        this.filename = filename;
+        this.engine = ExecutionEngine.SWITCH;
+        this.tierInvocationThreshold = TieredCompiler.DEFAULT_INVOCATION_THRESHOLD;
+        this.tierBackEdgeThreshold = TieredCompiler.DEFAULT_BACK_EDGE_THRESHOLD;
+        this.memoryLayout = MemoryLayout.defaults();
+        this.peepholeRules = EnumSet.allOf(PeepholeOptimiser.Rule.class);
+        this.codeFormat = CodeFormat.INT;
+    }
+
+    /**
+     * Parses command line arguments
+     * @param args arguments given to the compiler
+     * @return parsed options
+     */
+    public static CompilerOptions parse(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Source file should be provided as the first argument");
+        }
+        CompilerOptions options = new CompilerOptions(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals != -1) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+
+            switch (name) {
+                case "--engine":
+                    options.engine = ExecutionEngine.valueOf(requireValue(name, value).toUpperCase());
+                    break;
+                case "--profile":
+                    options.profileOutput = requireValue(name, value);
+                    break;
+                case "--fuse":
+                    options.fusionProfile = requireValue(name, value);
+                    break;
+                case "--compare":
+                    options.compare = true;
+                    break;
+                case "--tier-invocations":
+                    options.tierInvocationThreshold = requireInt(name, value);
+                    break;
+                case "--tier-backedges":
+                    options.tierBackEdgeThreshold = requireInt(name, value);
+                    break;
+                case "--input":
+                    options.inputFile = requireValue(name, value);
+                    break;
+                case "--output":
+                    options.outputFile = requireValue(name, value);
+                    break;
+                case "--stack-size":
+                    options.memoryLayout = MemoryLayout.withMaxStackSize(requireInt(name, value));
+                    break;
+                case "--peephole":
+                    options.peepholeRules = requireRules(name, value);
+                    break;
+                case "--cfg":
+                    options.printControlFlow = true;
+                    break;
+                case "--format":
+                    options.codeFormat = CodeFormat.valueOf(requireValue(name, value).toUpperCase());
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown option '%s'", arg));
+            }
+        }
+        return options;
+    }
+
+    private static String requireValue(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Option '%s' needs a value", name));
+        }
+        return value;
+    }
+
+    private static Set<PeepholeOptimiser.Rule> requireRules(String name, String value) {
+        Set<PeepholeOptimiser.Rule> rules = EnumSet.noneOf(PeepholeOptimiser.Rule.class);
+        if (requireValue(name, value).equals("none")) {
+            return rules;
+        }
+        for (String rule : value.split(",")) {
+            try {
+                rules.add(PeepholeOptimiser.Rule.valueOf(rule.trim().toUpperCase().replace('-', '_')));
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Option '%s' got unknown rule '%s'", name, rule));
+            }
+        }
+        return rules;
+    }
+
+    private static int requireInt(String name, String value) {
+        try {
+            return Integer.parseInt(requireValue(name, value));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Option '%s' needs a number, got '%s'", name, value));
+        }
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public ExecutionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return file the opcode profile should be written to, or null if the program should not be profiled
+     */
+    public String getProfileOutput() {
+        return profileOutput;
+    }
+
+    /**
+     * @return file with an opcode profile used to pick superinstructions, or null if nothing should be fused
+     */
+    public String getFusionProfile() {
+        return fusionProfile;
+    }
+
+    /**
+     * @return true if the program should be run on both the stack and the register machine and the runs compared
+     */
+    public boolean isCompare() {
+        return compare;
+    }
+
+    /**
+     * @return calls after which the tiered engine compiles a function
+     */
+    public int getTierInvocationThreshold() {
+        return tierInvocationThreshold;
+    }
+
+    /**
+     * @return backward jumps inside a function after which the tiered engine compiles it
+     */
+    public int getTierBackEdgeThreshold() {
+        return tierBackEdgeThreshold;
+    }
+
+    /**
+     * @return memory segment sizes for the stack machine engines
+     */
+    public MemoryLayout getMemoryLayout() {
+        return memoryLayout;
+    }
+
+    /**
+     * @return file program input should be read from, or null if it should come from standard input
+     */
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * @return file program output should be written to, or null if it should go to standard output
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @return peephole rewrites to do on stack machine code, all of them unless limited with {@code --peephole}
+     */
+    public Set<PeepholeOptimiser.Rule> getPeepholeRules() {
+        return peepholeRules;
+    }
+
+    /**
+     * @return true if basic blocks, dominators and loops of generated code should be printed
+     */
+    public boolean isPrintControlFlow() {
+        return printControlFlow;
+    }
+
+    /**
+     * @return format generated code is printed in, int unless set with {@code --format}. Compact code is only stored,
+     * the machine runs the int code decoded from it
+     */
+    public CodeFormat getCodeFormat() {
+        return codeFormat;
+    }
+}
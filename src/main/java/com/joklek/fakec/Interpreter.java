@@ -1,50 +1,238 @@
 package com.joklek.fakec;
 
+import com.joklek.fakec.codegen.OpcodeProfile;
+import com.joklek.fakec.codegen.StackDepths;
 import com.joklek.fakec.codegen.StringTable;
-
-import java.nio.BufferOverflowException;
+import com.joklek.fakec.jvm.CompiledFunction;
+import com.joklek.fakec.jvm.JvmRuntime;
+import com.joklek.fakec.jvm.TieredCompiler;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.ProgramImage;
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+import com.joklek.fakec.vm.VirtualMachine;
+
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Random;
-import java.util.Scanner;
 
 @SuppressWarnings({"squid:S1135", "squid:S106"})
-public class Interpreter {
+public class Interpreter implements VirtualMachine {
 
     private final StringTable strings;
+    private final int loadedStrings;
     private final String filename;
     private boolean running;
-    private final int codeBase;
-    private int[] memory;
+    private final int[] code;
+    private final MemoryLayout layout;
+    private int[] stack;
+    private final int[] heap;
+    private final int heapBase;
     private int ip; // instruction
     private int sp; // stack
     private int bp; // base
+    private int[] frames; // return address and base of every active call
+    private int fp; // frame
+    private int[] maxDepths; // stack a function takes at most, by entry offset, null if code was not verified
 
-    private static final int STACKBASE = 2048;
-
-    private Scanner scanner;
+    private ProgramInput input;
     private Random randomGen;
+    private ProgramOutput output;
+    private OpcodeProfile profile;
+    private TieredCompiler tiers;
+    private long executedInstructions;
 
     public Interpreter(String filename, List<Integer> code, StringTable strings) {
+        this(filename, code, strings, MemoryLayout.defaults());
+    }
+
+    public Interpreter(String filename, List<Integer> code, StringTable strings, MemoryLayout layout) {
+        this(filename, toArray(code), strings, layout);
+    }
+
+    /**
+     * Machine running a shared program image, it gets a string table of its own and can be {@link #reset()} to run
+     * the image again
+     * @param image program to run
+     * @param layout memory segment sizes
+     */
+    public Interpreter(ProgramImage image, MemoryLayout layout) {
+        this(image.getFilename(), image.getCode(), image.newStringTable(), layout);
+        if (image.getStackDepths() != null) {
+            setStackDepths(image.getStackDepths());
+        }
+    }
+
+    private Interpreter(String filename, int[] code, StringTable strings, MemoryLayout layout) {
         this.strings = strings;
+        this.loadedStrings = strings.size();
         this.running = true;
-        this.scanner = new Scanner(System.in);
+        this.input = new ProgramInput();
         this.randomGen = new Random();
+        this.output = new ProgramOutput();
         this.filename = filename;
 
-        this.codeBase = 512;
-        this.memory = new int[4096];
-        this.ip = codeBase;
-        this.sp = STACKBASE;
+        this.code = code;
+        this.layout = layout;
+        this.stack = new int[layout.getInitialStackSize()];
+        this.frames = new int[layout.getInitialStackSize()];
+        this.heap = new int[layout.getHeapSize()];
+        this.heapBase = layout.getHeapBase();
+        this.ip = 0;
+        this.sp = 0;
         this.bp = sp;
+        this.fp = 0;
+    }
 
+    private static int[] toArray(List<Integer> code) {
+        int[] array = new int[code.size()];
         for (int i = 0; i < code.size(); i++){
-            memory[codeBase + i] = code.get(i);
+            array[i] = code.get(i);
         }
+        return array;
+    }
+
+    /**
+     * Rolls the machine back to the state its program was loaded in, so it can be run again. Memory is cleared and
+     * strings the last run added are dropped, input, output and random numbers stay as they are
+     */
+    public void reset() {
+        running = true;
+        ip = 0;
+        sp = 0;
+        bp = 0;
+        fp = 0;
+        if (frames.length > layout.getInitialStackSize()) {
+            frames = new int[layout.getInitialStackSize()];
+        }
+        if (stack.length > layout.getInitialStackSize()) {
+            stack = new int[layout.getInitialStackSize()];
+        }
+        else {
+            Arrays.fill(stack, 0);
+        }
+        Arrays.fill(heap, 0);
+        strings.truncate(loadedStrings);
+        executedInstructions = 0;
     }
 
+    /**
+     * Turns on the fast path for verified code. Stack for a whole frame is reserved when a function is called, so
+     * loops and allocations run without stack checks
+     * @param depths result of verifying the code of this machine
+     */
+    public void setStackDepths(StackDepths depths) {
+        this.maxDepths = depths.toArray();
+    }
+
+    /**
+     * Turns on profiling mode, every executed opcode is recorded into given profile
+     * @param profile profile to collect executed opcode sequences into
+     */
+    public void setProfile(OpcodeProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Turns on tiered execution, calls and backward jumps are reported to given compiler and hot functions are run
+     * compiled. Compiled code shares input, random numbers and strings with this interpreter
+     * @param tiers compiler for hot functions
+     */
+    public void setTieredCompiler(TieredCompiler tiers) {
+        this.tiers = tiers;
+        tiers.attach(new JvmRuntime(filename, strings, input, randomGen, output));
+    }
+
+    public TieredCompiler getTieredCompiler() {
+        return tiers;
+    }
+
+    @Override
+    public void setOutput(ProgramOutput output) {
+        this.output = output;
+        if (tiers != null) {
+            setTieredCompiler(tiers);
+        }
+    }
+
+    @Override
+    public void setInput(ProgramInput input) {
+        this.input = input;
+        if (tiers != null) {
+            setTieredCompiler(tiers);
+        }
+    }
+
+    /**
+     * @return number of instructions dispatched so far
+     */
+    public long getExecutedInstructions() {
+        return executedInstructions;
+    }
+
+    @Override
     public void execute(){
+        if (tiers == null) {
+            runInterpreted();
+            return;
+        }
+        // Compiled functions call each other on the Java stack, which is sized to let them go as deep as the interpreter
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, this::runInterpreted, "fakec-" + filename, layout.getCompiledStackBytes());
+        thread.setUncaughtExceptionHandler((failed, ex) -> failure[0] = ex);
+        thread.start();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the program to finish", ex);
+        }
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        }
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        }
+    }
+
+    private void runInterpreted() {
+        try {
+            run();
+        }
+        catch (ArrayIndexOutOfBoundsException ex) {
+            // Pushes and pops are not checked, unverified code that misuses the stack ends up here
+            running = false;
+            if (sp < 0) {
+                error("Stack underflown, exiting program");
+            }
+            else if (sp >= stack.length) {
+                error("Stack overflown, exiting program");
+            }
+            else {
+                throw ex;
+            }
+        }
+        finally {
+            output.flush();
+        }
+    }
+
+    private void run() {
+        if (maxDepths != null && !reserveStack(maxDepths[0])) {
+            return;
+        }
+        if (profile != null) {
+            while (running) {
+                profile.record(code[ip]);
+                executedInstructions++;
+                executeStep();
+            }
+            return;
+        }
         while (running) {
+            executedInstructions++;
             executeStep();
             /*System.out.println();
             System.out.println("STACK");
@@ -87,25 +275,32 @@ public class Interpreter {
             case 0x32: not(); break;
 
             case 0x40: pop(); break;
-            //case 0x41: popf(); break;
+            case 0x41: pop(); break;
             case 0x45: instrPush(); break;
             case 0x46: instrPush(); break;
 
             case 0x50: peek(); break;
             case 0x51: poke(); break;
             case 0x52: alloc(); break;
+            case 0x53: increment(); break;
+            case 0x54: decrement(); break;
+            case 0x55: addImmediate(); break;
             case 0x5A: peeks(); break;
             case 0x5B: pokes(); break;
             case 0x5C: lea(); break;
             case 0x5D: ld(); break;
 
-            case 0x60: call(readCode()); break;
-            case 0x61: ret(0); break;
-            case 0x62: ret(pop()); break;
+            case 0x60: call(); break;
+            case 0x61: ret(); break;
+            case 0x62: retValue(); break;
             case 0x63: exit(); break;
             case 0x64: jmp(); break;
             case 0x65: jmpz(); break;
             case 0x66: rand(); break;
+            case 0x67: jmpnz(); break;
+            case 0x68: tailCall(); break;
+            case 0x69: tableSwitch(); break;
+            case 0x6A: lookupSwitch(); break;
 
             case 0x70: stdOutInteger(); break;
             case 0x71: stdOutFloat(); break;
@@ -116,9 +311,22 @@ public class Interpreter {
             case 0x76: stdinf(); break;
             case 0x77: stdinc(); break;
             case 0x78: stdins(); break;
+
+            case 0x90: case 0x92: case 0x94: case 0x96: case 0x98: case 0x9A: compareIntegersAndJump(opcode); break;
+            case 0x91: case 0x93: case 0x95: case 0x97: case 0x99: case 0x9B: compareFloatsAndJump(opcode); break;
+            case 0xA0: case 0xA2: case 0xA4: case 0xA6: case 0xA8: case 0xAA: compareSlotAndJump(opcode); break;
+
+            case 0x80: peek(); peek(); break;
+            case 0x81: peek(); instrPush(); break;
+            case 0x82: poke(); pop(); break;
+            case 0x83: peek(); peek(); addInteger(); break;
+            case 0x84: peek(); instrPush(); addInteger(); break;
+            case 0x85: peek(); peek(); multInteger(); break;
+            case 0x86: instrPush(); peek(); addInteger(); poke(); break;
+            case 0x87: peek(); instrPush(); subInteger(); break;
             default:
                 running = false;
-                System.err.printf("%s:%d: error: %s%n", filename, 0, String.format("Unsupported instruction with code %03X %d%n", opcode, opcode));
+                error(String.format("Unsupported instruction with code %03X %d%n", opcode, opcode));
         }
     }
 
@@ -153,77 +361,254 @@ public class Interpreter {
 
     private void alloc(){
         int num = readCode();
-        if (sp + num >= memory.length) {
-            running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Stack overflown, exiting program");
-        }
-        else {
+        if (maxDepths != null || reserveStack(sp + num)) {
             sp += num;
         }
     }
 
     private void jmp(){
-        goTo(readCode());
+        branch(readCode());
+    }
+
+    /**
+     * Jumps to given target, going backwards counts as a loop iteration
+     */
+    private void branch(int target) {
+        if (target < ip) {
+            if (tiers != null) {
+                tiers.backEdge(target);
+            }
+            // Unverified loops may leave values on the stack, so room is checked once per iteration
+            if (maxDepths == null && !reserveStack(sp)) {
+                return;
+            }
+        }
+        goTo(target);
+    }
+
+    /**
+     * Jumps to the target the popped value has in the table, values outside of it go to the default target
+     */
+    private void tableSwitch() {
+        int defaultTarget = readCode();
+        int low = readCode();
+        int count = readCode();
+        int index = pop() - low;
+        // Compared without sign, values below the lowest one wrap around past the count
+        branch(Integer.compareUnsigned(index, count) < 0 ? code[ip + index] : defaultTarget);
+    }
+
+    /**
+     * Looks the popped value up between the sorted values of the entries, values without an entry go to the default
+     * target
+     */
+    private void lookupSwitch() {
+        int defaultTarget = readCode();
+        int count = readCode();
+        int value = pop();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int key = code[ip + 2 * middle];
+            if (key < value) {
+                low = middle + 1;
+            }
+            else if (key > value) {
+                high = middle - 1;
+            }
+            else {
+                branch(code[ip + 2 * middle + 1]);
+                return;
+            }
+        }
+        branch(defaultTarget);
     }
 
     private void jmpz(){
         int target = readCode();
         int poppedValue = pop();
         if (poppedValue == 0) {
-            goTo(target);
+            branch(target);
+        }
+    }
+
+    private void jmpnz(){
+        int target = readCode();
+        int poppedValue = pop();
+        if (poppedValue != 0) {
+            branch(target);
+        }
+    }
+
+    private void compareIntegersAndJump(int opcode) {
+        int target = readCode();
+        int b = pop();
+        int a = pop();
+        if (holds(opcode, Integer.compare(a, b))) {
+            branch(target);
+        }
+    }
+
+    private void compareFloatsAndJump(int opcode) {
+        int target = readCode();
+        float b = Float.intBitsToFloat(pop());
+        float a = Float.intBitsToFloat(pop());
+        // NaN is unordered, only not equal holds for it. Float.compare is not used as it tells zeros of both signs apart
+        boolean holds = Float.isNaN(a) || Float.isNaN(b) ? (opcode & 0x0E) == 0x0A : holds(opcode, a < b ? -1 : (a > b ? 1 : 0));
+        if (holds) {
+            branch(target);
+        }
+    }
+
+    private void compareSlotAndJump(int opcode) {
+        int target = readCode();
+        int a = stack[bp + readCode()];
+        int b = readCode();
+        if (holds(opcode, Integer.compare(a, b))) {
+            branch(target);
+        }
+    }
+
+    /**
+     * @param opcode compare jump, its low bits tell the comparison the same way they do for comparison instructions
+     * @param comparison result of comparing the left value with the right one
+     * @return true if the comparison of the jump holds
+     */
+    private static boolean holds(int opcode, int comparison) {
+        switch (opcode & 0x0E) {
+            case 0x00: return comparison == 0;
+            case 0x02: return comparison < 0;
+            case 0x04: return comparison <= 0;
+            case 0x06: return comparison > 0;
+            case 0x08: return comparison >= 0;
+            default: return comparison != 0;
         }
     }
 
     private void exit() {
         running = false;
-        System.out.printf("%nProgram exited with status %d%n", pop());
+        output.printExitStatus(pop());
     }
 
-    private void call(int args) {
-        sp -= args;
-        int target = memory[sp - 3];
+    private void call() {
+        int target = readCode();
+        int args = readCode();
+        if (tiers != null) {
+            CompiledFunction compiled = tiers.invoked(target);
+            if (compiled != null) {
+                callCompiled(compiled, args);
+                return;
+            }
+        }
 
-        memory[sp - 3] = ip;
-        memory[sp - 2] = bp;
-        memory[sp - 1] = sp - 3;
+        int top = maxDepths == null ? sp : sp - args + maxDepths[target];
+        if (!reserveStack(top) || !reserveFrames()) {
+            return;
+        }
+        frames[fp++] = ip;
+        frames[fp++] = bp;
 
         goTo(target);
-        bp = sp;
+        bp = sp - args;
     }
 
-    private void ret(int value) {
-        int oldIp = memory[bp -3];
-        int oldFp = memory[bp -2];
-        int oldSp = memory[bp -1];
+    /**
+     * Moves the arguments to the base of the current frame and enters the callee, which returns to the caller of the
+     * current function
+     */
+    private void tailCall() {
+        int target = readCode();
+        int args = readCode();
+        if (tiers != null) {
+            CompiledFunction compiled = tiers.invoked(target);
+            if (compiled != null) {
+                callCompiled(compiled, args);
+                if (!running) {
+                    return;
+                }
+                if (compiled.returnsValue()) {
+                    retValue();
+                }
+                else {
+                    ret();
+                }
+                return;
+            }
+        }
+
+        if (maxDepths != null && !reserveStack(bp + maxDepths[target])) {
+            return;
+        }
+        System.arraycopy(stack, sp - args, stack, bp, args);
+        sp = bp + args;
+        goTo(target);
+    }
 
-        ip = oldIp;
-        bp = oldFp;
-        sp = oldSp;
+    private void callCompiled(CompiledFunction compiled, int args) {
+        int result;
+        try {
+            result = compiled.invoke(stack, sp - args);
+        }
+        catch (JvmRuntime.ExecutionHalted ex) {
+            running = false;
+            return;
+        }
+        sp -= args;
+        if (compiled.returnsValue()) {
+            push(result);
+        }
+    }
+
+    private void ret() {
+        sp = bp;
+        bp = frames[--fp];
+        ip = frames[--fp];
+    }
+
+    private void retValue() {
+        int value = pop();
+        ret();
         push(value);
     }
 
     private void peek() {
         int index = readCode();
-        int a = memory[bp +index];
+        int a = stack[bp +index];
         push(a);
     }
 
+    private void increment() {
+        int index = readCode();
+        stack[bp + index]++;
+    }
+
+    private void decrement() {
+        int index = readCode();
+        stack[bp + index]--;
+    }
+
+    private void addImmediate() {
+        int index = readCode();
+        stack[bp + index] += readCode();
+    }
+
     private void peeks() {
         int index = pop();
-        int a = memory[index];
+        int a = index < heapBase ? stack[index] : heap[index - heapBase];
         push(a);
     }
 
     private void pokes() {
         int index = pop();
         //memory[bp +index] = pop();
-        memory[bp + index] = memory[sp-1];
+        stack[bp + index] = stack[sp-1];
     }
 
     private void poke() {
         int index = readCode();
         //memory[bp +index] = pop();
-        memory[bp + index] = memory[sp-1];
+        stack[bp + index] = stack[sp-1];
     }
 
     private void lea() {
@@ -234,7 +619,12 @@ public class Interpreter {
 
     private void ld() {
         int index = pop();
-        memory[index] = memory[sp-1];
+        if (index < heapBase) {
+            stack[index] = stack[sp-1];
+        }
+        else {
+            heap[index - heapBase] = stack[sp-1];
+        }
     }
 
     public void instrPush(){
@@ -243,55 +633,57 @@ public class Interpreter {
 
     private void stdOutInteger() {
         int integer = pop();
-        System.out.print(integer);
+        output.printInt(integer);
     }
 
     private void stdOutFloat() {
         float a = Float.intBitsToFloat(pop());
-        System.out.println(a);
+        output.printFloat(a);
     }
 
     private void stdOutString() {
         int position = pop();
-        System.out.print(strings.get(position));
+        output.print(strings.getEncoded(position));
     }
 
     private void stdOutChar() {
         char a = (char) pop();
-        System.out.print(a);
+        output.printChar(a);
     }
 
     private void stdOutBool() {
         int a = pop();
-        String bool = a == 0 ? "false" : "true";
-        System.out.print(bool);
+        output.printBool(a);
     }
 
     private void stdin() {
+        output.flush();
         try {
-            int n = scanner.nextInt(); // TODO not only ints
+            int n = input.readInt();
             push(n);
         }
         catch (InputMismatchException ex) {
             running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Incorrect integer entered");
+            error("Incorrect integer entered");
         }
     }
 
     private void stdinf() {
+        output.flush();
         try {
-            float n = scanner.nextFloat();
+            float n = input.readFloat();
             push(Float.floatToIntBits(n));
         }
         catch (InputMismatchException ex) {
             running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Incorrect float entered");
+            error("Incorrect float entered");
         }
     }
 
     private void stdinc() {
+        output.flush();
         try {
-            String string = scanner.nextLine();
+            String string = input.readLine();
             if(string.length() != 1) {
                 throw new InputMismatchException();
             }
@@ -299,19 +691,20 @@ public class Interpreter {
         }
         catch (InputMismatchException ex) {
             running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Incorrect char entered");
+            error("Incorrect char entered");
         }
     }
 
     private void stdins(){
+        output.flush();
         try {
-            String string = scanner.nextLine();
+            String string = input.readLine();
             int index = strings.add(string);
             push(index);
         }
         catch (InputMismatchException ex) {
             running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Incorrect string entered");
+            error("Incorrect string entered");
         }
     }
 
@@ -386,13 +779,13 @@ public class Interpreter {
     private void equalsFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a == b ? 1 : 0));
+        push(a == b ? 1 : 0);
     }
 
     private void notEqualFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a != b ? 1 : 0));
+        push(a != b ? 1 : 0);
     }
 
     private void lessInteger() {
@@ -404,7 +797,7 @@ public class Interpreter {
     private void lessFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a < b ? 1 : 0));
+        push(a < b ? 1 : 0);
     }
 
     private void lessOrEqualInteger() {
@@ -416,7 +809,7 @@ public class Interpreter {
     private void lessOrEqualFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a <= b ? 1 : 0));
+        push(a <= b ? 1 : 0);
     }
 
     private void greaterInteger() {
@@ -428,7 +821,7 @@ public class Interpreter {
     private void greaterFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a > b ? 1 : 0));
+        push(a > b ? 1 : 0);
     }
 
     private void greaterOrEqualInteger() {
@@ -440,38 +833,59 @@ public class Interpreter {
     private void greaterOrEqualFloat() {
         float b = Float.intBitsToFloat(pop());
         float a = Float.intBitsToFloat(pop());
-        push(Float.floatToIntBits(a >= b ? 1 : 0));
+        push(a >= b ? 1 : 0);
     }
 
     /*---------------------------------------------------------------------------------------------------------*/
 
     private int pop(){
-        if(sp - 1 < STACKBASE) {
-            running = false;
-            return 0;
-        }
         sp--;
-        return memory[sp];
+        return stack[sp];
     }
 
     private void push(int value){
-        memory[sp] = value;
-        if(sp + 1 >= memory.length) {
+        stack[sp] = value;
+        sp++;
+    }
+
+    private boolean reserveFrames() {
+        int[] reserved = layout.reserve(frames, fp + 2);
+        if (reserved == null) {
             running = false;
-            System.err.printf("%s:%d: error: %s%n", filename, 0, "Stack overflown, exiting program");
-            return;
+            error("Stack overflown, exiting program");
+            return false;
         }
-        else {
-            sp++;
+        frames = reserved;
+        return true;
+    }
+
+    /**
+     * Grows the stack segment if given top and the headroom above it do not fit, stops the program if the stack limit
+     * is reached
+     * @return true if the program can go on
+     */
+    private boolean reserveStack(int top) {
+        int[] reserved = layout.reserve(stack, top);
+        if (reserved == null) {
+            running = false;
+            error("Stack overflown, exiting program");
+            return false;
         }
+        stack = reserved;
+        return true;
+    }
+
+    private void error(String message) {
+        output.flush();
+        System.err.printf("%s:%d: error: %s%n", filename, 0, message);
     }
 
     private void goTo(int target){
-        ip = target + codeBase;
+        ip = target;
     }
 
     private int readCode(){
-        int result = memory[ip];
+        int result = code[ip];
         ip++;
         return result;
     }
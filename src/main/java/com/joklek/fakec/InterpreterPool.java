@@ -0,0 +1,129 @@
+package com.joklek.fakec;
+
+import com.joklek.fakec.vm.InputSource;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.OutputTarget;
+import com.joklek.fakec.vm.ProgramImage;
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one program image many times, in parallel on an {@link ExecutorService}. Machines are reset and kept for
+ * the next run when a run ends, so after warm up a run only pays for clearing memory. Every run has its own input
+ * and output, errors are still reported to standard error
+ */
+public class InterpreterPool implements AutoCloseable {
+
+    private final ProgramImage image;
+    private final MemoryLayout layout;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Queue<Interpreter> idle;
+    private final AtomicInteger createdMachines;
+
+    /**
+     * @param image program to run
+     * @param layout memory segment sizes of every machine
+     * @param executor executor runs are submitted to, it is not shut down by {@link #close()}
+     */
+    public InterpreterPool(ProgramImage image, MemoryLayout layout, ExecutorService executor) {
+        this(image, layout, executor, false);
+    }
+
+    /**
+     * Pool with a fixed number of daemon threads of its own, stopped by {@link #close()}
+     * @param image program to run
+     * @param threads number of runs executed at once
+     */
+    public InterpreterPool(ProgramImage image, int threads) {
+        this(image, MemoryLayout.defaults(), Executors.newFixedThreadPool(threads, runnerThreads()), true);
+    }
+
+    private InterpreterPool(ProgramImage image, MemoryLayout layout, ExecutorService executor, boolean ownsExecutor) {
+        this.image = image;
+        this.layout = layout;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.createdMachines = new AtomicInteger();
+    }
+
+    private static ThreadFactory runnerThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "fakec-runner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param input input of the run
+     * @param output output of the run, flushed when the run ends
+     * @return future completing when the run ends
+     */
+    public Future<Void> submit(ProgramInput input, ProgramOutput output) {
+        return executor.submit(() -> {
+            run(input, output);
+            return null;
+        });
+    }
+
+    /**
+     * @param input whole input of the run
+     * @return future of everything the run printed
+     */
+    public Future<String> submit(String input) {
+        return executor.submit(() -> {
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            run(new ProgramInput(InputSource.text(input)), new ProgramOutput(OutputTarget.stream(printed)));
+            return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+        });
+    }
+
+    /**
+     * Runs the program on the calling thread with an idle machine, or a new one if every machine is busy
+     * @param input input of the run
+     * @param output output of the run, flushed when the run ends
+     */
+    public void run(ProgramInput input, ProgramOutput output) {
+        Interpreter machine = idle.poll();
+        if (machine == null) {
+            machine = new Interpreter(image, layout);
+            createdMachines.incrementAndGet();
+        }
+        try {
+            machine.setInput(input);
+            machine.setOutput(output);
+            machine.execute();
+        }
+        finally {
+            machine.reset();
+            idle.offer(machine);
+        }
+    }
+
+    /**
+     * @return number of machines created so far, at most the number of runs that were executed at once
+     */
+    public int getCreatedMachines() {
+        return createdMachines.get();
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
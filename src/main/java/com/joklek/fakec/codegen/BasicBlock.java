@@ -0,0 +1,148 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Straight run of instructions of a {@link ControlFlowGraph}, which is only entered at the top and only left at the
+ * bottom. Labels placed at the start of the block are kept by the block itself, so instructions can be moved in and
+ * out of it freely and the labels are put back on whatever instruction starts the block when code is lowered
+ */
+public class BasicBlock {
+
+    private final int id;
+    private final List<Instruction> instructions;
+    private final List<Label> labels;
+    private final List<BasicBlock> successors;
+    private final List<BasicBlock> predecessors;
+    private BasicBlock fallthrough;
+    private BasicBlock immediateDominator;
+    private Loop loop;
+
+    BasicBlock(int id) {
+        this.id = id;
+        this.instructions = new ArrayList<>();
+        this.labels = new ArrayList<>();
+        this.successors = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+    }
+
+    /**
+     * @return number of the block, unique inside its graph
+     */
+    public int getId() {
+        return id;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return last instruction of the block, or null if the block is empty
+     */
+    public Instruction getLastInstruction() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    /**
+     * @return labels which point at the start of this block
+     */
+    public List<Label> getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return label jumps to this block should use, a new one is added if nothing pointed at the block before
+     */
+    public Label getEntryLabel() {
+        if (labels.isEmpty()) {
+            labels.add(new Label());
+        }
+        return labels.get(0);
+    }
+
+    /**
+     * @return blocks control can go to after this one, jump target before the block it falls through to
+     */
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return block control goes to when the last instruction does not jump, or null if it always jumps or leaves
+     */
+    public BasicBlock getFallthrough() {
+        return fallthrough;
+    }
+
+    void setFallthrough(BasicBlock fallthrough) {
+        this.fallthrough = fallthrough;
+    }
+
+    /**
+     * @return closest block every path from the entry goes through before this one, or null for the entry and
+     * blocks which can't be reached
+     */
+    public BasicBlock getImmediateDominator() {
+        return immediateDominator;
+    }
+
+    void setImmediateDominator(BasicBlock immediateDominator) {
+        this.immediateDominator = immediateDominator;
+    }
+
+    /**
+     * @return innermost loop holding this block, or null if it is not in a loop
+     */
+    public Loop getLoop() {
+        return loop;
+    }
+
+    void setLoop(Loop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * @return number of loops this block is nested in
+     */
+    public int getLoopDepth() {
+        return loop == null ? 0 : loop.getDepth();
+    }
+
+    void addSuccessor(BasicBlock successor) {
+        // A conditional jump to the block it falls through to is still a single edge
+        if (successors.contains(successor)) {
+            return;
+        }
+        successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    /**
+     * Makes jumps and the fall through of this block which went to one block go to another
+     */
+    void redirect(BasicBlock from, BasicBlock to) {
+        Instruction last = getLastInstruction();
+        if (last != null && IntStream.range(0, last.getOperandCount())
+                .anyMatch(i -> last.getType().isTarget(i) && from.getLabels().contains(last.getLabel(i)))) {
+            instructions.set(instructions.size() - 1, last.withTarget(from.getLabels(), to.getEntryLabel()));
+        }
+        if (fallthrough == from) {
+            fallthrough = to;
+        }
+        successors.set(successors.indexOf(from), to);
+        from.predecessors.remove(this);
+        to.predecessors.add(this);
+    }
+
+    @Override
+    public String toString() {
+        return "B" + id;
+    }
+}
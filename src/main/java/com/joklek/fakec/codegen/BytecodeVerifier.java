@@ -0,0 +1,324 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks generated stack machine code before it runs. Every function, starting from the code at offset 0 and
+ * following calls, is walked along its control flow while the stack height above its frame base is tracked. Heights
+ * have to agree wherever paths meet, may never drop below the frame base, and calls have to agree with their target
+ * on the number of arguments and on whether a value is returned. A tail call ends its function the way a return
+ * does, so its target has to return the same way as the function it replaces. The highest point of every function
+ * is recorded, so a machine running verified code can reserve stack for a whole frame when it is called and push and
+ * pop without checks
+ */
+public class BytecodeVerifier {
+
+    private static final int UNKNOWN = -1;
+
+    private final InstructionResolver resolver;
+
+    public BytecodeVerifier() {
+        this(new InstructionResolver());
+    }
+
+    public BytecodeVerifier(InstructionResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Function found while following calls
+     */
+    private static class Function {
+        private final int entry;
+        private int arguments = UNKNOWN;
+        private Boolean returnsValue;
+        private final List<Function> tailCallees = new ArrayList<>();
+
+        Function(int entry) {
+            this.entry = entry;
+        }
+    }
+
+    public StackDepths verify(IntermediateRepresentation representation) {
+        return verify(representation.getInstructionBytes());
+    }
+
+    /**
+     * @param bytes generated code
+     * @return highest stack point of every function
+     * @throws VerificationException if the code could misuse the stack
+     */
+    public StackDepths verify(List<Integer> bytes) {
+        int[] code = new int[bytes.size()];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = bytes.get(i);
+        }
+        return verify(code);
+    }
+
+    /**
+     * @see #verify(List)
+     */
+    public StackDepths verify(int[] code) {
+        InstructionType[] types = decode(code);
+
+        // Calls are followed first, a call has to know whether its target returns a value to tell the height after it
+        Map<Integer, Function> functions = new LinkedHashMap<>();
+        Function start = new Function(0);
+        start.arguments = 0;
+        functions.put(0, start);
+        int[] owners = new int[code.length];
+        Arrays.fill(owners, UNKNOWN);
+        Deque<Function> pending = new ArrayDeque<>();
+        pending.add(start);
+        while (!pending.isEmpty()) {
+            discover(pending.poll(), code, types, owners, functions, pending);
+        }
+        checkTailCalls(functions);
+
+        int[] heights = new int[code.length];
+        Arrays.fill(heights, UNKNOWN);
+        int[] maxDepths = new int[code.length];
+        for (Function function : functions.values()) {
+            maxDepths[function.entry] = walk(function, code, types, heights, functions);
+        }
+        return new StackDepths(maxDepths);
+    }
+
+    private InstructionType[] decode(int[] code) {
+        InstructionType[] types = new InstructionType[code.length];
+        int offset = 0;
+        while (offset < code.length) {
+            InstructionType type = resolver.resolveInstruction(code[offset]);
+            if (type == null) {
+                throw new VerificationException(offset, String.format("Unknown instruction code %d", code[offset]));
+            }
+            // The entry count of a switch is its last fixed operand, it has to be read before the entries are
+            if (offset + type.getOps() >= code.length || offset + type.getOps(code, offset) >= code.length) {
+                throw new VerificationException(offset, String.format("Operands of %s run past the end of code", type));
+            }
+            types[offset] = type;
+            offset += 1 + type.getOps(code, offset);
+        }
+        return types;
+    }
+
+    /**
+     * Marks every instruction reachable from the entry of given function as its own, and collects its calls and
+     * returns
+     */
+    private void discover(Function function, int[] code, InstructionType[] types, int[] owners,
+                          Map<Integer, Function> functions, Deque<Function> pending) {
+        Deque<Integer> offsets = new ArrayDeque<>();
+        offsets.push(function.entry);
+        while (!offsets.isEmpty()) {
+            int offset = offsets.pop();
+            if (owners[offset] == function.entry) {
+                continue;
+            }
+            if (owners[offset] != UNKNOWN) {
+                throw new VerificationException(offset, String.format("Code is shared by functions at %d and %d", owners[offset], function.entry));
+            }
+            owners[offset] = function.entry;
+
+            InstructionType type = types[offset];
+            if (type == InstructionType.CALL || type == InstructionType.TAILCALL) {
+                int target = checkTarget(offset, code[offset + 1], types);
+                Function callee = functions.get(target);
+                if (callee == null) {
+                    callee = new Function(target);
+                    functions.put(target, callee);
+                    pending.add(callee);
+                }
+                int arguments = code[offset + 2];
+                if (callee.arguments != UNKNOWN && callee.arguments != arguments) {
+                    throw new VerificationException(offset, String.format("Function at %d is called with %d arguments, but also with %d", target, arguments, callee.arguments));
+                }
+                callee.arguments = arguments;
+                if (type == InstructionType.TAILCALL) {
+                    if (function.entry == 0) {
+                        throw new VerificationException(offset, "Tail call outside of a function");
+                    }
+                    function.tailCallees.add(callee);
+                }
+            }
+            else if (type == InstructionType.RET || type == InstructionType.RET_V) {
+                if (function.entry == 0) {
+                    throw new VerificationException(offset, "Return outside of a function");
+                }
+                boolean returnsValue = type == InstructionType.RET_V;
+                if (function.returnsValue != null && function.returnsValue != returnsValue) {
+                    throw new VerificationException(offset, String.format("Function at %d returns both with and without a value", function.entry));
+                }
+                function.returnsValue = returnsValue;
+            }
+            for (int successor : successors(offset, code, types)) {
+                offsets.push(successor);
+            }
+        }
+    }
+
+    /**
+     * Functions ending with tail calls return whatever their callees return, which is only known once every function
+     * is found
+     */
+    private void checkTailCalls(Map<Integer, Function> functions) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Function function : functions.values()) {
+                for (Function callee : function.tailCallees) {
+                    if (function.returnsValue == null && callee.returnsValue != null) {
+                        function.returnsValue = callee.returnsValue;
+                        changed = true;
+                    }
+                    else if (function.returnsValue != null && callee.returnsValue == null) {
+                        callee.returnsValue = function.returnsValue;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (Function function : functions.values()) {
+            for (Function callee : function.tailCallees) {
+                if (function.returnsValue != callee.returnsValue) {
+                    throw new VerificationException(function.entry, String.format("Function at %d returns both with and without a value through a tail call of %d", function.entry, callee.entry));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tracks stack height along every path of given function
+     * @return highest point of the stack above the frame base
+     */
+    private int walk(Function function, int[] code, InstructionType[] types, int[] heights, Map<Integer, Function> functions) {
+        int maxDepth = function.arguments;
+        heights[function.entry] = function.arguments;
+        Deque<Integer> offsets = new ArrayDeque<>();
+        offsets.push(function.entry);
+        while (!offsets.isEmpty()) {
+            int offset = offsets.pop();
+            InstructionType type = types[offset];
+            int height = heights[offset];
+            int operand = offset + 1;
+            for (InstructionType component : type.isSuperinstruction() ? type.getComponents() : Arrays.asList(type)) {
+                int popped = pops(component, code, operand);
+                if (popped > height) {
+                    throw new VerificationException(offset, String.format("%s pops %d values, but the stack holds %d", component, popped, height));
+                }
+                height = height - popped + pushes(component, code, operand, functions);
+                maxDepth = Math.max(maxDepth, height);
+                operand += component.getOps();
+            }
+            for (int successor : successors(offset, code, types)) {
+                if (heights[successor] == UNKNOWN) {
+                    heights[successor] = height;
+                    offsets.push(successor);
+                }
+                else if (heights[successor] != height) {
+                    throw new VerificationException(successor, String.format("Stack height %d does not match height %d of another path", height, heights[successor]));
+                }
+            }
+        }
+        return maxDepth;
+    }
+
+    private int[] successors(int offset, int[] code, InstructionType[] types) {
+        InstructionType type = types[offset];
+        switch (type) {
+            case RET:
+            case RET_V:
+            case TAILCALL:
+            case EXIT:
+                return new int[0];
+            case JMP:
+                return new int[]{checkTarget(offset, code[offset + 1], types)};
+            case JMPZ:
+            case JMPNZ:
+                return new int[]{next(offset, type, types), checkTarget(offset, code[offset + 1], types)};
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                int operands = type.getOps(code, offset);
+                int[] targets = new int[operands];
+                int count = 0;
+                for (int i = 0; i < operands; i++) {
+                    if (type.isTarget(i)) {
+                        targets[count++] = checkTarget(offset, code[offset + 1 + i], types);
+                    }
+                }
+                return Arrays.copyOf(targets, count);
+            default:
+                if (type.isCompareJump()) {
+                    return new int[]{next(offset, type, types), checkTarget(offset, code[offset + 1], types)};
+                }
+                return new int[]{next(offset, type, types)};
+        }
+    }
+
+    private int next(int offset, InstructionType type, InstructionType[] types) {
+        // Switches never fall through, so every instruction that does has a fixed size
+        int next = offset + 1 + type.getOps();
+        if (next >= types.length) {
+            throw new VerificationException(offset, "Execution runs past the end of code");
+        }
+        return next;
+    }
+
+    private int checkTarget(int offset, int target, InstructionType[] types) {
+        if (target < 0 || target >= types.length || types[target] == null) {
+            throw new VerificationException(offset, String.format("Target %d is not an instruction", target));
+        }
+        return target;
+    }
+
+    /**
+     * @param operand offset of the first operand of the instruction
+     * @return number of values given plain instruction takes from the stack, values it only reads count as taken
+     * and pushed back
+     */
+    private int pops(InstructionType type, int[] code, int operand) {
+        switch (type) {
+            case ADDI: case ADDF: case SUBI: case SUBF: case MULI: case MULF: case DIVI: case DIVF: case MOD:
+            case EQI: case EQF: case LTI: case LTF: case LEI: case LEF: case GTI: case GTF: case GEI: case GEF:
+            case NEI: case NEF: case AND: case OR:
+            case POKES: case LD: case RND:
+            case JEQI: case JEQF: case JLTI: case JLTF: case JLEI: case JLEF:
+            case JGTI: case JGTF: case JGEI: case JGEF: case JNEI: case JNEF:
+                return 2;
+            case NOT: case POKE: case PEEKS: case LEA:
+            case POP: case POPF: case JMPZ: case JMPNZ: case RET_V: case EXIT: case TABLESWITCH: case LOOKUPSWITCH:
+            case STDOI: case STDOF: case STDOS: case STDOC: case STDOB:
+                return 1;
+            case PUSHI: case PUSHF: case PEEK: case ALLOC: case RET: case JMP:
+            case STDINI: case STDINF: case STDINC: case STDINS: case INC: case DEC: case ADDI_IMM:
+            case JEQK: case JLTK: case JLEK: case JGTK: case JGEK: case JNEK:
+                return 0;
+            case CALL: case TAILCALL:
+                return code[operand + 1];
+            default:
+                throw new IllegalStateException(String.format("Stack effect of %s is not known", type));
+        }
+    }
+
+    private int pushes(InstructionType type, int[] code, int operand, Map<Integer, Function> functions) {
+        switch (type) {
+            case ALLOC:
+                return code[operand];
+            case CALL:
+                return Boolean.TRUE.equals(functions.get(code[operand]).returnsValue) ? 1 : 0;
+            case POP: case POPF: case JMPZ: case JMPNZ: case JMP: case RET: case RET_V: case TAILCALL: case EXIT:
+            case STDOI: case STDOF: case STDOS: case STDOC: case STDOB:
+            case INC: case DEC: case ADDI_IMM: case TABLESWITCH: case LOOKUPSWITCH:
+                return 0;
+            default:
+                return type.isCompareJump() ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.joklek.fakec.codegen;
+
+/**
+ * Encodings generated code can be stored in
+ */
+public enum CodeFormat {
+    /**
+     * Every opcode and operand takes an int, the form the stack machines run
+     */
+    INT,
+    /**
+     * Byte opcodes and byte operands, with targets kept as distances, see {@link CompactEncoding}. Only a format for
+     * storing code, no machine dispatches on it, it is decoded back to int code before it is run
+     */
+    COMPACT
+}
@@ -11,16 +11,28 @@ import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.collections.map.MultiKeyMap;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static com.joklek.fakec.codegen.InstructionType.*;
 
 // 4.4
 public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
 
+    // Fewer tests are as quick done one after another as through a switch
+    private static final int MIN_SWITCH_KEYS = 4;
+
     private IntermediateRepresentation interRepresentation;
     private Label mainLabel;
+    private Stmt.Function function;
+    private int bodyOffset;
+    private Label bodyLabel;
     private final MultiKeyMap operationAndTypeMapForInstruction;
+    private final Map<InstructionType, InstructionType> compareJumps;
+    private final Map<InstructionType, InstructionType> slotCompareJumps;
 
     public CodeGenerator() {
         this(new InstructionResolver());
@@ -53,22 +65,39 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MOD, DataType.INT), MOD);
         this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.OR, DataType.BOOL), OR);
         this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.AND, DataType.BOOL), AND);
+
+        this.compareJumps = new EnumMap<>(InstructionType.class);
+        this.compareJumps.put(EQI, JEQI);
+        this.compareJumps.put(EQF, JEQF);
+        this.compareJumps.put(LTI, JLTI);
+        this.compareJumps.put(LTF, JLTF);
+        this.compareJumps.put(LEI, JLEI);
+        this.compareJumps.put(LEF, JLEF);
+        this.compareJumps.put(GTI, JGTI);
+        this.compareJumps.put(GTF, JGTF);
+        this.compareJumps.put(GEI, JGEI);
+        this.compareJumps.put(GEF, JGEF);
+        this.compareJumps.put(NEI, JNEI);
+        this.compareJumps.put(NEF, JNEF);
+        this.slotCompareJumps = new EnumMap<>(InstructionType.class);
+        this.slotCompareJumps.put(JEQI, JEQK);
+        this.slotCompareJumps.put(JLTI, JLTK);
+        this.slotCompareJumps.put(JLEI, JLEK);
+        this.slotCompareJumps.put(JGTI, JGTK);
+        this.slotCompareJumps.put(JGEI, JGEK);
+        this.slotCompareJumps.put(JNEI, JNEK);
     }
 
     public IntermediateRepresentation generate(Stmt.Program program) {
         visitProgramStmt(program);
+        new UnreachableCodeRemover().remove(interRepresentation);
         return interRepresentation;
     }
 
     @Override
     public Void visitProgramStmt(Stmt.Program program) {
         mainLabel = interRepresentation.newLabel();
-        // Were pushing these values to stack, because when call happens, they will be overwritten by register values
-        // Better way for this would be pushing on the interpreter maybe?
-        interRepresentation.write(PUSHI, mainLabel);
-        interRepresentation.write(PUSHI, 666);
-        interRepresentation.write(PUSHI, 666);
-        interRepresentation.write(CALL, 0);
+        interRepresentation.write(CALL, mainLabel, 0);
         interRepresentation.write(EXIT);
         for (Stmt.Function function : program.getFunctions()) {
             function.accept(this);
@@ -88,19 +117,24 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         Label fnLabel = functionStmt.getLabel();
         interRepresentation.placeLabel(fnLabel);
 
-        int innerVariableCount = functionStmt.getScope().getPointer().getCurrentStackSlot();
+        // Arguments are already in the first slots of the frame, functions without other variables need no setup
+        int innerVariableCount = FrameSlots.of(functionStmt) - functionStmt.getParams().size();
         if(innerVariableCount != 0) {
             interRepresentation.write(ALLOC, innerVariableCount);
         }
-
-        /*for (Pair<Token, DataType> param : functionStmt.getParams()) {
-            int pointer = ((StackDeclaredNode) functionStmt.getBody().getScope().resolve(param.getLeft(), ElementType.VARIABLE)).getStackSlot();
-            interRepresentation.write(PEEK, pointer);
-        }*/
-        // TODO fix this
+        function = functionStmt;
+        bodyOffset = interRepresentation.getInstructionBytes().size();
+        bodyLabel = null;
 
         functionStmt.getBody().accept(this);
-        interRepresentation.write(RET); // always does return even if one was before
+        // Callers of functions with a value expect one on the stack, the return is dropped later if every path returned before
+        if (functionStmt.getType() == DataType.VOID) {
+            interRepresentation.write(RET);
+        }
+        else {
+            interRepresentation.write(PUSHI, 0);
+            interRepresentation.write(RET_V);
+        }
         return null;
     }
 
@@ -114,6 +148,11 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
 
     @Override
     public Void visitReturnStmt(Stmt.Return returnStmt) {
+        Expr.Call tailCall = tailCall(returnStmt);
+        if (tailCall != null) {
+            writeTailCall(tailCall);
+            return null;
+        }
         if(returnStmt.hasValue()) {
             if (returnStmt.getValue() != null) {
                 returnStmt.getValue().accept(this);
@@ -129,11 +168,144 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         return null;
     }
 
+    /**
+     * @return call whose value is returned straight away, if the frame of the current function can be given to it
+     */
+    private Expr.Call tailCall(Stmt.Return returnStmt) {
+        IExpr value = returnStmt.getValue();
+        while (value instanceof Expr.Grouping) {
+            value = ((Expr.Grouping) value).getExpression();
+        }
+        if (!(value instanceof Expr.Call)) {
+            return null;
+        }
+        Expr.Call call = (Expr.Call) value;
+        Stmt.Function callee = (Stmt.Function) call.getScope().resolve(call.getIdent(), ElementType.FUNCTION);
+        if (callee == function) {
+            return call;
+        }
+        boolean sameResult = callee.getType() == function.getType() && callee.getType() != DataType.VOID;
+        boolean sameArguments = callee.getParams().size() == call.getArguments().size();
+        // Callee frame replaces this one, so arrays of this frame must not be reachable through the arguments
+        return sameResult && sameArguments && !FrameSlots.declaresArrays(function.getBody()) ? call : null;
+    }
+
+    /**
+     * Call of the function itself stores the arguments over the parameters and jumps past the frame setup, other
+     * calls move the arguments to the frame base and let the callee return straight to the caller of this function
+     */
+    private void writeTailCall(Expr.Call call) {
+        List<Expr> arguments = call.getArguments();
+        for (Expr argument : arguments) {
+            argument.accept(this);
+        }
+        Stmt.Function callee = (Stmt.Function) call.getScope().resolve(call.getIdent(), ElementType.FUNCTION);
+        if (callee == function) {
+            for (int slot = arguments.size() - 1; slot >= 0; slot--) {
+                interRepresentation.write(POKE, slot);
+                interRepresentation.write(POP);
+            }
+            // Label is only placed in functions that need it, so it does not split blocks of others
+            if (bodyLabel == null) {
+                bodyLabel = interRepresentation.newLabelAt(bodyOffset);
+            }
+            interRepresentation.write(JMP, bodyLabel);
+        }
+        else {
+            interRepresentation.write(TAILCALL, callee.getLabel(), arguments.size());
+        }
+    }
+
     @Override
     public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
         // TODO: Optimisation to skip literal expression statements?
         IExpr expression = expressionStmt.getExpression();
+        evaluateForEffect(expression);
+        return null;
+    }
+
+    /**
+     * Evaluates an expression whose value is not used, a constant update of a variable leaves no value at all
+     */
+    private void evaluateForEffect(IExpr expression) {
+        int[] update = slotUpdate(expression);
+        if (update != null) {
+            writeSlotUpdate(update[0], update[1]);
+            return;
+        }
         expression.accept(this);
+        discardValue(expression);
+    }
+
+    /**
+     * Finds increments, decrements and assignments like {@code x = x + 3} which add a constant to an int variable
+     * @return slot of the variable and the constant added to it, or null if given expression is none of those
+     */
+    private int[] slotUpdate(IExpr expression) {
+        if (expression instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expression;
+            OperationType operationType = unary.getOperator().getType();
+            boolean increment = operationType == OperationType.INC_PRE || operationType == OperationType.INC_POST;
+            boolean decrement = operationType == OperationType.DEC_PRE || operationType == OperationType.DEC_POST;
+            if ((!increment && !decrement) || !(unary.getRight() instanceof Expr.Variable) || unary.getRight().getType() == DataType.FLOAT) {
+                return null;
+            }
+            return new int[]{slotOf((Expr.Variable) unary.getRight()), increment ? 1 : -1};
+        }
+        if (!(expression instanceof Expr.Assign) || ((Expr.Assign) expression).getOffset() != null) {
+            return null;
+        }
+        Expr.Assign assign = (Expr.Assign) expression;
+        IExpr value = ungrouped(assign.getValue());
+        if (!(value instanceof Expr.Binary) || value.getType() != DataType.INT) {
+            return null;
+        }
+        Expr.Binary binary = (Expr.Binary) value;
+        OperationType operationType = binary.getOperator().getType();
+        StackDeclaredNode target = (StackDeclaredNode) assign.getScope().resolve(assign.getName(), ElementType.VARIABLE);
+        if (operationType == OperationType.ADD && isConstant(binary.getLeft()) && isVariable(binary.getRight(), target)) {
+            return new int[]{target.getStackSlot(), (Integer) ((Expr.Literal) binary.getLeft()).getValue()};
+        }
+        if ((operationType == OperationType.ADD || operationType == OperationType.SUB)
+                && isVariable(binary.getLeft(), target) && isConstant(binary.getRight())) {
+            int constant = (Integer) ((Expr.Literal) binary.getRight()).getValue();
+            return new int[]{target.getStackSlot(), operationType == OperationType.ADD ? constant : -constant};
+        }
+        return null;
+    }
+
+    private boolean isConstant(IExpr expression) {
+        return expression instanceof Expr.Literal && expression.getType() == DataType.INT;
+    }
+
+    private boolean isVariable(IExpr expression, StackDeclaredNode declaration) {
+        if (!(expression instanceof Expr.Variable)) {
+            return false;
+        }
+        Expr.Variable variable = (Expr.Variable) expression;
+        return variable.getScope().resolve(variable.getName(), ElementType.VARIABLE) == declaration;
+    }
+
+    private int slotOf(Expr.Variable variable) {
+        return declarationOf(variable).getStackSlot();
+    }
+
+    private void writeSlotUpdate(int slot, int constant) {
+        if (constant == 1) {
+            interRepresentation.write(INC, slot);
+        }
+        else if (constant == -1) {
+            interRepresentation.write(DEC, slot);
+        }
+        else {
+            interRepresentation.write(ADDI_IMM, slot, constant);
+        }
+    }
+
+    /**
+     * Pops the value an evaluated expression left on the stack
+     */
+    private void discardValue(IExpr expression) {
         switch (expression.getType()) {
             case INT:
             case CHAR:
@@ -152,11 +324,13 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
             default:
                 throw new UnsupportedOperationException("Unsupported literal type " + expression.getType());
         }
-        return null;
     }
 
     @Override
     public Void visitIfStmt(Stmt.If ifStmt) {
+        if (writeSwitch(ifStmt)) {
+            return null;
+        }
 
         Label endLabel = interRepresentation.newLabel();
         // TODO optimisation idea: If condition is true or false, should skip thingies
@@ -166,9 +340,7 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
             Stmt.Block block = branch.getRight();
 
             Label label = interRepresentation.newLabel();
-            condition.accept(this);
-
-            interRepresentation.write(JMPZ, label);
+            jumpIfFalse(condition, label);
             block.accept(this);
 
             // Optimisation to remove last jump from an if it it's pointing to the following instruction
@@ -185,14 +357,138 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         return null;
     }
 
+    /**
+     * Branches of chains that test one variable against constants are jumped to straight from a switch, instead of
+     * trying every condition in turn. Dense constants index a table, sparse ones are searched for in a sorted one
+     * @return true if the statement was written as a switch
+     */
+    private boolean writeSwitch(Stmt.If ifStmt) {
+        List<Pair<IExpr, Stmt.Block>> branches = ifStmt.getBranches();
+        Expr.Variable variable = null;
+        List<List<Integer>> keysOfBranches = new ArrayList<>();
+        for (Pair<IExpr, Stmt.Block> branch : branches) {
+            List<Integer> keys = new ArrayList<>();
+            Expr.Variable tested = switchedVariable(branch.getLeft(), keys);
+            if (tested == null || variable != null && !isVariable(tested, declarationOf(variable))) {
+                return false;
+            }
+            variable = tested;
+            keysOfBranches.add(keys);
+        }
+        if (keysOfBranches.stream().flatMap(List::stream).distinct().count() < MIN_SWITCH_KEYS) {
+            return false;
+        }
+
+        Label endLabel = interRepresentation.newLabel();
+        Label defaultLabel = ifStmt.getElseBranch() == null ? endLabel : interRepresentation.newLabel();
+        List<Label> branchLabels = new ArrayList<>();
+        // Earlier conditions are tested first, so a constant repeated later never reaches its branch
+        TreeMap<Integer, Label> targets = new TreeMap<>();
+        for (List<Integer> keys : keysOfBranches) {
+            Label label = interRepresentation.newLabel();
+            branchLabels.add(label);
+            keys.forEach(key -> targets.putIfAbsent(key, label));
+        }
+
+        variable.accept(this);
+        interRepresentation.write(switchInstruction(targets, defaultLabel));
+        for (int i = 0; i < branches.size(); i++) {
+            interRepresentation.placeLabel(branchLabels.get(i));
+            branches.get(i).getRight().accept(this);
+            if (i != branches.size() - 1 || ifStmt.getElseBranch() != null) {
+                interRepresentation.write(JMP, endLabel);
+            }
+        }
+        if (ifStmt.getElseBranch() != null) {
+            interRepresentation.placeLabel(defaultLabel);
+            ifStmt.getElseBranch().accept(this);
+        }
+        interRepresentation.placeLabel(endLabel);
+        return true;
+    }
+
+    /**
+     * Picks between a table and a sorted lookup by the same weighing of size against speed javac uses for switches
+     * @param targets branch labels by the constant selecting them
+     * @param defaultLabel label other values jump to
+     * @return switch going to given targets
+     */
+    private Instruction switchInstruction(TreeMap<Integer, Label> targets, Label defaultLabel) {
+        long low = targets.firstKey();
+        long span = targets.lastKey() - low + 1;
+        long tableCost = 4 + span + 3 * 3;
+        long lookupCost = 3 + 2L * targets.size() + 3L * targets.size();
+        if (tableCost <= lookupCost) {
+            int[] operands = new int[3 + (int) span];
+            Label[] labels = new Label[operands.length];
+            labels[0] = defaultLabel;
+            operands[1] = (int) low;
+            operands[2] = (int) span;
+            for (int i = 0; i < span; i++) {
+                labels[3 + i] = targets.getOrDefault((int) (low + i), defaultLabel);
+            }
+            return new Instruction(TABLESWITCH, operands, labels);
+        }
+        int[] operands = new int[2 + 2 * targets.size()];
+        Label[] labels = new Label[operands.length];
+        labels[0] = defaultLabel;
+        operands[1] = targets.size();
+        int position = 2;
+        for (Map.Entry<Integer, Label> target : targets.entrySet()) {
+            operands[position] = target.getKey();
+            labels[position + 1] = target.getValue();
+            position += 2;
+        }
+        return new Instruction(LOOKUPSWITCH, operands, labels);
+    }
+
+    /**
+     * @param keys list the constants the condition tests for are added to
+     * @return variable the condition compares with int or char constants, or null if it is anything else than such
+     * equality tests of one variable joined with OR
+     */
+    private Expr.Variable switchedVariable(IExpr condition, List<Integer> keys) {
+        IExpr inner = ungrouped(condition);
+        if (logicalOperation(inner) == OperationType.OR) {
+            Expr.Variable left = switchedVariable(((Expr.Binary) inner).getLeft(), keys);
+            Expr.Variable right = switchedVariable(((Expr.Binary) inner).getRight(), keys);
+            return left != null && right != null && isVariable(right, declarationOf(left)) ? left : null;
+        }
+        if (!(inner instanceof Expr.Binary) || ((Expr.Binary) inner).getOperator().getType() != OperationType.EQUAL_EQUAL) {
+            return null;
+        }
+        IExpr left = ungrouped(((Expr.Binary) inner).getLeft());
+        IExpr right = ungrouped(((Expr.Binary) inner).getRight());
+        if (isSwitchKey(left)) {
+            IExpr swapped = left;
+            left = right;
+            right = swapped;
+        }
+        if (!(left instanceof Expr.Variable) || !isSwitchKey(right)
+                || left.getType() != DataType.INT && left.getType() != DataType.CHAR) {
+            return null;
+        }
+        Object value = ((Expr.Literal) right).getValue();
+        keys.add(value instanceof Character ? (int) (Character) value : (Integer) value);
+        return (Expr.Variable) left;
+    }
+
+    private static boolean isSwitchKey(IExpr expression) {
+        return expression instanceof Expr.Literal
+                && (expression.getType() == DataType.INT || expression.getType() == DataType.CHAR);
+    }
+
+    private StackDeclaredNode declarationOf(Expr.Variable variable) {
+        return (StackDeclaredNode) variable.getScope().resolve(variable.getName(), ElementType.VARIABLE);
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While whileStmt) {
         Label startLabel = interRepresentation.newLabelAtCurrent();
         whileStmt.setStartLabel(startLabel);
-        whileStmt.getCondition().accept(this);
         Label endLabel = interRepresentation.newLabel();
         whileStmt.setEndLabel(endLabel);
-        interRepresentation.write(JMPZ, endLabel);
+        jumpIfFalse(whileStmt.getCondition(), endLabel);
         whileStmt.getBody().accept(this);
         interRepresentation.write(JMP, startLabel);
         interRepresentation.placeLabel(endLabel);
@@ -211,20 +507,129 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         Label startLabel = interRepresentation.newLabelAtCurrent();
         forStmt.setStartLabel(startLabel);
         if(forStmt.getIncrement() != null) {
-            forStmt.getIncrement().accept(this);
+            evaluateForEffect(forStmt.getIncrement());
         }
         interRepresentation.placeLabel(initialLabel);
 
-        forStmt.getCondition().accept(this);
         Label endLabel = interRepresentation.newLabel();
         forStmt.setEndLabel(endLabel);
-        interRepresentation.write(JMPZ, endLabel);
+        jumpIfFalse(forStmt.getCondition(), endLabel);
         forStmt.getBody().accept(this);
         interRepresentation.write(JMP, startLabel);
         interRepresentation.placeLabel(endLabel);
         return null;
     }
 
+    /**
+     * Writes a jump taken when given condition is false. Operands of AND and OR jump on their own, so the right one is
+     * only evaluated when the left one does not decide the result, a negated condition jumps the other way and a single
+     * comparison is a single compare jump
+     */
+    private void jumpIfFalse(IExpr condition, Label target) {
+        IExpr inner = ungrouped(condition);
+        OperationType logical = logicalOperation(inner);
+        if (logical == OperationType.AND) {
+            jumpIfFalse(((Expr.Binary) inner).getLeft(), target);
+            jumpIfFalse(((Expr.Binary) inner).getRight(), target);
+        }
+        else if (logical == OperationType.OR) {
+            Label holds = interRepresentation.newLabel();
+            jumpIfTrue(((Expr.Binary) inner).getLeft(), holds);
+            jumpIfFalse(((Expr.Binary) inner).getRight(), target);
+            interRepresentation.placeLabel(holds);
+        }
+        else if (isNot(inner)) {
+            jumpIfTrue(((Expr.Unary) inner).getRight(), target);
+        }
+        else if (!writeCompareJump(inner, target, false)) {
+            inner.accept(this);
+            interRepresentation.write(JMPZ, target);
+        }
+    }
+
+    /**
+     * Writes a jump taken when given condition is true, see {@link #jumpIfFalse(IExpr, Label)}
+     */
+    private void jumpIfTrue(IExpr condition, Label target) {
+        IExpr inner = ungrouped(condition);
+        OperationType logical = logicalOperation(inner);
+        if (logical == OperationType.OR) {
+            jumpIfTrue(((Expr.Binary) inner).getLeft(), target);
+            jumpIfTrue(((Expr.Binary) inner).getRight(), target);
+        }
+        else if (logical == OperationType.AND) {
+            Label fails = interRepresentation.newLabel();
+            jumpIfFalse(((Expr.Binary) inner).getLeft(), fails);
+            jumpIfTrue(((Expr.Binary) inner).getRight(), target);
+            interRepresentation.placeLabel(fails);
+        }
+        else if (isNot(inner)) {
+            jumpIfFalse(((Expr.Unary) inner).getRight(), target);
+        }
+        else if (!writeCompareJump(inner, target, true)) {
+            inner.accept(this);
+            interRepresentation.write(JMPNZ, target);
+        }
+    }
+
+    /**
+     * Writes one compare jump for a comparison instead of the comparison and a jump testing its result. A variable
+     * compared with an int constant is read by the jump straight from its slot
+     * @param holds whether the jump is taken when the comparison holds or when it fails
+     * @return false if given condition is not a comparison, or a failed float comparison can not be told apart from
+     * NaN by a single jump
+     */
+    private boolean writeCompareJump(IExpr condition, Label target, boolean holds) {
+        if (!(condition instanceof Expr.Binary)) {
+            return false;
+        }
+        Expr.Binary comparison = (Expr.Binary) condition;
+        InstructionType compare = (InstructionType) operationAndTypeMapForInstruction.get(new MultiKey(comparison.getOperator().getType(), comparison.getLeft().getType()));
+        InstructionType jump = compare == null ? null : compareJumps.get(compare);
+        if (jump != null && !holds) {
+            jump = jump.getNegation();
+        }
+        if (jump == null) {
+            return false;
+        }
+
+        InstructionType slotJump = slotCompareJumps.get(jump);
+        IExpr left = comparison.getLeft();
+        IExpr right = comparison.getRight();
+        if (slotJump != null && left instanceof Expr.Variable && right instanceof Expr.Literal && right.getType() == DataType.INT) {
+            Expr.Variable variable = (Expr.Variable) left;
+            int slot = ((StackDeclaredNode) variable.getScope().resolve(variable.getName(), ElementType.VARIABLE)).getStackSlot();
+            interRepresentation.write(slotJump, target, slot, (Integer) ((Expr.Literal) right).getValue());
+            return true;
+        }
+        left.accept(this);
+        right.accept(this);
+        interRepresentation.write(jump, target);
+        return true;
+    }
+
+    private static boolean isNot(IExpr expression) {
+        return expression instanceof Expr.Unary && ((Expr.Unary) expression).getOperator().getType() == OperationType.NOT;
+    }
+
+    private static IExpr ungrouped(IExpr expression) {
+        while (expression instanceof Expr.Grouping) {
+            expression = ((Expr.Grouping) expression).getExpression();
+        }
+        return expression;
+    }
+
+    /**
+     * @return AND or OR if given expression is one, null otherwise
+     */
+    private static OperationType logicalOperation(IExpr expression) {
+        if (!(expression instanceof Expr.Binary)) {
+            return null;
+        }
+        OperationType operationType = ((Expr.Binary) expression).getOperator().getType();
+        return operationType == OperationType.AND || operationType == OperationType.OR ? operationType : null;
+    }
+
     @Override
     public Void visitOutputStmt(Stmt.Output outputStmt) {
         for (IExpr expression : outputStmt.getExpressions()) {
@@ -247,6 +652,7 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
                     break;
                 case NULL:
                     // TODO Pointers dude?
+                    interRepresentation.write(POP);
                     break;
                 case VOID:
                     throw new UnsupportedOperationException("Output is not possible with void type functions");
@@ -280,6 +686,7 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
             }
 
             interRepresentation.write(POKE, variableNode.getStackSlot());
+            interRepresentation.write(POP);
         }
         return null;
     }
@@ -312,6 +719,20 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
     @Override
     public Void visitBinaryExpr(Expr.Binary binaryExpr) {
 
+        OperationType logical = logicalOperation(binaryExpr);
+        if (logical != null) {
+            // Left value of 0 for AND or 1 for OR already is the result, the right side is not evaluated then
+            Label end = interRepresentation.newLabel();
+            Label decided = interRepresentation.newLabel();
+            binaryExpr.getLeft().accept(this);
+            interRepresentation.write(logical == OperationType.AND ? JMPZ : JMPNZ, decided);
+            binaryExpr.getRight().accept(this);
+            interRepresentation.write(JMP, end);
+            interRepresentation.placeLabel(decided);
+            interRepresentation.write(PUSHI, logical == OperationType.AND ? 0 : 1);
+            interRepresentation.placeLabel(end);
+            return null;
+        }
         binaryExpr.getLeft().accept(this);
         binaryExpr.getRight().accept(this);
         DataType type = binaryExpr.getLeft().getType();
@@ -368,66 +789,67 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
 
     @Override
     public Void visitUnaryExpr(Expr.Unary unaryExpr) {
-        // TODO: optimisation, if unaryExpr member is literal, somehow replace it value-with-modification
         OperatorToken operator = unaryExpr.getOperator();
-
-        if(!(unaryExpr.getRight() instanceof Expr.Variable)) {
-            return null;
-        }
-        Expr.Variable var = (Expr.Variable) unaryExpr.getRight();
-
         OperationType operationType = operator.getType();
 
+        // Every unary operation leaves exactly one value, only increments and decrements write it back
+        if(operationType == OperationType.INC_PRE || operationType == OperationType.DEC_PRE
+                || operationType == OperationType.INC_POST || operationType == OperationType.DEC_POST) {
+            if(!(unaryExpr.getRight() instanceof Expr.Variable)) {
+                throw new UnsupportedOperationException(String.format("Operation type '%s' can only be used on variables in line %d", operationType, operator.getLine()));
+            }
+            Expr.Variable var = (Expr.Variable) unaryExpr.getRight();
+            int[] update = slotUpdate(unaryExpr);
+            if (update != null) {
+                // Postfix gives the value before the update, prefix the one after it
+                boolean postfix = operationType == OperationType.INC_POST || operationType == OperationType.DEC_POST;
+                if (postfix) {
+                    interRepresentation.write(PEEK, update[0]);
+                }
+                writeSlotUpdate(update[0], update[1]);
+                if (!postfix) {
+                    interRepresentation.write(PEEK, update[0]);
+                }
+                return null;
+            }
+            int pointer = ((StackDeclaredNode)var.getScope().resolve(var.getName(), ElementType.VARIABLE)).getStackSlot();
+            InstructionType unaryOp = operationType == OperationType.INC_PRE || operationType == OperationType.INC_POST ? ADDI : SUBI;
+            boolean postfix = operationType == OperationType.INC_POST || operationType == OperationType.DEC_POST;
 
-        int pointer = ((StackDeclaredNode)var.getScope().resolve(var.getName(), ElementType.VARIABLE)).getStackSlot();
-        unaryExpr.getRight().accept(this);
-
-        // TODO Decide how this should work
-        if(operationType == OperationType.INC_PRE || operationType == OperationType.DEC_PRE) {
-            InstructionType unaryOp = operationType == OperationType.INC_PRE ? ADDI : SUBI;
-            interRepresentation.write(PUSHI, 1);
+            if(postfix) {
+                interRepresentation.write(PEEK, pointer);
+            }
             interRepresentation.write(PEEK, pointer);
-            interRepresentation.write(unaryOp);
-            interRepresentation.write(POKE, pointer);
-            return null;
-        }
-        else if(operationType == OperationType.INC_POST || operationType == OperationType.DEC_POST) {
-            InstructionType unaryOp = operationType == OperationType.INC_POST ? ADDI : SUBI;
             interRepresentation.write(PUSHI, 1);
-            interRepresentation.write(PEEK, pointer);
             interRepresentation.write(unaryOp);
             interRepresentation.write(POKE, pointer);
+            if(postfix) {
+                interRepresentation.write(POP);
+            }
             return null;
         }
+
+        unaryExpr.getRight().accept(this);
         // Add is ignored as it is useless
-        else if(operationType == OperationType.ADD) {
+        if(operationType == OperationType.ADD) {
             return null;
         }
         else if(operationType == OperationType.SUB) {
-            InstructionType pushType;
-            InstructionType multType;
-            switch (var.getType()) {
+            switch (unaryExpr.getRight().getType()) {
                 case INT:
-                    pushType = PUSHI;
-                    multType =  MULI;
-                    break;
+                    interRepresentation.write(PUSHI, -1);
+                    interRepresentation.write(MULI);
+                    return null;
                 case FLOAT:
-                    pushType = PUSHF;
-                    multType =  MULF;
-                    break;
+                    interRepresentation.write(PUSHF, Float.floatToIntBits(-1f));
+                    interRepresentation.write(MULF);
+                    return null;
                 default:
                     throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operationType, operator.getLine()));
             }
-            interRepresentation.write(pushType, -1);
-            interRepresentation.write(PEEK, pointer);
-            interRepresentation.write(multType);
-            interRepresentation.write(POKE, pointer);
-            return null;
         }
         else if(operationType == OperationType.NOT) {
-            interRepresentation.write(PEEK, pointer);
             interRepresentation.write(NOT);
-            interRepresentation.write(POKE, pointer);
             return null;
         }
         throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operationType, operator.getLine()));
@@ -446,6 +868,12 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
 
     @Override
     public Void visitAssignExpr(Expr.Assign assignExpr) {
+        int[] update = slotUpdate(assignExpr);
+        if (update != null) {
+            writeSlotUpdate(update[0], update[1]);
+            interRepresentation.write(PEEK, update[0]);
+            return null;
+        }
         assignExpr.getValue().accept(this);
         int pointer = ((StackDeclaredNode)assignExpr.getScope().resolve(assignExpr.getName(), ElementType.VARIABLE)).getStackSlot();
 
@@ -466,14 +894,11 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
     @Override
     public Void visitCallExpr(Expr.Call callExpr) {
         Label label = ((NodeWithLabel)callExpr.getScope().resolve(callExpr.getIdent(), ElementType.FUNCTION)).getLabel();
-        interRepresentation.write(PUSHI, label);
-        interRepresentation.write(PUSHI, 999);
-        interRepresentation.write(PUSHI, 999);
         List<Expr> arguments = callExpr.getArguments();
         for (Expr argument : arguments) {
             argument.accept(this);
         }
-        interRepresentation.write(CALL, arguments.size());
+        interRepresentation.write(CALL, label, arguments.size());
         return null;
     }
 
@@ -483,6 +908,7 @@ public class CodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void>  {
         interRepresentation.write(PUSHI, resolved.getStackSlot() + 1);
         interRepresentation.write(LEA); // puts effective address on stack top, +1 so the first slot of array right next to the address of array
         interRepresentation.write(POKE, resolved.getStackSlot()); // assign the address
+        interRepresentation.write(POP);
         return null;
     }
 
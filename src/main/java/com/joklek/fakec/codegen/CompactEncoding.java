@@ -0,0 +1,200 @@
+package com.joklek.fakec.codegen;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact form of stack machine code, for storing programs and handing them around. Opcodes take a byte and so does
+ * every operand, an instruction with an operand that does not fit is written wide instead, after a {@link #WIDE}
+ * prefix and with operands of four bytes. Targets of jumps, switches and calls are written as their distance from
+ * the instruction, so jumps inside a function mostly fit a byte. Which jumps fit depends on how much code they jump
+ * over, which depends on which jumps are wide, so every jump starts short and the ones that do not reach are made
+ * wide until no more change. Decoding gives back the exact int code that was encoded
+ */
+public class CompactEncoding {
+
+    /**
+     * Prefix of wide instructions, no opcode takes this value
+     */
+    public static final int WIDE = 0xFF;
+
+    private final InstructionResolver resolver;
+
+    public CompactEncoding() {
+        this(new InstructionResolver());
+    }
+
+    public CompactEncoding(InstructionResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param code int code, targets have to land on instructions or right past the end of code
+     * @return compact code
+     */
+    public byte[] encode(List<Integer> code) {
+        int[] starts = new int[code.size()];
+        int[] indexes = new int[code.size() + 1];
+        Arrays.fill(indexes, -1);
+        int count = 0;
+        for (int offset = 0; offset < code.size(); offset += 1 + resolve(code.get(offset), offset).getOps(code, offset)) {
+            indexes[offset] = count;
+            starts[count++] = offset;
+        }
+        indexes[code.size()] = count;
+
+        boolean[] wide = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            InstructionType type = resolve(code.get(starts[i]), starts[i]);
+            for (int operand = 0; operand < type.getOps(code, starts[i]); operand++) {
+                int value = code.get(starts[i] + 1 + operand);
+                if (isAddress(type, operand) && (value < 0 || value > code.size() || indexes[value] == -1)) {
+                    throw new IllegalArgumentException(String.format("Target %d of %s at %d is not an instruction", value, type, starts[i]));
+                }
+                if (!isAddress(type, operand) && (value < 0 || value > 0xFF)) {
+                    wide[i] = true;
+                }
+            }
+        }
+
+        // Instructions only ever grow, so relaxing stops at the latest once every jump is wide
+        int[] positions = new int[count + 1];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < count; i++) {
+                positions[i + 1] = positions[i] + size(code, starts[i], wide[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                if (!wide[i] && !reaches(code, starts[i], positions[i], positions, indexes)) {
+                    wide[i] = true;
+                    changed = true;
+                }
+            }
+        }
+
+        byte[] compact = new byte[positions[count]];
+        for (int i = 0; i < count; i++) {
+            int start = starts[i];
+            InstructionType type = resolve(code.get(start), start);
+            int position = positions[i];
+            if (wide[i]) {
+                compact[position++] = (byte) WIDE;
+            }
+            compact[position++] = (byte) type.getValue();
+            for (int operand = 0; operand < type.getOps(code, start); operand++) {
+                int value = code.get(start + 1 + operand);
+                if (isAddress(type, operand)) {
+                    value = positions[indexes[value]] - positions[i];
+                }
+                if (wide[i]) {
+                    compact[position++] = (byte) (value >>> 24);
+                    compact[position++] = (byte) (value >>> 16);
+                    compact[position++] = (byte) (value >>> 8);
+                }
+                compact[position++] = (byte) value;
+            }
+        }
+        return compact;
+    }
+
+    /**
+     * Decodes compact code in one pass, targets are patched once every instruction has its int offset
+     * @param compact compact code
+     * @return int code
+     */
+    public int[] decode(byte[] compact) {
+        // A short instruction takes as many bytes as it takes ints and a wide one takes more, so code never outgrows this
+        int[] code = new int[compact.length];
+        int[] offsets = new int[compact.length + 1];
+        Arrays.fill(offsets, -1);
+        int[] patches = new int[compact.length];
+        int[] targets = new int[compact.length];
+        int patchCount = 0;
+
+        int position = 0;
+        int offset = 0;
+        while (position < compact.length) {
+            int start = position;
+            boolean wide = (compact[position] & 0xFF) == WIDE;
+            if (wide && ++position == compact.length) {
+                throw new IllegalArgumentException(String.format("Wide prefix at %d is not followed by an instruction", start));
+            }
+            InstructionType type = resolve(compact[position++] & 0xFF, start);
+            offsets[start] = offset;
+            code[offset++] = type.getValue();
+            int operands = type.getOps();
+            int width = wide ? 4 : 1;
+            for (int operand = 0; operand < operands; operand++) {
+                if (position + width > compact.length) {
+                    throw new IllegalArgumentException(String.format("Operands of %s at %d run past the end of code", type, start));
+                }
+                boolean address = isAddress(type, operand);
+                int value;
+                if (wide) {
+                    value = (compact[position] & 0xFF) << 24 | (compact[position + 1] & 0xFF) << 16
+                            | (compact[position + 2] & 0xFF) << 8 | compact[position + 3] & 0xFF;
+                }
+                else {
+                    value = address ? compact[position] : compact[position] & 0xFF;
+                }
+                position += width;
+                if (type.isSwitch() && operand == type.getOps() - 1) {
+                    operands = type.getOps(value);
+                }
+                if (address) {
+                    patches[patchCount] = offset;
+                    targets[patchCount++] = start + value;
+                }
+                code[offset++] = value;
+            }
+        }
+        offsets[compact.length] = offset;
+
+        for (int i = 0; i < patchCount; i++) {
+            int target = targets[i];
+            if (target < 0 || target > compact.length || offsets[target] == -1) {
+                throw new IllegalArgumentException(String.format("Target %d is not an instruction", target));
+            }
+            code[patches[i]] = offsets[target];
+        }
+        return Arrays.copyOf(code, offset);
+    }
+
+    private InstructionType resolve(int opcode, int offset) {
+        InstructionType type = resolver.resolveInstruction(opcode);
+        if (type == null) {
+            throw new IllegalArgumentException(String.format("Unknown instruction code %d at %d", opcode, offset));
+        }
+        return type;
+    }
+
+    /**
+     * @return true if given operand is an offset in code
+     */
+    private static boolean isAddress(InstructionType type, int operand) {
+        return type.isTarget(operand) || operand == 0 && (type == InstructionType.CALL || type == InstructionType.TAILCALL);
+    }
+
+    private int size(List<Integer> code, int offset, boolean wide) {
+        int operands = resolve(code.get(offset), offset).getOps(code, offset);
+        return wide ? 2 + 4 * operands : 1 + operands;
+    }
+
+    /**
+     * @return true if every target of the instruction written short is at most a byte away
+     */
+    private boolean reaches(List<Integer> code, int offset, int position, int[] positions, int[] indexes) {
+        InstructionType type = resolve(code.get(offset), offset);
+        for (int operand = 0; operand < type.getOps(code, offset); operand++) {
+            if (!isAddress(type, operand)) {
+                continue;
+            }
+            int distance = positions[indexes[code.get(offset + 1 + operand)]] - position;
+            if (distance < Byte.MIN_VALUE || distance > Byte.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,465 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic blocks of one function of generated stack machine code, with edges between them, dominators and natural
+ * loops. Code is split into graphs with {@link #build(IntermediateRepresentation)}, passes move instructions between
+ * blocks or add new blocks, and {@link #lower(IntermediateRepresentation, List)} writes the blocks back as plain
+ * code, adding jumps where a block no longer falls through to the one laid out after it. Graphs are built from code
+ * before superinstructions are fused
+ */
+public class ControlFlowGraph {
+
+    private final int entryOffset;
+    private final int argumentCount;
+    private final List<BasicBlock> blocks;
+    private final List<Loop> loops;
+    private int nextId;
+
+    private ControlFlowGraph(int entryOffset, int argumentCount) {
+        this.entryOffset = entryOffset;
+        this.argumentCount = argumentCount;
+        this.blocks = new ArrayList<>();
+        this.loops = new ArrayList<>();
+    }
+
+    /**
+     * Splits code into one graph for the starting code and one for every called function, with dominators and loops
+     * already found
+     * @param representation generated code
+     * @return graphs in code order
+     */
+    public static List<ControlFlowGraph> build(IntermediateRepresentation representation) {
+        List<Instruction> instructions = representation.getInstructions();
+        Map<Integer, Integer> indexes = new HashMap<>();
+        int offset = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction.getType().isSuperinstruction()) {
+                throw new IllegalArgumentException("Control flow graphs are built before superinstructions are fused, found " + instruction);
+            }
+            indexes.put(offset, i);
+            offset += instruction.getSize();
+        }
+
+        Map<Integer, Integer> entries = new HashMap<>();
+        entries.put(0, 0);
+        boolean[] leaders = new boolean[instructions.size() + 1];
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            InstructionType type = instruction.getType();
+            if (type == InstructionType.CALL || type == InstructionType.TAILCALL) {
+                Integer target = indexes.get(instruction.getOperand(0));
+                if (target != null) {
+                    entries.put(target, instruction.getOperand(1));
+                }
+            }
+            for (int operand = 0; operand < instruction.getOperandCount(); operand++) {
+                if (!type.isTarget(operand)) {
+                    continue;
+                }
+                Integer target = indexes.get(instruction.getOperand(operand));
+                if (target == null) {
+                    throw new IllegalArgumentException(String.format("%s does not land on an instruction", instruction));
+                }
+                leaders[target] = true;
+            }
+            if (isJump(type) || !fallsThrough(type)) {
+                leaders[i + 1] = true;
+            }
+            if (instruction.isLabelled()) {
+                leaders[i] = true;
+            }
+        }
+
+        List<ControlFlowGraph> graphs = new ArrayList<>();
+        BasicBlock[] blockAt = new BasicBlock[instructions.size()];
+        ControlFlowGraph graph = null;
+        BasicBlock block = null;
+        offset = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (entries.containsKey(i)) {
+                graph = new ControlFlowGraph(offset, entries.get(i));
+                graphs.add(graph);
+                block = null;
+            }
+            if (block == null || leaders[i]) {
+                block = graph.newBlock();
+                graph.blocks.add(block);
+                block.getLabels().addAll(instruction.getPlacedLabels());
+                instruction.getPlacedLabels().clear();
+            }
+            block.getInstructions().add(instruction);
+            blockAt[i] = block;
+            offset += instruction.getSize();
+        }
+
+        int index = 0;
+        for (ControlFlowGraph function : graphs) {
+            for (BasicBlock current : function.blocks) {
+                index += current.getInstructions().size();
+                InstructionType type = current.getLastInstruction().getType();
+                for (int operand = 0; operand < current.getLastInstruction().getOperandCount(); operand++) {
+                    if (!type.isTarget(operand)) {
+                        continue;
+                    }
+                    BasicBlock target = blockAt[indexes.get(current.getLastInstruction().getOperand(operand))];
+                    if (!function.blocks.contains(target)) {
+                        throw new IllegalArgumentException(String.format("Jump at the end of %s leaves function at %d", current, function.entryOffset));
+                    }
+                    if (current.getLastInstruction().getLabel(operand) == null) {
+                        // Edges are changed through labels, so every jump gets one
+                        current.getInstructions().set(current.getInstructions().size() - 1, current.getLastInstruction().withLabel(operand, target.getEntryLabel()));
+                    }
+                    current.addSuccessor(target);
+                }
+                if (fallsThrough(type)) {
+                    if (index == instructions.size() || !function.blocks.contains(blockAt[index])) {
+                        throw new IllegalArgumentException(String.format("Function at %d runs past its last instruction", function.entryOffset));
+                    }
+                    current.setFallthrough(blockAt[index]);
+                    current.addSuccessor(blockAt[index]);
+                }
+            }
+            function.analyse();
+        }
+        return graphs;
+    }
+
+    /**
+     * Replaces code with the blocks of given graphs, in order of the graphs and the blocks inside them
+     * @param representation code to replace
+     * @param graphs graphs of every function of the code
+     */
+    public static void lower(IntermediateRepresentation representation, List<ControlFlowGraph> graphs) {
+        // Jump targets need labels before any block is written, a block jumped to backwards is already written out
+        for (ControlFlowGraph graph : graphs) {
+            for (int i = 0; i < graph.blocks.size(); i++) {
+                BasicBlock fallthrough = graph.blocks.get(i).getFallthrough();
+                if (fallthrough != null && (i + 1 == graph.blocks.size() || graph.blocks.get(i + 1) != fallthrough)) {
+                    fallthrough.getEntryLabel();
+                }
+            }
+        }
+
+        List<Instruction> instructions = new ArrayList<>();
+        List<Label> pending = new ArrayList<>();
+        for (ControlFlowGraph graph : graphs) {
+            for (int i = 0; i < graph.blocks.size(); i++) {
+                BasicBlock block = graph.blocks.get(i);
+                pending.addAll(block.getLabels());
+                List<Instruction> code = new ArrayList<>(block.getInstructions());
+                BasicBlock fallthrough = block.getFallthrough();
+                if (fallthrough != null && (i + 1 == graph.blocks.size() || graph.blocks.get(i + 1) != fallthrough)) {
+                    code.add(new Instruction(InstructionType.JMP, fallthrough.getEntryLabel()));
+                }
+                if (!code.isEmpty()) {
+                    code.get(0).addPlacedLabels(pending);
+                    pending.clear();
+                }
+                instructions.addAll(code);
+            }
+        }
+        representation.setInstructions(instructions);
+        // Nothing follows empty blocks at the end, their labels point past the end of code
+        pending.forEach(label -> label.setValue(representation.getInstructionBytes().size()));
+    }
+
+    static boolean isJump(InstructionType type) {
+        return type == InstructionType.JMP || type == InstructionType.JMPZ || type == InstructionType.JMPNZ || type.isCompareJump();
+    }
+
+    private static boolean fallsThrough(InstructionType type) {
+        return type != InstructionType.JMP && type != InstructionType.RET && type != InstructionType.RET_V
+                && type != InstructionType.TAILCALL && type != InstructionType.EXIT && !type.isSwitch();
+    }
+
+    private BasicBlock newBlock() {
+        return new BasicBlock(nextId++);
+    }
+
+    /**
+     * Finds dominators and loops again, has to be called after edges of the graph change
+     */
+    public void analyse() {
+        computeDominators();
+        findLoops();
+    }
+
+    /**
+     * Iterative dominator algorithm of Cooper, Harvey and Kennedy, which walks blocks in reverse postorder until
+     * immediate dominators stop changing
+     */
+    private void computeDominators() {
+        List<BasicBlock> order = reversePostorder();
+        Map<BasicBlock, Integer> numbers = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            numbers.put(order.get(i), i);
+        }
+        blocks.forEach(block -> block.setImmediateDominator(null));
+
+        BasicBlock entry = getEntry();
+        Map<BasicBlock, BasicBlock> dominators = new HashMap<>();
+        dominators.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order.subList(1, order.size())) {
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    if (!dominators.containsKey(predecessor)) {
+                        continue;
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator, dominators, numbers);
+                }
+                if (dominators.get(block) != dominator) {
+                    dominators.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        dominators.forEach((block, dominator) -> {
+            if (block != entry) {
+                block.setImmediateDominator(dominator);
+            }
+        });
+    }
+
+    private BasicBlock intersect(BasicBlock left, BasicBlock right, Map<BasicBlock, BasicBlock> dominators, Map<BasicBlock, Integer> numbers) {
+        while (left != right) {
+            while (numbers.get(left) > numbers.get(right)) {
+                left = dominators.get(left);
+            }
+            while (numbers.get(right) > numbers.get(left)) {
+                right = dominators.get(right);
+            }
+        }
+        return left;
+    }
+
+    /**
+     * @return blocks reachable from the entry, each one before its successors except along back edges
+     */
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> path = new ArrayDeque<>();
+        Deque<Integer> nextSuccessor = new ArrayDeque<>();
+        path.push(getEntry());
+        nextSuccessor.push(0);
+        visited.add(getEntry());
+        while (!path.isEmpty()) {
+            BasicBlock block = path.peek();
+            int next = nextSuccessor.pop();
+            if (next < block.getSuccessors().size()) {
+                nextSuccessor.push(next + 1);
+                BasicBlock successor = block.getSuccessors().get(next);
+                if (visited.add(successor)) {
+                    path.push(successor);
+                    nextSuccessor.push(0);
+                }
+            }
+            else {
+                postorder.add(path.pop());
+            }
+        }
+        List<BasicBlock> order = new ArrayList<>(postorder.size());
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            order.add(postorder.get(i));
+        }
+        return order;
+    }
+
+    /**
+     * @return true if every path from the entry to the second block goes through the first one
+     */
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        for (BasicBlock current = block; current != null; current = current.getImmediateDominator()) {
+            if (current == dominator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReachable(BasicBlock block) {
+        return block == getEntry() || block.getImmediateDominator() != null;
+    }
+
+    /**
+     * Every edge to a block dominating its source closes a loop, whose body is what reaches the edge backwards
+     * without going through the header
+     */
+    private void findLoops() {
+        loops.clear();
+        blocks.forEach(block -> block.setLoop(null));
+        Map<BasicBlock, Loop> loopsByHeader = new LinkedHashMap<>();
+        for (BasicBlock block : blocks) {
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!isReachable(block) || !dominates(successor, block)) {
+                    continue;
+                }
+                Loop loop = loopsByHeader.computeIfAbsent(successor, Loop::new);
+                loop.getLatches().add(block);
+                Deque<BasicBlock> pending = new ArrayDeque<>();
+                pending.push(block);
+                while (!pending.isEmpty()) {
+                    BasicBlock current = pending.pop();
+                    if (loop.getBlocks().add(current)) {
+                        current.getPredecessors().stream().filter(this::isReachable).forEach(pending::push);
+                    }
+                }
+            }
+        }
+
+        // Smallest loops go first, so the first other loop holding a header is the one it is nested in
+        List<Loop> bySize = new ArrayList<>(loopsByHeader.values());
+        bySize.sort(Comparator.comparingInt(loop -> loop.getBlocks().size()));
+        for (int i = 0; i < bySize.size(); i++) {
+            Loop loop = bySize.get(i);
+            loop.getBlocks().stream().filter(block -> block.getLoop() == null).forEach(block -> block.setLoop(loop));
+            for (Loop outer : bySize.subList(i + 1, bySize.size())) {
+                if (outer.contains(loop.getHeader())) {
+                    loop.setParent(outer);
+                    break;
+                }
+            }
+        }
+        loops.addAll(loopsByHeader.values());
+    }
+
+    /**
+     * Adds an empty block, which every edge entering given loop from outside goes through, so code put there runs
+     * once before the loop starts. Dominators and loops are found again afterwards, so loops of the graph are new
+     * objects
+     * @param loop loop, which needs a preheader, its header should not be the entry of the function
+     * @return new block
+     */
+    public BasicBlock insertPreheader(Loop loop) {
+        BasicBlock header = loop.getHeader();
+        if (header == getEntry()) {
+            throw new IllegalArgumentException("Loop starting at the entry of the function can't get a preheader");
+        }
+        List<BasicBlock> outside = new ArrayList<>();
+        for (BasicBlock predecessor : header.getPredecessors()) {
+            if (!loop.contains(predecessor)) {
+                outside.add(predecessor);
+            }
+        }
+        BasicBlock preheader = newBlock();
+        outside.forEach(predecessor -> predecessor.redirect(header, preheader));
+        preheader.setFallthrough(header);
+        preheader.addSuccessor(header);
+        // Right after the only block entering the loop its jump to the loop lands on the next instruction and can go
+        int position = outside.size() == 1 ? blocks.indexOf(outside.get(0)) + 1 : blocks.indexOf(header);
+        blocks.add(position, preheader);
+        analyse();
+        return preheader;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * @return blocks in the order they are laid out in code
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return natural loops, in code order of their headers
+     */
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return number of arguments the function is called with, they take the first slots of its frame
+     */
+    public int getArgumentCount() {
+        return argumentCount;
+    }
+
+    /**
+     * @return number of slots in the frame, arguments and locals reserved when the function starts
+     */
+    public int getFrameSize() {
+        List<Instruction> entry = getEntry().getInstructions();
+        boolean allocates = !entry.isEmpty() && entry.get(0).getType() == InstructionType.ALLOC;
+        return argumentCount + (allocates ? entry.get(0).getOperand(0) : 0);
+    }
+
+    /**
+     * Adds slots to the end of the frame
+     * @param count number of new slots
+     * @return first new slot
+     */
+    public int reserveSlots(int count) {
+        int first = getFrameSize();
+        List<Instruction> entry = getEntry().getInstructions();
+        if (first == argumentCount) {
+            entry.add(0, new Instruction(InstructionType.ALLOC, count));
+        }
+        else {
+            entry.set(0, new Instruction(InstructionType.ALLOC, first - argumentCount + count));
+        }
+        return first;
+    }
+
+    /**
+     * @return true if the function leaves a value for its caller
+     */
+    public boolean returnsValue() {
+        return blocks.stream().anyMatch(block -> block.getLastInstruction() != null
+                && block.getLastInstruction().getType() == InstructionType.RET_V);
+    }
+
+    /**
+     * @return offsets of functions this function ends in with a tail call
+     */
+    public Set<Integer> getTailCallTargets() {
+        Set<Integer> targets = new HashSet<>();
+        for (BasicBlock block : blocks) {
+            Instruction last = block.getLastInstruction();
+            if (last != null && last.getType() == InstructionType.TAILCALL) {
+                targets.add(last.getOperand(0));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * @return offset in code the function started at when the graph was built
+     */
+    public int getEntryOffset() {
+        return entryOffset;
+    }
+
+    /**
+     * @return readable listing of blocks, their edges and loops
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("function at %04d", entryOffset));
+        for (BasicBlock block : blocks) {
+            lines.add(String.format("  %s -> %s, idom %s, loop depth %d", block, block.getSuccessors(),
+                    block.getImmediateDominator(), block.getLoopDepth()));
+            block.getInstructions().forEach(instruction -> lines.add("      " + instruction));
+        }
+        loops.forEach(loop -> lines.add("  " + loop));
+        return lines;
+    }
+}
@@ -0,0 +1,87 @@
+package com.joklek.fakec.codegen;
+
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Counts the variable slots a function frame needs. Slots are handed out by the scope resolver through one pointer
+ * shared by the whole program, so the count has to be taken from the declarations of each function
+ */
+public final class FrameSlots {
+
+    private FrameSlots() {
+    }
+
+    /**
+     * @return number of slots parameters and variables of given function take
+     */
+    public static int of(Stmt.Function function) {
+        return Math.max(function.getParams().size(), slotsUsed(function.getBody()));
+    }
+
+    /**
+     * @return number of slots variables declared in given statement take
+     */
+    static int slotsUsed(IStmt statement) {
+        if (statement instanceof Stmt.Array) {
+            Stmt.Array array = (Stmt.Array) statement;
+            return array.getStackSlot() + 1 + array.getSize();
+        }
+        if (statement instanceof Stmt.Var) {
+            return ((Stmt.Var) statement).getStackSlot() + 1;
+        }
+        int slots = 0;
+        if (statement instanceof Stmt.Block) {
+            for (IStmt inner : ((Stmt.Block) statement).getStatements()) {
+                slots = Math.max(slots, slotsUsed(inner));
+            }
+        }
+        else if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+                slots = Math.max(slots, slotsUsed(branch.getRight()));
+            }
+            if (ifStmt.getElseBranch() != null) {
+                slots = Math.max(slots, slotsUsed(ifStmt.getElseBranch()));
+            }
+        }
+        else if (statement instanceof Stmt.While) {
+            slots = slotsUsed(((Stmt.While) statement).getBody());
+        }
+        else if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            for (IStmt initializer : forStmt.getInitializer()) {
+                slots = Math.max(slots, slotsUsed(initializer));
+            }
+            slots = Math.max(slots, slotsUsed(forStmt.getBody()));
+        }
+        return slots;
+    }
+
+    /**
+     * @return true if given statement or any statement inside it declares an array
+     */
+    static boolean declaresArrays(IStmt statement) {
+        if (statement instanceof Stmt.Array) {
+            return true;
+        }
+        if (statement instanceof Stmt.Block) {
+            return ((Stmt.Block) statement).getStatements().stream().anyMatch(FrameSlots::declaresArrays);
+        }
+        if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            return ifStmt.getBranches().stream().anyMatch(branch -> declaresArrays(branch.getRight()))
+                    || ifStmt.getElseBranch() != null && declaresArrays(ifStmt.getElseBranch());
+        }
+        if (statement instanceof Stmt.While) {
+            return declaresArrays(((Stmt.While) statement).getBody());
+        }
+        if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            return forStmt.getInitializer().stream().anyMatch(FrameSlots::declaresArrays) || declaresArrays(forStmt.getBody());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,397 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+
+/**
+ * Strength reduction of expressions over induction variables. A basic induction variable is an integer the loop
+ * changes in one place only, by adding or subtracting a constant, like the variable of a for loop with {@code ++},
+ * {@code --} or {@code +=}. Expressions linear in it, like {@code i * 4 + base} or the address of an array element,
+ * and its square {@code j * j} for steps of one, are derived induction variables. Their value is kept in a new slot of
+ * the frame, computed once before the loop and updated right where the basic variable changes, so the loop reads the
+ * slot instead of computing the expression.
+ * <p>
+ * Every instruction of the stack machine costs a dispatch no matter if it adds or multiplies, so a derived variable is
+ * only introduced when its uses save more instructions than updating it costs on every iteration
+ */
+public class InductionVariableReducer {
+
+    /**
+     * {@code ADDI_IMM t, delta}
+     */
+    private static final int LINEAR_UPDATE_COST = 1;
+    /**
+     * {@code PEEK t; PEEK i; ADDI; PEEK i; ADDI; POKE t; POP; DEC t}
+     */
+    private static final int SQUARE_UPDATE_COST = 8;
+
+    /**
+     * @param representation code to optimise, it should not have superinstructions
+     * @return number of derived induction variables introduced
+     */
+    public int reduce(IntermediateRepresentation representation) {
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        Set<Integer> returningFunctions = StackEffects.returningFunctions(graphs);
+        int reduced = 0;
+        for (ControlFlowGraph graph : graphs) {
+            Set<BasicBlock> visited = new HashSet<>();
+            while (true) {
+                Loop loop = graph.getLoops().stream()
+                        .filter(candidate -> !visited.contains(candidate.getHeader()))
+                        .min(Comparator.comparingInt(Loop::getDepth))
+                        .orElse(null);
+                if (loop == null) {
+                    break;
+                }
+                visited.add(loop.getHeader());
+                if (loop.getHeader() != graph.getEntry()) {
+                    reduced += reduce(graph, loop, returningFunctions);
+                }
+            }
+        }
+        if (reduced != 0) {
+            ControlFlowGraph.lower(representation, graphs);
+        }
+        return reduced;
+    }
+
+    /**
+     * Place where a basic induction variable changes
+     */
+    private static class InductionVariable {
+        private final int slot;
+        private final int step;
+        private final Instruction store;
+
+        InductionVariable(int slot, int step, Instruction store) {
+            this.slot = slot;
+            this.step = step;
+            this.store = store;
+        }
+    }
+
+    /**
+     * Expression over one induction variable, with every place in the loop computing it
+     */
+    private static class Derived {
+        private final InductionVariable variable;
+        private final List<Instruction> code;
+        private final boolean square;
+        private final int coefficient;
+        private final List<BasicBlock> blocks = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        Derived(InductionVariable variable, List<Instruction> code, boolean square, int coefficient) {
+            this.variable = variable;
+            this.code = code;
+            this.square = square;
+            this.coefficient = coefficient;
+        }
+
+        boolean isWorthIt() {
+            int saved = ranges.size() * (code.size() - 1);
+            return saved > (square ? SQUARE_UPDATE_COST : LINEAR_UPDATE_COST);
+        }
+    }
+
+    private int reduce(ControlFlowGraph graph, Loop loop, Set<Integer> returningFunctions) {
+        Map<Integer, InductionVariable> variables = new HashMap<>();
+        Set<Integer> stored = new HashSet<>();
+        findInductionVariables(loop, variables, stored);
+        if (variables.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Derived> derived = new LinkedHashMap<>();
+        for (BasicBlock block : loop.getBlocks()) {
+            for (Value value : findDerived(block.getInstructions(), variables, stored, returningFunctions)) {
+                List<Instruction> code = new ArrayList<>(block.getInstructions().subList(value.start, value.end));
+                String key = code.stream().map(Instruction::toString).collect(Collectors.joining(";"));
+                Derived expression = derived.computeIfAbsent(key,
+                        ignored -> new Derived(variables.get(value.variable), code, value.kind == Kind.SQUARE, value.coefficient));
+                expression.blocks.add(block);
+                expression.ranges.add(new int[]{value.start, value.end});
+            }
+        }
+        List<Derived> reduced = derived.values().stream().filter(Derived::isWorthIt).collect(Collectors.toList());
+        if (reduced.isEmpty()) {
+            return 0;
+        }
+
+        int firstSlot = graph.reserveSlots(reduced.size());
+        Map<BasicBlock, List<int[]>> replacements = new IdentityHashMap<>();
+        Map<Instruction, List<Instruction>> updates = new IdentityHashMap<>();
+        List<Instruction> initialisation = new ArrayList<>();
+        for (int i = 0; i < reduced.size(); i++) {
+            Derived expression = reduced.get(i);
+            int slot = firstSlot + i;
+            for (int j = 0; j < expression.ranges.size(); j++) {
+                int[] range = expression.ranges.get(j);
+                replacements.computeIfAbsent(expression.blocks.get(j), ignored -> new ArrayList<>()).add(new int[]{range[0], range[1], slot});
+            }
+            updates.computeIfAbsent(expression.variable.store, ignored -> new ArrayList<>()).addAll(update(expression, slot));
+            initialisation.addAll(expression.code);
+            initialisation.add(new Instruction(POKE, slot));
+            initialisation.add(new Instruction(POP));
+        }
+
+        for (BasicBlock block : loop.getBlocks()) {
+            List<int[]> ranges = replacements.getOrDefault(block, new ArrayList<>());
+            ranges.sort(Comparator.comparingInt(range -> range[0]));
+            List<Instruction> instructions = block.getInstructions();
+            List<Instruction> rewritten = new ArrayList<>(instructions.size());
+            int next = 0;
+            for (int i = 0; i < instructions.size(); i++) {
+                if (next < ranges.size() && ranges.get(next)[0] == i) {
+                    rewritten.add(new Instruction(PEEK, ranges.get(next)[2]));
+                    i = ranges.get(next)[1] - 1;
+                    next++;
+                    continue;
+                }
+                rewritten.add(instructions.get(i));
+                rewritten.addAll(updates.getOrDefault(instructions.get(i), new ArrayList<>()));
+            }
+            instructions.clear();
+            instructions.addAll(rewritten);
+        }
+        graph.insertPreheader(loop).getInstructions().addAll(initialisation);
+        return reduced.size();
+    }
+
+    /**
+     * Finds variables stored to only once in the loop, with the stored value being the variable plus or minus a
+     * constant
+     */
+    private void findInductionVariables(Loop loop, Map<Integer, InductionVariable> variables, Set<Integer> stored) {
+        Map<Integer, Integer> stores = new HashMap<>();
+        for (BasicBlock block : loop.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                int slot = StackEffects.storedSlot(instruction);
+                if (slot == -1) {
+                    continue;
+                }
+                stored.add(slot);
+                stores.merge(slot, 1, Integer::sum);
+                Integer step = step(instructions, i);
+                if (step != null) {
+                    variables.put(slot, new InductionVariable(slot, step, instruction));
+                }
+            }
+        }
+        stores.forEach((slot, count) -> {
+            if (count != 1) {
+                variables.remove(slot);
+            }
+        });
+    }
+
+    /**
+     * @param index index of an instruction storing to a slot
+     * @return constant the store adds to the slot, or null if it stores something else
+     */
+    private Integer step(List<Instruction> instructions, int index) {
+        Instruction instruction = instructions.get(index);
+        switch (instruction.getType()) {
+            case INC:
+                return 1;
+            case DEC:
+                return -1;
+            case ADDI_IMM:
+                return instruction.getOperand(1);
+            default:
+                break;
+        }
+        int slot = instruction.getOperand(0);
+        if (index >= 3 && instructions.get(index - 3).getType() == PEEK && instructions.get(index - 3).getOperand(0) == slot
+                && instructions.get(index - 2).getType() == PUSHI
+                && (instructions.get(index - 1).getType() == ADDI || instructions.get(index - 1).getType() == SUBI)) {
+            int constant = instructions.get(index - 2).getOperand(0);
+            return instructions.get(index - 1).getType() == ADDI ? constant : -constant;
+        }
+        return null;
+    }
+
+    private List<Instruction> update(Derived expression, int slot) {
+        List<Instruction> code = new ArrayList<>();
+        if (expression.square) {
+            // (i + s)^2 = i^2 + 2si + s^2, with s being 1 or -1 and i already changed that is i^2 + 2si - 1
+            InstructionType direction = expression.variable.step > 0 ? ADDI : SUBI;
+            code.add(new Instruction(PEEK, slot));
+            code.add(new Instruction(PEEK, expression.variable.slot));
+            code.add(new Instruction(direction));
+            code.add(new Instruction(PEEK, expression.variable.slot));
+            code.add(new Instruction(direction));
+            code.add(new Instruction(POKE, slot));
+            code.add(new Instruction(POP));
+            code.add(new Instruction(DEC, slot));
+        }
+        else {
+            code.add(new Instruction(ADDI_IMM, slot, expression.coefficient * expression.variable.step));
+        }
+        return code;
+    }
+
+    private enum Kind {
+        INVARIANT, LINEAR, SQUARE, OTHER
+    }
+
+    /**
+     * Value on the simulated stack. Linear values are the coefficient times the induction variable plus something
+     * invariant, constants are invariant values with a known integer value
+     */
+    private static class Value {
+        private final int start;
+        private int end;
+        private final Kind kind;
+        private final int variable;
+        private final int coefficient;
+        private final Integer constant;
+
+        Value(int start, Kind kind, int variable, int coefficient, Integer constant) {
+            this.start = start;
+            this.kind = kind;
+            this.variable = variable;
+            this.coefficient = coefficient;
+            this.constant = constant;
+        }
+
+        static Value other(int start) {
+            return new Value(start, Kind.OTHER, -1, 0, null);
+        }
+
+        static Value invariant(int start, Integer constant) {
+            return new Value(start, Kind.INVARIANT, -1, 0, constant);
+        }
+
+        static Value linear(int start, int variable, int coefficient) {
+            return coefficient == 0 ? invariant(start, null) : new Value(start, Kind.LINEAR, variable, coefficient, null);
+        }
+    }
+
+    /**
+     * Runs the block on a stack of values, joining operations over induction variables and invariants
+     * @return derived induction variables, which are used by something that is not one, with their ranges of code
+     */
+    private List<Value> findDerived(List<Instruction> instructions, Map<Integer, InductionVariable> variables,
+                                    Set<Integer> stored, Set<Integer> returningFunctions) {
+        List<Value> derived = new ArrayList<>();
+        Deque<Value> stack = new ArrayDeque<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            InstructionType type = instruction.getType();
+            if (type == PUSHI) {
+                stack.push(Value.invariant(i, instruction.getOperand(0)));
+            }
+            else if (type == PUSHF) {
+                stack.push(Value.invariant(i, null));
+            }
+            else if (type == PEEK) {
+                int slot = instruction.getOperand(0);
+                if (variables.containsKey(slot)) {
+                    stack.push(Value.linear(i, slot, 1));
+                }
+                else {
+                    stack.push(stored.contains(slot) ? Value.other(i) : Value.invariant(i, null));
+                }
+            }
+            else if (StackEffects.isPureBinary(type)) {
+                Value right = pop(stack);
+                Value left = pop(stack);
+                Value result = left.start < right.start ? combine(type, left, right, i, variables) : null;
+                if (result == null) {
+                    take(derived, left, right.start);
+                    take(derived, right, i);
+                    result = Value.other(left.start);
+                }
+                stack.push(result);
+            }
+            else {
+                List<Value> operands = new ArrayList<>();
+                for (int popped = StackEffects.pops(instruction); popped > 0; popped--) {
+                    operands.add(0, pop(stack));
+                }
+                for (int j = 0; j < operands.size(); j++) {
+                    take(derived, operands.get(j), j + 1 < operands.size() ? operands.get(j + 1).start : i);
+                }
+                int start = operands.isEmpty() ? i : operands.get(0).start;
+                for (int pushed = StackEffects.pushes(instruction, returningFunctions); pushed > 0; pushed--) {
+                    stack.push(Value.other(start));
+                }
+            }
+        }
+        List<Value> left = new ArrayList<>(stack);
+        for (int j = left.size() - 1; j >= 0; j--) {
+            take(derived, left.get(j), j > 0 ? left.get(j - 1).start : instructions.size());
+        }
+        return derived;
+    }
+
+    /**
+     * @return value of the operation over given operands, or null if it is not invariant or derived
+     */
+    private Value combine(InstructionType type, Value left, Value right, int end, Map<Integer, InductionVariable> variables) {
+        if (left.kind == Kind.OTHER || right.kind == Kind.OTHER || left.kind == Kind.SQUARE || right.kind == Kind.SQUARE) {
+            return null;
+        }
+        if (left.kind == Kind.INVARIANT && right.kind == Kind.INVARIANT) {
+            boolean traps = (type == DIVI || type == MOD) && (right.constant == null || right.constant == 0);
+            return traps ? null : Value.invariant(left.start, null);
+        }
+        boolean sameVariable = left.kind != Kind.LINEAR || right.kind != Kind.LINEAR || left.variable == right.variable;
+        int variable = left.kind == Kind.LINEAR ? left.variable : right.variable;
+        if (!sameVariable) {
+            return null;
+        }
+        switch (type) {
+            case ADDI:
+                return Value.linear(left.start, variable, left.coefficient + right.coefficient);
+            case SUBI:
+                return Value.linear(left.start, variable, left.coefficient - right.coefficient);
+            case MULI:
+                if (left.kind == Kind.LINEAR && right.constant != null) {
+                    return Value.linear(left.start, variable, left.coefficient * right.constant);
+                }
+                if (right.kind == Kind.LINEAR && left.constant != null) {
+                    return Value.linear(left.start, variable, right.coefficient * left.constant);
+                }
+                // Single instruction linear values with coefficient of one are reads of the variable itself
+                boolean variableSquared = left.coefficient == 1 && right.start - left.start == 1
+                        && right.coefficient == 1 && end - right.start == 1;
+                if (variableSquared && Math.abs(variables.get(variable).step) == 1) {
+                    return new Value(left.start, Kind.SQUARE, variable, 0, null);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Values computed before the block are never derived
+     */
+    private Value pop(Deque<Value> stack) {
+        return stack.isEmpty() ? Value.other(-1) : stack.pop();
+    }
+
+    private void take(List<Value> derived, Value value, int end) {
+        // Reading the induction variable itself is already as cheap as it gets
+        if ((value.kind == Kind.LINEAR || value.kind == Kind.SQUARE) && end - value.start >= 2) {
+            value.end = end;
+            derived.add(value);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decoded instruction of {@link IntermediateRepresentation}. Used by passes that rewrite already generated code, so
+ * label operands and labels placed at the instruction are kept as {@link Label} references and get relocated when
+ * the code is written back
+ */
+public class Instruction {
+
+    private final InstructionType type;
+    private final int[] operands;
+    private final Label[] labelOperands;
+    private final List<Label> placedLabels;
+
+    public Instruction(InstructionType type, int... operands) {
+        this(type, operands, new Label[operands.length]);
+    }
+
+    public Instruction(InstructionType type, Label target) {
+        this(type, new int[]{target.getValue()}, new Label[]{target});
+    }
+
+    public Instruction(InstructionType type, int[] operands, Label[] labelOperands) {
+        int expected = type.isSwitch() && operands.length >= type.getOps() ? type.getOps(operands[type.getOps() - 1]) : type.getOps();
+        if (expected != operands.length || operands.length != labelOperands.length) {
+            throw new IllegalArgumentException(String.format("Instruction %s expects %d operands but got %d", type, expected, operands.length));
+        }
+        this.type = type;
+        this.operands = operands;
+        this.labelOperands = labelOperands;
+        this.placedLabels = new ArrayList<>();
+    }
+
+    public InstructionType getType() {
+        return type;
+    }
+
+    public int getOperand(int index) {
+        Label label = labelOperands[index];
+        return label == null ? operands[index] : label.getValue();
+    }
+
+    /**
+     * @param index index of the operand
+     * @return label referenced by the operand, or null if the operand is a plain value
+     */
+    public Label getLabel(int index) {
+        return labelOperands[index];
+    }
+
+    public int getOperandCount() {
+        return operands.length;
+    }
+
+    /**
+     * @return number of ints the instruction takes in code
+     */
+    public int getSize() {
+        return 1 + operands.length;
+    }
+
+    /**
+     * @return labels which point at this instruction
+     */
+    public List<Label> getPlacedLabels() {
+        return placedLabels;
+    }
+
+    public void addPlacedLabels(Collection<Label> labels) {
+        placedLabels.addAll(labels);
+    }
+
+    /**
+     * @return true if some jump, call or label may land on this instruction
+     */
+    public boolean isLabelled() {
+        return !placedLabels.isEmpty();
+    }
+
+    /**
+     * Creates an instruction of a different type keeping operands of the given instructions in order, labels placed
+     * at the first instruction are moved to the new one
+     * @param type type of the new instruction
+     * @param parts instructions whose operands are joined
+     * @return joined instruction
+     */
+    public static Instruction join(InstructionType type, List<Instruction> parts) {
+        int operandCount = parts.stream().mapToInt(Instruction::getOperandCount).sum();
+        int[] operands = new int[operandCount];
+        Label[] labelOperands = new Label[operandCount];
+        int position = 0;
+        for (Instruction part : parts) {
+            System.arraycopy(part.operands, 0, operands, position, part.operands.length);
+            System.arraycopy(part.labelOperands, 0, labelOperands, position, part.labelOperands.length);
+            position += part.operands.length;
+        }
+        Instruction joined = new Instruction(type, operands, labelOperands);
+        joined.addPlacedLabels(parts.get(0).getPlacedLabels());
+        return joined;
+    }
+
+    /**
+     * Creates a jump of given type to another target, operands after the target are kept. Labels placed at this
+     * instruction are not moved
+     * @param type type of the new jump
+     * @param target label the new jump goes to
+     * @return retargeted jump
+     */
+    public Instruction withTarget(InstructionType type, Label target) {
+        int[] newOperands = operands.clone();
+        Label[] newLabels = labelOperands.clone();
+        newOperands[0] = target.getValue();
+        newLabels[0] = target;
+        return new Instruction(type, newOperands, newLabels);
+    }
+
+    /**
+     * Creates a copy of this instruction where given operand references a label. Labels placed at this instruction
+     * are not moved
+     * @param index index of the operand
+     * @param label label the operand references
+     * @return relabelled instruction
+     */
+    Instruction withLabel(int index, Label label) {
+        int[] newOperands = operands.clone();
+        Label[] newLabels = labelOperands.clone();
+        newOperands[index] = label.getValue();
+        newLabels[index] = label;
+        return new Instruction(type, newOperands, newLabels);
+    }
+
+    /**
+     * Creates a copy of this instruction where every target going to one of given labels goes to another one instead.
+     * Labels placed at this instruction are not moved
+     * @param from labels of the old target
+     * @param to label of the new target
+     * @return retargeted instruction
+     */
+    public Instruction withTarget(Collection<Label> from, Label to) {
+        int[] newOperands = operands.clone();
+        Label[] newLabels = labelOperands.clone();
+        for (int i = 0; i < newLabels.length; i++) {
+            if (type.isTarget(i) && from.contains(newLabels[i])) {
+                newOperands[i] = to.getValue();
+                newLabels[i] = to;
+            }
+        }
+        return new Instruction(type, newOperands, newLabels);
+    }
+
+    @Override
+    public String toString() {
+        int[] values = new int[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            values[i] = getOperand(i);
+        }
+        return type + (values.length == 0 ? "" : " " + Arrays.toString(values));
+    }
+}
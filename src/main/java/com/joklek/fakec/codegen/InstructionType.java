@@ -1,5 +1,9 @@
 package com.joklek.fakec.codegen;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public enum InstructionType {
     ADDI(0x10, 0), ADDF(0x11, 0),
     SUBI(0x12, 0), SUBF(0x13, 0),
@@ -24,13 +28,24 @@ public enum InstructionType {
     PUSHI(0x45, 1),PUSHF(0x46, 1),
 
     PEEK(0x50, 1), POKE(0x51, 1), ALLOC(0x52, 1),
+    // Change a variable slot in place, ADDI_IMM takes the slot and the constant to add
+    INC(0x53, 1), DEC(0x54, 1), ADDI_IMM(0x55, 2),
     PEEKS(0x5A, 0), POKES(0x5B, 0),
 
     LEA(0x5C, 0), LD(0x5D, 0),
 
-    CALL(0x60, 1), RET(0x61, 0), RET_V(0x62, 0), EXIT(0x63, 0),
+    // CALL takes the target and the argument count, return addresses live on a frame stack apart from data
+    CALL(0x60, 2), RET(0x61, 0), RET_V(0x62, 0), EXIT(0x63, 0),
     JMP(0x64, 1), JMPZ(0x65, 1),
     RND(0x66, 0),
+    JMPNZ(0x67, 1),
+    // TAILCALL takes the same operands as CALL, the arguments replace the current frame and the callee returns to its caller
+    TAILCALL(0x68, 2),
+    // Switches pop a value and jump to the entry it selects or to the default target. Their fixed operands end with
+    // the number of entries following them. TABLESWITCH takes the default, the lowest value and the count, followed
+    // by a target for each value from the lowest one up. LOOKUPSWITCH takes the default and the count, followed by
+    // pairs of a value and its target sorted by value
+    TABLESWITCH(0x69, 3, 1), LOOKUPSWITCH(0x6A, 2, 2),
 
     STDOI(0x70,0),
     STDOF(0x71,0),
@@ -41,20 +56,147 @@ public enum InstructionType {
     STDINI(0x75,0),
     STDINF(0x76,0),
     STDINC(0x77, 0),
-    STDINS(0x78, 0);
+    STDINS(0x78, 0),
+
+    // Compare and jump, pops two values and jumps to the target if the comparison holds for them
+    JEQI(0x90, 1), JEQF(0x91, 1),
+    JLTI(0x92, 1), JLTF(0x93, 1),
+    JLEI(0x94, 1), JLEF(0x95, 1),
+    JGTI(0x96, 1), JGTF(0x97, 1),
+    JGEI(0x98, 1), JGEF(0x99, 1),
+    JNEI(0x9A, 1), JNEF(0x9B, 1),
+    // Compares the int in a variable slot with a constant, operands are the target, the slot and the constant
+    JEQK(0xA0, 3), JLTK(0xA2, 3), JLEK(0xA4, 3), JGTK(0xA6, 3), JGEK(0xA8, 3), JNEK(0xAA, 3),
+
+    // Superinstructions, each runs its components back to back and takes their operands in order
+    PEEK_PEEK(0x80, PEEK, PEEK),
+    PEEK_PUSHI(0x81, PEEK, PUSHI),
+    POKE_POP(0x82, POKE, POP),
+    PEEK_PEEK_ADDI(0x83, PEEK, PEEK, ADDI),
+    PEEK_PUSHI_ADDI(0x84, PEEK, PUSHI, ADDI),
+    PEEK_PEEK_MULI(0x85, PEEK, PEEK, MULI),
+    PUSHI_PEEK_ADDI_POKE(0x86, PUSHI, PEEK, ADDI, POKE),
+    PEEK_PUSHI_SUBI(0x87, PEEK, PUSHI, SUBI);
 
     private final int value;
     private final int ops;
+    private final int entrySize;
+    private final List<InstructionType> components;
 
     InstructionType(int value, int numberOfOperators) {
+        this(value, numberOfOperators, 0);
+    }
+
+    InstructionType(int value, int numberOfOperators, int entrySize) {
         this.value = value;
         this.ops = numberOfOperators;
+        this.entrySize = entrySize;
+        this.components = Collections.emptyList();
+    }
+
+    InstructionType(int value, InstructionType... components) {
+        this.value = value;
+        this.ops = Arrays.stream(components).mapToInt(InstructionType::getOps).sum();
+        this.entrySize = 0;
+        this.components = Collections.unmodifiableList(Arrays.asList(components));
     }
 
     public int getValue() {
         return value;
     }
+    /**
+     * @return number of fixed operands, switches take their entries after them
+     */
     public int getOps() {
         return ops;
     }
+
+    /**
+     * @param code code the instruction is written in
+     * @param offset offset of the instruction
+     * @return number of operands the instruction written at given offset takes, entries of switches included
+     */
+    public int getOps(int[] code, int offset) {
+        return isSwitch() ? getOps(code[offset + ops]) : ops;
+    }
+
+    /**
+     * @see #getOps(int[], int)
+     */
+    public int getOps(List<Integer> code, int offset) {
+        return isSwitch() ? getOps(code.get(offset + ops)) : ops;
+    }
+
+    /**
+     * @param entries number of entries of a switch
+     * @return number of operands a switch with given number of entries takes
+     */
+    public int getOps(int entries) {
+        return ops + entrySize * entries;
+    }
+
+    /**
+     * @return true for switches, which take a variable number of operands
+     */
+    public boolean isSwitch() {
+        return entrySize != 0;
+    }
+
+    /**
+     * @param index index of an operand
+     * @return true if the operand is a target this instruction may jump to
+     */
+    public boolean isTarget(int index) {
+        switch (this) {
+            case TABLESWITCH:
+                return index == 0 || index >= ops;
+            case LOOKUPSWITCH:
+                return index == 0 || index > ops && (index - ops) % 2 == 1;
+            default:
+                return index == 0 && (this == JMP || this == JMPZ || this == JMPNZ || isCompareJump());
+        }
+    }
+
+    /**
+     * @return instructions a superinstruction is made of, empty for plain instructions
+     */
+    public List<InstructionType> getComponents() {
+        return components;
+    }
+
+    public boolean isSuperinstruction() {
+        return !components.isEmpty();
+    }
+
+    /**
+     * @return true for jumps that compare two values on their own instead of testing one left by a comparison
+     */
+    public boolean isCompareJump() {
+        return value >= 0x90 && value <= 0xAF;
+    }
+
+    /**
+     * @return compare jump taken exactly when this one is not, or null if there is none. Relational float comparisons
+     * have none, as NaN fails both a comparison and its opposite
+     */
+    @SuppressWarnings("squid:S1479")
+    public InstructionType getNegation() {
+        switch (this) {
+            case JEQI: return JNEI;
+            case JNEI: return JEQI;
+            case JEQF: return JNEF;
+            case JNEF: return JEQF;
+            case JLTI: return JGEI;
+            case JGEI: return JLTI;
+            case JLEI: return JGTI;
+            case JGTI: return JLEI;
+            case JEQK: return JNEK;
+            case JNEK: return JEQK;
+            case JLTK: return JGEK;
+            case JGEK: return JLTK;
+            case JLEK: return JGTK;
+            case JGTK: return JLEK;
+            default: return null;
+        }
+    }
 }
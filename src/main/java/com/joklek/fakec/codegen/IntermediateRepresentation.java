@@ -1,10 +1,9 @@
 package com.joklek.fakec.codegen;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 public class IntermediateRepresentation {
-    private final List<Label> labels;
+    private final Set<Label> labels;
     private final List<Integer> instructionBytes;
     private final InstructionResolver resolver;
     private final StringTable table;
@@ -15,12 +14,12 @@ public class IntermediateRepresentation {
 
     public IntermediateRepresentation(InstructionResolver resolver, StringTable table) {
         this.instructionBytes = new ArrayList<>();
-        this.labels = new ArrayList<>();
+        this.labels = new LinkedHashSet<>();
         this.resolver = resolver;
         this.table = table;
     }
 
-    public List<Label> getLabels() {
+    public Set<Label> getLabels() {
         return labels;
     }
 
@@ -35,6 +34,7 @@ public class IntermediateRepresentation {
     }
 
     public void placeLabel(Label label) {
+        labels.add(label);
         label.setValue(instructionBytes.size());
         for (Integer offset : label.getOffsets()) {
             instructionBytes.set(offset, label.getValue());
@@ -42,9 +42,42 @@ public class IntermediateRepresentation {
     }
 
     public void write(InstructionType instruction, Label label) {
+        write(instruction, label, new int[0]);
+    }
+
+    /**
+     * Writes an instruction whose first operand is a label and the rest are plain values
+     * @param instruction instruction to write
+     * @param label label of the first operand
+     * @param params remaining operands
+     */
+    public void write(InstructionType instruction, Label label, int... params) {
         labels.add(label);
-        write(instruction.getValue(), label.getValue());
-        label.addOffset(instructionBytes.size() - 1);
+        int[] operands = new int[params.length + 1];
+        operands[0] = label.getValue();
+        System.arraycopy(params, 0, operands, 1, params.length);
+        write(instruction.getValue(), operands);
+        label.addOffset(instructionBytes.size() - operands.length);
+    }
+
+    /**
+     * Writes an instruction which may have label operands anywhere, like a switch
+     * @param instruction instruction to write, labels placed at it are ignored
+     */
+    public void write(Instruction instruction) {
+        int[] operands = new int[instruction.getOperandCount()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = instruction.getOperand(i);
+        }
+        write(instruction.getType().getValue(), operands);
+        int first = instructionBytes.size() - operands.length;
+        for (int i = 0; i < operands.length; i++) {
+            Label label = instruction.getLabel(i);
+            if (label != null) {
+                labels.add(label);
+                label.addOffset(first + i);
+            }
+        }
     }
 
     public void write(InstructionType instruction, int... params) {
@@ -55,8 +88,10 @@ public class IntermediateRepresentation {
         instructionBytes.add(instruction);
 
         InstructionType instructionType = resolver.resolveInstruction(instruction);
-        if(instructionType.getOps() != params.length) {
-            throw new IllegalArgumentException(String.format("Writing %s. Expected %d params but got %d.", instructionType, instructionType.getOps(), params.length));
+        int expected = instructionType.isSwitch() && params.length >= instructionType.getOps()
+                ? instructionType.getOps(params[instructionType.getOps() - 1]) : instructionType.getOps();
+        if(expected != params.length) {
+            throw new IllegalArgumentException(String.format("Writing %s. Expected %d params but got %d.", instructionType, expected, params.length));
         }
 
         for (int param : params) {
@@ -65,7 +100,112 @@ public class IntermediateRepresentation {
     }
 
     public Label newLabelAtCurrent() {
-        return new Label(instructionBytes.size());
+        return newLabelAt(instructionBytes.size());
+    }
+
+    /**
+     * @param offset offset of an instruction that is already written
+     * @return label placed at given offset
+     */
+    public Label newLabelAt(int offset) {
+        Label label = new Label(offset);
+        labels.add(label);
+        return label;
+    }
+
+    /**
+     * Decodes written code into instructions, keeping label references, so it could be rewritten by optimisation passes
+     * @return decoded instructions in code order
+     */
+    public List<Instruction> getInstructions() {
+        Map<Integer, Label> labelOperands = new HashMap<>();
+        Map<Integer, List<Label>> placedLabels = new HashMap<>();
+        for (Label label : labels) {
+            for (Integer offset : label.getOffsets()) {
+                labelOperands.put(offset, label);
+            }
+            if (label.isPlaced()) {
+                placedLabels.computeIfAbsent(label.getValue(), key -> new ArrayList<>()).add(label);
+            }
+        }
+
+        List<Instruction> instructions = new ArrayList<>();
+        int offset = 0;
+        while (offset < instructionBytes.size()) {
+            InstructionType type = resolver.resolveInstruction(instructionBytes.get(offset));
+            if (type == null) {
+                throw new IllegalStateException(String.format("Instruction with code %d at offset %d is not found", instructionBytes.get(offset), offset));
+            }
+            int[] operands = new int[type.getOps(instructionBytes, offset)];
+            Label[] operandLabels = new Label[operands.length];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = instructionBytes.get(offset + 1 + i);
+                operandLabels[i] = labelOperands.get(offset + 1 + i);
+            }
+            Instruction instruction = new Instruction(type, operands, operandLabels);
+            instruction.addPlacedLabels(placedLabels.getOrDefault(offset, Collections.emptyList()));
+            instructions.add(instruction);
+            offset += instruction.getSize();
+        }
+        return instructions;
+    }
+
+    /**
+     * Replaces written code with given instructions. Labels are placed at the instructions holding them, labels
+     * that pointed past the end of code keep pointing past the end, and every label operand is patched to the new
+     * position of its label
+     * @param instructions instructions, which will replace current code
+     */
+    public void setInstructions(List<Instruction> instructions) {
+        int oldSize = instructionBytes.size();
+        Set<Label> trailingLabels = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Label label : labels) {
+            label.clearOffsets();
+            if (label.isPlaced() && label.getValue() == oldSize) {
+                trailingLabels.add(label);
+            }
+        }
+
+        Set<Label> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+        instructionBytes.clear();
+        for (Instruction instruction : instructions) {
+            for (Label label : instruction.getPlacedLabels()) {
+                labels.add(label);
+                label.setValue(instructionBytes.size());
+                placed.add(label);
+            }
+            instructionBytes.add(instruction.getType().getValue());
+            for (int i = 0; i < instruction.getOperandCount(); i++) {
+                Label label = instruction.getLabel(i);
+                if (label != null) {
+                    labels.add(label);
+                    label.addOffset(instructionBytes.size());
+                }
+                instructionBytes.add(instruction.getOperand(i));
+            }
+        }
+        for (Label label : trailingLabels) {
+            if (!placed.contains(label)) {
+                label.setValue(instructionBytes.size());
+                placed.add(label);
+            }
+        }
+
+        for (Label label : labels) {
+            if (label.getOffsets().isEmpty()) {
+                continue;
+            }
+            if (!placed.contains(label)) {
+                throw new IllegalStateException("Label is referenced, but the instruction it pointed to was removed");
+            }
+            for (Integer offset : label.getOffsets()) {
+                instructionBytes.set(offset, label.getValue());
+            }
+        }
+    }
+
+    public InstructionResolver getResolver() {
+        return resolver;
     }
 
     public int addString(String value) {
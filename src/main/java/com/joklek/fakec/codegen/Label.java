@@ -6,6 +6,7 @@ import java.util.List;
 public class Label {
 
     private int value;
+    private boolean placed;
     private final List<Integer> offsets;
 
     public Label() {
@@ -14,6 +15,7 @@ public class Label {
 
     public Label(int value) {
         this.value = value;
+        this.placed = true;
         this.offsets = new ArrayList<>();
     }
 
@@ -23,6 +25,14 @@ public class Label {
 
     public void setValue(int value) {
         this.value = value;
+        this.placed = true;
+    }
+
+    /**
+     * @return true if the label was given its position in code
+     */
+    public boolean isPlaced() {
+        return placed;
     }
 
     public List<Integer> getOffsets() {
@@ -32,4 +42,8 @@ public class Label {
     public void addOffset(int offset) {
         offsets.add(offset);
     }
+
+    public void clearOffsets() {
+        offsets.clear();
+    }
 }
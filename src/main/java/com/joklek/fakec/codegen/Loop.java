@@ -0,0 +1,70 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Natural loop of a {@link ControlFlowGraph}. The header dominates every block of the loop and the latches are the
+ * blocks jumping back to it. Loops sharing a header are merged into one
+ */
+public class Loop {
+
+    private final BasicBlock header;
+    private final Set<BasicBlock> blocks;
+    private final List<BasicBlock> latches;
+    private Loop parent;
+
+    Loop(BasicBlock header) {
+        this.header = header;
+        this.blocks = new LinkedHashSet<>();
+        this.latches = new ArrayList<>();
+        this.blocks.add(header);
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    /**
+     * @return blocks of the loop, including the ones of nested loops
+     */
+    public Set<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return blocks with an edge back to the header
+     */
+    public List<BasicBlock> getLatches() {
+        return latches;
+    }
+
+    /**
+     * @return closest loop this one is nested in, or null for outermost loops
+     */
+    public Loop getParent() {
+        return parent;
+    }
+
+    void setParent(Loop parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return 1 for outermost loops, one more for every enclosing loop
+     */
+    public int getDepth() {
+        return parent == null ? 1 : parent.getDepth() + 1;
+    }
+
+    public boolean contains(BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    @Override
+    public String toString() {
+        return "loop at " + header + " " + blocks;
+    }
+}
@@ -0,0 +1,198 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+
+/**
+ * Moves expressions which give the same value on every iteration of a loop out of it. Such an expression is computed
+ * once in a preheader before the loop, stored to a new slot of the frame, and the loop reads the slot instead.
+ * Only constants, variables the loop never stores to and arithmetic, comparison and logic operations over them are
+ * moved, so calls, input, random numbers and array elements always stay where they are. Integer division and modulus
+ * are only moved with a constant divisor other than zero, as the loop might never run them
+ */
+public class LoopInvariantHoister {
+
+    /**
+     * @param representation code to optimise, it should not have superinstructions
+     * @return number of expressions moved out of loops
+     */
+    public int hoist(IntermediateRepresentation representation) {
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        Set<Integer> returningFunctions = StackEffects.returningFunctions(graphs);
+        int hoisted = 0;
+        for (ControlFlowGraph graph : graphs) {
+            hoisted += hoist(graph, returningFunctions);
+        }
+        if (hoisted != 0) {
+            ControlFlowGraph.lower(representation, graphs);
+        }
+        return hoisted;
+    }
+
+    private int hoist(ControlFlowGraph graph, Set<Integer> returningFunctions) {
+        int hoisted = 0;
+        Set<BasicBlock> visited = new HashSet<>();
+        // Outer loops go first, so expressions invariant in a whole nest end up before all of it
+        while (true) {
+            Loop loop = graph.getLoops().stream()
+                    .filter(candidate -> !visited.contains(candidate.getHeader()))
+                    .min(Comparator.comparingInt(Loop::getDepth))
+                    .orElse(null);
+            if (loop == null) {
+                return hoisted;
+            }
+            visited.add(loop.getHeader());
+            if (loop.getHeader() != graph.getEntry()) {
+                hoisted += hoist(graph, loop, returningFunctions);
+            }
+        }
+    }
+
+    private int hoist(ControlFlowGraph graph, Loop loop, Set<Integer> returningFunctions) {
+        Set<Integer> stored = new HashSet<>();
+        for (BasicBlock block : loop.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (StackEffects.storedSlot(instruction) != -1) {
+                    stored.add(StackEffects.storedSlot(instruction));
+                }
+            }
+        }
+
+        int firstFreeSlot = graph.getFrameSize();
+        Map<String, Integer> slots = new HashMap<>();
+        Map<Integer, List<Instruction>> hoistedCode = new LinkedHashMap<>();
+        for (BasicBlock block : loop.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            List<int[]> invariants = findInvariants(instructions, stored, returningFunctions);
+            if (invariants.isEmpty()) {
+                continue;
+            }
+            List<Instruction> rewritten = new ArrayList<>(instructions.size());
+            int next = 0;
+            for (int[] range : invariants) {
+                rewritten.addAll(instructions.subList(next, range[0]));
+                List<Instruction> expression = new ArrayList<>(instructions.subList(range[0], range[1]));
+                String key = expression.stream().map(Instruction::toString).collect(Collectors.joining(";"));
+                int slot = slots.computeIfAbsent(key, ignored -> firstFreeSlot + slots.size());
+                hoistedCode.putIfAbsent(slot, expression);
+                rewritten.add(new Instruction(PEEK, slot));
+                next = range[1];
+            }
+            rewritten.addAll(instructions.subList(next, instructions.size()));
+            instructions.clear();
+            instructions.addAll(rewritten);
+        }
+        if (hoistedCode.isEmpty()) {
+            return 0;
+        }
+
+        BasicBlock preheader = graph.insertPreheader(loop);
+        hoistedCode.forEach((slot, expression) -> {
+            preheader.getInstructions().addAll(expression);
+            preheader.getInstructions().add(new Instruction(POKE, slot));
+            preheader.getInstructions().add(new Instruction(POP));
+        });
+        graph.reserveSlots(hoistedCode.size());
+        return hoistedCode.size();
+    }
+
+    /**
+     * Value on the simulated stack, with the first instruction computing it, or -1 if it was computed before the block
+     */
+    private static class Value {
+        private final int start;
+        private final boolean invariant;
+
+        Value(int start, boolean invariant) {
+            this.start = start;
+            this.invariant = invariant;
+        }
+    }
+
+    /**
+     * Runs the block on a stack of values and joins invariant operands with the operations on them, an invariant
+     * value is taken out once something that is not invariant uses it
+     * @return ranges of instructions computing a single invariant value, as start and end exclusive, in code order
+     */
+    private List<int[]> findInvariants(List<Instruction> instructions, Set<Integer> stored, Set<Integer> returningFunctions) {
+        List<int[]> invariants = new ArrayList<>();
+        Deque<Value> stack = new ArrayDeque<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            InstructionType type = instruction.getType();
+            if (type == PUSHI || type == PUSHF) {
+                stack.push(new Value(i, true));
+            }
+            else if (type == PEEK) {
+                stack.push(new Value(i, !stored.contains(instruction.getOperand(0))));
+            }
+            else if (StackEffects.isPureBinary(type)) {
+                Value right = pop(stack);
+                Value left = pop(stack);
+                boolean invariant = left.invariant && right.invariant && left.start < right.start
+                        && (type != DIVI && type != MOD || isNonZeroConstant(instructions, right, i));
+                if (invariant) {
+                    stack.push(new Value(left.start, true));
+                }
+                else {
+                    take(invariants, left, right.start);
+                    take(invariants, right, i);
+                    stack.push(new Value(left.start, false));
+                }
+            }
+            else if (type == NOT) {
+                Value operand = pop(stack);
+                stack.push(operand);
+            }
+            else {
+                List<Value> operands = new ArrayList<>();
+                for (int popped = StackEffects.pops(instruction); popped > 0; popped--) {
+                    operands.add(0, pop(stack));
+                }
+                for (int j = 0; j < operands.size(); j++) {
+                    take(invariants, operands.get(j), j + 1 < operands.size() ? operands.get(j + 1).start : i);
+                }
+                int start = operands.isEmpty() ? i : operands.get(0).start;
+                for (int pushed = StackEffects.pushes(instruction, returningFunctions); pushed > 0; pushed--) {
+                    stack.push(new Value(start, false));
+                }
+            }
+        }
+        List<Value> left = new ArrayList<>(stack);
+        for (int j = left.size() - 1; j >= 0; j--) {
+            take(invariants, left.get(j), j > 0 ? left.get(j - 1).start : instructions.size());
+        }
+        invariants.sort(Comparator.comparingInt(range -> range[0]));
+        return invariants;
+    }
+
+    /**
+     * Values computed before the block are never invariant
+     */
+    private Value pop(Deque<Value> stack) {
+        return stack.isEmpty() ? new Value(-1, false) : stack.pop();
+    }
+
+    private void take(List<int[]> invariants, Value value, int end) {
+        // Reading a single value from the new slot costs as much as computing it in place
+        if (value.invariant && end - value.start >= 2) {
+            invariants.add(new int[]{value.start, end});
+        }
+    }
+
+    private boolean isNonZeroConstant(List<Instruction> instructions, Value value, int end) {
+        Instruction instruction = instructions.get(value.start);
+        return end - value.start == 1 && instruction.getType() == PUSHI && instruction.getOperand(0) != 0;
+    }
+}
@@ -0,0 +1,151 @@
+package com.joklek.fakec.codegen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Dynamic profile of executed opcode sequences. Counts every n-gram of executed opcodes from pairs up to
+ * {@link #MAX_LENGTH} instructions, which is used to decide what superinstructions are worth fusing
+ */
+public class OpcodeProfile {
+
+    public static final int MAX_LENGTH = 4;
+    private static final int OPCODE_BITS = 8;
+    private static final long OPCODE_MASK = (1L << OPCODE_BITS) - 1;
+
+    private final Map<Long, long[]> counts;
+    private long window;
+    private int recorded;
+    private long dispatches;
+
+    public OpcodeProfile() {
+        this.counts = new HashMap<>();
+    }
+
+    /**
+     * Records a dispatched opcode
+     * @param opcode value of the executed instruction
+     */
+    public void record(int opcode) {
+        window = (window << OPCODE_BITS) | (opcode & OPCODE_MASK);
+        dispatches++;
+        if (recorded < MAX_LENGTH) {
+            recorded++;
+        }
+        for (int length = 2; length <= recorded; length++) {
+            long[] count = counts.computeIfAbsent(key(window, length), key -> new long[1]);
+            count[0]++;
+        }
+    }
+
+    /**
+     * @return number of dispatched instructions
+     */
+    public long getDispatches() {
+        return dispatches;
+    }
+
+    /**
+     * @param sequence instruction sequence, oldest instruction first
+     * @return how many times given sequence was executed
+     */
+    public long getCount(List<InstructionType> sequence) {
+        if (sequence.size() < 2 || sequence.size() > MAX_LENGTH) {
+            return 0;
+        }
+        long sequenceWindow = 0;
+        for (InstructionType type : sequence) {
+            sequenceWindow = (sequenceWindow << OPCODE_BITS) | type.getValue();
+        }
+        long[] count = counts.get(key(sequenceWindow, sequence.size()));
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * @param length length of the sequences
+     * @param resolver resolver for decoding opcodes
+     * @return sequences of given length ordered from the most executed one
+     */
+    public List<Map.Entry<List<InstructionType>, Long>> getHottest(int length, InstructionResolver resolver) {
+        List<Map.Entry<List<InstructionType>, Long>> sequences = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : counts.entrySet()) {
+            if (lengthOf(entry.getKey()) == length) {
+                sequences.add(new AbstractMap.SimpleEntry<>(decode(entry.getKey(), resolver), entry.getValue()[0]));
+            }
+        }
+        sequences.sort((lhs, rhs) -> Long.compare(rhs.getValue(), lhs.getValue()));
+        return sequences;
+    }
+
+    /**
+     * Writes the profile in a text form, one sequence per line, so it could be read back with {@link #read(Reader, InstructionResolver)}
+     * @param writer target writer
+     * @param resolver resolver for decoding opcodes
+     */
+    public void write(Writer writer, InstructionResolver resolver) {
+        PrintWriter printer = new PrintWriter(writer);
+        printer.printf("dispatches %d%n", dispatches);
+        for (int length = 2; length <= MAX_LENGTH; length++) {
+            for (Map.Entry<List<InstructionType>, Long> sequence : getHottest(length, resolver)) {
+                StringJoiner joiner = new StringJoiner(" ");
+                sequence.getKey().forEach(type -> joiner.add(type.name()));
+                printer.printf("%d %s%n", sequence.getValue(), joiner);
+            }
+        }
+        printer.flush();
+    }
+
+    /**
+     * Reads profile written by {@link #write(Writer, InstructionResolver)}
+     * @param reader source of the profile
+     * @param resolver resolver for encoding opcodes
+     * @return read profile
+     * @throws IOException if reading fails
+     */
+    public static OpcodeProfile read(Reader reader, InstructionResolver resolver) throws IOException {
+        OpcodeProfile profile = new OpcodeProfile();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 2) {
+                continue;
+            }
+            if (parts[0].equals("dispatches")) {
+                profile.dispatches = Long.parseLong(parts[1]);
+                continue;
+            }
+            long sequenceWindow = 0;
+            for (int i = 1; i < parts.length; i++) {
+                sequenceWindow = (sequenceWindow << OPCODE_BITS) | InstructionType.valueOf(parts[i]).getValue();
+            }
+            int length = parts.length - 1;
+            if (length >= 2 && length <= MAX_LENGTH) {
+                profile.counts.put(key(sequenceWindow, length), new long[]{Long.parseLong(parts[0])});
+            }
+        }
+        return profile;
+    }
+
+    private static long key(long window, int length) {
+        long mask = (1L << (OPCODE_BITS * length)) - 1;
+        return ((long) length << (OPCODE_BITS * MAX_LENGTH)) | (window & mask);
+    }
+
+    private static int lengthOf(long key) {
+        return (int) (key >>> (OPCODE_BITS * MAX_LENGTH));
+    }
+
+    private static List<InstructionType> decode(long key, InstructionResolver resolver) {
+        int length = lengthOf(key);
+        List<InstructionType> sequence = new ArrayList<>(length);
+        for (int i = length - 1; i >= 0; i--) {
+            sequence.add(resolver.resolveInstruction((int) ((key >>> (OPCODE_BITS * i)) & OPCODE_MASK)));
+        }
+        return sequence;
+    }
+}
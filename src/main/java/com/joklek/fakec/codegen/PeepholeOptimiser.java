@@ -0,0 +1,265 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+
+/**
+ * Rewrites short instruction sequences of generated code into cheaper ones. Rewrites never span an instruction some
+ * label points to, except for the first one of the sequence, whose labels move to whatever replaces it, so every
+ * jump still lands where it did. Passes repeat until nothing changes, code left unreachable by a rewrite is removed
+ * in between
+ */
+public class PeepholeOptimiser {
+
+    /**
+     * Rewrites the optimiser can do
+     */
+    public enum Rule {
+        /** {@code POKE x; POP; PEEK x} keeps the stored value on the stack instead of reading it back */
+        FORWARD_STORES,
+        /** a value pushed and popped right away, like {@code PUSHI c; POP}, is not pushed at all */
+        DROP_UNUSED_PUSHES,
+        /** jumps to an unconditional jump go straight to its target */
+        THREAD_JUMPS,
+        /**
+         * {@code JMPZ a; JMP b; a:} becomes {@code JMPNZ b}, compare jumps with an exact negation flip the same way, and
+         * a {@code NOT} before a branch flips the branch
+         */
+        INVERT_BRANCHES,
+        /** operations that leave the value as it was, like {@code PUSHI 0; ADDI}, are removed */
+        DROP_IDENTITIES
+    }
+
+    private static final int ZERO = 0;
+    private static final int ONE = 1;
+    private static final int FLOAT_ONE = Float.floatToIntBits(1f);
+
+    private final Set<Rule> rules;
+
+    public PeepholeOptimiser() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    /**
+     * @param rules rewrites to do
+     */
+    public PeepholeOptimiser(Set<Rule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+    }
+
+    /**
+     * Optimises given code in place
+     * @param representation code to rewrite
+     * @return number of rewrites done
+     */
+    public int optimise(IntermediateRepresentation representation) {
+        if (rules.isEmpty()) {
+            return 0;
+        }
+        UnreachableCodeRemover remover = new UnreachableCodeRemover();
+        int total = 0;
+        while (true) {
+            List<Instruction> instructions = representation.getInstructions();
+            int rewrites = rules.contains(Rule.THREAD_JUMPS) ? threadJumps(instructions) : 0;
+            List<Instruction> rewritten = new ArrayList<>(instructions.size());
+            rewrites += rewrite(instructions, offsets(instructions), rewritten);
+            if (rewrites == 0) {
+                return total;
+            }
+            total += rewrites;
+            representation.setInstructions(rewritten);
+            remover.remove(representation);
+        }
+    }
+
+    private int[] offsets(List<Instruction> instructions) {
+        int[] offsets = new int[instructions.size() + 1];
+        for (int i = 0; i < instructions.size(); i++) {
+            offsets[i + 1] = offsets[i] + instructions.get(i).getSize();
+        }
+        return offsets;
+    }
+
+    /**
+     * Points jumps and switch entries that land on an unconditional jump at its target instead
+     * @return number of retargeted jumps
+     */
+    private int threadJumps(List<Instruction> instructions) {
+        Map<Integer, Integer> indexes = new HashMap<>();
+        int[] offsets = offsets(instructions);
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(offsets[i], i);
+        }
+
+        int threaded = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction jump = instructions.get(i);
+            for (int operand = 0; operand < jump.getOperandCount(); operand++) {
+                if (!jump.getType().isTarget(operand) || jump.getLabel(operand) == null) {
+                    continue;
+                }
+                Label target = jump.getLabel(operand);
+                // Chains are followed at most as far as there are instructions, so a jump to itself does not hang
+                for (int steps = 0; steps < instructions.size(); steps++) {
+                    Integer targetIndex = indexes.get(target.getValue());
+                    if (targetIndex == null) {
+                        break;
+                    }
+                    Instruction landing = instructions.get(targetIndex);
+                    if (landing.getType() != JMP || landing.getLabel(0) == null || landing.getLabel(0) == target) {
+                        break;
+                    }
+                    target = landing.getLabel(0);
+                }
+                if (target != jump.getLabel(operand)) {
+                    jump = retarget(jump, operand, target);
+                    instructions.set(i, jump);
+                    threaded++;
+                }
+            }
+        }
+        return threaded;
+    }
+
+    private Instruction retarget(Instruction jump, int operand, Label target) {
+        Instruction retargeted = jump.withLabel(operand, target);
+        retargeted.addPlacedLabels(jump.getPlacedLabels());
+        return retargeted;
+    }
+
+    /**
+     * Copies instructions into given list, rewriting sequences enabled rules match
+     * @return number of rewritten sequences
+     */
+    private int rewrite(List<Instruction> instructions, int[] offsets, List<Instruction> rewritten) {
+        int rewrites = 0;
+        // Labels of removed sequences go to the next instruction that is kept
+        List<Label> movedLabels = new ArrayList<>();
+        int index = 0;
+        while (index < instructions.size()) {
+            Instruction first = instructions.get(index);
+            movedLabels.addAll(first.getPlacedLabels());
+            first.getPlacedLabels().clear();
+
+            Instruction replacement = null;
+            int matched = 0;
+            if (rules.contains(Rule.FORWARD_STORES) && isStoreThenLoad(instructions, index)) {
+                replacement = first;
+                matched = 3;
+            }
+            else if (rules.contains(Rule.DROP_UNUSED_PUSHES) && isUnusedPush(instructions, index)) {
+                matched = 2;
+            }
+            else if (rules.contains(Rule.DROP_IDENTITIES) && isIdentity(instructions, index)) {
+                matched = 2;
+            }
+            else if (rules.contains(Rule.INVERT_BRANCHES) && isBranchOverJump(instructions, offsets, index)) {
+                replacement = Instruction.join(first.getType() == JMPZ ? JMPNZ : JMPZ, instructions.subList(index + 1, index + 2));
+                matched = 2;
+            }
+            else if (rules.contains(Rule.INVERT_BRANCHES) && isCompareJumpOverJump(instructions, offsets, index)) {
+                replacement = first.withTarget(first.getType().getNegation(), instructions.get(index + 1).getLabel(0));
+                matched = 2;
+            }
+            else if (rules.contains(Rule.INVERT_BRANCHES) && isNegatedBranch(instructions, index)) {
+                InstructionType branch = instructions.get(index + 1).getType();
+                replacement = Instruction.join(branch == JMPZ ? JMPNZ : JMPZ, instructions.subList(index + 1, index + 2));
+                matched = 2;
+            }
+
+            if (matched == 0) {
+                first.addPlacedLabels(movedLabels);
+                movedLabels.clear();
+                rewritten.add(first);
+                index++;
+                continue;
+            }
+            if (replacement != null) {
+                replacement.addPlacedLabels(movedLabels);
+                movedLabels.clear();
+                rewritten.add(replacement);
+            }
+            index += matched;
+            rewrites++;
+        }
+        return rewrites;
+    }
+
+    /**
+     * @return true if instructions from given index on exist and none of them but the first is labelled
+     */
+    private boolean isSequence(List<Instruction> instructions, int index, InstructionType... types) {
+        if (index + types.length > instructions.size()) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            Instruction instruction = instructions.get(index + i);
+            if (instruction.getType() != types[i] || (i > 0 && instruction.isLabelled())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isStoreThenLoad(List<Instruction> instructions, int index) {
+        return isSequence(instructions, index, POKE, POP, PEEK)
+                && instructions.get(index).getOperand(0) == instructions.get(index + 2).getOperand(0);
+    }
+
+    private boolean isUnusedPush(List<Instruction> instructions, int index) {
+        for (InstructionType push : new InstructionType[]{PUSHI, PUSHF, PEEK}) {
+            if (isSequence(instructions, index, push, POP) || isSequence(instructions, index, push, POPF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIdentity(List<Instruction> instructions, int index) {
+        if (isSequence(instructions, index, NOT, NOT)) {
+            return true;
+        }
+        if (index + 1 >= instructions.size() || instructions.get(index + 1).isLabelled()) {
+            return false;
+        }
+        Instruction constant = instructions.get(index);
+        InstructionType operation = instructions.get(index + 1).getType();
+        if (constant.getType() == PUSHI && constant.getOperand(0) == ZERO) {
+            return operation == ADDI || operation == SUBI;
+        }
+        if (constant.getType() == PUSHI && constant.getOperand(0) == ONE) {
+            return operation == MULI || operation == DIVI;
+        }
+        if (constant.getType() == PUSHF && constant.getOperand(0) == FLOAT_ONE) {
+            return operation == MULF || operation == DIVF;
+        }
+        return false;
+    }
+
+    private boolean isBranchOverJump(List<Instruction> instructions, int[] offsets, int index) {
+        if (!isSequence(instructions, index, JMPZ, JMP) && !isSequence(instructions, index, JMPNZ, JMP)) {
+            return false;
+        }
+        return instructions.get(index).getOperand(0) == offsets[index + 2];
+    }
+
+    private boolean isCompareJumpOverJump(List<Instruction> instructions, int[] offsets, int index) {
+        if (index + 2 > instructions.size()) {
+            return false;
+        }
+        Instruction first = instructions.get(index);
+        Instruction jump = instructions.get(index + 1);
+        return first.getType().getNegation() != null && isSequence(instructions, index, first.getType(), JMP)
+                && jump.getLabel(0) != null && first.getOperand(0) == offsets[index + 2];
+    }
+
+    private boolean isNegatedBranch(List<Instruction> instructions, int index) {
+        return isSequence(instructions, index, NOT, JMPZ) || isSequence(instructions, index, NOT, JMPNZ);
+    }
+}
@@ -0,0 +1,653 @@
+package com.joklek.fakec.codegen;
+
+import com.joklek.fakec.parsing.ast.*;
+import com.joklek.fakec.parsing.types.Node;
+import com.joklek.fakec.parsing.types.data.DataType;
+import com.joklek.fakec.parsing.types.element.ElementType;
+import com.joklek.fakec.parsing.types.operation.OperationType;
+import com.joklek.fakec.parsing.types.operation.OperatorToken;
+import com.joklek.fakec.tokens.Token;
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.commons.collections.map.MultiKeyMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.joklek.fakec.codegen.RegisterInstructionType.*;
+
+/**
+ * Lowers the AST into code for the register machine. Every variable lives in the frame register numbered as its stack
+ * slot and temporaries take the registers above them, so reading a variable costs no instruction at all. A call
+ * evaluates its arguments into consecutive registers at the top of the caller frame, they become the first registers
+ * of the callee frame and the first one receives the result.
+ * Loops are emitted with the condition at the bottom, so one iteration takes a single conditional jump
+ */
+public class RegisterCodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Integer> {
+
+    private static final int NO_DESTINATION = -1;
+
+    private final RegisterProgram program;
+    private final MultiKeyMap operationAndTypeMapForInstruction;
+    private final Map<Node, Label> functionLabels;
+    private final Map<LoopNode, Label> continueLabels;
+    private final Map<LoopNode, Label> breakLabels;
+
+    private int locals;
+    private int nextRegister;
+    private int frameSize;
+    private int destination;
+    private Stmt.Function function;
+    private Label bodyLabel;
+
+    public RegisterCodeGenerator() {
+        this.program = new RegisterProgram();
+        this.functionLabels = new HashMap<>();
+        this.continueLabels = new HashMap<>();
+        this.breakLabels = new HashMap<>();
+        this.destination = NO_DESTINATION;
+        this.operationAndTypeMapForInstruction = new MultiKeyMap();
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MULT, DataType.INT), MULI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MULT, DataType.FLOAT), MULF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.DIV, DataType.INT), DIVI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.DIV, DataType.FLOAT), DIVF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.ADD, DataType.INT), ADDI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.ADD, DataType.FLOAT), ADDF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.SUB, DataType.INT), SUBI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.SUB, DataType.FLOAT), SUBF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS, DataType.INT), LTI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS, DataType.FLOAT), LTF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS_EQUAL, DataType.INT), LEI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS_EQUAL, DataType.FLOAT), LEF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER, DataType.INT), GTI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER, DataType.FLOAT), GTF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER_EQUAL, DataType.INT), GEI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER_EQUAL, DataType.FLOAT), GEF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.INT), EQI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.NOT_EQUAL, DataType.INT), NEI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.NOT_EQUAL, DataType.FLOAT), NEF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.BOOL), EQI);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.FLOAT), EQF);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MOD, DataType.INT), MOD);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.OR, DataType.BOOL), OR);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.AND, DataType.BOOL), AND);
+    }
+
+    public RegisterProgram generate(Stmt.Program root) {
+        visitProgramStmt(root);
+        return program;
+    }
+
+    @Override
+    public Void visitProgramStmt(Stmt.Program programStmt) {
+        Label mainLabel = new Label();
+        for (Stmt.Function function : programStmt.getFunctions()) {
+            if (function.getType() == DataType.INT &&
+                    function.getName().getLexeme().equals("main") &&
+                    function.getParams().isEmpty()) {
+                mainLabel = functionLabel(function);
+            }
+        }
+        // Entry frame holds nothing but the result of main
+        program.writeJump(CALL, mainLabel, 0);
+        program.write(EXIT, 0);
+        for (Stmt.Function function : programStmt.getFunctions()) {
+            function.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function functionStmt) {
+        program.placeLabel(functionLabel(functionStmt));
+
+        locals = FrameSlots.of(functionStmt);
+        nextRegister = locals;
+        frameSize = locals;
+
+        program.write(ENTER, 0);
+        int frameSizeOffset = program.size() - 1;
+        function = functionStmt;
+        bodyLabel = newLabelAtCurrent();
+        functionStmt.getBody().accept(this);
+        program.write(RET0); // always does return even if one was before
+        program.patch(frameSizeOffset, frameSize);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block blockStmt) {
+        for (IStmt statement : blockStmt.getStatements()) {
+            statement.accept(this);
+            // Temporaries never outlive a statement
+            nextRegister = locals;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        IExpr value = returnStmt.getValue();
+        while (value instanceof Expr.Grouping) {
+            value = ((Expr.Grouping) value).getExpression();
+        }
+        if (value instanceof Expr.Call && value.getScope().resolve(((Expr.Call) value).getIdent(), ElementType.FUNCTION) == function) {
+            // Call of the function itself in tail position reuses the frame, arguments are all computed before any
+            // parameter is overwritten
+            List<Expr> arguments = ((Expr.Call) value).getArguments();
+            int base = nextRegister;
+            for (Expr argument : arguments) {
+                int register = newRegister();
+                lower(argument, register);
+                nextRegister = register + 1;
+            }
+            for (int i = 0; i < arguments.size(); i++) {
+                program.write(MOV, i, base + i);
+            }
+            program.writeJump(JMP, bodyLabel);
+            return null;
+        }
+        if (returnStmt.hasValue()) {
+            if (returnStmt.getValue() == null) {
+                throw new IllegalStateException("Return says that it has value, but it doesn't");
+            }
+            program.write(RET, lower(returnStmt.getValue()));
+        }
+        else {
+            program.write(RET0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
+        lower(expressionStmt.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        Label endLabel = new Label();
+        List<Pair<IExpr, Stmt.Block>> branches = ifStmt.getBranches();
+        for (int i = 0; i < branches.size(); i++) {
+            Pair<IExpr, Stmt.Block> branch = branches.get(i);
+            Label label = new Label();
+            jumpIfFalse(branch.getLeft(), label);
+            branch.getRight().accept(this);
+
+            if (i != branches.size() - 1 || ifStmt.getElseBranch() != null) {
+                program.writeJump(JMP, endLabel);
+            }
+            program.placeLabel(label);
+        }
+        if (ifStmt.getElseBranch() != null) {
+            ifStmt.getElseBranch().accept(this);
+        }
+        program.placeLabel(endLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While whileStmt) {
+        Label conditionLabel = new Label();
+        Label endLabel = new Label();
+        continueLabels.put(whileStmt, conditionLabel);
+        breakLabels.put(whileStmt, endLabel);
+
+        program.writeJump(JMP, conditionLabel);
+        Label bodyLabel = newLabelAtCurrent();
+        whileStmt.getBody().accept(this);
+        program.placeLabel(conditionLabel);
+        jumpIfTrue(whileStmt.getCondition(), bodyLabel);
+        program.placeLabel(endLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For forStmt) {
+        for (IStmt initializer : forStmt.getInitializer()) {
+            initializer.accept(this);
+            nextRegister = locals;
+        }
+        Label incrementLabel = new Label();
+        Label conditionLabel = new Label();
+        Label endLabel = new Label();
+        continueLabels.put(forStmt, incrementLabel);
+        breakLabels.put(forStmt, endLabel);
+
+        program.writeJump(JMP, conditionLabel);
+        Label bodyLabel = newLabelAtCurrent();
+        forStmt.getBody().accept(this);
+        program.placeLabel(incrementLabel);
+        if (forStmt.getIncrement() != null) {
+            lower(forStmt.getIncrement());
+            nextRegister = locals;
+        }
+        program.placeLabel(conditionLabel);
+        jumpIfTrue(forStmt.getCondition(), bodyLabel);
+        program.placeLabel(endLabel);
+        return null;
+    }
+
+    /**
+     * Writes a jump taken when given condition is true. Operands of AND and OR jump on their own, so the right one is
+     * only evaluated when the left one does not decide the result
+     */
+    private void jumpIfTrue(IExpr condition, Label target) {
+        condition = ungrouped(condition);
+        if (condition instanceof Expr.Literal && Boolean.TRUE.equals(((Expr.Literal) condition).getValue())) {
+            program.writeJump(JMP, target);
+            return;
+        }
+        OperationType logical = logicalOperation(condition);
+        if (logical == OperationType.OR) {
+            jumpIfTrue(((Expr.Binary) condition).getLeft(), target);
+            jumpIfTrue(((Expr.Binary) condition).getRight(), target);
+            return;
+        }
+        if (logical == OperationType.AND) {
+            Label fails = new Label();
+            jumpIfFalse(((Expr.Binary) condition).getLeft(), fails);
+            jumpIfTrue(((Expr.Binary) condition).getRight(), target);
+            program.placeLabel(fails);
+            return;
+        }
+        program.writeJump(JMPNZ, target, lower(condition));
+        nextRegister = locals;
+    }
+
+    /**
+     * Writes a jump taken when given condition is false, see {@link #jumpIfTrue(IExpr, Label)}
+     */
+    private void jumpIfFalse(IExpr condition, Label target) {
+        condition = ungrouped(condition);
+        OperationType logical = logicalOperation(condition);
+        if (logical == OperationType.AND) {
+            jumpIfFalse(((Expr.Binary) condition).getLeft(), target);
+            jumpIfFalse(((Expr.Binary) condition).getRight(), target);
+            return;
+        }
+        if (logical == OperationType.OR) {
+            Label holds = new Label();
+            jumpIfTrue(((Expr.Binary) condition).getLeft(), holds);
+            jumpIfFalse(((Expr.Binary) condition).getRight(), target);
+            program.placeLabel(holds);
+            return;
+        }
+        program.writeJump(JMPZ, target, lower(condition));
+        nextRegister = locals;
+    }
+
+    private static IExpr ungrouped(IExpr expression) {
+        while (expression instanceof Expr.Grouping) {
+            expression = ((Expr.Grouping) expression).getExpression();
+        }
+        return expression;
+    }
+
+    /**
+     * @return AND or OR if given expression is one, null otherwise
+     */
+    private static OperationType logicalOperation(IExpr expression) {
+        if (!(expression instanceof Expr.Binary)) {
+            return null;
+        }
+        OperationType operationType = ((Expr.Binary) expression).getOperator().getType();
+        return operationType == OperationType.AND || operationType == OperationType.OR ? operationType : null;
+    }
+
+    @Override
+    public Void visitOutputStmt(Stmt.Output outputStmt) {
+        for (IExpr expression : outputStmt.getExpressions()) {
+            int register = lower(expression);
+            switch (expression.getType()) {
+                case INT:
+                    program.write(OUTI, register);
+                    break;
+                case CHAR:
+                    program.write(OUTC, register);
+                    break;
+                case STRING:
+                    program.write(OUTS, register);
+                    break;
+                case BOOL:
+                    program.write(OUTB, register);
+                    break;
+                case FLOAT:
+                    program.write(OUTF, register);
+                    break;
+                case NULL:
+                    break;
+                case VOID:
+                    throw new UnsupportedOperationException("Output is not possible with void type functions");
+                default:
+                    throw new UnsupportedOperationException("Unsupported output statement with type '" + expression.getType() + "'");
+            }
+            nextRegister = locals;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input inputStmt) {
+        for (Token variable : inputStmt.getVariables()) {
+            StackDeclaredNode variableNode = (StackDeclaredNode) inputStmt.getScope().resolve(variable, ElementType.VARIABLE);
+            switch (variableNode.getType()) {
+                case INT:
+                    program.write(INI, variableNode.getStackSlot());
+                    break;
+                case CHAR:
+                    program.write(INC, variableNode.getStackSlot());
+                    break;
+                case STRING:
+                    program.write(INS, variableNode.getStackSlot());
+                    break;
+                case FLOAT:
+                    program.write(INF, variableNode.getStackSlot());
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Wrong input type");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var varStmt) {
+        if (varStmt.getInitializer() != null) {
+            lower(varStmt.getInitializer(), varStmt.getStackSlot());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayStmt(Stmt.Array arrayStmt) {
+        // Elements take the registers right after the one holding the address of the array
+        program.write(LEA, arrayStmt.getStackSlot(), arrayStmt.getStackSlot() + 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break breakStmt) {
+        program.writeJump(JMP, breakLabels.get(breakStmt.getTarget()));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue continueStmt) {
+        program.writeJump(JMP, continueLabels.get(continueStmt.getTarget()));
+        return null;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary binaryExpr) {
+        int result = takeDestination();
+        OperationType logical = logicalOperation(binaryExpr);
+        if (logical != null) {
+            // Left value of 0 for AND or 1 for OR already is the result, the right side is not evaluated then.
+            // A variable given as destination could still be read by the right side, so it is only written at the end
+            int value = result != NO_DESTINATION && result >= locals ? result : newRegister();
+            Label end = new Label();
+            moveTo(value, lower(binaryExpr.getLeft(), value));
+            program.writeJump(logical == OperationType.AND ? JMPZ : JMPNZ, end, value);
+            moveTo(value, lower(binaryExpr.getRight(), value));
+            program.placeLabel(end);
+            return moveTo(result, value);
+        }
+        DataType type = binaryExpr.getLeft().getType();
+        OperationType operationType = binaryExpr.getOperator().getType();
+        RegisterInstructionType instruction = (RegisterInstructionType) operationAndTypeMapForInstruction.get(new MultiKey(operationType, type));
+        if (instruction == null) {
+            throw new UnsupportedOperationException(String.format("Operation '%s' not possible with type %s", operationType, type));
+        }
+
+        int left = lower(binaryExpr.getLeft());
+        if (left < locals && writesVariables(binaryExpr.getRight())) {
+            // Right side changes variables, left value has to be kept as it was before that
+            int copy = newRegister();
+            program.write(MOV, copy, left);
+            left = copy;
+        }
+
+        Expr right = binaryExpr.getRight();
+        if ((instruction == ADDI || instruction == SUBI) && right instanceof Expr.Literal && right.getType() == DataType.INT) {
+            result = resultRegister(result);
+            program.write(instruction == ADDI ? ADDK : SUBK, result, left, (Integer) ((Expr.Literal) right).getValue());
+            return result;
+        }
+        int rightRegister = lower(right);
+        result = resultRegister(result);
+        program.write(instruction, result, left, rightRegister);
+        return result;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping groupingExpr) {
+        return lower(groupingExpr.getExpression(), takeDestination());
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal literalExpr) {
+        int result = resultRegister(takeDestination());
+        DataType type = literalExpr.getType();
+        Object value = literalExpr.getValue();
+
+        switch (type) {
+            case INT:
+                program.write(LOADI, result, (Integer) value);
+                break;
+            case CHAR:
+                program.write(LOADI, result, (Character) value);
+                break;
+            case STRING:
+                program.write(LOADI, result, program.addString((String) value));
+                break;
+            case BOOL:
+                program.write(LOADI, result, ((boolean) value) ? 1 : 0);
+                break;
+            case FLOAT:
+                program.write(LOADI, result, Float.floatToIntBits((float) value));
+                break;
+            case NULL:
+                program.write(LOADI, result, 0);
+                break;
+            case VOID:
+                throw new UnsupportedOperationException("Void type literals should be impossible. Value = '" + literalExpr.getValue() + "'");
+            default:
+                throw new UnsupportedOperationException("Unsupported literal type " + type);
+        }
+        return result;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary unaryExpr) {
+        int result = takeDestination();
+        OperatorToken operator = unaryExpr.getOperator();
+        OperationType operationType = operator.getType();
+        DataType type = unaryExpr.getRight().getType();
+
+        if (operationType == OperationType.INC_POST || operationType == OperationType.DEC_POST) {
+            // Postfix gives the value from before the change, kept aside unless the result goes somewhere else anyway
+            int slot = slotOf(((Expr.Variable) unaryExpr.getRight()).getName(), unaryExpr.getRight());
+            int previous = result == NO_DESTINATION || result == slot ? newRegister() : result;
+            program.write(MOV, previous, slot);
+            program.write(operationType == OperationType.INC_POST ? ADDK : SUBK, slot, slot, 1);
+            return moveTo(result, previous);
+        }
+        if (operationType == OperationType.INC_PRE || operationType == OperationType.DEC_PRE) {
+            int slot = slotOf(((Expr.Variable) unaryExpr.getRight()).getName(), unaryExpr.getRight());
+            program.write(operationType == OperationType.INC_PRE ? ADDK : SUBK, slot, slot, 1);
+            return moveTo(result, slot);
+        }
+
+        int value = lower(unaryExpr.getRight());
+        switch (operationType) {
+            case ADD:
+                return moveTo(result, value);
+            case SUB:
+                result = resultRegister(result);
+                program.write(negation(type, operator), result, value);
+                return result;
+            case NOT:
+                result = resultRegister(result);
+                program.write(NOT, result, value);
+                return result;
+            default:
+                throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operationType, operator.getLine()));
+        }
+    }
+
+    private RegisterInstructionType negation(DataType type, OperatorToken operator) {
+        switch (type) {
+            case INT:
+                return NEGI;
+            case FLOAT:
+                return NEGF;
+            default:
+                throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operator.getType(), operator.getLine()));
+        }
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable variableExpr) {
+        return moveTo(takeDestination(), slotOf(variableExpr.getName(), variableExpr));
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign assignExpr) {
+        int result = takeDestination();
+        int slot = slotOf(assignExpr.getName(), assignExpr);
+
+        if (assignExpr.getOffset() != null) {
+            int value = lower(assignExpr.getValue());
+            int offset = lower(assignExpr.getOffset());
+            int address = newRegister();
+            program.write(ADDI, address, slot, offset);
+            program.write(STOREX, address, value);
+            return moveTo(result, value);
+        }
+        lower(assignExpr.getValue(), slot);
+        return moveTo(result, slot);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call callExpr) {
+        int result = takeDestination();
+        Label label = functionLabel(callExpr.getScope().resolve(callExpr.getIdent(), ElementType.FUNCTION));
+
+        int base = nextRegister;
+        for (Expr argument : callExpr.getArguments()) {
+            int register = newRegister();
+            lower(argument, register);
+            nextRegister = register + 1;
+        }
+        if (callExpr.getArguments().isEmpty()) {
+            newRegister();
+        }
+        program.writeJump(CALL, label, base);
+        nextRegister = base + 1;
+        return moveTo(result, base);
+    }
+
+    @Override
+    public Integer visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+        int result = takeDestination();
+        int slot = slotOf(arrayAccessExpr.getArray(), arrayAccessExpr);
+        int offset = lower(arrayAccessExpr.getOffset());
+        int address = newRegister();
+        program.write(ADDI, address, slot, offset);
+        result = resultRegister(result);
+        program.write(LOADX, result, address);
+        return result;
+    }
+
+    @Override
+    public Integer visitRandom(Expr.Random random) {
+        int result = takeDestination();
+        int max = lower(random.getMaxInclusive());
+        int min = lower(random.getMinInclusive());
+        result = resultRegister(result);
+        program.write(RND, result, min, max);
+        return result;
+    }
+
+    /*---------------------------------------------------------------------------------------------------------*/
+
+    private int lower(IExpr expression) {
+        return lower(expression, NO_DESTINATION);
+    }
+
+    /**
+     * @param expression expression to evaluate
+     * @param destination register the value has to end up in, or {@link #NO_DESTINATION} if any register will do
+     * @return register holding the value
+     */
+    private int lower(IExpr expression, int destination) {
+        this.destination = destination;
+        return expression.accept(this);
+    }
+
+    private int takeDestination() {
+        int taken = destination;
+        destination = NO_DESTINATION;
+        return taken;
+    }
+
+    private int resultRegister(int destination) {
+        return destination == NO_DESTINATION ? newRegister() : destination;
+    }
+
+    private int moveTo(int destination, int register) {
+        if (destination == NO_DESTINATION || destination == register) {
+            return register;
+        }
+        program.write(MOV, destination, register);
+        return destination;
+    }
+
+    private int newRegister() {
+        int register = nextRegister++;
+        frameSize = Math.max(frameSize, nextRegister);
+        return register;
+    }
+
+    private Label newLabelAtCurrent() {
+        return new Label(program.size());
+    }
+
+    private Label functionLabel(Node function) {
+        return functionLabels.computeIfAbsent(function, key -> new Label());
+    }
+
+    private int slotOf(Token name, IExpr expression) {
+        return ((StackDeclaredNode) expression.getScope().resolve(name, ElementType.VARIABLE)).getStackSlot();
+    }
+
+    /**
+     * @return true if evaluating given expression could change a variable of the current frame
+     */
+    private boolean writesVariables(IExpr expression) {
+        if (expression instanceof Expr.Assign || expression instanceof Expr.Unary) {
+            return true;
+        }
+        if (expression instanceof Expr.Grouping) {
+            return writesVariables(((Expr.Grouping) expression).getExpression());
+        }
+        if (expression instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expression;
+            return writesVariables(binary.getLeft()) || writesVariables(binary.getRight());
+        }
+        if (expression instanceof Expr.Call) {
+            return ((Expr.Call) expression).getArguments().stream().anyMatch(this::writesVariables);
+        }
+        if (expression instanceof Expr.ArrayAccess) {
+            return writesVariables(((Expr.ArrayAccess) expression).getOffset());
+        }
+        if (expression instanceof Expr.Random) {
+            Expr.Random random = (Expr.Random) expression;
+            return writesVariables(random.getMinInclusive()) || writesVariables(random.getMaxInclusive());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+package com.joklek.fakec.codegen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Instructions of the register machine. Operands named d, a, b and s are registers of the current frame, k is an
+ * immediate value and target is a code offset. Arithmetic takes the three-address form {@code OP d, a, b}
+ */
+public enum RegisterInstructionType {
+    MOV(0x01, 2),     // d, s
+    LOADI(0x02, 2),   // d, k
+
+    ADDI(0x10, 3), ADDF(0x11, 3),
+    SUBI(0x12, 3), SUBF(0x13, 3),
+    MULI(0x14, 3), MULF(0x15, 3),
+    DIVI(0x16, 3), DIVF(0x17, 3),
+    MOD(0x18, 3),
+    ADDK(0x19, 3),    // d, a, k
+    SUBK(0x1A, 3),    // d, a, k
+    NEGI(0x1B, 2), NEGF(0x1C, 2),
+
+    EQI(0x20, 3), EQF(0x21, 3),
+    LTI(0x22, 3), LTF(0x23, 3),
+    LEI(0x24, 3), LEF(0x25, 3),
+    GTI(0x26, 3), GTF(0x27, 3),
+    GEI(0x28, 3), GEF(0x29, 3),
+    NEI(0x2A, 3), NEF(0x2B, 3),
+
+    AND(0x30, 3),
+    OR(0x31, 3),
+    NOT(0x32, 2),
+
+    ENTER(0x50, 1),   // frame size
+    LEA(0x51, 2),     // d, k: address of the k-th register of the frame
+    LOADX(0x52, 2),   // d, a: value at the address held in a
+    STOREX(0x53, 2),  // a, s
+
+    CALL(0x60, 2),    // base, target: callee frame starts at register base, which receives the result
+    RET(0x61, 1),     // s
+    RET0(0x62, 0),
+    EXIT(0x63, 1),    // s
+    JMP(0x64, 1),     // target
+    JMPZ(0x65, 2),    // s, target
+    JMPNZ(0x66, 2),   // s, target
+    RND(0x67, 3),     // d, min, max
+
+    OUTI(0x70, 1),
+    OUTF(0x71, 1),
+    OUTS(0x72, 1),
+    OUTC(0x73, 1),
+    OUTB(0x74, 1),
+
+    INI(0x75, 1),
+    INF(0x76, 1),
+    INC(0x77, 1),
+    INS(0x78, 1);
+
+    private static final Map<Integer, RegisterInstructionType> BY_VALUE = new HashMap<>();
+
+    static {
+        for (RegisterInstructionType type : values()) {
+            BY_VALUE.put(type.value, type);
+        }
+    }
+
+    private final int value;
+    private final int ops;
+
+    RegisterInstructionType(int value, int ops) {
+        this.value = value;
+        this.ops = ops;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public int getOps() {
+        return ops;
+    }
+
+    /**
+     * @param value opcode value
+     * @return instruction with given opcode, or null if there is none
+     */
+    public static RegisterInstructionType resolve(int value) {
+        return BY_VALUE.get(value);
+    }
+}
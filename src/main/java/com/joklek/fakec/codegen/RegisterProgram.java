@@ -0,0 +1,105 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Code of the register machine together with its string table. Jump and call targets are written through labels and
+ * patched once the label is placed, same as in {@link IntermediateRepresentation}
+ */
+public class RegisterProgram {
+
+    private final List<Integer> code;
+    private final StringTable table;
+
+    public RegisterProgram() {
+        this(new StringTable());
+    }
+
+    public RegisterProgram(StringTable table) {
+        this.code = new ArrayList<>();
+        this.table = table;
+    }
+
+    public List<Integer> getCode() {
+        return code;
+    }
+
+    public StringTable getStringTable() {
+        return table;
+    }
+
+    public int addString(String string) {
+        return table.add(string);
+    }
+
+    /**
+     * @return offset the next instruction will be written at
+     */
+    public int size() {
+        return code.size();
+    }
+
+    public void write(RegisterInstructionType instruction, int... operands) {
+        if (instruction.getOps() != operands.length) {
+            throw new IllegalArgumentException(String.format("Writing %s. Expected %d params but got %d.", instruction, instruction.getOps(), operands.length));
+        }
+        code.add(instruction.getValue());
+        for (int operand : operands) {
+            code.add(operand);
+        }
+    }
+
+    /**
+     * Writes an instruction whose last operand is a code offset
+     * @param instruction jump or call instruction
+     * @param target label of the target, does not need to be placed yet
+     * @param registers operands preceding the target
+     */
+    public void writeJump(RegisterInstructionType instruction, Label target, int... registers) {
+        int[] operands = new int[registers.length + 1];
+        System.arraycopy(registers, 0, operands, 0, registers.length);
+        operands[registers.length] = target.getValue();
+        write(instruction, operands);
+        target.addOffset(code.size() - 1);
+    }
+
+    public void placeLabel(Label label) {
+        label.setValue(code.size());
+        for (Integer offset : label.getOffsets()) {
+            code.set(offset, label.getValue());
+        }
+    }
+
+    /**
+     * Overwrites an already written operand
+     * @param offset offset of the operand in code
+     * @param value new value
+     */
+    public void patch(int offset, int value) {
+        code.set(offset, value);
+    }
+
+    /**
+     * @return code listing, one instruction per line
+     */
+    public List<String> disassemble() {
+        List<String> lines = new ArrayList<>();
+        int offset = 0;
+        while (offset < code.size()) {
+            RegisterInstructionType instruction = RegisterInstructionType.resolve(code.get(offset));
+            if (instruction == null) {
+                lines.add(String.format("%04d: %-10s", offset, code.get(offset)));
+                offset++;
+                continue;
+            }
+            StringBuilder ops = new StringBuilder();
+            for (int i = 1; i <= instruction.getOps(); i++) {
+                ops.append(i == 1 ? "" : ", ").append(code.get(offset + i));
+            }
+            lines.add(String.format("%04d: %-10s %s", offset, instruction, ops));
+            offset += 1 + instruction.getOps();
+        }
+        return lines;
+    }
+}
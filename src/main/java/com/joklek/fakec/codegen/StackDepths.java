@@ -0,0 +1,31 @@
+package com.joklek.fakec.codegen;
+
+import java.util.Arrays;
+
+/**
+ * Result of {@link BytecodeVerifier}, the highest the stack gets above the frame base in every function of verified
+ * code. Arguments and variables of the function count into its depth
+ */
+public class StackDepths {
+
+    private final int[] maxDepths;
+
+    StackDepths(int[] maxDepths) {
+        this.maxDepths = maxDepths;
+    }
+
+    /**
+     * @param entry code offset a function starts at, 0 for the code that calls main
+     * @return stack cells the function takes at most, counted from its frame base
+     */
+    public int getMaxDepth(int entry) {
+        return maxDepths[entry];
+    }
+
+    /**
+     * @return depths indexed by code offset of function entries, zero at every other offset
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(maxDepths, maxDepths.length);
+    }
+}
@@ -0,0 +1,111 @@
+package com.joklek.fakec.codegen;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+
+/**
+ * Stack effects of plain instructions, for passes which follow values through the stack of a basic block
+ */
+final class StackEffects {
+
+    private StackEffects() {
+    }
+
+    /**
+     * @return offsets of functions which leave a value for their callers, themselves or through a tail call
+     */
+    static Set<Integer> returningFunctions(List<ControlFlowGraph> graphs) {
+        Set<Integer> returning = graphs.stream()
+                .filter(ControlFlowGraph::returnsValue)
+                .map(ControlFlowGraph::getEntryOffset)
+                .collect(Collectors.toSet());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ControlFlowGraph graph : graphs) {
+                if (!returning.contains(graph.getEntryOffset()) && graph.getTailCallTargets().stream().anyMatch(returning::contains)) {
+                    returning.add(graph.getEntryOffset());
+                    changed = true;
+                }
+            }
+        }
+        return returning;
+    }
+
+    /**
+     * @return slot of the frame the instruction writes to, or -1 if it writes to none
+     */
+    static int storedSlot(Instruction instruction) {
+        switch (instruction.getType()) {
+            case POKE: case INC: case DEC: case ADDI_IMM:
+                return instruction.getOperand(0);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return true if the instruction takes two values and pushes a result computed only from them
+     */
+    static boolean isPureBinary(InstructionType type) {
+        switch (type) {
+            case ADDI: case ADDF: case SUBI: case SUBF: case MULI: case MULF: case DIVI: case DIVF: case MOD:
+            case EQI: case EQF: case LTI: case LTF: case LEI: case LEF: case GTI: case GTF: case GEI: case GEF:
+            case NEI: case NEF: case AND: case OR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return number of values the instruction takes from the stack
+     */
+    static int pops(Instruction instruction) {
+        InstructionType type = instruction.getType();
+        if (isPureBinary(type)) {
+            return 2;
+        }
+        switch (type) {
+            case POKES: case LD: case RND:
+                return 2;
+            case NOT: case POKE: case PEEKS: case LEA: case POP: case POPF: case JMPZ: case JMPNZ: case RET_V: case EXIT:
+            case TABLESWITCH: case LOOKUPSWITCH:
+            case STDOI: case STDOF: case STDOS: case STDOC: case STDOB:
+                return 1;
+            case JEQI: case JEQF: case JLTI: case JLTF: case JLEI: case JLEF:
+            case JGTI: case JGTF: case JGEI: case JGEF: case JNEI: case JNEF:
+                return 2;
+            case CALL: case TAILCALL:
+                return instruction.getOperand(1);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param returningFunctions offsets of functions which leave a value for their callers
+     * @return number of values the instruction pushes to the stack
+     */
+    static int pushes(Instruction instruction, Set<Integer> returningFunctions) {
+        InstructionType type = instruction.getType();
+        if (isPureBinary(type)) {
+            return 1;
+        }
+        switch (type) {
+            case ALLOC:
+                return instruction.getOperand(0);
+            case CALL:
+                return returningFunctions.contains(instruction.getOperand(0)) ? 1 : 0;
+            case PUSHI: case PUSHF: case PEEK: case NOT:
+            case POKES: case LD: case RND: case POKE: case PEEKS: case LEA:
+            case STDINI: case STDINF: case STDINC: case STDINS:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -1,24 +1,67 @@
 package com.joklek.fakec.codegen;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Strings used by a running program. Compiled code may add literals from a background compiler thread while the
+ * program reads strings, so access is synchronised
+ */
 public class StringTable {
 
     private final Map<Integer, String> strings;
+    private final Map<Integer, byte[]> encoded;
     private int current;
 
     public StringTable(){
         strings = new HashMap<>();
+        encoded = new HashMap<>();
         current = 0;
     }
 
-    public int add(String string){
+    /**
+     * @return independent table with the same strings
+     */
+    public synchronized StringTable copy(){
+        StringTable copy = new StringTable();
+        copy.strings.putAll(strings);
+        copy.encoded.putAll(encoded);
+        copy.current = current;
+        return copy;
+    }
+
+    public synchronized int size(){
+        return current;
+    }
+
+    /**
+     * Forgets strings added after the table had given size, used to roll a machine back to its loaded program
+     * @param size number of strings to keep
+     */
+    public synchronized void truncate(int size){
+        for (int key = size; key < current; key++) {
+            strings.remove(key);
+            encoded.remove(key);
+        }
+        current = Math.min(current, size);
+    }
+
+    public synchronized int add(String string){
         strings.put(current,string);
+        encoded.put(current, string.getBytes(StandardCharsets.UTF_8));
         return current++;
     }
 
-    public String get(int key){
+    /**
+     * @param key index of the string
+     * @return string encoded in UTF-8 when it was added, ready to be written to output
+     */
+    public synchronized byte[] getEncoded(int key){
+        return encoded.get(key);
+    }
+
+    public synchronized String get(int key){
         return strings.get(key);
     }
 }
@@ -0,0 +1,107 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rewrites hot instruction sequences of generated code into superinstructions. Which superinstructions are used is
+ * decided from an {@link OpcodeProfile}, a superinstruction is picked when its component sequence took at least
+ * the given share of all dispatches. Sequences are never fused over an instruction some label points to, so every
+ * jump still lands on an instruction boundary
+ */
+public class SuperinstructionFuser {
+
+    public static final double DEFAULT_MIN_SHARE = 0.01;
+
+    private final OpcodeProfile profile;
+    private final double minShare;
+
+    public SuperinstructionFuser(OpcodeProfile profile) {
+        this(profile, DEFAULT_MIN_SHARE);
+    }
+
+    /**
+     * @param profile profile of executed opcode sequences
+     * @param minShare part of all dispatches a sequence has to take to be fused
+     */
+    public SuperinstructionFuser(OpcodeProfile profile, double minShare) {
+        this.profile = profile;
+        this.minShare = minShare;
+    }
+
+    /**
+     * @return superinstructions hot enough to be fused, longest ones first, then the most executed ones
+     */
+    public List<InstructionType> selectSuperinstructions() {
+        long threshold = (long) Math.ceil(profile.getDispatches() * minShare);
+        List<InstructionType> selected = new ArrayList<>();
+        for (InstructionType type : InstructionType.values()) {
+            if (type.isSuperinstruction() && profile.getCount(type.getComponents()) >= Math.max(threshold, 1)) {
+                selected.add(type);
+            }
+        }
+        selected.sort(Comparator.<InstructionType>comparingInt(type -> type.getComponents().size()).reversed()
+                .thenComparing(Comparator.<InstructionType>comparingLong(type -> profile.getCount(type.getComponents())).reversed()));
+        return selected;
+    }
+
+    /**
+     * Fuses hot sequences in given code
+     * @param representation code to rewrite
+     * @return number of fused sequences
+     */
+    public int fuse(IntermediateRepresentation representation) {
+        List<InstructionType> superinstructions = selectSuperinstructions();
+        if (superinstructions.isEmpty()) {
+            return 0;
+        }
+
+        List<Instruction> instructions = representation.getInstructions();
+        List<Instruction> fusedInstructions = new ArrayList<>(instructions.size());
+        int fused = 0;
+        int index = 0;
+        while (index < instructions.size()) {
+            InstructionType match = findMatch(instructions, index, superinstructions);
+            if (match == null) {
+                fusedInstructions.add(instructions.get(index));
+                index++;
+            }
+            else {
+                int length = match.getComponents().size();
+                fusedInstructions.add(Instruction.join(match, instructions.subList(index, index + length)));
+                index += length;
+                fused++;
+            }
+        }
+
+        representation.setInstructions(fusedInstructions);
+        return fused;
+    }
+
+    private InstructionType findMatch(List<Instruction> instructions, int index, List<InstructionType> superinstructions) {
+        for (InstructionType superinstruction : superinstructions) {
+            if (matches(instructions, index, superinstruction.getComponents())) {
+                return superinstruction;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(List<Instruction> instructions, int index, List<InstructionType> components) {
+        if (index + components.size() > instructions.size()) {
+            return false;
+        }
+        for (int i = 0; i < components.size(); i++) {
+            Instruction instruction = instructions.get(index + i);
+            if (instruction.getType() != components.get(i)) {
+                return false;
+            }
+            // Something jumps into the middle of the sequence, it has to stay as it is
+            if (i > 0 && instruction.isLabelled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,114 @@
+package com.joklek.fakec.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes instructions no path from the start of code reaches, like returns written after an explicit return or
+ * functions that are never called, and jumps that would land on the very next instruction anyway. Labels of removed
+ * instructions move to the instruction that follows them
+ */
+public class UnreachableCodeRemover {
+
+    /**
+     * @param representation code to clean up
+     * @return number of removed instructions
+     */
+    public int remove(IntermediateRepresentation representation) {
+        List<Instruction> instructions = representation.getInstructions();
+        Map<Integer, Integer> indexes = new HashMap<>();
+        int offset = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(offset, i);
+            offset += instructions.get(i).getSize();
+        }
+
+        boolean[] reachable = new boolean[instructions.size()];
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(0);
+        while (!pending.isEmpty()) {
+            int index = pending.pop();
+            if (index >= instructions.size() || reachable[index]) {
+                continue;
+            }
+            reachable[index] = true;
+            Instruction instruction = instructions.get(index);
+            if (fallsThrough(instruction.getType())) {
+                pending.push(index + 1);
+            }
+            for (int target : targets(instruction)) {
+                Integer targetIndex = indexes.get(target);
+                if (targetIndex != null) {
+                    pending.push(targetIndex);
+                }
+            }
+        }
+
+        List<Instruction> kept = new ArrayList<>(instructions.size());
+        List<Instruction> removed = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (!reachable[i] || isJumpToNext(instruction, i, instructions, indexes, reachable)) {
+                removed.add(instruction);
+                continue;
+            }
+            for (Instruction previous : removed) {
+                instruction.addPlacedLabels(previous.getPlacedLabels());
+            }
+            removed.clear();
+            kept.add(instruction);
+        }
+
+        int count = instructions.size() - kept.size();
+        if (count != 0) {
+            representation.setInstructions(kept);
+            // Nothing follows instructions removed from the end, their labels point past the end of code
+            for (Instruction previous : removed) {
+                previous.getPlacedLabels().forEach(label -> label.setValue(representation.getInstructionBytes().size()));
+            }
+        }
+        return count;
+    }
+
+    private boolean fallsThrough(InstructionType type) {
+        List<InstructionType> components = type.getComponents();
+        InstructionType last = type.isSuperinstruction() ? components.get(components.size() - 1) : type;
+        return last != InstructionType.JMP && last != InstructionType.RET && last != InstructionType.RET_V
+                && last != InstructionType.TAILCALL && last != InstructionType.EXIT && !last.isSwitch();
+    }
+
+    private List<Integer> targets(Instruction instruction) {
+        List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < instruction.getOperandCount(); i++) {
+            if (instruction.getLabel(i) != null) {
+                targets.add(instruction.getOperand(i));
+            }
+        }
+        InstructionType type = instruction.getType();
+        if (targets.isEmpty() && (type == InstructionType.JMP || type == InstructionType.JMPZ
+                || type == InstructionType.JMPNZ || type.isCompareJump() || type == InstructionType.CALL || type == InstructionType.TAILCALL)) {
+            targets.add(instruction.getOperand(0));
+        }
+        return targets;
+    }
+
+    /**
+     * @return true if given instruction is a jump to the first reachable instruction after it
+     */
+    private boolean isJumpToNext(Instruction instruction, int index, List<Instruction> instructions,
+                                 Map<Integer, Integer> indexes, boolean[] reachable) {
+        if (instruction.getType() != InstructionType.JMP) {
+            return false;
+        }
+        int next = index + 1;
+        while (next < instructions.size() && !reachable[next]) {
+            next++;
+        }
+        Integer target = indexes.get(instruction.getOperand(0));
+        return target != null && target == next;
+    }
+}
@@ -0,0 +1,22 @@
+package com.joklek.fakec.codegen;
+
+/**
+ * Thrown when generated code does not pass {@link BytecodeVerifier}, which means the code generator or an
+ * optimisation pass wrote it wrong
+ */
+public class VerificationException extends RuntimeException {
+
+    private final int offset;
+
+    public VerificationException(int offset, String message) {
+        super(String.format("%s at offset %d", message, offset));
+        this.offset = offset;
+    }
+
+    /**
+     * @return code offset of the instruction that failed verification
+     */
+    public int getOffset() {
+        return offset;
+    }
+}
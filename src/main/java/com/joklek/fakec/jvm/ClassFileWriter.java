@@ -0,0 +1,195 @@
+package com.joklek.fakec.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a JVM class file. Only the parts the bytecode backend needs are supported: a constant pool, static fields and
+ * methods with code. Classes are written with version 49, which predates stack map frames, so the verifier infers
+ * frame types itself and the writer only has to know the maximum stack depth of every method
+ */
+public class ClassFileWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final String className;
+    private final ByteArrayOutputStream pool;
+    private final DataOutputStream poolOutput;
+    private final Map<String, Integer> poolIndexes;
+    private int poolSize;
+    private final List<byte[]> fields;
+    private final List<MethodWriter> methods;
+
+    /**
+     * @param className internal name of the class, with slashes as package separators
+     */
+    public ClassFileWriter(String className) {
+        this.className = className;
+        this.pool = new ByteArrayOutputStream();
+        this.poolOutput = new DataOutputStream(pool);
+        this.poolIndexes = new HashMap<>();
+        this.poolSize = 1;
+        this.fields = new ArrayList<>();
+        this.methods = new ArrayList<>();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(field);
+        try {
+            output.writeShort(access);
+            output.writeShort(utf8(name));
+            output.writeShort(utf8(descriptor));
+            output.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fields.add(field.toByteArray());
+    }
+
+    public MethodWriter addMethod(int access, String name, String descriptor) {
+        MethodWriter method = new MethodWriter(this, access, name, descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            int thisClass = classRef(className);
+            int superClass = classRef("java/lang/Object");
+            int codeName = utf8("Code");
+            List<byte[]> methodBytes = new ArrayList<>();
+            for (MethodWriter method : methods) {
+                methodBytes.add(method.toByteArray(codeName));
+            }
+
+            output.writeInt(MAGIC);
+            output.writeShort(0);
+            output.writeShort(MAJOR_VERSION);
+            output.writeShort(poolSize);
+            pool.writeTo(output);
+            output.writeShort(Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER);
+            output.writeShort(thisClass);
+            output.writeShort(superClass);
+            output.writeShort(0);
+            output.writeShort(fields.size());
+            for (byte[] field : fields) {
+                output.write(field);
+            }
+            output.writeShort(methodBytes.size());
+            for (byte[] method : methodBytes) {
+                output.write(method);
+            }
+            output.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /*---------------------------------------------------------------------------------------------------------*/
+
+    public int utf8(String value) {
+        return constant("U" + value, output -> {
+            output.writeByte(CONSTANT_UTF8);
+            output.writeUTF(value);
+        });
+    }
+
+    public int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, output -> {
+            output.writeByte(CONSTANT_CLASS);
+            output.writeShort(name);
+        });
+    }
+
+    public int integer(int value) {
+        return constant("I" + value, output -> {
+            output.writeByte(CONSTANT_INTEGER);
+            output.writeInt(value);
+        });
+    }
+
+    public int floatConstant(float value) {
+        return constant("F" + Float.floatToRawIntBits(value), output -> {
+            output.writeByte(CONSTANT_FLOAT);
+            output.writeFloat(value);
+        });
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + descriptor, output -> {
+            output.writeByte(tag);
+            output.writeShort(ownerIndex);
+            output.writeShort(nameAndType);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + name + descriptor, output -> {
+            output.writeByte(CONSTANT_NAME_AND_TYPE);
+            output.writeShort(nameIndex);
+            output.writeShort(descriptorIndex);
+        });
+    }
+
+    private int constant(String key, PoolEntry entry) {
+        Integer existing = poolIndexes.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            entry.write(poolOutput);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int index = poolSize++;
+        if (poolSize > 0xFFFF) {
+            throw new UnsupportedOperationException("Constant pool of the generated class is too large");
+        }
+        poolIndexes.put(key, index);
+        return index;
+    }
+
+    @FunctionalInterface
+    private interface PoolEntry {
+        void write(DataOutputStream output) throws IOException;
+    }
+}
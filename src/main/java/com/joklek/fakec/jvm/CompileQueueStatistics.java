@@ -0,0 +1,62 @@
+package com.joklek.fakec.jvm;
+
+/**
+ * Snapshot of what the tiered compiler has done so far
+ */
+public class CompileQueueStatistics {
+
+    private final int requested;
+    private final int compiled;
+    private final int failed;
+    private final int pending;
+    private final long compileTimeNanos;
+
+    public CompileQueueStatistics(int requested, int compiled, int failed, int pending, long compileTimeNanos) {
+        this.requested = requested;
+        this.compiled = compiled;
+        this.failed = failed;
+        this.pending = pending;
+        this.compileTimeNanos = compileTimeNanos;
+    }
+
+    /**
+     * @return number of functions that got hot and were queued for compilation
+     */
+    public int getRequested() {
+        return requested;
+    }
+
+    /**
+     * @return number of functions compiled and installed
+     */
+    public int getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * @return number of functions the JVM backend could not compile, these stay interpreted
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of functions waiting in the queue or being compiled
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return time spent compiling, in nanoseconds
+     */
+    public long getCompileTimeNanos() {
+        return compileTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Tiered compilation: %d requested, %d compiled, %d failed, %d pending, %d ms compiling",
+                requested, compiled, failed, pending, compileTimeNanos / 1_000_000);
+    }
+}
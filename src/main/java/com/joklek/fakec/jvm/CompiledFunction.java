@@ -0,0 +1,79 @@
+package com.joklek.fakec.jvm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Single function compiled into a JVM method, called by an interpreter in place of the interpreted function.
+ * Arguments are taken from the interpreter memory and floats cross the boundary as their bits, same as on the stack
+ */
+public class CompiledFunction {
+
+    private final Method method;
+    private final Class<?>[] parameterTypes;
+    private final Class<?> returnType;
+    private final JvmRuntime runtime;
+
+    CompiledFunction(Method method, JvmRuntime runtime) {
+        this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        this.returnType = method.getReturnType();
+        this.runtime = runtime;
+    }
+
+    /**
+     * Runs the function
+     * @param memory interpreter memory holding the arguments
+     * @param from address of the first argument
+     * @return returned value as it would be pushed on the interpreter stack, void functions return 0 and nothing
+     * should be pushed for them
+     * @throws JvmRuntime.ExecutionHalted if the program was stopped with an error that was already reported
+     */
+    public int invoke(int[] memory, int from) {
+        Object[] arguments = new Object[parameterTypes.length];
+        for (int i = 0; i < arguments.length; i++) {
+            int value = memory[from + i];
+            arguments[i] = parameterTypes[i] == float.class ? (Object) Float.intBitsToFloat(value) : (Object) value;
+        }
+
+        Object result;
+        try {
+            result = method.invoke(null, arguments);
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StackOverflowError) {
+                throw runtime.halt("Stack overflown, exiting program");
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(String.format("Compiled function %s failed", method.getName()), cause);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Generated method is not accessible", e);
+        }
+
+        if (returnType == void.class) {
+            return 0;
+        }
+        if (returnType == float.class) {
+            return Float.floatToIntBits((Float) result);
+        }
+        return (Integer) result;
+    }
+
+    /**
+     * @return true if the function returns a value the caller expects on its stack
+     */
+    public boolean returnsValue() {
+        return returnType != void.class;
+    }
+
+    public String getName() {
+        return method.getName();
+    }
+}
@@ -0,0 +1,89 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+import com.joklek.fakec.vm.VirtualMachine;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Program compiled into a JVM class. The class is loaded and verified when this is created, so a program the JVM
+ * rejects fails before anything runs and an interpreter can take over
+ */
+@SuppressWarnings("squid:S106")
+public class CompiledProgram implements VirtualMachine {
+
+    static final String RUNTIME_FIELD = "runtime";
+
+    private final String filename;
+    private final Field runtimeField;
+    private final Method main;
+    private JvmRuntime runtime;
+
+    public CompiledProgram(String filename, GeneratedClass generatedClass) {
+        this.filename = filename;
+        Class<?> loaded = new ProgramClassLoader().load(generatedClass);
+        try {
+            this.runtimeField = loaded.getField(RUNTIME_FIELD);
+            this.main = loaded.getMethod(generatedClass.getMainMethod());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated class does not match its generator", e);
+        }
+        installRuntime(new JvmRuntime(filename, generatedClass.getStringTable()));
+    }
+
+    @Override
+    public void setOutput(ProgramOutput output) {
+        installRuntime(runtime.withOutput(output));
+    }
+
+    @Override
+    public void setInput(ProgramInput input) {
+        installRuntime(runtime.withInput(input));
+    }
+
+    private void installRuntime(JvmRuntime runtime) {
+        this.runtime = runtime;
+        try {
+            runtimeField.set(null, runtime);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Generated runtime field is not accessible", e);
+        }
+    }
+
+    @Override
+    public void execute() {
+        int status;
+        try {
+            status = (int) main.invoke(null);
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StackOverflowError) {
+                runtime.halt("Stack overflown, exiting program");
+                return;
+            }
+            if (cause instanceof JvmRuntime.ExecutionHalted) {
+                return;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(String.format("Program %s failed", filename), cause);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Generated main method is not accessible", e);
+        }
+        finally {
+            runtime.getOutput().flush();
+        }
+        runtime.getOutput().printExitStatus(status);
+    }
+}
@@ -0,0 +1,43 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.codegen.StringTable;
+
+/**
+ * Class file generated for a program, ready to be loaded by {@link CompiledProgram}
+ */
+public class GeneratedClass {
+
+    private final String name;
+    private final byte[] bytes;
+    private final String mainMethod;
+    private final StringTable strings;
+
+    /**
+     * @param name binary name of the class
+     * @param bytes class file contents
+     * @param mainMethod name of the static method the program starts at
+     * @param strings string literals used by the program
+     */
+    public GeneratedClass(String name, byte[] bytes, String mainMethod, StringTable strings) {
+        this.name = name;
+        this.bytes = bytes;
+        this.mainMethod = mainMethod;
+        this.strings = strings;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String getMainMethod() {
+        return mainMethod;
+    }
+
+    public StringTable getStringTable() {
+        return strings;
+    }
+}
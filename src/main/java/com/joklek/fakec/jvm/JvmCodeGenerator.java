@@ -0,0 +1,832 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.codegen.StringTable;
+import com.joklek.fakec.jvm.MethodWriter.JumpTarget;
+import com.joklek.fakec.parsing.ast.*;
+import com.joklek.fakec.parsing.types.Node;
+import com.joklek.fakec.parsing.types.data.DataType;
+import com.joklek.fakec.parsing.types.element.ElementType;
+import com.joklek.fakec.parsing.types.operation.OperationType;
+import com.joklek.fakec.parsing.types.operation.OperatorToken;
+import com.joklek.fakec.tokens.Token;
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.commons.collections.map.MultiKeyMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+import static com.joklek.fakec.jvm.Opcodes.*;
+
+/**
+ * Compiles a checked program into a JVM class with one static method per function, so the JIT compiles FakeC code
+ * the same way it compiles Java. Variables become JVM locals numbered by their stack slot and arrays become JVM arrays
+ * allocated when the function is entered. Conditions of ifs and loops are compiled straight into compare-and-branch
+ * instructions. Input, output and random numbers go through {@link JvmRuntime}.
+ * Anything the backend cannot compile throws {@link UnsupportedOperationException}, so the caller can fall back to an
+ * interpreter
+ */
+public class JvmCodeGenerator implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+
+    private static final String CLASS_NAME = "FakeCProgram";
+    private static final String RUNTIME = "com/joklek/fakec/jvm/JvmRuntime";
+    private static final String RUNTIME_DESCRIPTOR = "L" + RUNTIME + ";";
+
+    private final ClassFileWriter classWriter;
+    private final StringTable strings;
+    private final MultiKeyMap operationAndTypeMapForInstruction;
+    private final Map<LoopNode, JumpTarget> continueTargets;
+    private final Map<LoopNode, JumpTarget> breakTargets;
+    private final Set<Stmt.Function> generated;
+    private final Deque<Stmt.Function> pending;
+    private MethodWriter method;
+    private Stmt.Function function;
+    private JumpTarget functionStart;
+
+    public JvmCodeGenerator() {
+        this(new StringTable());
+    }
+
+    /**
+     * @param strings table string literals are added to, compiled code shares string indices with everyone using it
+     */
+    public JvmCodeGenerator(StringTable strings) {
+        this.classWriter = new ClassFileWriter(CLASS_NAME);
+        this.strings = strings;
+        this.generated = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.pending = new ArrayDeque<>();
+        this.continueTargets = new HashMap<>();
+        this.breakTargets = new HashMap<>();
+        this.operationAndTypeMapForInstruction = new MultiKeyMap();
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MULT, DataType.INT), IMUL);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MULT, DataType.FLOAT), FMUL);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.DIV, DataType.INT), IDIV);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.DIV, DataType.FLOAT), FDIV);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.ADD, DataType.INT), IADD);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.ADD, DataType.FLOAT), FADD);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.SUB, DataType.INT), ISUB);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.SUB, DataType.FLOAT), FSUB);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.MOD, DataType.INT), IREM);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.OR, DataType.BOOL), IOR);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.AND, DataType.BOOL), IAND);
+        // Comparisons map to the jump taken when they hold
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS, DataType.INT), IF_ICMPLT);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS, DataType.FLOAT), IFLT);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS_EQUAL, DataType.INT), IF_ICMPLE);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.LESS_EQUAL, DataType.FLOAT), IFLE);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER, DataType.INT), IF_ICMPGT);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER, DataType.FLOAT), IFGT);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER_EQUAL, DataType.INT), IF_ICMPGE);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.GREATER_EQUAL, DataType.FLOAT), IFGE);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.INT), IF_ICMPEQ);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.BOOL), IF_ICMPEQ);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.EQUAL_EQUAL, DataType.FLOAT), IFEQ);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.NOT_EQUAL, DataType.INT), IF_ICMPNE);
+        this.operationAndTypeMapForInstruction.put(new MultiKey(OperationType.NOT_EQUAL, DataType.FLOAT), IFNE);
+    }
+
+    public GeneratedClass generate(Stmt.Program program) {
+        visitProgramStmt(program);
+        Stmt.Function main = findMain(program);
+        return new GeneratedClass(CLASS_NAME, classWriter.toByteArray(), methodName(main), strings);
+    }
+
+    /**
+     * Compiles a single function together with every function it can call
+     * @param entry function the class is generated for
+     * @return class with a static method for given function
+     */
+    public GeneratedClass generate(Stmt.Function entry) {
+        classWriter.addField(ACC_PUBLIC | ACC_STATIC, CompiledProgram.RUNTIME_FIELD, RUNTIME_DESCRIPTOR);
+        pending.add(entry);
+        generatePending();
+        return new GeneratedClass(CLASS_NAME, classWriter.toByteArray(), methodName(entry), strings);
+    }
+
+    private void generatePending() {
+        while (!pending.isEmpty()) {
+            Stmt.Function next = pending.poll();
+            if (generated.add(next)) {
+                next.accept(this);
+            }
+        }
+    }
+
+    private Stmt.Function findMain(Stmt.Program program) {
+        for (Stmt.Function candidate : program.getFunctions()) {
+            if (candidate.getType() == DataType.INT &&
+                    candidate.getName().getLexeme().equals("main") &&
+                    candidate.getParams().isEmpty()) {
+                return candidate;
+            }
+        }
+        throw new UnsupportedOperationException("Program has no 'int main()' function");
+    }
+
+    @Override
+    public Void visitProgramStmt(Stmt.Program programStmt) {
+        findMain(programStmt);
+        classWriter.addField(ACC_PUBLIC | ACC_STATIC, CompiledProgram.RUNTIME_FIELD, RUNTIME_DESCRIPTOR);
+        pending.addAll(programStmt.getFunctions());
+        generatePending();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function functionStmt) {
+        function = functionStmt;
+        method = classWriter.addMethod(ACC_PUBLIC | ACC_STATIC, methodName(functionStmt), descriptor(functionStmt));
+        // Calls of the function itself in tail position jump back here, so locals are set up again like for a new call
+        functionStart = new JumpTarget();
+        method.placeTarget(functionStart);
+
+        // Locals are set up front, a variable read before it is written gets a zero instead of failing verification
+        List<Stmt.Var> declarations = new ArrayList<>();
+        collectDeclarations(functionStmt.getBody(), declarations);
+        for (Stmt.Var declaration : declarations) {
+            if (declaration instanceof Stmt.Array) {
+                method.pushInt(((Stmt.Array) declaration).getSize());
+                method.newArray(declaration.getType() == DataType.FLOAT ? T_FLOAT : T_INT);
+                method.varInsn(ASTORE, declaration.getStackSlot());
+            }
+            else {
+                pushZero(declaration.getType());
+                method.varInsn(storeOpcode(declaration.getType()), declaration.getStackSlot());
+            }
+        }
+
+        functionStmt.getBody().accept(this);
+        // Falling off the end returns zero, same as RET of the interpreter
+        returnZero();
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block blockStmt) {
+        for (IStmt statement : blockStmt.getStatements()) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        if (!returnStmt.hasValue()) {
+            returnZero();
+            return null;
+        }
+        if (returnStmt.getValue() == null) {
+            throw new IllegalStateException("Return says that it has value, but it doesn't");
+        }
+        IExpr value = returnStmt.getValue();
+        while (value instanceof Expr.Grouping) {
+            value = ((Expr.Grouping) value).getExpression();
+        }
+        if (value instanceof Expr.Call && value.getScope().resolve(((Expr.Call) value).getIdent(), ElementType.FUNCTION) == function) {
+            // Arguments go over the parameters, which are the first locals, so deep recursion does not grow the JVM stack
+            pushArguments(function, ((Expr.Call) value).getArguments());
+            List<Pair<Token, DataType>> params = function.getParams();
+            for (int slot = params.size() - 1; slot >= 0; slot--) {
+                method.varInsn(storeOpcode(params.get(slot).getRight()), slot);
+            }
+            method.jump(GOTO, functionStart);
+            return null;
+        }
+        returnStmt.getValue().accept(this);
+        if (function.getType() == DataType.VOID) {
+            method.insn(POP);
+            method.insn(RETURN);
+        }
+        else {
+            method.insn(function.getType() == DataType.FLOAT ? FRETURN : IRETURN);
+        }
+        return null;
+    }
+
+    private void returnZero() {
+        if (function.getType() == DataType.VOID) {
+            method.insn(RETURN);
+        }
+        else {
+            pushZero(function.getType());
+            method.insn(function.getType() == DataType.FLOAT ? FRETURN : IRETURN);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
+        IExpr expression = expressionStmt.getExpression();
+        if (expression instanceof Expr.Assign) {
+            assign((Expr.Assign) expression, false);
+        }
+        else if (expression instanceof Expr.Unary && isIncrement((Expr.Unary) expression)) {
+            unaryOnVariable((Expr.Unary) expression, false);
+        }
+        else {
+            expression.accept(this);
+            if (expression.getType() != DataType.VOID) {
+                method.insn(POP);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        JumpTarget end = new JumpTarget();
+        List<Pair<IExpr, Stmt.Block>> branches = ifStmt.getBranches();
+        for (int i = 0; i < branches.size(); i++) {
+            Pair<IExpr, Stmt.Block> branch = branches.get(i);
+            JumpTarget next = new JumpTarget();
+            branch(branch.getLeft(), false, next);
+            branch.getRight().accept(this);
+            if (i != branches.size() - 1 || ifStmt.getElseBranch() != null) {
+                method.jump(GOTO, end);
+            }
+            method.placeTarget(next);
+        }
+        if (ifStmt.getElseBranch() != null) {
+            ifStmt.getElseBranch().accept(this);
+        }
+        method.placeTarget(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While whileStmt) {
+        JumpTarget body = new JumpTarget();
+        JumpTarget condition = new JumpTarget();
+        JumpTarget end = new JumpTarget();
+        continueTargets.put(whileStmt, condition);
+        breakTargets.put(whileStmt, end);
+
+        method.jump(GOTO, condition);
+        method.placeTarget(body);
+        whileStmt.getBody().accept(this);
+        method.placeTarget(condition);
+        branch(whileStmt.getCondition(), true, body);
+        method.placeTarget(end);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For forStmt) {
+        for (IStmt initializer : forStmt.getInitializer()) {
+            initializer.accept(this);
+        }
+        JumpTarget body = new JumpTarget();
+        JumpTarget increment = new JumpTarget();
+        JumpTarget condition = new JumpTarget();
+        JumpTarget end = new JumpTarget();
+        continueTargets.put(forStmt, increment);
+        breakTargets.put(forStmt, end);
+
+        method.jump(GOTO, condition);
+        method.placeTarget(body);
+        forStmt.getBody().accept(this);
+        method.placeTarget(increment);
+        if (forStmt.getIncrement() != null) {
+            visitExpressionStmt(new Stmt.Expression(forStmt.getIncrement()));
+        }
+        method.placeTarget(condition);
+        branch(forStmt.getCondition(), true, body);
+        method.placeTarget(end);
+        return null;
+    }
+
+    @Override
+    public Void visitOutputStmt(Stmt.Output outputStmt) {
+        for (IExpr expression : outputStmt.getExpressions()) {
+            String printer;
+            switch (expression.getType()) {
+                case INT:
+                    printer = "printInt";
+                    break;
+                case CHAR:
+                    printer = "printChar";
+                    break;
+                case STRING:
+                    printer = "printString";
+                    break;
+                case BOOL:
+                    printer = "printBool";
+                    break;
+                case FLOAT:
+                    printer = "printFloat";
+                    break;
+                case NULL:
+                    expression.accept(this);
+                    method.insn(POP);
+                    continue;
+                case VOID:
+                    throw new UnsupportedOperationException("Output is not possible with void type functions");
+                default:
+                    throw new UnsupportedOperationException("Unsupported output statement with type '" + expression.getType() + "'");
+            }
+            loadRuntime();
+            expression.accept(this);
+            method.invoke(INVOKEVIRTUAL, RUNTIME, printer, "(" + typeDescriptor(expression.getType()) + ")V");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input inputStmt) {
+        for (Token variable : inputStmt.getVariables()) {
+            StackDeclaredNode variableNode = scalar(inputStmt.getScope().resolve(variable, ElementType.VARIABLE));
+            String reader;
+            switch (variableNode.getType()) {
+                case INT:
+                    reader = "readInt";
+                    break;
+                case CHAR:
+                    reader = "readChar";
+                    break;
+                case STRING:
+                    reader = "readString";
+                    break;
+                case FLOAT:
+                    reader = "readFloat";
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Wrong input type");
+            }
+            loadRuntime();
+            method.invoke(INVOKEVIRTUAL, RUNTIME, reader, "()" + typeDescriptor(variableNode.getType()));
+            method.varInsn(storeOpcode(variableNode.getType()), variableNode.getStackSlot());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var varStmt) {
+        if (varStmt.getInitializer() != null) {
+            varStmt.getInitializer().accept(this);
+            method.varInsn(storeOpcode(varStmt.getType()), varStmt.getStackSlot());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayStmt(Stmt.Array arrayStmt) {
+        // Arrays are allocated when the function is entered
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break breakStmt) {
+        method.jump(GOTO, breakTargets.get(breakStmt.getTarget()));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue continueStmt) {
+        method.jump(GOTO, continueTargets.get(continueStmt.getTarget()));
+        return null;
+    }
+
+    /**
+     * Writes a jump taken when a condition evaluates to given value, comparisons jump on their operands directly and
+     * the right operand of AND and OR is only evaluated when the left one does not decide the result
+     */
+    private void branch(IExpr condition, boolean when, JumpTarget target) {
+        if (condition instanceof Expr.Grouping) {
+            branch(((Expr.Grouping) condition).getExpression(), when, target);
+            return;
+        }
+        if (condition instanceof Expr.Binary && isLogical(((Expr.Binary) condition).getOperator().getType())) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            // Left operand of AND jumps when false and of OR when true, if that is the wanted outcome it can go straight to the target
+            boolean decidesWhen = binary.getOperator().getType() == OperationType.OR;
+            if (decidesWhen == when) {
+                branch(binary.getLeft(), when, target);
+                branch(binary.getRight(), when, target);
+            }
+            else {
+                JumpTarget decided = new JumpTarget();
+                branch(binary.getLeft(), decidesWhen, decided);
+                branch(binary.getRight(), when, target);
+                method.placeTarget(decided);
+            }
+            return;
+        }
+        if (condition instanceof Expr.Literal && condition.getType() == DataType.BOOL) {
+            if (((Boolean) ((Expr.Literal) condition).getValue()) == when) {
+                method.jump(GOTO, target);
+            }
+            return;
+        }
+        if (condition instanceof Expr.Binary && isComparison(((Expr.Binary) condition).getOperator().getType())) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            int jump = comparisonJump(binary);
+            binary.getLeft().accept(this);
+            binary.getRight().accept(this);
+            jumpOnComparison(jump, binary.getOperator().getType(), when, target);
+            return;
+        }
+        condition.accept(this);
+        method.jump(when ? IFNE : IFEQ, target);
+    }
+
+    private void jumpOnComparison(int jump, OperationType operationType, boolean when, JumpTarget target) {
+        int opcode = when ? jump : negate(jump);
+        if (jump < IF_ICMPEQ) {
+            // NaN has to fail every comparison but !=, so it is ordered to the side where the comparison fails. A negated
+            // jump is taken exactly when the comparison fails, so that does not depend on which way the jump goes
+            boolean nanIsGreater = operationType == OperationType.LESS || operationType == OperationType.LESS_EQUAL;
+            method.insn(nanIsGreater ? FCMPG : FCMPL);
+        }
+        method.jump(opcode, target);
+    }
+
+    private static int negate(int jump) {
+        switch (jump) {
+            case IFEQ: return IFNE;
+            case IFNE: return IFEQ;
+            case IFLT: return IFGE;
+            case IFGE: return IFLT;
+            case IFGT: return IFLE;
+            case IFLE: return IFGT;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            case IF_ICMPLE: return IF_ICMPGT;
+            default:
+                throw new IllegalArgumentException("Not a conditional jump " + jump);
+        }
+    }
+
+    private static boolean isComparison(OperationType operationType) {
+        switch (operationType) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLogical(OperationType operationType) {
+        return operationType == OperationType.AND || operationType == OperationType.OR;
+    }
+
+    private int comparisonJump(Expr.Binary binaryExpr) {
+        DataType type = binaryExpr.getLeft().getType();
+        if (type != binaryExpr.getRight().getType()) {
+            throw new UnsupportedOperationException(String.format("Comparing %s with %s is not supported by the JVM backend", type, binaryExpr.getRight().getType()));
+        }
+        OperationType operationType = binaryExpr.getOperator().getType();
+        Integer jump = (Integer) operationAndTypeMapForInstruction.get(new MultiKey(operationType, type));
+        if (jump == null) {
+            throw new UnsupportedOperationException(String.format("Operation '%s' not possible with type %s", operationType, type));
+        }
+        return jump;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary binaryExpr) {
+        OperationType operationType = binaryExpr.getOperator().getType();
+        if (isComparison(operationType) || isLogical(operationType)) {
+            // Comparisons and logical operations produce 1 or 0
+            JumpTarget holds = new JumpTarget();
+            JumpTarget end = new JumpTarget();
+            branch(binaryExpr, true, holds);
+            method.pushInt(0);
+            method.jump(GOTO, end);
+            method.placeTarget(holds);
+            method.pushInt(1);
+            method.placeTarget(end);
+            return null;
+        }
+
+        DataType type = binaryExpr.getLeft().getType();
+        if (type != binaryExpr.getRight().getType()) {
+            throw new UnsupportedOperationException(String.format("Operation '%s' on %s and %s is not supported by the JVM backend", operationType, type, binaryExpr.getRight().getType()));
+        }
+        Integer instruction = (Integer) operationAndTypeMapForInstruction.get(new MultiKey(operationType, type));
+        if (instruction == null) {
+            throw new UnsupportedOperationException(String.format("Operation '%s' not possible with type %s", operationType, type));
+        }
+        binaryExpr.getLeft().accept(this);
+        binaryExpr.getRight().accept(this);
+        method.insn(instruction);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping groupingExpr) {
+        groupingExpr.getExpression().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal literalExpr) {
+        DataType type = literalExpr.getType();
+        Object value = literalExpr.getValue();
+
+        switch (type) {
+            case INT:
+                method.pushInt((Integer) value);
+                break;
+            case CHAR:
+                method.pushInt((Character) value);
+                break;
+            case STRING:
+                method.pushInt(strings.add((String) value));
+                break;
+            case BOOL:
+                method.pushInt(((boolean) value) ? 1 : 0);
+                break;
+            case FLOAT:
+                method.pushFloat((float) value);
+                break;
+            case NULL:
+                method.pushInt(0);
+                break;
+            case VOID:
+                throw new UnsupportedOperationException("Void type literals should be impossible. Value = '" + literalExpr.getValue() + "'");
+            default:
+                throw new UnsupportedOperationException("Unsupported literal type " + type);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+        if (isIncrement(unaryExpr)) {
+            unaryOnVariable(unaryExpr, true);
+            return null;
+        }
+        OperatorToken operator = unaryExpr.getOperator();
+        unaryExpr.getRight().accept(this);
+        switch (operator.getType()) {
+            case ADD:
+                break;
+            case SUB:
+                method.insn(negation(unaryExpr.getType(), operator));
+                break;
+            case NOT:
+                method.pushInt(1);
+                method.insn(IXOR);
+                break;
+            default:
+                throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operator.getType(), operator.getLine()));
+        }
+        return null;
+    }
+
+    private boolean isIncrement(Expr.Unary unaryExpr) {
+        switch (unaryExpr.getOperator().getType()) {
+            case INC_PRE:
+            case INC_POST:
+            case DEC_PRE:
+            case DEC_POST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Increments and decrements write the result back into the variable, prefix ones give the new value and postfix
+     * ones the value from before
+     */
+    private void unaryOnVariable(Expr.Unary unaryExpr, boolean keepValue) {
+        OperatorToken operator = unaryExpr.getOperator();
+        StackDeclaredNode variable = scalar(unaryExpr.getScope().resolve(((Expr.Variable) unaryExpr.getRight()).getName(), ElementType.VARIABLE));
+        int slot = variable.getStackSlot();
+        boolean postfix = operator.getType() == OperationType.INC_POST || operator.getType() == OperationType.DEC_POST;
+        if (keepValue && postfix) {
+            method.varInsn(ILOAD, slot);
+        }
+        method.iinc(slot, operator.getType() == OperationType.INC_PRE || operator.getType() == OperationType.INC_POST ? 1 : -1);
+        if (keepValue && !postfix) {
+            method.varInsn(ILOAD, slot);
+        }
+    }
+
+    private int negation(DataType type, OperatorToken operator) {
+        switch (type) {
+            case INT:
+                return INEG;
+            case FLOAT:
+                return FNEG;
+            default:
+                throw new UnsupportedOperationException(String.format("Operation type '%s' is not supported in unary operations in line %d", operator.getType(), operator.getLine()));
+        }
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable variableExpr) {
+        StackDeclaredNode variable = scalar(variableExpr.getScope().resolve(variableExpr.getName(), ElementType.VARIABLE));
+        method.varInsn(loadOpcode(variable.getType()), variable.getStackSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign assignExpr) {
+        assign(assignExpr, true);
+        return null;
+    }
+
+    private void assign(Expr.Assign assignExpr, boolean keepValue) {
+        Node resolved = assignExpr.getScope().resolve(assignExpr.getName(), ElementType.VARIABLE);
+        if (assignExpr.getOffset() != null) {
+            Stmt.Array array = array(resolved);
+            method.varInsn(ALOAD, array.getStackSlot());
+            // The stack machine works out the value before the offset, side effects of either have to happen in that order
+            assignExpr.getValue().accept(this);
+            assignExpr.getOffset().accept(this);
+            method.insn(SWAP);
+            if (keepValue) {
+                method.insn(DUP_X2);
+            }
+            method.insn(array.getType() == DataType.FLOAT ? FASTORE : IASTORE);
+            return;
+        }
+
+        StackDeclaredNode variable = scalar(resolved);
+        int slot = variable.getStackSlot();
+        Integer increment = increment(slot, assignExpr.getValue());
+        if (increment != null) {
+            method.iinc(slot, increment);
+            if (keepValue) {
+                method.varInsn(ILOAD, slot);
+            }
+            return;
+        }
+        assignExpr.getValue().accept(this);
+        if (keepValue) {
+            method.insn(DUP);
+        }
+        method.varInsn(storeOpcode(variable.getType()), slot);
+    }
+
+    /**
+     * @return constant added to the variable in given slot if the value is {@code variable + constant} or
+     * {@code variable - constant} on integers, null otherwise
+     */
+    private Integer increment(int slot, Expr value) {
+        if (!(value instanceof Expr.Binary) || value.getType() != DataType.INT) {
+            return null;
+        }
+        Expr.Binary binary = (Expr.Binary) value;
+        OperationType operationType = binary.getOperator().getType();
+        if ((operationType != OperationType.ADD && operationType != OperationType.SUB)
+                || !(binary.getLeft() instanceof Expr.Variable)
+                || !(binary.getRight() instanceof Expr.Literal)
+                || binary.getRight().getType() != DataType.INT) {
+            return null;
+        }
+        Expr.Variable variable = (Expr.Variable) binary.getLeft();
+        Node resolved = variable.getScope().resolve(variable.getName(), ElementType.VARIABLE);
+        if (resolved instanceof Stmt.Array || ((StackDeclaredNode) resolved).getStackSlot() != slot) {
+            return null;
+        }
+        int constant = (Integer) ((Expr.Literal) binary.getRight()).getValue();
+        if (operationType == OperationType.SUB) {
+            constant = -constant;
+        }
+        return constant >= Short.MIN_VALUE && constant <= Short.MAX_VALUE ? constant : null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call callExpr) {
+        Stmt.Function callee = (Stmt.Function) callExpr.getScope().resolve(callExpr.getIdent(), ElementType.FUNCTION);
+        pushArguments(callee, callExpr.getArguments());
+        method.invoke(INVOKESTATIC, CLASS_NAME, methodName(callee), descriptor(callee));
+        pending.add(callee);
+        return null;
+    }
+
+    private void pushArguments(Stmt.Function callee, List<Expr> arguments) {
+        List<Pair<Token, DataType>> params = callee.getParams();
+        if (arguments.size() != params.size()) {
+            throw new UnsupportedOperationException(String.format("Function '%s' takes %d arguments, but was called with %d", callee.getName().getLexeme(), params.size(), arguments.size()));
+        }
+        for (int i = 0; i < arguments.size(); i++) {
+            Expr argument = arguments.get(i);
+            if (isFloat(argument.getType()) != isFloat(params.get(i).getRight())) {
+                throw new UnsupportedOperationException(String.format("Passing %s as %s is not supported by the JVM backend", argument.getType(), params.get(i).getRight()));
+            }
+            argument.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+        Stmt.Array array = array(arrayAccessExpr.getScope().resolve(arrayAccessExpr.getArray(), ElementType.VARIABLE));
+        method.varInsn(ALOAD, array.getStackSlot());
+        arrayAccessExpr.getOffset().accept(this);
+        method.insn(array.getType() == DataType.FLOAT ? FALOAD : IALOAD);
+        return null;
+    }
+
+    @Override
+    public Void visitRandom(Expr.Random random) {
+        loadRuntime();
+        random.getMaxInclusive().accept(this);
+        random.getMinInclusive().accept(this);
+        method.invoke(INVOKEVIRTUAL, RUNTIME, "random", "(II)I");
+        return null;
+    }
+
+    /*---------------------------------------------------------------------------------------------------------*/
+
+    private void loadRuntime() {
+        method.fieldInsn(GETSTATIC, CLASS_NAME, CompiledProgram.RUNTIME_FIELD, RUNTIME_DESCRIPTOR);
+    }
+
+    private void pushZero(DataType type) {
+        if (isFloat(type)) {
+            method.pushFloat(0);
+        }
+        else {
+            method.pushInt(0);
+        }
+    }
+
+    private static boolean isFloat(DataType type) {
+        return type == DataType.FLOAT;
+    }
+
+    private static int loadOpcode(DataType type) {
+        return isFloat(type) ? FLOAD : ILOAD;
+    }
+
+    private static int storeOpcode(DataType type) {
+        return isFloat(type) ? FSTORE : ISTORE;
+    }
+
+    private static String typeDescriptor(DataType type) {
+        switch (type) {
+            case FLOAT:
+                return "F";
+            case VOID:
+                return "V";
+            default:
+                return "I";
+        }
+    }
+
+    private static String methodName(Stmt.Function functionStmt) {
+        return functionStmt.getName().getLexeme();
+    }
+
+    private static String descriptor(Stmt.Function functionStmt) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Pair<Token, DataType> param : functionStmt.getParams()) {
+            descriptor.append(typeDescriptor(param.getRight()));
+        }
+        return descriptor.append(')').append(typeDescriptor(functionStmt.getType())).toString();
+    }
+
+    private static StackDeclaredNode scalar(Node resolved) {
+        if (resolved instanceof Stmt.Array) {
+            throw new UnsupportedOperationException(String.format("Array '%s' can only be used through indexing by the JVM backend", ((Stmt.Array) resolved).getName().getLexeme()));
+        }
+        return (StackDeclaredNode) resolved;
+    }
+
+    private static Stmt.Array array(Node resolved) {
+        if (!(resolved instanceof Stmt.Array)) {
+            throw new UnsupportedOperationException("Indexing is only supported on arrays by the JVM backend");
+        }
+        return (Stmt.Array) resolved;
+    }
+
+    private static void collectDeclarations(IStmt statement, List<Stmt.Var> declarations) {
+        if (statement instanceof Stmt.Var) {
+            declarations.add((Stmt.Var) statement);
+        }
+        else if (statement instanceof Stmt.Block) {
+            for (IStmt inner : ((Stmt.Block) statement).getStatements()) {
+                collectDeclarations(inner, declarations);
+            }
+        }
+        else if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+                collectDeclarations(branch.getRight(), declarations);
+            }
+            if (ifStmt.getElseBranch() != null) {
+                collectDeclarations(ifStmt.getElseBranch(), declarations);
+            }
+        }
+        else if (statement instanceof Stmt.While) {
+            collectDeclarations(((Stmt.While) statement).getBody(), declarations);
+        }
+        else if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            for (IStmt initializer : forStmt.getInitializer()) {
+                collectDeclarations(initializer, declarations);
+            }
+            collectDeclarations(forStmt.getBody(), declarations);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.codegen.StringTable;
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+
+import java.util.InputMismatchException;
+import java.util.Random;
+
+/**
+ * Input, output and everything else compiled programs cannot do in plain bytecode. Compiled code reaches it through a
+ * static field of the generated class, output and input follow the interpreters to the character
+ */
+@SuppressWarnings("squid:S106")
+public class JvmRuntime {
+
+    private final String filename;
+    private final StringTable strings;
+    private final ProgramInput input;
+    private final Random randomGen;
+    private final ProgramOutput output;
+
+    /**
+     * Thrown when the program has to stop after an error that was already reported
+     */
+    public static class ExecutionHalted extends RuntimeException {
+        ExecutionHalted() {
+            super(null, null, false, false);
+        }
+    }
+
+    public JvmRuntime(String filename, StringTable strings) {
+        this(filename, strings, new ProgramInput(), new Random(), new ProgramOutput());
+    }
+
+    /**
+     * Runtime sharing input and random numbers with an interpreter, so compiled and interpreted code can be mixed
+     * @param filename name of the program, used in errors
+     * @param strings string table of the interpreter
+     * @param input input of the interpreter
+     * @param randomGen random number generator of the interpreter
+     * @param output output of the interpreter
+     */
+    public JvmRuntime(String filename, StringTable strings, ProgramInput input, Random randomGen, ProgramOutput output) {
+        this.filename = filename;
+        this.strings = strings;
+        this.input = input;
+        this.randomGen = randomGen;
+        this.output = output;
+    }
+
+    /**
+     * Copies this runtime with a different output
+     * @param output output to print to
+     * @return runtime sharing everything else with this one
+     */
+    public JvmRuntime withOutput(ProgramOutput output) {
+        return new JvmRuntime(filename, strings, input, randomGen, output);
+    }
+
+    /**
+     * Copies this runtime with a different input
+     * @param input input to read from
+     * @return runtime sharing everything else with this one
+     */
+    public JvmRuntime withInput(ProgramInput input) {
+        return new JvmRuntime(filename, strings, input, randomGen, output);
+    }
+
+    public ProgramOutput getOutput() {
+        return output;
+    }
+
+    public void printInt(int value) {
+        output.printInt(value);
+    }
+
+    public void printFloat(float value) {
+        output.printFloat(value);
+    }
+
+    public void printString(int index) {
+        output.print(strings.getEncoded(index));
+    }
+
+    public void printChar(int value) {
+        output.printChar(value);
+    }
+
+    public void printBool(int value) {
+        output.printBool(value);
+    }
+
+    public int readInt() {
+        output.flush();
+        try {
+            return input.readInt();
+        }
+        catch (InputMismatchException ex) {
+            throw halt("Incorrect integer entered");
+        }
+    }
+
+    public float readFloat() {
+        output.flush();
+        try {
+            return input.readFloat();
+        }
+        catch (InputMismatchException ex) {
+            throw halt("Incorrect float entered");
+        }
+    }
+
+    public int readChar() {
+        output.flush();
+        String line = input.readLine();
+        if (line.length() != 1) {
+            throw halt("Incorrect char entered");
+        }
+        return line.charAt(0);
+    }
+
+    public int readString() {
+        output.flush();
+        return strings.add(input.readLine());
+    }
+
+    public int random(int max, int min) {
+        return randomGen.nextInt(max) + min;
+    }
+
+    /**
+     * Reports an error and gives the exception that stops the program
+     * @param message error message
+     * @return exception to throw
+     */
+    public ExecutionHalted halt(String message) {
+        output.flush();
+        System.err.printf("%s:%d: error: %s%n", filename, 0, message);
+        return new ExecutionHalted();
+    }
+}
@@ -0,0 +1,308 @@
+package com.joklek.fakec.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.joklek.fakec.jvm.Opcodes.*;
+
+/**
+ * Writes the code of one method. Operand stack depth is tracked while instructions are written, so the maximum stack
+ * size comes out of the writer without a separate analysis. Jumps are written through {@link JumpTarget}s which are
+ * patched once they are placed
+ */
+public class MethodWriter {
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    // Stack effect of instructions without operands
+    private static final int[] STACK_EFFECT = new int[256];
+
+    static {
+        Arrays.fill(STACK_EFFECT, UNKNOWN);
+        STACK_EFFECT[ACONST_NULL] = 1;
+        for (int opcode = ICONST_M1; opcode <= ICONST_5; opcode++) {
+            STACK_EFFECT[opcode] = 1;
+        }
+        STACK_EFFECT[FCONST_0] = 1;
+        STACK_EFFECT[FCONST_1] = 1;
+        STACK_EFFECT[FCONST_2] = 1;
+        STACK_EFFECT[IALOAD] = -1;
+        STACK_EFFECT[FALOAD] = -1;
+        STACK_EFFECT[IASTORE] = -3;
+        STACK_EFFECT[FASTORE] = -3;
+        STACK_EFFECT[POP] = -1;
+        STACK_EFFECT[DUP] = 1;
+        STACK_EFFECT[DUP_X2] = 1;
+        STACK_EFFECT[SWAP] = 0;
+        for (int opcode : new int[]{IADD, FADD, ISUB, FSUB, IMUL, FMUL, IDIV, FDIV, IREM, IAND, IOR, IXOR, FCMPL, FCMPG}) {
+            STACK_EFFECT[opcode] = -1;
+        }
+        STACK_EFFECT[INEG] = 0;
+        STACK_EFFECT[FNEG] = 0;
+        STACK_EFFECT[IRETURN] = -1;
+        STACK_EFFECT[FRETURN] = -1;
+        STACK_EFFECT[RETURN] = 0;
+    }
+
+    private final ClassFileWriter owner;
+    private final int access;
+    private final int nameIndex;
+    private final int descriptorIndex;
+
+    private byte[] code;
+    private int length;
+    private int stack;
+    private int maxStack;
+    private int maxLocals;
+    private boolean reachable;
+
+    MethodWriter(ClassFileWriter owner, int access, String name, String descriptor) {
+        this.owner = owner;
+        this.access = access;
+        this.nameIndex = owner.utf8(name);
+        this.descriptorIndex = owner.utf8(descriptor);
+        this.code = new byte[256];
+        this.maxLocals = argumentSlots(descriptor);
+        this.reachable = true;
+    }
+
+    /**
+     * Target of jumps inside one method
+     */
+    public static class JumpTarget {
+        private int position = -1;
+        private int stack = UNKNOWN;
+        private final List<Integer> jumps = new ArrayList<>();
+
+        public boolean isPlaced() {
+            return position != -1;
+        }
+    }
+
+    public void insn(int opcode) {
+        int effect = STACK_EFFECT[opcode];
+        if (effect == UNKNOWN) {
+            throw new IllegalArgumentException(String.format("Opcode %d takes operands", opcode));
+        }
+        writeByte(opcode);
+        adjustStack(effect);
+        if (opcode == IRETURN || opcode == FRETURN || opcode == RETURN) {
+            reachable = false;
+        }
+    }
+
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            writeByte(ICONST_0 + value);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            writeByte(BIPUSH);
+            writeByte(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            writeByte(SIPUSH);
+            writeShort(value);
+        }
+        else {
+            loadConstant(owner.integer(value));
+            return;
+        }
+        adjustStack(1);
+    }
+
+    public void pushFloat(float value) {
+        if (Float.floatToRawIntBits(value) == 0 || value == 1f || value == 2f) {
+            writeByte(FCONST_0 + (int) value);
+            adjustStack(1);
+        }
+        else {
+            loadConstant(owner.floatConstant(value));
+        }
+    }
+
+    private void loadConstant(int index) {
+        if (index <= 0xFF) {
+            writeByte(LDC);
+            writeByte(index);
+        }
+        else {
+            writeByte(LDC_W);
+            writeShort(index);
+        }
+        adjustStack(1);
+    }
+
+    public void newArray(int type) {
+        writeByte(NEWARRAY);
+        writeByte(type);
+    }
+
+    /**
+     * Writes a load or store of a local variable
+     * @param opcode one of ILOAD, FLOAD, ALOAD, ISTORE, FSTORE or ASTORE
+     * @param index local variable index
+     */
+    public void varInsn(int opcode, int index) {
+        if (index > 0xFF) {
+            writeByte(WIDE);
+            writeByte(opcode);
+            writeShort(index);
+        }
+        else {
+            writeByte(opcode);
+            writeByte(index);
+        }
+        maxLocals = Math.max(maxLocals, index + 1);
+        adjustStack(opcode >= ISTORE ? -1 : 1);
+    }
+
+    public void iinc(int index, int increment) {
+        if (index > 0xFF || increment < Byte.MIN_VALUE || increment > Byte.MAX_VALUE) {
+            writeByte(WIDE);
+            writeByte(IINC);
+            writeShort(index);
+            writeShort(increment);
+        }
+        else {
+            writeByte(IINC);
+            writeByte(index);
+            writeByte(increment);
+        }
+        maxLocals = Math.max(maxLocals, index + 1);
+    }
+
+    public void fieldInsn(int opcode, String fieldOwner, String name, String descriptor) {
+        writeByte(opcode);
+        writeShort(owner.fieldRef(fieldOwner, name, descriptor));
+        adjustStack(opcode == GETSTATIC ? 1 : -1);
+    }
+
+    public void invoke(int opcode, String methodOwner, String name, String descriptor) {
+        writeByte(opcode);
+        writeShort(owner.methodRef(methodOwner, name, descriptor));
+        int effect = -argumentSlots(descriptor) + (descriptor.endsWith(")V") ? 0 : 1);
+        if (opcode != INVOKESTATIC) {
+            effect--;
+        }
+        adjustStack(effect);
+    }
+
+    /**
+     * Writes a conditional jump or a goto
+     * @param opcode jump instruction
+     * @param target where to jump, does not have to be placed yet
+     */
+    public void jump(int opcode, JumpTarget target) {
+        int position = length;
+        writeByte(opcode);
+        writeShort(0);
+        if (opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE) {
+            adjustStack(-2);
+        }
+        else if (opcode != GOTO) {
+            adjustStack(-1);
+        }
+        if (target.stack == UNKNOWN) {
+            target.stack = stack;
+        }
+        if (target.isPlaced()) {
+            patch(position, target.position);
+        }
+        else {
+            target.jumps.add(position);
+        }
+        if (opcode == GOTO) {
+            reachable = false;
+        }
+    }
+
+    public void placeTarget(JumpTarget target) {
+        target.position = length;
+        for (int jump : target.jumps) {
+            patch(jump, target.position);
+        }
+        target.jumps.clear();
+        if (!reachable && target.stack != UNKNOWN) {
+            stack = target.stack;
+        }
+        else if (target.stack == UNKNOWN) {
+            target.stack = stack;
+        }
+        reachable = true;
+    }
+
+    private void patch(int jump, int target) {
+        int offset = target - jump;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new UnsupportedOperationException("Function is too large for the JVM backend");
+        }
+        code[jump + 1] = (byte) (offset >> 8);
+        code[jump + 2] = (byte) offset;
+    }
+
+    byte[] toByteArray(int codeNameIndex) {
+        if (length > 0xFFFF) {
+            throw new UnsupportedOperationException("Function is too large for the JVM backend");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeShort(access);
+            output.writeShort(nameIndex);
+            output.writeShort(descriptorIndex);
+            output.writeShort(1);
+            output.writeShort(codeNameIndex);
+            output.writeInt(12 + length);
+            output.writeShort(maxStack);
+            output.writeShort(maxLocals);
+            output.writeInt(length);
+            output.write(code, 0, length);
+            output.writeShort(0);
+            output.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void adjustStack(int effect) {
+        stack += effect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void writeByte(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void writeShort(int value) {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int index = 1;
+        while (descriptor.charAt(index) != ')') {
+            char type = descriptor.charAt(index);
+            boolean array = false;
+            while (type == '[') {
+                array = true;
+                type = descriptor.charAt(++index);
+            }
+            if (type == 'L') {
+                index = descriptor.indexOf(';', index);
+            }
+            slots += !array && (type == 'J' || type == 'D') ? 2 : 1;
+            index++;
+        }
+        return slots;
+    }
+}
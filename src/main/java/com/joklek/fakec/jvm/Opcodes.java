@@ -0,0 +1,79 @@
+package com.joklek.fakec.jvm;
+
+/**
+ * JVM opcodes and access flags used by the bytecode backend, values as defined by the JVM specification
+ */
+public interface Opcodes {
+    int ACC_PUBLIC = 0x0001;
+    int ACC_STATIC = 0x0008;
+    int ACC_SUPER = 0x0020;
+
+    int T_FLOAT = 6;
+    int T_INT = 10;
+
+    int ACONST_NULL = 1;
+    int ICONST_M1 = 2;
+    int ICONST_0 = 3;
+    int ICONST_1 = 4;
+    int ICONST_5 = 8;
+    int FCONST_0 = 11;
+    int FCONST_1 = 12;
+    int FCONST_2 = 13;
+    int BIPUSH = 16;
+    int SIPUSH = 17;
+    int LDC = 18;
+    int LDC_W = 19;
+    int ILOAD = 21;
+    int FLOAD = 23;
+    int ALOAD = 25;
+    int IALOAD = 46;
+    int FALOAD = 48;
+    int ISTORE = 54;
+    int FSTORE = 56;
+    int ASTORE = 58;
+    int IASTORE = 79;
+    int FASTORE = 81;
+    int POP = 87;
+    int DUP = 89;
+    int DUP_X2 = 91;
+    int SWAP = 95;
+    int IADD = 96;
+    int FADD = 98;
+    int ISUB = 100;
+    int FSUB = 102;
+    int IMUL = 104;
+    int FMUL = 106;
+    int IDIV = 108;
+    int FDIV = 110;
+    int IREM = 112;
+    int INEG = 116;
+    int FNEG = 118;
+    int IAND = 126;
+    int IOR = 128;
+    int IXOR = 130;
+    int IINC = 132;
+    int FCMPL = 149;
+    int FCMPG = 150;
+    int IFEQ = 153;
+    int IFNE = 154;
+    int IFLT = 155;
+    int IFGE = 156;
+    int IFGT = 157;
+    int IFLE = 158;
+    int IF_ICMPEQ = 159;
+    int IF_ICMPNE = 160;
+    int IF_ICMPLT = 161;
+    int IF_ICMPGE = 162;
+    int IF_ICMPGT = 163;
+    int IF_ICMPLE = 164;
+    int GOTO = 167;
+    int IRETURN = 172;
+    int FRETURN = 174;
+    int RETURN = 177;
+    int GETSTATIC = 178;
+    int PUTSTATIC = 179;
+    int INVOKEVIRTUAL = 182;
+    int INVOKESTATIC = 184;
+    int NEWARRAY = 188;
+    int WIDE = 196;
+}
@@ -0,0 +1,28 @@
+package com.joklek.fakec.jvm;
+
+/**
+ * Loads classes generated for FakeC programs. Every program gets its own loader, so the classes can be unloaded once
+ * the program is no longer referenced
+ */
+public class ProgramClassLoader extends ClassLoader {
+
+    public ProgramClassLoader() {
+        super(JvmRuntime.class.getClassLoader());
+    }
+
+    /**
+     * Defines, links and initialises a generated class, verification errors are thrown from here
+     * @param generatedClass class to load
+     * @return loaded class
+     */
+    public Class<?> load(GeneratedClass generatedClass) {
+        byte[] bytes = generatedClass.getBytes();
+        Class<?> loaded = defineClass(generatedClass.getName(), bytes, 0, bytes.length);
+        try {
+            return Class.forName(loaded.getName(), true, this);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Generated class disappeared after being defined", e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.codegen.StringTable;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.data.DataType;
+import com.joklek.fakec.tokens.Token;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Second tier for the interpreter. The interpreter reports every call and every backward jump, counters are kept per
+ * function and keyed by the label value calls jump to. A function that passes its invocation or back-edge threshold
+ * is compiled by {@link JvmCodeGenerator} on a compiler thread, and once installed the interpreter calls the compiled
+ * method instead. There is no on-stack replacement, a function that got hot inside a loop runs compiled from its next
+ * call on
+ */
+public class TieredCompiler implements AutoCloseable {
+
+    public static final int DEFAULT_INVOCATION_THRESHOLD = 1000;
+    public static final int DEFAULT_BACK_EDGE_THRESHOLD = 10000;
+
+    private static final int NO_FUNCTION = -1;
+
+    private final StringTable strings;
+    private final int invocationThreshold;
+    private final int backEdgeThreshold;
+    private final boolean background;
+    private final Stmt.Function[] functions;
+    private final int[] owners;
+    private final int[] invocations;
+    private final int[] backEdges;
+    private final boolean[] requested;
+    private final AtomicReferenceArray<CompiledFunction> installed;
+    private final ThreadPoolExecutor compileQueue;
+    private final AtomicInteger requestedCount;
+    private final AtomicInteger compiledCount;
+    private final AtomicInteger failedCount;
+    private final AtomicLong compileTime;
+    private volatile JvmRuntime runtime;
+
+    /**
+     * @param program program the interpreted code was generated from, labels of its functions should be placed
+     * @param codeSize size of the interpreted code
+     * @param strings string table of the interpreter
+     * @param invocationThreshold calls after which a function is compiled
+     * @param backEdgeThreshold backward jumps inside a function after which it is compiled
+     * @param background true if functions should be compiled on a compiler thread, false to compile on the caller
+     *                   thread and use the compiled function immediately
+     */
+    public TieredCompiler(Stmt.Program program, int codeSize, StringTable strings, int invocationThreshold, int backEdgeThreshold, boolean background) {
+        if (invocationThreshold < 1 || backEdgeThreshold < 1) {
+            throw new IllegalArgumentException("Tiering thresholds should be positive");
+        }
+        this.strings = strings;
+        this.invocationThreshold = invocationThreshold;
+        this.backEdgeThreshold = backEdgeThreshold;
+        this.background = background;
+        this.functions = new Stmt.Function[codeSize + 1];
+        this.owners = new int[codeSize + 1];
+        this.invocations = new int[codeSize + 1];
+        this.backEdges = new int[codeSize + 1];
+        this.requested = new boolean[codeSize + 1];
+        this.installed = new AtomicReferenceArray<>(codeSize + 1);
+        this.requestedCount = new AtomicInteger();
+        this.compiledCount = new AtomicInteger();
+        this.failedCount = new AtomicInteger();
+        this.compileTime = new AtomicLong();
+        this.compileQueue = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "fakec-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Every code offset belongs to the closest function entry at or before it
+        Arrays.fill(owners, NO_FUNCTION);
+        for (Stmt.Function function : program.getFunctions()) {
+            functions[function.getLabel().getValue()] = function;
+        }
+        int owner = NO_FUNCTION;
+        for (int offset = 0; offset < owners.length; offset++) {
+            if (functions[offset] != null) {
+                owner = offset;
+            }
+            owners[offset] = owner;
+        }
+    }
+
+    /**
+     * Gives compiled code the runtime it does input and output through, should be the same the interpreter uses
+     * @param runtime runtime of the interpreter
+     */
+    public void attach(JvmRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * Records a call
+     * @param target label value the call jumps to
+     * @return compiled function to call instead, or null if the function should be interpreted
+     */
+    public CompiledFunction invoked(int target) {
+        CompiledFunction compiled = installed.get(target);
+        if (compiled != null) {
+            return compiled;
+        }
+        if (functions[target] != null && ++invocations[target] >= invocationThreshold) {
+            request(target);
+            return installed.get(target);
+        }
+        return null;
+    }
+
+    /**
+     * Records a backward jump
+     * @param target code offset the jump goes to
+     */
+    public void backEdge(int target) {
+        int owner = owners[target];
+        if (owner != NO_FUNCTION && ++backEdges[owner] >= backEdgeThreshold) {
+            request(owner);
+        }
+    }
+
+    private void request(int entry) {
+        if (requested[entry] || (background && compileQueue.isShutdown())) {
+            return;
+        }
+        requested[entry] = true;
+        requestedCount.incrementAndGet();
+        if (background) {
+            compileQueue.execute(() -> compile(entry));
+        }
+        else {
+            compile(entry);
+        }
+    }
+
+    private void compile(int entry) {
+        long start = System.nanoTime();
+        Stmt.Function function = functions[entry];
+        try {
+            GeneratedClass generatedClass = new JvmCodeGenerator(strings).generate(function);
+            Class<?> loaded = new ProgramClassLoader().load(generatedClass);
+            loaded.getField(CompiledProgram.RUNTIME_FIELD).set(null, runtime);
+            Method method = loaded.getMethod(generatedClass.getMainMethod(), parameterTypes(function.getParams()));
+            installed.set(entry, new CompiledFunction(method, runtime));
+            compiledCount.incrementAndGet();
+        }
+        catch (UnsupportedOperationException | LinkageError | ReflectiveOperationException e) {
+            // Function stays interpreted
+            failedCount.incrementAndGet();
+        }
+        finally {
+            compileTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private static Class<?>[] parameterTypes(List<Pair<Token, DataType>> params) {
+        Class<?>[] types = new Class<?>[params.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = params.get(i).getRight() == DataType.FLOAT ? float.class : int.class;
+        }
+        return types;
+    }
+
+    public int getInvocationThreshold() {
+        return invocationThreshold;
+    }
+
+    public int getBackEdgeThreshold() {
+        return backEdgeThreshold;
+    }
+
+    /**
+     * @return counts of compilations requested, finished and waiting
+     */
+    public CompileQueueStatistics getStatistics() {
+        int pending = compileQueue.getQueue().size() + compileQueue.getActiveCount();
+        return new CompileQueueStatistics(requestedCount.get(), compiledCount.get(), failedCount.get(), pending, compileTime.get());
+    }
+
+    /**
+     * Stops accepting compilations and waits for queued ones to finish
+     * @param timeout how long to wait
+     * @param unit unit of the timeout
+     * @return true if every queued compilation finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompilation(long timeout, TimeUnit unit) throws InterruptedException {
+        compileQueue.shutdown();
+        return compileQueue.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        compileQueue.shutdownNow();
+    }
+}
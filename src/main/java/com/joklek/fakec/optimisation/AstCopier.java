@@ -0,0 +1,198 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.tokens.Token;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copies statements and expressions into new nodes. Copies have no scopes, targets or types other than those of
+ * literals, so they have to be resolved and checked again wherever they are placed. Names of variables can be changed
+ * on the way, function names are kept
+ */
+class AstCopier implements Stmt.Visitor<IStmt>, Expr.Visitor<Expr> {
+
+    private final UnaryOperator<String> rename;
+
+    /**
+     * @param rename gives the name a copied variable should have
+     */
+    AstCopier(UnaryOperator<String> rename) {
+        this.rename = rename;
+    }
+
+    /**
+     * Copier that keeps every name
+     */
+    AstCopier() {
+        this(UnaryOperator.identity());
+    }
+
+    Expr copy(IExpr expression) {
+        return expression.accept(this);
+    }
+
+    /**
+     * @return copies of given statements, statements copied to nothing are left out
+     */
+    List<IStmt> copy(List<IStmt> statements) {
+        List<IStmt> copies = new ArrayList<>(statements.size());
+        for (IStmt statement : statements) {
+            IStmt copy = statement.accept(this);
+            if (copy != null) {
+                copies.add(copy);
+            }
+        }
+        return copies;
+    }
+
+    Token renamed(Token name) {
+        return new Token(name.getType(), rename.apply(name.getLexeme()), name.getLiteral(), name.getLine());
+    }
+
+    @Override
+    public IStmt visitProgramStmt(Stmt.Program programStmt) {
+        throw new UnsupportedOperationException("Only statements inside functions can be copied");
+    }
+
+    @Override
+    public IStmt visitFunctionStmt(Stmt.Function functionStmt) {
+        throw new UnsupportedOperationException("Only statements inside functions can be copied");
+    }
+
+    @Override
+    public IStmt visitBlockStmt(Stmt.Block blockStmt) {
+        return new Stmt.Block(copy(blockStmt.getStatements()));
+    }
+
+    @Override
+    public IStmt visitReturnStmt(Stmt.Return returnStmt) {
+        IExpr value = returnStmt.getValue() == null ? null : copy(returnStmt.getValue());
+        return new Stmt.Return(returnStmt.getKeyword(), value, returnStmt.hasValue());
+    }
+
+    @Override
+    public IStmt visitExpressionStmt(Stmt.Expression expressionStmt) {
+        return new Stmt.Expression(copy(expressionStmt.getExpression()));
+    }
+
+    @Override
+    public IStmt visitIfStmt(Stmt.If ifStmt) {
+        List<Pair<IExpr, Stmt.Block>> branches = new ArrayList<>(ifStmt.getBranches().size());
+        for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+            branches.add(Pair.of(copy(branch.getLeft()), (Stmt.Block) branch.getRight().accept(this)));
+        }
+        Stmt.Block elseBranch = ifStmt.getElseBranch() == null ? null : (Stmt.Block) ifStmt.getElseBranch().accept(this);
+        return new Stmt.If(branches, elseBranch);
+    }
+
+    @Override
+    public IStmt visitWhileStmt(Stmt.While whileStmt) {
+        return new Stmt.While(copy(whileStmt.getCondition()), (Stmt.Block) whileStmt.getBody().accept(this));
+    }
+
+    @Override
+    public IStmt visitOutputStmt(Stmt.Output outputStmt) {
+        List<IExpr> expressions = new ArrayList<>(outputStmt.getExpressions().size());
+        for (IExpr expression : outputStmt.getExpressions()) {
+            expressions.add(copy(expression));
+        }
+        return new Stmt.Output(expressions);
+    }
+
+    @Override
+    public IStmt visitInputStmt(Stmt.Input inputStmt) {
+        List<Token> variables = new ArrayList<>(inputStmt.getVariables().size());
+        for (Token variable : inputStmt.getVariables()) {
+            variables.add(renamed(variable));
+        }
+        return new Stmt.Input(variables);
+    }
+
+    @Override
+    public IStmt visitVarStmt(Stmt.Var varStmt) {
+        IExpr initializer = varStmt.getInitializer() == null ? null : copy(varStmt.getInitializer());
+        return new Stmt.Var(varStmt.getType(), renamed(varStmt.getName()), initializer);
+    }
+
+    @Override
+    public IStmt visitArrayStmt(Stmt.Array arrayStmt) {
+        return new Stmt.Array(arrayStmt.getType(), renamed(arrayStmt.getName()), arrayStmt.getSize());
+    }
+
+    @Override
+    public IStmt visitBreakStmt(Stmt.Break breakStmt) {
+        return new Stmt.Break(breakStmt.getToken());
+    }
+
+    @Override
+    public IStmt visitContinueStmt(Stmt.Continue continueStmt) {
+        return new Stmt.Continue(continueStmt.getToken());
+    }
+
+    @Override
+    public IStmt visitForStmt(Stmt.For forStmt) {
+        Expr increment = forStmt.getIncrement() == null ? null : copy(forStmt.getIncrement());
+        return new Stmt.For(copy(forStmt.getInitializer()), copy(forStmt.getCondition()), increment,
+                (Stmt.Block) forStmt.getBody().accept(this));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary binaryExpr) {
+        return new Expr.Binary(copy(binaryExpr.getLeft()), binaryExpr.getOperator(), copy(binaryExpr.getRight()));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping groupingExpr) {
+        return new Expr.Grouping(copy(groupingExpr.getExpression()));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal literalExpr) {
+        // Literals get their types from the parser, the type checker does not set them again
+        Expr.Literal literal = new Expr.Literal(literalExpr.getValue());
+        literal.setType(literalExpr.getType());
+        return literal;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary unaryExpr) {
+        return new Expr.Unary(unaryExpr.getOperator(), copy(unaryExpr.getRight()));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable variableExpr) {
+        return new Expr.Variable(renamed(variableExpr.getName()));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign assignExpr) {
+        Expr offset = assignExpr.getOffset() == null ? null : copy(assignExpr.getOffset());
+        return new Expr.Assign(renamed(assignExpr.getName()), copy(assignExpr.getValue()), offset);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call callExpr) {
+        List<Expr> arguments = new ArrayList<>(callExpr.getArguments().size());
+        for (Expr argument : callExpr.getArguments()) {
+            arguments.add(copy(argument));
+        }
+        return new Expr.Call(callExpr.getIdent(), arguments);
+    }
+
+    @Override
+    public Expr visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+        return new Expr.ArrayAccess(renamed(arrayAccessExpr.getArray()), copy(arrayAccessExpr.getOffset()));
+    }
+
+    @Override
+    public Expr visitRandom(Expr.Random random) {
+        return new Expr.Random(copy(random.getMinInclusive()), copy(random.getMaxInclusive()), random.getToken());
+    }
+}
@@ -0,0 +1,176 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Visits every statement and expression of a tree, so analyses only have to override nodes they are interested in
+ */
+abstract class AstWalker implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+
+    @Override
+    public Void visitProgramStmt(Stmt.Program programStmt) {
+        for (Stmt.Function function : programStmt.getFunctions()) {
+            function.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function functionStmt) {
+        functionStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block blockStmt) {
+        for (IStmt statement : blockStmt.getStatements()) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        if (returnStmt.getValue() != null) {
+            returnStmt.getValue().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
+        expressionStmt.getExpression().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+            branch.getLeft().accept(this);
+            branch.getRight().accept(this);
+        }
+        if (ifStmt.getElseBranch() != null) {
+            ifStmt.getElseBranch().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While whileStmt) {
+        whileStmt.getCondition().accept(this);
+        whileStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitOutputStmt(Stmt.Output outputStmt) {
+        for (IExpr expression : outputStmt.getExpressions()) {
+            expression.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input inputStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var varStmt) {
+        if (varStmt.getInitializer() != null) {
+            varStmt.getInitializer().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayStmt(Stmt.Array arrayStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break breakStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue continueStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For forStmt) {
+        for (IStmt initializer : forStmt.getInitializer()) {
+            initializer.accept(this);
+        }
+        forStmt.getCondition().accept(this);
+        if (forStmt.getIncrement() != null) {
+            forStmt.getIncrement().accept(this);
+        }
+        forStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary binaryExpr) {
+        binaryExpr.getLeft().accept(this);
+        binaryExpr.getRight().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping groupingExpr) {
+        groupingExpr.getExpression().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal literalExpr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+        unaryExpr.getRight().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable variableExpr) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign assignExpr) {
+        if (assignExpr.getOffset() != null) {
+            assignExpr.getOffset().accept(this);
+        }
+        assignExpr.getValue().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call callExpr) {
+        for (Expr argument : callExpr.getArguments()) {
+            argument.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+        arrayAccessExpr.getOffset().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitRandom(Expr.Random random) {
+        random.getMinInclusive().accept(this);
+        random.getMaxInclusive().accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,353 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.Node;
+import com.joklek.fakec.parsing.types.data.DataType;
+import com.joklek.fakec.parsing.types.operation.OperationType;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.joklek.fakec.parsing.types.element.ElementType.VARIABLE;
+
+/**
+ * Evaluates expressions over literals at compile time and replaces them with their values. Variables that are
+ * declared with a constant value and never changed afterwards are replaced with that value too. Operations are
+ * evaluated exactly like the stack machine does, so anything the machine would not compute the same way, like
+ * division by zero or operands of different types, is left to run
+ */
+public class ConstantFolder implements Stmt.Visitor<Void>, Expr.Visitor<Expr> {
+
+    private final Map<Node, Expr.Literal> constants = new HashMap<>();
+    private final Set<Node> assigned = new HashSet<>();
+
+    /**
+     * Folds constants in place, has to be run on a resolved and type checked tree
+     * @param program root program
+     */
+    public void fold(Stmt.Program program) {
+        constants.clear();
+        assigned.clear();
+        new AssignedVariables().visitProgramStmt(program);
+        visitProgramStmt(program);
+    }
+
+    /**
+     * Collects every variable that is changed after its declaration
+     */
+    private class AssignedVariables extends AstWalker {
+
+        @Override
+        public Void visitInputStmt(Stmt.Input inputStmt) {
+            inputStmt.getVariables().forEach(variable -> assigned.add(inputStmt.getScope().resolve(variable, VARIABLE)));
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+            if (unaryExpr.getRight() instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable) unaryExpr.getRight();
+                assigned.add(variable.getScope().resolve(variable.getName(), VARIABLE));
+            }
+            return super.visitUnaryExpr(unaryExpr);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign assignExpr) {
+            assigned.add(assignExpr.getScope().resolve(assignExpr.getName(), VARIABLE));
+            return super.visitAssignExpr(assignExpr);
+        }
+    }
+
+    @Override
+    public Void visitProgramStmt(Stmt.Program programStmt) {
+        for (Stmt.Function function : programStmt.getFunctions()) {
+            function.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function functionStmt) {
+        functionStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block blockStmt) {
+        for (IStmt statement : blockStmt.getStatements()) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        if (returnStmt.getValue() != null) {
+            returnStmt.setValue(returnStmt.getValue().accept(this));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
+        expressionStmt.setExpression(expressionStmt.getExpression().accept(this));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        List<Pair<IExpr, Stmt.Block>> branches = ifStmt.getBranches();
+        for (int i = 0; i < branches.size(); i++) {
+            Pair<IExpr, Stmt.Block> branch = branches.get(i);
+            branches.set(i, Pair.of(branch.getLeft().accept(this), branch.getRight()));
+            branch.getRight().accept(this);
+        }
+        if (ifStmt.getElseBranch() != null) {
+            ifStmt.getElseBranch().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While whileStmt) {
+        whileStmt.setCondition(whileStmt.getCondition().accept(this));
+        whileStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitOutputStmt(Stmt.Output outputStmt) {
+        List<IExpr> expressions = outputStmt.getExpressions();
+        for (int i = 0; i < expressions.size(); i++) {
+            expressions.set(i, expressions.get(i).accept(this));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input inputStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var varStmt) {
+        if (varStmt.getInitializer() == null) {
+            return null;
+        }
+        Expr initializer = varStmt.getInitializer().accept(this);
+        varStmt.setInitializer(initializer);
+        if (initializer instanceof Expr.Literal && initializer.getType() == varStmt.getType() && !assigned.contains(varStmt)) {
+            constants.put(varStmt, (Expr.Literal) initializer);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayStmt(Stmt.Array arrayStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break breakStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue continueStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For forStmt) {
+        for (IStmt initializer : forStmt.getInitializer()) {
+            initializer.accept(this);
+        }
+        forStmt.setCondition(forStmt.getCondition().accept(this));
+        if (forStmt.getIncrement() != null) {
+            forStmt.setIncrement(forStmt.getIncrement().accept(this));
+        }
+        forStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary binaryExpr) {
+        Expr left = binaryExpr.getLeft().accept(this);
+        Expr right = binaryExpr.getRight().accept(this);
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal && left.getType() == right.getType()) {
+            Object value = evaluate(binaryExpr.getOperator().getType(), left.getType(), ((Expr.Literal) left).getValue(), ((Expr.Literal) right).getValue());
+            if (value != null) {
+                return literal(value, binaryExpr);
+            }
+        }
+        if (left == binaryExpr.getLeft() && right == binaryExpr.getRight()) {
+            return binaryExpr;
+        }
+        return withAttributesOf(new Expr.Binary(left, binaryExpr.getOperator(), right), binaryExpr);
+    }
+
+    /**
+     * @return value of the operation, or null if it should be left to run
+     */
+    private Object evaluate(OperationType operation, DataType type, Object left, Object right) {
+        switch (type) {
+            case INT:
+                return evaluateInteger(operation, (Integer) left, (Integer) right);
+            case FLOAT:
+                return evaluateFloat(operation, (Float) left, (Float) right);
+            case BOOL:
+                return evaluateBoolean(operation, (Boolean) left, (Boolean) right);
+            default:
+                return null;
+        }
+    }
+
+    private Object evaluateInteger(OperationType operation, int a, int b) {
+        switch (operation) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MULT: return a * b;
+            // Division by zero stops the program, so it has to happen when the program runs
+            case DIV: return b == 0 ? null : a / b;
+            case MOD: return b == 0 ? null : a % b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case EQUAL_EQUAL: return a == b;
+            case NOT_EQUAL: return a != b;
+            default: return null;
+        }
+    }
+
+    private Object evaluateFloat(OperationType operation, float a, float b) {
+        switch (operation) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MULT: return a * b;
+            case DIV: return a / b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case EQUAL_EQUAL: return a == b;
+            case NOT_EQUAL: return a != b;
+            default: return null;
+        }
+    }
+
+    private Object evaluateBoolean(OperationType operation, boolean a, boolean b) {
+        // Only operations the code generator has instructions for, others should fail the same way as before
+        switch (operation) {
+            case EQUAL_EQUAL: return a == b;
+            case AND: return a && b;
+            case OR: return a || b;
+            default: return null;
+        }
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping groupingExpr) {
+        // Grouping only matters for parsing, the tree already holds the order
+        return groupingExpr.getExpression().accept(this);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal literalExpr) {
+        return literalExpr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary unaryExpr) {
+        OperationType operation = unaryExpr.getOperator().getType();
+        if (operation == OperationType.INC_PRE || operation == OperationType.INC_POST
+                || operation == OperationType.DEC_PRE || operation == OperationType.DEC_POST) {
+            return unaryExpr;
+        }
+        Expr right = unaryExpr.getRight().accept(this);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).getValue();
+            if (operation == OperationType.ADD && (right.getType() == DataType.INT || right.getType() == DataType.FLOAT)) {
+                return right;
+            }
+            if (operation == OperationType.SUB && right.getType() == DataType.INT) {
+                return literal(-(Integer) value, unaryExpr);
+            }
+            if (operation == OperationType.SUB && right.getType() == DataType.FLOAT) {
+                return literal(-(Float) value, unaryExpr);
+            }
+            if (operation == OperationType.NOT && right.getType() == DataType.BOOL) {
+                return literal(!(Boolean) value, unaryExpr);
+            }
+        }
+        if (right == unaryExpr.getRight()) {
+            return unaryExpr;
+        }
+        return withAttributesOf(new Expr.Unary(unaryExpr.getOperator(), right), unaryExpr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable variableExpr) {
+        Expr.Literal constant = constants.get(variableExpr.getScope().resolve(variableExpr.getName(), VARIABLE));
+        if (constant == null) {
+            return variableExpr;
+        }
+        return literal(constant.getValue(), variableExpr);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign assignExpr) {
+        Expr value = assignExpr.getValue().accept(this);
+        Expr offset = assignExpr.getOffset() == null ? null : assignExpr.getOffset().accept(this);
+        if (value == assignExpr.getValue() && offset == assignExpr.getOffset()) {
+            return assignExpr;
+        }
+        return withAttributesOf(new Expr.Assign(assignExpr.getName(), value, offset), assignExpr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call callExpr) {
+        List<Expr> arguments = callExpr.getArguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            arguments.set(i, arguments.get(i).accept(this));
+        }
+        return callExpr;
+    }
+
+    @Override
+    public Expr visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+        Expr offset = arrayAccessExpr.getOffset().accept(this);
+        if (offset == arrayAccessExpr.getOffset()) {
+            return arrayAccessExpr;
+        }
+        return withAttributesOf(new Expr.ArrayAccess(arrayAccessExpr.getArray(), offset), arrayAccessExpr);
+    }
+
+    @Override
+    public Expr visitRandom(Expr.Random random) {
+        Expr min = random.getMinInclusive().accept(this);
+        Expr max = random.getMaxInclusive().accept(this);
+        if (min == random.getMinInclusive() && max == random.getMaxInclusive()) {
+            return random;
+        }
+        return withAttributesOf(new Expr.Random(min, max, random.getToken()), random);
+    }
+
+    private Expr.Literal literal(Object value, Expr replaced) {
+        return withAttributesOf(new Expr.Literal(value), replaced);
+    }
+
+    private <T extends Expr> T withAttributesOf(T expression, Expr replaced) {
+        expression.setScope(replaced.getScope());
+        expression.setType(replaced.getType());
+        return expression;
+    }
+}
@@ -0,0 +1,224 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.LoopNode;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes statements that can never run. Branches whose condition is a false literal and loops that would never
+ * start are dropped, a branch whose condition is a true literal replaces the rest of its if statement, and nothing
+ * after a return, break, continue or a loop that never ends is kept. Works best after {@link ConstantFolder}, which
+ * turns constant conditions into literals
+ */
+public class DeadCodeEliminator implements Stmt.Visitor<Void> {
+
+    /**
+     * Removes dead statements in place, has to be run on a resolved and checked tree
+     * @param program root program
+     */
+    public void eliminate(Stmt.Program program) {
+        visitProgramStmt(program);
+    }
+
+    @Override
+    public Void visitProgramStmt(Stmt.Program programStmt) {
+        for (Stmt.Function function : programStmt.getFunctions()) {
+            function.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function functionStmt) {
+        functionStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block blockStmt) {
+        List<IStmt> statements = blockStmt.getStatements();
+        List<IStmt> live = new ArrayList<>(statements.size());
+        for (IStmt statement : statements) {
+            IStmt simplified = simplify(statement);
+            if (simplified == null) {
+                continue;
+            }
+            simplified.setParent(blockStmt);
+            live.add(simplified);
+            if (terminates(simplified)) {
+                break;
+            }
+        }
+        statements.clear();
+        statements.addAll(live);
+        return null;
+    }
+
+    /**
+     * @return statement to keep in place of given one, or null if it should be removed
+     */
+    private IStmt simplify(IStmt statement) {
+        if (statement instanceof Stmt.If) {
+            return simplifyIf((Stmt.If) statement);
+        }
+        if (statement instanceof Stmt.While && isFalse(((Stmt.While) statement).getCondition())) {
+            return null;
+        }
+        if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            // Initializers still run when the loop does not, so only loops without them can go
+            if (isFalse(forStmt.getCondition()) && forStmt.getInitializer().isEmpty()) {
+                return null;
+            }
+        }
+        statement.accept(this);
+        return statement;
+    }
+
+    private IStmt simplifyIf(Stmt.If ifStmt) {
+        List<Pair<IExpr, Stmt.Block>> branches = ifStmt.getBranches();
+        List<Pair<IExpr, Stmt.Block>> live = new ArrayList<>(branches.size());
+        Stmt.Block elseBranch = ifStmt.getElseBranch();
+        for (Pair<IExpr, Stmt.Block> branch : branches) {
+            if (isFalse(branch.getLeft())) {
+                continue;
+            }
+            if (isTrue(branch.getLeft())) {
+                // Every later branch is unreachable, this one becomes what runs when no earlier condition holds
+                elseBranch = branch.getRight();
+                break;
+            }
+            live.add(branch);
+        }
+
+        if (live.isEmpty()) {
+            if (elseBranch == null) {
+                return null;
+            }
+            elseBranch.accept(this);
+            return elseBranch;
+        }
+        branches.clear();
+        branches.addAll(live);
+        ifStmt.setElseBranch(elseBranch);
+        ifStmt.accept(this);
+        return ifStmt;
+    }
+
+    private boolean isTrue(IExpr condition) {
+        return condition instanceof Expr.Literal && Boolean.TRUE.equals(((Expr.Literal) condition).getValue());
+    }
+
+    private boolean isFalse(IExpr condition) {
+        return condition instanceof Expr.Literal && Boolean.FALSE.equals(((Expr.Literal) condition).getValue());
+    }
+
+    /**
+     * @return true if nothing after given statement in the same block can run
+     */
+    private boolean terminates(IStmt statement) {
+        if (statement instanceof Stmt.Return || statement instanceof Stmt.Break || statement instanceof Stmt.Continue) {
+            return true;
+        }
+        if (statement instanceof Stmt.Block) {
+            return ((Stmt.Block) statement).getStatements().stream().anyMatch(this::terminates);
+        }
+        if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            return ifStmt.getElseBranch() != null && terminates(ifStmt.getElseBranch())
+                    && ifStmt.getBranches().stream().allMatch(branch -> terminates(branch.getRight()));
+        }
+        if (statement instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While) statement;
+            return isTrue(whileStmt.getCondition()) && !isBrokenOutOf(whileStmt, whileStmt.getBody());
+        }
+        if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            return isTrue(forStmt.getCondition()) && !isBrokenOutOf(forStmt, forStmt.getBody());
+        }
+        return false;
+    }
+
+    private boolean isBrokenOutOf(LoopNode loop, Stmt.Block body) {
+        boolean[] broken = new boolean[1];
+        body.accept(new AstWalker() {
+            @Override
+            public Void visitBreakStmt(Stmt.Break breakStmt) {
+                if (breakStmt.getTarget() == loop) {
+                    broken[0] = true;
+                }
+                return null;
+            }
+        });
+        return broken[0];
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return returnStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression expressionStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If ifStmt) {
+        for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+            branch.getRight().accept(this);
+        }
+        if (ifStmt.getElseBranch() != null) {
+            ifStmt.getElseBranch().accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While whileStmt) {
+        whileStmt.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitOutputStmt(Stmt.Output outputStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input inputStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var varStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitArrayStmt(Stmt.Array arrayStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break breakStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue continueStmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For forStmt) {
+        forStmt.getBody().accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,1016 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.codegen.FrameSlots;
+import com.joklek.fakec.error.Error;
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.data.DataType;
+import com.joklek.fakec.parsing.types.operation.OperationType;
+import com.joklek.fakec.scope.Scope;
+import com.joklek.fakec.scope.ScopeChecker;
+import com.joklek.fakec.scope.ScopeResolver;
+import com.joklek.fakec.scope.StackSlotPointer;
+import com.joklek.fakec.scope.TypeChecker;
+import com.joklek.fakec.scope.error.ScopeError;
+import com.joklek.fakec.scope.error.TypeError;
+import com.joklek.fakec.tokens.Token;
+import com.joklek.fakec.tokens.TokenType;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Replaces calls of small functions, and of functions called from a single place, with the code of their bodies.
+ * A function whose body is a single return of an expression without assignments has the call replaced with that
+ * expression, with the arguments in place of the parameters. Other functions are inlined where a statement can be
+ * put before the call: parameters and variables of the function become new variables of the caller, taking slots
+ * after all the slots the caller already uses, and returns turn into assignments of the result. Only functions
+ * returning at the end of their code are inlined, recursive functions, functions declaring arrays and main never are.
+ * Functions left without callers are removed from the program
+ */
+public class FunctionInliner {
+
+    /**
+     * Functions with up to this many statements and expressions are inlined into every caller
+     */
+    private static final int SMALL_FUNCTION_SIZE = 16;
+
+    private final Map<String, Stmt.Function> functions = new LinkedHashMap<>();
+    private final Map<Stmt.Function, Template> templates = new HashMap<>();
+    private final Set<Stmt.Function> recursive = new HashSet<>();
+    private final Set<Stmt.Function> inlinedFunctions = new HashSet<>();
+    private final Set<Stmt.Var> assignedByInlinedCode = new HashSet<>();
+    private Map<String, Integer> callSites = new HashMap<>();
+    private Stmt.Function caller;
+    private int names;
+    private int inlined;
+
+    /**
+     * Inlines calls in place, has to be run on a resolved and checked tree
+     * @param program root program
+     * @return number of calls replaced
+     */
+    public int inline(Stmt.Program program) {
+        functions.clear();
+        templates.clear();
+        recursive.clear();
+        inlinedFunctions.clear();
+        assignedByInlinedCode.clear();
+        inlined = 0;
+        for (Stmt.Function function : program.getFunctions()) {
+            functions.put(function.getName().getLexeme(), function);
+        }
+
+        Map<Stmt.Function, Set<Stmt.Function>> callees = new HashMap<>();
+        for (Stmt.Function function : program.getFunctions()) {
+            Set<Stmt.Function> called = new HashSet<>();
+            function.getBody().accept(new AstWalker() {
+                @Override
+                public Void visitCallExpr(Expr.Call callExpr) {
+                    called.add(functions.get(callExpr.getIdent().getLexeme()));
+                    return super.visitCallExpr(callExpr);
+                }
+            });
+            callees.put(function, called);
+        }
+        for (Stmt.Function function : program.getFunctions()) {
+            if (reaches(function, function, callees, new HashSet<>())) {
+                recursive.add(function);
+            }
+        }
+
+        // Callees go before their callers, so code that is copied already has its own calls inlined
+        List<Stmt.Function> order = new ArrayList<>();
+        Set<Stmt.Function> visited = new HashSet<>();
+        for (Stmt.Function function : program.getFunctions()) {
+            postorder(function, callees, visited, order);
+        }
+        for (Stmt.Function function : order) {
+            callSites = countCallSites(program);
+            caller = function;
+            inlineInto(function.getBody());
+        }
+
+        Map<String, Integer> remaining = countCallSites(program);
+        program.getFunctions().removeIf(function -> inlinedFunctions.contains(function)
+                && !remaining.containsKey(function.getName().getLexeme()));
+        return inlined;
+    }
+
+    private boolean reaches(Stmt.Function from, Stmt.Function target, Map<Stmt.Function, Set<Stmt.Function>> callees, Set<Stmt.Function> visited) {
+        for (Stmt.Function callee : callees.get(from)) {
+            if (callee == target || visited.add(callee) && reaches(callee, target, callees, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void postorder(Stmt.Function function, Map<Stmt.Function, Set<Stmt.Function>> callees, Set<Stmt.Function> visited, List<Stmt.Function> order) {
+        if (!visited.add(function)) {
+            return;
+        }
+        for (Stmt.Function callee : callees.get(function)) {
+            postorder(callee, callees, visited, order);
+        }
+        order.add(function);
+    }
+
+    private Map<String, Integer> countCallSites(Stmt.Program program) {
+        Map<String, Integer> counts = new HashMap<>();
+        program.accept(new AstWalker() {
+            @Override
+            public Void visitCallExpr(Expr.Call callExpr) {
+                counts.merge(callExpr.getIdent().getLexeme(), 1, Integer::sum);
+                return super.visitCallExpr(callExpr);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Copy of a function body prepared for inlining, with an if statement whose branches all return taking the rest
+     * of its block as the else branch, so every return is the last thing done on its path
+     */
+    private class Template {
+        private final Stmt.Function function;
+        private final List<IStmt> body;
+        private final Set<Stmt.Var> unset = new HashSet<>();
+        private final int size;
+        private final Set<String> changed;
+
+        Template(Stmt.Function function) {
+            this.function = function;
+            // Variables the inliner assigns right after declaring them are the only ones not given a value
+            this.body = normalise(new AstCopier() {
+                @Override
+                public IStmt visitVarStmt(Stmt.Var varStmt) {
+                    IStmt copy = super.visitVarStmt(varStmt);
+                    if (varStmt.getInitializer() == null && !assignedByInlinedCode.contains(varStmt)) {
+                        unset.add((Stmt.Var) copy);
+                    }
+                    return copy;
+                }
+            }.copy(function.getBody().getStatements()));
+            this.size = size(body);
+            this.changed = changedVariables(function.getBody());
+        }
+
+        /**
+         * @return returned expression if the whole body is a return of it without any assignments, otherwise null
+         */
+        IExpr getExpression() {
+            if (body.size() != 1 || !(body.get(0) instanceof Stmt.Return)) {
+                return null;
+            }
+            IExpr value = ((Stmt.Return) body.get(0)).getValue();
+            return value == null || changesVariables(value) ? null : value;
+        }
+    }
+
+    /**
+     * @return template of given function, or null if it can not be inlined
+     */
+    private Template template(Stmt.Function function) {
+        if (templates.containsKey(function)) {
+            return templates.get(function);
+        }
+        Template template = null;
+        if (!recursive.contains(function) && !function.getName().getLexeme().equals("main") && canCopy(function.getBody())) {
+            template = new Template(function);
+            boolean returnsValue = function.getType() != DataType.VOID;
+            if (!returnsOnlyAtEnd(template.body) || returnsValue && !alwaysReturns(template.body)) {
+                template = null;
+            }
+        }
+        templates.put(function, template);
+        return template;
+    }
+
+    /**
+     * Arrays would share their elements between runs of the inlined code, and variables without a value are only
+     * given one if a zero of their type is known
+     */
+    private boolean canCopy(Stmt.Block body) {
+        boolean[] copyable = {true};
+        body.accept(new AstWalker() {
+            @Override
+            public Void visitVarStmt(Stmt.Var varStmt) {
+                if (varStmt.getInitializer() == null && !assignedByInlinedCode.contains(varStmt) && zero(varStmt.getType()) == null) {
+                    copyable[0] = false;
+                }
+                return super.visitVarStmt(varStmt);
+            }
+
+            @Override
+            public Void visitArrayStmt(Stmt.Array arrayStmt) {
+                copyable[0] = false;
+                return null;
+            }
+        });
+        return copyable[0];
+    }
+
+    private List<IStmt> normalise(List<IStmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            IStmt statement = statements.get(i);
+            if (statement instanceof Stmt.Block) {
+                normalise(((Stmt.Block) statement).getStatements());
+            }
+            if (!(statement instanceof Stmt.If)) {
+                continue;
+            }
+            Stmt.If ifStmt = (Stmt.If) statement;
+            for (Pair<IExpr, Stmt.Block> branch : ifStmt.getBranches()) {
+                normalise(branch.getRight().getStatements());
+            }
+            if (ifStmt.getElseBranch() != null) {
+                normalise(ifStmt.getElseBranch().getStatements());
+            }
+            else if (i + 1 < statements.size() && ifStmt.getBranches().stream().allMatch(branch -> alwaysReturns(branch.getRight().getStatements()))) {
+                List<IStmt> rest = new ArrayList<>(statements.subList(i + 1, statements.size()));
+                statements.subList(i + 1, statements.size()).clear();
+                ifStmt.setElseBranch(new Stmt.Block(normalise(rest)));
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * @return true if the last statement returns on every path through it
+     */
+    private boolean alwaysReturns(List<IStmt> statements) {
+        if (statements.isEmpty()) {
+            return false;
+        }
+        IStmt last = statements.get(statements.size() - 1);
+        if (last instanceof Stmt.Return) {
+            return true;
+        }
+        if (last instanceof Stmt.Block) {
+            return alwaysReturns(((Stmt.Block) last).getStatements());
+        }
+        if (last instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) last;
+            return ifStmt.getElseBranch() != null && alwaysReturns(ifStmt.getElseBranch().getStatements())
+                    && ifStmt.getBranches().stream().allMatch(branch -> alwaysReturns(branch.getRight().getStatements()));
+        }
+        return false;
+    }
+
+    /**
+     * @return true if nothing runs after any return of given statements
+     */
+    private boolean returnsOnlyAtEnd(List<IStmt> statements) {
+        for (int i = 0; i < statements.size() - 1; i++) {
+            if (containsReturn(statements.get(i))) {
+                return false;
+            }
+        }
+        if (statements.isEmpty()) {
+            return true;
+        }
+        IStmt last = statements.get(statements.size() - 1);
+        if (last instanceof Stmt.Return) {
+            return true;
+        }
+        if (last instanceof Stmt.Block) {
+            return returnsOnlyAtEnd(((Stmt.Block) last).getStatements());
+        }
+        if (last instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) last;
+            return (ifStmt.getElseBranch() == null || returnsOnlyAtEnd(ifStmt.getElseBranch().getStatements()))
+                    && ifStmt.getBranches().stream().allMatch(branch -> returnsOnlyAtEnd(branch.getRight().getStatements()));
+        }
+        return !containsReturn(last);
+    }
+
+    private boolean containsReturn(IStmt statement) {
+        boolean[] found = new boolean[1];
+        statement.accept(new AstWalker() {
+            @Override
+            public Void visitReturnStmt(Stmt.Return returnStmt) {
+                found[0] = true;
+                return null;
+            }
+        });
+        return found[0];
+    }
+
+    private int size(List<IStmt> statements) {
+        int[] size = {statements.size()};
+        AstWalker counter = new AstWalker() {
+            @Override
+            public Void visitBlockStmt(Stmt.Block blockStmt) {
+                size[0] += blockStmt.getStatements().size();
+                return super.visitBlockStmt(blockStmt);
+            }
+
+            @Override
+            public Void visitBinaryExpr(Expr.Binary binaryExpr) {
+                size[0]++;
+                return super.visitBinaryExpr(binaryExpr);
+            }
+
+            @Override
+            public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+                size[0]++;
+                return super.visitUnaryExpr(unaryExpr);
+            }
+
+            @Override
+            public Void visitLiteralExpr(Expr.Literal literalExpr) {
+                size[0]++;
+                return null;
+            }
+
+            @Override
+            public Void visitVariableExpr(Expr.Variable variableExpr) {
+                size[0]++;
+                return null;
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign assignExpr) {
+                size[0]++;
+                return super.visitAssignExpr(assignExpr);
+            }
+
+            @Override
+            public Void visitCallExpr(Expr.Call callExpr) {
+                size[0]++;
+                return super.visitCallExpr(callExpr);
+            }
+
+            @Override
+            public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+                size[0]++;
+                return super.visitArrayAccessExpr(arrayAccessExpr);
+            }
+
+            @Override
+            public Void visitRandom(Expr.Random random) {
+                size[0]++;
+                return super.visitRandom(random);
+            }
+        };
+        statements.forEach(statement -> statement.accept(counter));
+        return size[0];
+    }
+
+    /**
+     * @return names of variables that are assigned, read from input, incremented, decremented or indexed, as only
+     * other variables can be replaced with another value
+     */
+    private Set<String> changedVariables(Stmt.Block body) {
+        Set<String> changed = new HashSet<>();
+        body.accept(new AstWalker() {
+            @Override
+            public Void visitInputStmt(Stmt.Input inputStmt) {
+                inputStmt.getVariables().forEach(variable -> changed.add(variable.getLexeme()));
+                return null;
+            }
+
+            @Override
+            public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+                if (isIncrementOrDecrement(unaryExpr) && unaryExpr.getRight() instanceof Expr.Variable) {
+                    changed.add(((Expr.Variable) unaryExpr.getRight()).getName().getLexeme());
+                }
+                return super.visitUnaryExpr(unaryExpr);
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign assignExpr) {
+                changed.add(assignExpr.getName().getLexeme());
+                return super.visitAssignExpr(assignExpr);
+            }
+
+            @Override
+            public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+                changed.add(arrayAccessExpr.getArray().getLexeme());
+                return super.visitArrayAccessExpr(arrayAccessExpr);
+            }
+        });
+        return changed;
+    }
+
+    private static boolean changesVariables(IExpr expression) {
+        boolean[] changes = new boolean[1];
+        expression.accept(new AstWalker() {
+            @Override
+            public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+                changes[0] |= isIncrementOrDecrement(unaryExpr);
+                return super.visitUnaryExpr(unaryExpr);
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign assignExpr) {
+                changes[0] = true;
+                return null;
+            }
+        });
+        return changes[0];
+    }
+
+    private static boolean isIncrementOrDecrement(Expr.Unary unaryExpr) {
+        OperationType operation = unaryExpr.getOperator().getType();
+        return operation == OperationType.INC_PRE || operation == OperationType.INC_POST
+                || operation == OperationType.DEC_PRE || operation == OperationType.DEC_POST;
+    }
+
+    /**
+     * @return true if evaluating given expression changes anything but the stack
+     */
+    private static boolean hasSideEffects(IExpr expression) {
+        boolean[] effects = {changesVariables(expression)};
+        expression.accept(new AstWalker() {
+            @Override
+            public Void visitCallExpr(Expr.Call callExpr) {
+                effects[0] = true;
+                return null;
+            }
+
+            @Override
+            public Void visitRandom(Expr.Random random) {
+                effects[0] = true;
+                return null;
+            }
+        });
+        return effects[0];
+    }
+
+    private static Expr.Literal zero(DataType type) {
+        Object value;
+        switch (type) {
+            case INT: value = 0; break;
+            case FLOAT: value = 0.0f; break;
+            case BOOL: value = false; break;
+            default: return null;
+        }
+        Expr.Literal literal = new Expr.Literal(value);
+        literal.setType(type);
+        return literal;
+    }
+
+    /**
+     * @return template of called function if it should be inlined at given call, otherwise null
+     */
+    private Template inlinedTemplate(Expr.Call call) {
+        Stmt.Function callee = functions.get(call.getIdent().getLexeme());
+        Template template = template(callee);
+        if (template == null || callee == caller) {
+            return null;
+        }
+        if (template.size > SMALL_FUNCTION_SIZE && callSites.getOrDefault(callee.getName().getLexeme(), 0) != 1) {
+            return null;
+        }
+        List<Pair<Token, DataType>> params = callee.getParams();
+        List<Expr> arguments = call.getArguments();
+        if (params.size() != arguments.size()) {
+            return null;
+        }
+        // Arguments are not converted to the type of the parameter, so a variable of that type can not hold them
+        for (int i = 0; i < params.size(); i++) {
+            if (params.get(i).getRight() != arguments.get(i).getType()) {
+                return null;
+            }
+        }
+        return template;
+    }
+
+    private void inlineInto(Stmt.Block block) {
+        List<IStmt> statements = block.getStatements();
+        Set<IStmt> inserted = new HashSet<>();
+        for (int i = 0; i < statements.size(); i++) {
+            IStmt statement = statements.get(i);
+            if (inserted.contains(statement)) {
+                continue;
+            }
+            rewriteExpressions(statement, new CallReplacer(this::substitute));
+
+            Expr.Call call;
+            while ((call = firstInlinedCall(statement)) != null) {
+                List<IStmt> replacement = expand(statement, call, block);
+                statements.remove(i);
+                statements.addAll(i, replacement);
+                inserted.addAll(replacement);
+                inlined++;
+                if (!replacement.contains(statement)) {
+                    statement = null;
+                    break;
+                }
+                i = statements.indexOf(statement);
+            }
+            if (statement == null) {
+                continue;
+            }
+
+            if (statement instanceof Stmt.Block) {
+                inlineInto((Stmt.Block) statement);
+            }
+            else if (statement instanceof Stmt.If) {
+                Stmt.If ifStmt = (Stmt.If) statement;
+                ifStmt.getBranches().forEach(branch -> inlineInto(branch.getRight()));
+                if (ifStmt.getElseBranch() != null) {
+                    inlineInto(ifStmt.getElseBranch());
+                }
+            }
+            else if (statement instanceof Stmt.While) {
+                inlineInto(((Stmt.While) statement).getBody());
+            }
+            else if (statement instanceof Stmt.For) {
+                inlineInto(((Stmt.For) statement).getBody());
+            }
+        }
+    }
+
+    /**
+     * Rewrites expressions a statement evaluates itself, expressions of statements nested in it are left alone
+     */
+    private void rewriteExpressions(IStmt statement, CallReplacer replacer) {
+        if (statement instanceof Stmt.Expression) {
+            Stmt.Expression expressionStmt = (Stmt.Expression) statement;
+            expressionStmt.setExpression(expressionStmt.getExpression().accept(replacer));
+        }
+        else if (statement instanceof Stmt.Var && ((Stmt.Var) statement).getInitializer() != null) {
+            Stmt.Var varStmt = (Stmt.Var) statement;
+            varStmt.setInitializer(varStmt.getInitializer().accept(replacer));
+        }
+        else if (statement instanceof Stmt.Return && ((Stmt.Return) statement).getValue() != null) {
+            Stmt.Return returnStmt = (Stmt.Return) statement;
+            returnStmt.setValue(returnStmt.getValue().accept(replacer));
+        }
+        else if (statement instanceof Stmt.Output) {
+            List<IExpr> expressions = ((Stmt.Output) statement).getExpressions();
+            expressions.replaceAll(expression -> expression.accept(replacer));
+        }
+        else if (statement instanceof Stmt.If) {
+            List<Pair<IExpr, Stmt.Block>> branches = ((Stmt.If) statement).getBranches();
+            branches.replaceAll(branch -> Pair.of(branch.getLeft().accept(replacer), branch.getRight()));
+        }
+        else if (statement instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While) statement;
+            whileStmt.setCondition(whileStmt.getCondition().accept(replacer));
+        }
+        else if (statement instanceof Stmt.For) {
+            Stmt.For forStmt = (Stmt.For) statement;
+            forStmt.setCondition(forStmt.getCondition().accept(replacer));
+            if (forStmt.getIncrement() != null) {
+                forStmt.setIncrement(forStmt.getIncrement().accept(replacer));
+            }
+        }
+    }
+
+    /**
+     * @return returned expression of called function with arguments in place of parameters, or null if the call
+     * has to stay
+     */
+    private Expr substitute(Expr.Call call) {
+        Template template = inlinedTemplate(call);
+        IExpr expression = template == null ? null : template.getExpression();
+        if (expression == null) {
+            return null;
+        }
+        List<Pair<Token, DataType>> params = template.function.getParams();
+        List<Expr> arguments = call.getArguments();
+        Map<String, Expr> substituted = new HashMap<>();
+        Map<String, Integer> uses = countUses(expression);
+        boolean reordered = hasSideEffects(expression);
+        for (int i = 0; i < params.size(); i++) {
+            Expr argument = arguments.get(i);
+            boolean simple = argument instanceof Expr.Literal || argument instanceof Expr.Variable;
+            String name = params.get(i).getLeft().getLexeme();
+            // Arguments are evaluated once and before the function, which only has to hold for those that could tell
+            if (hasSideEffects(argument) || !simple && (reordered || uses.getOrDefault(name, 0) != 1)) {
+                return null;
+            }
+            substituted.put(name, argument);
+        }
+
+        Expr inlinedExpression = new AstCopier() {
+            @Override
+            public Expr visitVariableExpr(Expr.Variable variableExpr) {
+                return new AstCopier().copy(substituted.get(variableExpr.getName().getLexeme()));
+            }
+
+            @Override
+            public Expr visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+                // Array arguments are always variables, elements are read from the array of the caller
+                Expr.Variable array = (Expr.Variable) substituted.get(arrayAccessExpr.getArray().getLexeme());
+                return new Expr.ArrayAccess(array.getName(), copy(arrayAccessExpr.getOffset()));
+            }
+        }.copy(expression);
+        check(inlinedExpression, call.getScope());
+        inlinedFunctions.add(template.function);
+        inlined++;
+        return inlinedExpression;
+    }
+
+    private Map<String, Integer> countUses(IExpr expression) {
+        Map<String, Integer> uses = new HashMap<>();
+        expression.accept(new AstWalker() {
+            @Override
+            public Void visitVariableExpr(Expr.Variable variableExpr) {
+                uses.merge(variableExpr.getName().getLexeme(), 1, Integer::sum);
+                return null;
+            }
+
+            @Override
+            public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+                uses.merge(arrayAccessExpr.getArray().getLexeme(), 1, Integer::sum);
+                return super.visitArrayAccessExpr(arrayAccessExpr);
+            }
+        });
+        return uses;
+    }
+
+    /**
+     * @return first call evaluated by the statement that can be inlined before it, or null if there is none
+     */
+    private Expr.Call firstInlinedCall(IStmt statement) {
+        IExpr evaluatedFirst;
+        if (statement instanceof Stmt.Expression) {
+            evaluatedFirst = ((Stmt.Expression) statement).getExpression();
+        }
+        else if (statement instanceof Stmt.Var) {
+            evaluatedFirst = ((Stmt.Var) statement).getInitializer();
+        }
+        else if (statement instanceof Stmt.Return) {
+            evaluatedFirst = ((Stmt.Return) statement).getValue();
+        }
+        else if (statement instanceof Stmt.Output) {
+            // Every value is printed before the next one is evaluated
+            evaluatedFirst = ((Stmt.Output) statement).getExpressions().get(0);
+        }
+        else if (statement instanceof Stmt.If) {
+            // Only the first condition is always evaluated
+            evaluatedFirst = ((Stmt.If) statement).getBranches().get(0).getLeft();
+        }
+        else {
+            evaluatedFirst = null;
+        }
+        if (evaluatedFirst == null) {
+            return null;
+        }
+
+        FirstCall finder = new FirstCall(statement);
+        evaluatedFirst.accept(finder);
+        return finder.found;
+    }
+
+    /**
+     * Finds a call that can be inlined with nothing evaluated before it that could notice the change of order. Calls,
+     * assignments, random numbers and integer divisions, which can stop the program, are evaluated in the order of
+     * the code generator
+     */
+    private class FirstCall extends AstWalker {
+        private final IStmt statement;
+        private boolean sideEffects;
+        private Expr.Call found;
+
+        FirstCall(IStmt statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary binaryExpr) {
+            OperationType operation = binaryExpr.getOperator().getType();
+            if (operation == OperationType.AND || operation == OperationType.OR) {
+                // Right side only runs when the left one does not decide the result, so nothing from there on can go first
+                binaryExpr.getLeft().accept(this);
+                sideEffects = true;
+                return null;
+            }
+            super.visitBinaryExpr(binaryExpr);
+            if ((operation == OperationType.DIV || operation == OperationType.MOD) && binaryExpr.getType() == DataType.INT) {
+                sideEffects = true;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary unaryExpr) {
+            super.visitUnaryExpr(unaryExpr);
+            sideEffects |= isIncrementOrDecrement(unaryExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign assignExpr) {
+            assignExpr.getValue().accept(this);
+            if (assignExpr.getOffset() != null) {
+                assignExpr.getOffset().accept(this);
+            }
+            sideEffects = true;
+            return null;
+        }
+
+        @Override
+        public Void visitRandom(Expr.Random random) {
+            random.getMaxInclusive().accept(this);
+            random.getMinInclusive().accept(this);
+            sideEffects = true;
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call callExpr) {
+            boolean first = !sideEffects;
+            super.visitCallExpr(callExpr);
+            if (found == null && first && canExpand(statement, callExpr)) {
+                found = callExpr;
+            }
+            sideEffects = true;
+            return null;
+        }
+    }
+
+    private boolean canExpand(IStmt statement, Expr.Call call) {
+        Template template = inlinedTemplate(call);
+        if (template == null) {
+            return false;
+        }
+        DataType type = template.function.getType();
+        if (statement instanceof Stmt.Expression && ((Stmt.Expression) statement).getExpression() == call) {
+            return true;
+        }
+        if (type == DataType.VOID) {
+            return false;
+        }
+        return resultOf(statement, call) != null || statement instanceof Stmt.Return || zero(type) != null;
+    }
+
+    /**
+     * @return variable the statement stores the value of the call to and nothing else, or null if there is none
+     */
+    private Token resultOf(IStmt statement, Expr.Call call) {
+        if (statement instanceof Stmt.Var && ((Stmt.Var) statement).getInitializer() == call) {
+            return ((Stmt.Var) statement).getName();
+        }
+        if (statement instanceof Stmt.Expression && ((Stmt.Expression) statement).getExpression() instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) statement).getExpression();
+            if (assign.getValue() == call && assign.getOffset() == null) {
+                return assign.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return statements to put in place of given one, with the code of the call before the statement if it still
+     * has to run
+     */
+    private List<IStmt> expand(IStmt statement, Expr.Call call, Stmt.Block block) {
+        Template template = inlinedTemplate(call);
+        Scope scope = statement.getScope();
+        List<IStmt> replacement = new ArrayList<>();
+        Token result = resultOf(statement, call);
+        boolean keepsReturns = false;
+        boolean keepsStatement = false;
+        if (statement instanceof Stmt.Expression && ((Stmt.Expression) statement).getExpression() == call) {
+            result = null;
+        }
+        else if (result != null) {
+            if (statement instanceof Stmt.Var) {
+                ((Stmt.Var) statement).setInitializer(null);
+                assignedByInlinedCode.add((Stmt.Var) statement);
+                replacement.add(statement);
+            }
+        }
+        else if (statement instanceof Stmt.Return && ((Stmt.Return) statement).getValue() == call) {
+            keepsReturns = true;
+        }
+        else {
+            // Value of the call is kept in a new variable for the rest of the statement
+            Token callee = call.getIdent();
+            result = new Token(TokenType.IDENTIFIER, fresh(callee.getLexeme()), null, callee.getLine());
+            Stmt.Var temporary = new Stmt.Var(call.getType(), result, null);
+            assignedByInlinedCode.add(temporary);
+            Expr.Variable value = new Expr.Variable(result);
+            value.setScope(call.getScope());
+            value.setType(call.getType());
+            rewriteExpressions(statement, new CallReplacer(replaced -> replaced == call ? value : null));
+            replacement.add(temporary);
+            keepsStatement = true;
+        }
+
+        // Parameters the function never changes are read straight from constant and variable arguments
+        Map<String, Expr> substituted = new HashMap<>();
+        Map<String, String> renamed = new HashMap<>();
+        AstCopier copier = new InlinedCodeCopier(name -> renamed.computeIfAbsent(name, this::fresh), template.unset, substituted, result, keepsReturns);
+        List<IStmt> code = new ArrayList<>();
+        List<Pair<Token, DataType>> params = template.function.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            Token param = params.get(i).getLeft();
+            Expr argument = call.getArguments().get(i);
+            if ((argument instanceof Expr.Literal || argument instanceof Expr.Variable) && !template.changed.contains(param.getLexeme())) {
+                substituted.put(param.getLexeme(), argument);
+            }
+            else {
+                code.add(new Stmt.Var(params.get(i).getRight(), copier.renamed(param), argument));
+            }
+        }
+        code.addAll(copier.copy(template.body));
+        replacement.add(new Stmt.Block(code));
+        if (keepsStatement) {
+            replacement.add(statement);
+        }
+
+        // New variables take slots after every slot the caller already has
+        StackSlotPointer pointer = scope.getPointer();
+        pointer.resetCurrentStackSlot();
+        pointer.addSlots(FrameSlots.of(caller));
+        for (IStmt inserted : replacement) {
+            if (inserted != statement) {
+                inserted.setParent(block);
+                check(inserted, scope);
+            }
+        }
+        inlinedFunctions.add(template.function);
+        return replacement;
+    }
+
+    private String fresh(String name) {
+        return name + "#" + ++names;
+    }
+
+    /**
+     * Copies the body of an inlined function, turning returns into assignments of the result and parameters into
+     * the arguments standing for them
+     */
+    private static class InlinedCodeCopier extends AstCopier {
+        private final Set<Stmt.Var> unset;
+        private final Map<String, Expr> substituted;
+        private final Token result;
+        private final boolean keepsReturns;
+
+        InlinedCodeCopier(UnaryOperator<String> rename, Set<Stmt.Var> unset, Map<String, Expr> substituted, Token result, boolean keepsReturns) {
+            super(rename);
+            this.unset = unset;
+            this.substituted = substituted;
+            this.result = result;
+            this.keepsReturns = keepsReturns;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable variableExpr) {
+            Expr argument = substituted.get(variableExpr.getName().getLexeme());
+            return argument == null ? super.visitVariableExpr(variableExpr) : new AstCopier().copy(argument);
+        }
+
+        @Override
+        public IStmt visitReturnStmt(Stmt.Return returnStmt) {
+            if (keepsReturns) {
+                return super.visitReturnStmt(returnStmt);
+            }
+            if (returnStmt.getValue() == null) {
+                return null;
+            }
+            Expr value = copy(returnStmt.getValue());
+            return new Stmt.Expression(result == null ? value : new Expr.Assign(result, value));
+        }
+
+        @Override
+        public IStmt visitVarStmt(Stmt.Var varStmt) {
+            // Inlined code can run many times in one frame, so variables have to start from zero as in a new frame
+            IExpr initializer = unset.contains(varStmt) ? zero(varStmt.getType()) : varStmt.getInitializer() == null ? null : copy(varStmt.getInitializer());
+            return new Stmt.Var(varStmt.getType(), renamed(varStmt.getName()), initializer);
+        }
+    }
+
+    /**
+     * Rebuilds expressions with some calls replaced, nodes that did not change are kept
+     */
+    private static class CallReplacer implements Expr.Visitor<Expr> {
+        private final Function<Expr.Call, Expr> replacement;
+
+        /**
+         * @param replacement gives the expression to put in place of a call, or null to keep it
+         */
+        CallReplacer(Function<Expr.Call, Expr> replacement) {
+            this.replacement = replacement;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary binaryExpr) {
+            Expr left = binaryExpr.getLeft().accept(this);
+            Expr right = binaryExpr.getRight().accept(this);
+            if (left == binaryExpr.getLeft() && right == binaryExpr.getRight()) {
+                return binaryExpr;
+            }
+            return withAttributesOf(new Expr.Binary(left, binaryExpr.getOperator(), right), binaryExpr);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping groupingExpr) {
+            Expr expression = groupingExpr.getExpression().accept(this);
+            if (expression == groupingExpr.getExpression()) {
+                return groupingExpr;
+            }
+            return withAttributesOf(new Expr.Grouping(expression), groupingExpr);
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal literalExpr) {
+            return literalExpr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary unaryExpr) {
+            Expr right = unaryExpr.getRight().accept(this);
+            if (right == unaryExpr.getRight()) {
+                return unaryExpr;
+            }
+            return withAttributesOf(new Expr.Unary(unaryExpr.getOperator(), right), unaryExpr);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable variableExpr) {
+            return variableExpr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign assignExpr) {
+            Expr value = assignExpr.getValue().accept(this);
+            Expr offset = assignExpr.getOffset() == null ? null : assignExpr.getOffset().accept(this);
+            if (value == assignExpr.getValue() && offset == assignExpr.getOffset()) {
+                return assignExpr;
+            }
+            return withAttributesOf(new Expr.Assign(assignExpr.getName(), value, offset), assignExpr);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call callExpr) {
+            List<Expr> arguments = callExpr.getArguments();
+            arguments.replaceAll(argument -> argument.accept(this));
+            Expr replaced = replacement.apply(callExpr);
+            return replaced == null ? callExpr : replaced;
+        }
+
+        @Override
+        public Expr visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+            Expr offset = arrayAccessExpr.getOffset().accept(this);
+            if (offset == arrayAccessExpr.getOffset()) {
+                return arrayAccessExpr;
+            }
+            return withAttributesOf(new Expr.ArrayAccess(arrayAccessExpr.getArray(), offset), arrayAccessExpr);
+        }
+
+        @Override
+        public Expr visitRandom(Expr.Random random) {
+            Expr min = random.getMinInclusive().accept(this);
+            Expr max = random.getMaxInclusive().accept(this);
+            if (min == random.getMinInclusive() && max == random.getMaxInclusive()) {
+                return random;
+            }
+            return withAttributesOf(new Expr.Random(min, max, random.getToken()), random);
+        }
+
+        private <T extends Expr> T withAttributesOf(T expression, Expr replaced) {
+            expression.setScope(replaced.getScope());
+            expression.setType(replaced.getType());
+            return expression;
+        }
+    }
+
+    /**
+     * Resolves and checks new code in given scope, the same way as the code of the program was
+     */
+    private void check(IExpr expression, Scope scope) {
+        List<ScopeError> scopeErrors = new ArrayList<>();
+        List<TypeError> typeErrors = new ArrayList<>();
+        expression.setScope(scope);
+        expression.accept(new ScopeResolver(), scopeErrors);
+        expression.accept(new TypeChecker(), typeErrors);
+        throwIfAny(scopeErrors);
+        throwIfAny(typeErrors);
+    }
+
+    private void check(IStmt statement, Scope scope) {
+        List<ScopeError> scopeErrors = new ArrayList<>();
+        List<TypeError> typeErrors = new ArrayList<>();
+        statement.setScope(scope);
+        statement.accept(new ScopeResolver(), scopeErrors);
+        statement.accept(new TypeChecker(), typeErrors);
+        statement.accept(new ScopeChecker(), typeErrors);
+        throwIfAny(scopeErrors);
+        throwIfAny(typeErrors);
+    }
+
+    private void throwIfAny(List<? extends Error> errors) {
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException(String.format("Code inlined into %s is not valid: %s",
+                    caller.getName().getLexeme(), errors.get(0).getMessage()));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.codegen.FrameSlots;
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.scope.Scope;
+import com.joklek.fakec.tokens.Token;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import static com.joklek.fakec.parsing.types.element.ElementType.VARIABLE;
+
+/**
+ * Gives variables that are never live at the same time the same stack slot. The scope resolver hands out a new slot
+ * for every declaration of a function and never takes one back, so sibling blocks and successive loops all add to
+ * the frame. Here statements of a function are numbered in the order they run, and every variable is live from its
+ * declaration to its last use, or to the end of the outermost loop it is used in but declared outside of, as its value
+ * has to survive the jump back. A slot is handed out again once the variable holding it is no longer live.
+ * Parameters stay where the caller puts them, and arrays and variables declared without a value keep slots of their
+ * own, as they can be read before anything is written to them
+ */
+public class SlotAllocator {
+
+    /**
+     * Hands out slots again in place, has to be run on a resolved tree after the passes that add or remove variables
+     * @param program root program
+     * @return number of slots taken off the frames of all functions
+     */
+    public int allocate(Stmt.Program program) {
+        int saved = 0;
+        for (Stmt.Function function : program.getFunctions()) {
+            int before = FrameSlots.of(function);
+            allocate(function);
+            saved += before - FrameSlots.of(function);
+        }
+        return saved;
+    }
+
+    private void allocate(Stmt.Function function) {
+        LiveRanges liveRanges = new LiveRanges();
+        function.getBody().accept(liveRanges);
+
+        int next = function.getParams().size();
+        for (Stmt.Var variable : liveRanges.ownSlots) {
+            variable.setStackSlot(next);
+            next += variable instanceof Stmt.Array ? 1 + ((Stmt.Array) variable).getSize() : 1;
+        }
+
+        // Ranges are found in order of their start, the ones that ended before the next one starts give their slots back
+        PriorityQueue<Map.Entry<Stmt.Var, Range>> active = new PriorityQueue<>(Comparator.comparingInt(entry -> entry.getValue().end()));
+        TreeSet<Integer> free = new TreeSet<>();
+        for (Map.Entry<Stmt.Var, Range> entry : liveRanges.ranges.entrySet()) {
+            int start = entry.getValue().start;
+            while (!active.isEmpty() && active.peek().getValue().end() < start) {
+                free.add(active.poll().getKey().getStackSlot());
+            }
+            entry.getKey().setStackSlot(free.isEmpty() ? next++ : free.pollFirst());
+            active.add(entry);
+        }
+    }
+
+    /**
+     * Statements between which a variable or a loop is live
+     */
+    private static class Range {
+        private final int start;
+        private int lastUse;
+        private Range outermostLoop;
+
+        Range(int start) {
+            this.start = start;
+            this.lastUse = start;
+        }
+
+        int end() {
+            return outermostLoop == null ? lastUse : Math.max(lastUse, outermostLoop.lastUse);
+        }
+    }
+
+    /**
+     * Numbers statements of a function in order and records where each of its variables is live
+     */
+    private static class LiveRanges extends AstWalker {
+        private final Map<Stmt.Var, Range> ranges = new LinkedHashMap<>();
+        private final List<Stmt.Var> ownSlots = new ArrayList<>();
+        private final Deque<Range> loops = new ArrayDeque<>();
+        private int position;
+
+        private void use(Scope scope, Token name) {
+            Range range = ranges.get(scope.resolve(name, VARIABLE));
+            if (range == null) {
+                return;
+            }
+            range.lastUse = position;
+            Iterator<Range> outerFirst = loops.descendingIterator();
+            while (outerFirst.hasNext()) {
+                Range loop = outerFirst.next();
+                if (loop.start > range.start) {
+                    range.outermostLoop = loop;
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block blockStmt) {
+            for (IStmt statement : blockStmt.getStatements()) {
+                position++;
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While whileStmt) {
+            Range loop = new Range(++position);
+            loops.push(loop);
+            super.visitWhileStmt(whileStmt);
+            loop.lastUse = ++position;
+            loops.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For forStmt) {
+            for (IStmt initializer : forStmt.getInitializer()) {
+                position++;
+                initializer.accept(this);
+            }
+            Range loop = new Range(++position);
+            loops.push(loop);
+            forStmt.getCondition().accept(this);
+            forStmt.getBody().accept(this);
+            position++;
+            if (forStmt.getIncrement() != null) {
+                forStmt.getIncrement().accept(this);
+            }
+            loop.lastUse = position;
+            loops.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var varStmt) {
+            if (varStmt.getInitializer() == null) {
+                ownSlots.add(varStmt);
+                return null;
+            }
+            // The value is worked out before it is written, so a variable last used in it can give its slot away
+            varStmt.getInitializer().accept(this);
+            ranges.put(varStmt, new Range(++position));
+            return null;
+        }
+
+        @Override
+        public Void visitArrayStmt(Stmt.Array arrayStmt) {
+            ownSlots.add(arrayStmt);
+            return null;
+        }
+
+        @Override
+        public Void visitInputStmt(Stmt.Input inputStmt) {
+            for (Token variable : inputStmt.getVariables()) {
+                use(inputStmt.getScope(), variable);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable variableExpr) {
+            use(variableExpr.getScope(), variableExpr.getName());
+            return null;
+        }
+
+        @Override
+        public Void visitArrayAccessExpr(Expr.ArrayAccess arrayAccessExpr) {
+            // Elements are read through the variable holding the address of the array, like an inlined array parameter
+            use(arrayAccessExpr.getScope(), arrayAccessExpr.getArray());
+            return super.visitArrayAccessExpr(arrayAccessExpr);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign assignExpr) {
+            super.visitAssignExpr(assignExpr);
+            use(assignExpr.getScope(), assignExpr.getName());
+            return null;
+        }
+    }
+}
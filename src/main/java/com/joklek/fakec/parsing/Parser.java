@@ -340,6 +340,39 @@ public class Parser {
         return new Stmt.Expression(expr);
     }
 
+    private OperationType compoundOperation(TokenType type) {
+        switch (type) {
+            case PLUS_EQUAL: return OperationType.ADD;
+            case MINUS_EQUAL: return OperationType.SUB;
+            case MUL_EQUAL: return OperationType.MULT;
+            case DIV_EQUAL: return OperationType.DIV;
+            case MOD_EQUAL: return OperationType.MOD;
+            default: return null;
+        }
+    }
+
+    /**
+     * @return true if evaluating given expression twice could give a different value or change anything twice
+     */
+    private boolean hasSideEffects(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            return hasSideEffects(((Expr.Binary) expr).getLeft()) || hasSideEffects(((Expr.Binary) expr).getRight());
+        }
+        if (expr instanceof Expr.Unary) {
+            OperationType operation = ((Expr.Unary) expr).getOperator().getType();
+            return operation == OperationType.INC_PRE || operation == OperationType.INC_POST
+                    || operation == OperationType.DEC_PRE || operation == OperationType.DEC_POST
+                    || hasSideEffects(((Expr.Unary) expr).getRight());
+        }
+        if (expr instanceof Expr.Grouping) {
+            return hasSideEffects(((Expr.Grouping) expr).getExpression());
+        }
+        if (expr instanceof Expr.ArrayAccess) {
+            return hasSideEffects(((Expr.ArrayAccess) expr).getOffset());
+        }
+        return !(expr instanceof Expr.Literal || expr instanceof Expr.Variable);
+    }
+
     // <expression> ::= <term4> {<or_op> <term4>}
     protected Expr parseExpression() {
         return parseAssignment();
@@ -353,6 +386,15 @@ public class Parser {
         if (match(EQUAL, PLUS_EQUAL, MINUS_EQUAL, MUL_EQUAL, DIV_EQUAL, MOD_EQUAL)) {
             Token equals = previous();
             Expr value = parseAssignment();
+            OperationType compound = compoundOperation(equals.getType());
+            if (compound != null) {
+                if (expr instanceof Expr.ArrayAccess && hasSideEffects(((Expr.ArrayAccess) expr).getOffset())) {
+                    // The offset is evaluated both for reading and for writing the element
+                    throw error(equals, "Offset of compound assignment target can not have side effects.");
+                }
+                // a += b is a = a + b, so the rest of the compiler only sees plain assignments
+                value = new Expr.Binary(expr, new OperatorToken(compound, equals.getLine()), value);
+            }
 
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable)expr).getName();
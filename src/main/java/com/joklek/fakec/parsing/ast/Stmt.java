@@ -156,7 +156,7 @@ public abstract class Stmt implements IStmt {
     public static class Return extends Stmt {
 
         private final Token keyword;
-        private final IExpr value;
+        private IExpr value;
         private final boolean hasValue;
         private Function target;
 
@@ -175,6 +175,10 @@ public abstract class Stmt implements IStmt {
             return value;
         }
 
+        public void setValue(IExpr value) {
+            this.value = value;
+        }
+
         public boolean hasValue() {
             return hasValue;
         }
@@ -199,7 +203,7 @@ public abstract class Stmt implements IStmt {
 
     public static class Expression extends Stmt {
 
-        private final IExpr expression;
+        private IExpr expression;
 
         public Expression(IExpr expression) {
             this.expression = expression;
@@ -209,6 +213,10 @@ public abstract class Stmt implements IStmt {
             return expression;
         }
 
+        public void setExpression(IExpr expression) {
+            this.expression = expression;
+        }
+
         public <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
@@ -221,7 +229,7 @@ public abstract class Stmt implements IStmt {
     public static class If extends Stmt {
 
         private final List<Pair<IExpr, Block>> branches;
-        private final Block elseBranch;
+        private Block elseBranch;
 
         public If(List<Pair<IExpr, Block>> branches, Block elseBranch) {
             this.branches = branches;
@@ -237,6 +245,10 @@ public abstract class Stmt implements IStmt {
             return elseBranch;
         }
 
+        public void setElseBranch(@Nullable Block elseBranch) {
+            this.elseBranch = elseBranch;
+        }
+
         public <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
@@ -248,7 +260,7 @@ public abstract class Stmt implements IStmt {
 
     public static class While implements IStmt, LoopNode {
 
-        private final IExpr condition;
+        private IExpr condition;
         private final Block body;
         private Label startLabel;
         private Label endLabel;
@@ -281,6 +293,10 @@ public abstract class Stmt implements IStmt {
             return condition;
         }
 
+        public void setCondition(IExpr condition) {
+            this.condition = condition;
+        }
+
         public Block getBody() {
             return body;
         }
@@ -313,8 +329,8 @@ public abstract class Stmt implements IStmt {
     public static class For implements IStmt, LoopNode {
 
         private final List<IStmt> initializer;
-        private final Expr condition;
-        private final Expr increment;
+        private Expr condition;
+        private Expr increment;
         private final Block body;
         private Label startLabel;
         private Label endLabel;
@@ -352,11 +368,19 @@ public abstract class Stmt implements IStmt {
             return condition;
         }
 
+        public void setCondition(@Nonnull Expr condition) {
+            this.condition = condition;
+        }
+
         @Nullable
         public Expr getIncrement() {
             return increment;
         }
 
+        public void setIncrement(@Nullable Expr increment) {
+            this.increment = increment;
+        }
+
         @Nonnull
         public Block getBody() {
             return body;
@@ -438,7 +462,7 @@ public abstract class Stmt implements IStmt {
 
         private final DataType type;
         private final Token name;
-        private final IExpr initializer;
+        private IExpr initializer;
         private Scope scope = null;
         private IStmt parent = null;
         private Label label;
@@ -466,6 +490,10 @@ public abstract class Stmt implements IStmt {
             return initializer;
         }
 
+        public void setInitializer(@Nullable IExpr initializer) {
+            this.initializer = initializer;
+        }
+
         public Scope getScope() {
             return scope;
         }
@@ -0,0 +1,27 @@
+package com.joklek.fakec.vm;
+
+/**
+ * Engines the compiler can hand generated bytecode to
+ */
+public enum ExecutionEngine {
+    /**
+     * Decodes every instruction from raw memory with a switch on the opcode value
+     */
+    SWITCH,
+    /**
+     * Pre-decodes the code segment once at load time and dispatches on dense opcodes
+     */
+    THREADED,
+    /**
+     * Lowers the program into three-address code for the register machine instead of running the stack bytecode
+     */
+    REGISTER,
+    /**
+     * Compiles the program into a JVM class, falls back to the switch interpreter when the program cannot be compiled
+     */
+    JVM,
+    /**
+     * Starts in the switch interpreter and moves functions that get hot to JVM bytecode compiled in the background
+     */
+    TIERED
+}
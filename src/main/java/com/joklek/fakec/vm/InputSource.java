@@ -0,0 +1,79 @@
+package com.joklek.fakec.vm;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where {@link ProgramInput} takes its bytes from when its buffer runs out
+ */
+public interface InputSource {
+
+    /**
+     * Reads the next chunk of input, blocking until at least one byte is available or the input ends
+     * @param bytes buffer to read into
+     * @param offset index of the first byte to fill
+     * @param length maximum number of bytes to read
+     * @return number of bytes read, or -1 if the input has ended
+     */
+    int read(byte[] bytes, int offset, int length);
+
+    /**
+     * @return source reading the standard input of the process straight from its file channel
+     */
+    static InputSource standardInput() {
+        return channel(new FileInputStream(FileDescriptor.in).getChannel());
+    }
+
+    /**
+     * @param stream stream to read from
+     * @return source reading from given stream
+     */
+    static InputSource stream(InputStream stream) {
+        return (bytes, offset, length) -> {
+            try {
+                return stream.read(bytes, offset, length);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to read program input", e);
+            }
+        };
+    }
+
+    /**
+     * @param channel blocking channel to read from, for example a {@link java.nio.channels.FileChannel}
+     * @return source reading from given channel
+     */
+    static InputSource channel(ReadableByteChannel channel) {
+        return (bytes, offset, length) -> {
+            try {
+                return channel.read(ByteBuffer.wrap(bytes, offset, length));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to read program input", e);
+            }
+        };
+    }
+
+    /**
+     * @param bytes whole input of the program
+     * @return source serving given bytes from memory
+     */
+    static InputSource bytes(byte[] bytes) {
+        return stream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @param text whole input of the program
+     * @return source serving given text from memory, encoded as UTF-8
+     */
+    static InputSource text(String text) {
+        return bytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,100 @@
+package com.joklek.fakec.vm;
+
+import java.util.Arrays;
+
+/**
+ * Segments of stack machine memory. Code is kept in its own array and is never written, so it does not share an
+ * address space with data. The stack starts small and grows on demand up to its limit. Heap addresses start right
+ * after the highest possible stack address, so an address tells on its own which segment it points to.
+ * Stack space is reserved at calls, allocations and backward jumps, instructions in between push without checks.
+ * Return addresses and saved bases of calls are kept on a frame stack of their own, which grows the same way
+ */
+public class MemoryLayout {
+
+    public static final int DEFAULT_INITIAL_STACK_SIZE = 4096;
+    public static final int DEFAULT_MAX_STACK_SIZE = 1 << 22;
+    public static final int DEFAULT_HEAP_SIZE = 4096;
+    /**
+     * Free stack cells guaranteed after every reservation, temporaries of straight line code have to fit into it
+     */
+    public static final int STACK_HEADROOM = 1024;
+    /**
+     * Bytes of Java stack a call of a compiled function can take for every cell the same call takes interpreted.
+     * Every interpreted call takes at least two cells of the frame stack, a compiled one well under a hundred bytes
+     */
+    public static final int COMPILED_BYTES_PER_CELL = 64;
+
+    private final int initialStackSize;
+    private final int maxStackSize;
+    private final int heapSize;
+
+    /**
+     * @param initialStackSize cells the stack starts with
+     * @param maxStackSize cells the stack can grow to before the program is stopped with a stack overflow
+     * @param heapSize cells reserved for heap data
+     */
+    public MemoryLayout(int initialStackSize, int maxStackSize, int heapSize) {
+        if (initialStackSize <= 0 || maxStackSize < initialStackSize || heapSize < 0) {
+            throw new IllegalArgumentException(String.format("Invalid memory layout, stack %d to %d, heap %d", initialStackSize, maxStackSize, heapSize));
+        }
+        this.initialStackSize = initialStackSize;
+        this.maxStackSize = maxStackSize;
+        this.heapSize = heapSize;
+    }
+
+    public static MemoryLayout defaults() {
+        return new MemoryLayout(DEFAULT_INITIAL_STACK_SIZE, DEFAULT_MAX_STACK_SIZE, DEFAULT_HEAP_SIZE);
+    }
+
+    /**
+     * @param maxStackSize cells the stack can grow to
+     * @return default layout with given stack limit
+     */
+    public static MemoryLayout withMaxStackSize(int maxStackSize) {
+        return new MemoryLayout(Math.min(DEFAULT_INITIAL_STACK_SIZE, maxStackSize), maxStackSize, DEFAULT_HEAP_SIZE);
+    }
+
+    public int getInitialStackSize() {
+        return initialStackSize;
+    }
+
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    public int getHeapSize() {
+        return heapSize;
+    }
+
+    /**
+     * @return first heap address
+     */
+    public int getHeapBase() {
+        return maxStackSize;
+    }
+
+    /**
+     * @return bytes of Java stack that let compiled functions call each other as deep as the interpreter can
+     */
+    public long getCompiledStackBytes() {
+        return (long) maxStackSize * COMPILED_BYTES_PER_CELL;
+    }
+
+    /**
+     * Makes sure the stack has room for given top plus {@link #STACK_HEADROOM}
+     * @param stack current stack segment
+     * @param top highest cell that has to fit
+     * @return given stack if it is large enough, a grown copy of it if not, or null if the limit would be passed
+     */
+    public int[] reserve(int[] stack, int top) {
+        long required = (long) top + STACK_HEADROOM;
+        if (required <= stack.length) {
+            return stack;
+        }
+        if (top >= maxStackSize) {
+            return null;
+        }
+        long grown = Math.max(required, 2L * stack.length);
+        return Arrays.copyOf(stack, (int) Math.min(grown, (long) maxStackSize + STACK_HEADROOM));
+    }
+}
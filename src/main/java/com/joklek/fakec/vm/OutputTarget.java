@@ -0,0 +1,64 @@
+package com.joklek.fakec.vm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where {@link ProgramOutput} sends its buffer when it is flushed
+ */
+public interface OutputTarget {
+
+    /**
+     * Writes bytes out, the buffer is reused after this returns
+     * @param bytes buffer holding the output
+     * @param length number of bytes to write from the start of the buffer
+     */
+    void write(byte[] bytes, int length);
+
+    /**
+     * @return target writing to whatever {@link System#out} is at the moment of flushing
+     */
+    static OutputTarget standardOutput() {
+        return (bytes, length) -> {
+            System.out.write(bytes, 0, length);
+            System.out.flush();
+        };
+    }
+
+    /**
+     * @param stream stream to write to, for example a {@link java.io.ByteArrayOutputStream} to keep output in memory
+     * @return target writing to given stream
+     */
+    static OutputTarget stream(OutputStream stream) {
+        return (bytes, length) -> {
+            try {
+                stream.write(bytes, 0, length);
+                stream.flush();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to write program output", e);
+            }
+        };
+    }
+
+    /**
+     * @param channel channel to write to, for example a {@link java.nio.channels.FileChannel}
+     * @return target writing to given channel
+     */
+    static OutputTarget channel(WritableByteChannel channel) {
+        return (bytes, length) -> {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to write program output", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package com.joklek.fakec.vm;
+
+import com.joklek.fakec.codegen.BytecodeVerifier;
+import com.joklek.fakec.codegen.CompactEncoding;
+import com.joklek.fakec.codegen.StackDepths;
+import com.joklek.fakec.codegen.StringTable;
+import com.joklek.fakec.codegen.VerificationException;
+
+import java.util.List;
+
+/**
+ * Compiled program ready to be loaded into any number of stack machines. Code is decoded once and string literals
+ * are snapshotted, neither is changed afterwards, so an image can be shared between threads without locking.
+ * Every machine running the image works on its own copy of the string table. Code that passes verification runs
+ * on the unchecked fast path
+ */
+public final class ProgramImage {
+
+    private final String filename;
+    private final int[] code;
+    private final StringTable strings;
+    private final StackDepths stackDepths;
+
+    /**
+     * @param filename name of the program, used in errors
+     * @param code generated instructions
+     * @param strings string literals of the program, copied so later changes to it do not leak into the image
+     */
+    public ProgramImage(String filename, List<Integer> code, StringTable strings) {
+        this(filename, code.stream().mapToInt(Integer::intValue).toArray(), strings);
+    }
+
+    /**
+     * @param filename name of the program, used in errors
+     * @param compactCode instructions in the compact storage format, decoded to int code here
+     * @param strings string literals of the program, copied so later changes to it do not leak into the image
+     */
+    public ProgramImage(String filename, byte[] compactCode, StringTable strings) {
+        this(filename, new CompactEncoding().decode(compactCode), strings);
+    }
+
+    private ProgramImage(String filename, int[] code, StringTable strings) {
+        this.filename = filename;
+        this.code = code;
+        this.strings = strings.copy();
+        this.stackDepths = verify(code);
+    }
+
+    private static StackDepths verify(int[] code) {
+        try {
+            return new BytecodeVerifier().verify(code);
+        }
+        catch (VerificationException ex) {
+            return null;
+        }
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return instructions of the program, shared by every machine running the image and never to be written
+     */
+    public int[] getCode() {
+        return code;
+    }
+
+    /**
+     * @return stack depths of verified code, or null if the code did not pass verification
+     */
+    public StackDepths getStackDepths() {
+        return stackDepths;
+    }
+
+    /**
+     * @return new string table holding the literals of the program, for a machine to add its own strings to
+     */
+    public StringTable newStringTable() {
+        return strings.copy();
+    }
+}
@@ -0,0 +1,236 @@
+package com.joklek.fakec.vm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Input of a running program. Bytes are read from the {@link InputSource} in large chunks and numbers are parsed
+ * straight from the buffer, so reading them does not allocate. Follows {@link java.util.Scanner} reading with
+ * default delimiters: numbers are whitespace separated tokens, a token that is not a number is left unread and
+ * reported with {@link InputMismatchException}, and lines are whatever is left of the current line
+ */
+public class ProgramInput {
+
+    private static final int BUFFER_SIZE = 65536;
+    // Whole numbers below this and powers of ten up to 1e10 are exact floats, so dividing them rounds only once
+    private static final int EXACT_FLOAT_LIMIT = 1 << 24;
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final InputSource source;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean ended;
+
+    /**
+     * Input from the standard input of the process
+     */
+    public ProgramInput() {
+        this(InputSource.standardInput());
+    }
+
+    public ProgramInput(InputSource source) {
+        this.source = source;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * @return next token as an integer
+     * @throws InputMismatchException if the next token is not an integer
+     * @throws NoSuchElementException if the input has ended
+     */
+    public int readInt() {
+        int end = nextToken();
+        int i = position;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw mismatch(end);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw mismatch(end);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw mismatch(end);
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw mismatch(end);
+        }
+        position = end;
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * @return next token as a float
+     * @throws InputMismatchException if the next token is not a number
+     * @throws NoSuchElementException if the input has ended
+     */
+    public float readFloat() {
+        int end = nextToken();
+        int i = position;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+        int mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit >= 0 && digit <= 9) {
+                mantissa = mantissa * 10 + digit;
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (mantissa >= EXACT_FLOAT_LIMIT || fractionDigits >= POWERS_OF_TEN.length) {
+                    return parseFloat(end);
+                }
+            }
+            else if (buffer[i] == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            }
+            else {
+                return parseFloat(end);
+            }
+        }
+        if (digits == 0) {
+            throw mismatch(end);
+        }
+        position = end;
+        float value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return rest of the current line without its terminator, the terminator is skipped
+     * @throws NoSuchElementException if the input has ended
+     */
+    public String readLine() {
+        if (!available()) {
+            throw new NoSuchElementException("No line found");
+        }
+        int end = position;
+        while (true) {
+            while (end < limit && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            if (end < limit) {
+                break;
+            }
+            int scanned = end - position;
+            if (!fill()) {
+                String line = decode(limit);
+                position = limit;
+                return line;
+            }
+            end = position + scanned;
+        }
+        String line = decode(end);
+        position = end + 1;
+        if (buffer[end] == '\r' && available() && buffer[position] == '\n') {
+            position++;
+        }
+        return line;
+    }
+
+    /**
+     * Token numbers were not fast enough to parse, like very long or exponent notation ones
+     */
+    private float parseFloat(int end) {
+        try {
+            float value = Float.parseFloat(new String(buffer, position, end - position, StandardCharsets.US_ASCII));
+            position = end;
+            return value;
+        }
+        catch (NumberFormatException ex) {
+            throw mismatch(end);
+        }
+    }
+
+    private InputMismatchException mismatch(int end) {
+        return new InputMismatchException(decode(end));
+    }
+
+    private String decode(int end) {
+        return new String(buffer, position, end - position, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips whitespace and makes sure the whole token after it is in the buffer
+     * @return index right after the token, the token starts at {@link #position}
+     */
+    private int nextToken() {
+        while (true) {
+            while (position < limit && isWhitespace(buffer[position])) {
+                position++;
+            }
+            if (position < limit) {
+                break;
+            }
+            if (!fill()) {
+                throw new NoSuchElementException();
+            }
+        }
+        int end = position;
+        while (true) {
+            while (end < limit && !isWhitespace(buffer[end])) {
+                end++;
+            }
+            if (end < limit) {
+                return end;
+            }
+            int scanned = end - position;
+            if (!fill()) {
+                return limit;
+            }
+            end = position + scanned;
+        }
+    }
+
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || value >= '\t' && value <= '\r' || value >= 0x1C && value <= 0x1F;
+    }
+
+    private boolean available() {
+        while (position == limit) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves unread bytes to the start of the buffer, growing it if they fill it whole, and reads more after them
+     * @return false if the input has ended
+     */
+    private boolean fill() {
+        if (ended) {
+            return false;
+        }
+        int unread = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, unread);
+        position = 0;
+        limit = unread;
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = source.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            ended = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package com.joklek.fakec.vm;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output of a running program. Everything printed goes into a reusable byte buffer, which is handed to the
+ * {@link OutputTarget} when it fills up, when the program exits or reads input, or when an error is reported.
+ * Integers are written digit by digit and strings from the string table come pre-encoded, so printing does not
+ * allocate. Output follows {@link java.io.PrintStream} to the character
+ */
+public class ProgramOutput {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXIT_STATUS = "Program exited with status ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MIN_INT = Integer.toString(Integer.MIN_VALUE).getBytes(StandardCharsets.UTF_8);
+    // Floats with no fraction below this are printed by Float.toString in plain notation with a single zero after dot
+    private static final float PLAIN_WHOLE_FLOAT_LIMIT = 1e7f;
+
+    private final OutputTarget target;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * Output to {@link System#out}
+     */
+    public ProgramOutput() {
+        this(OutputTarget.standardOutput());
+    }
+
+    public ProgramOutput(OutputTarget target) {
+        this.target = target;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    public void printInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            print(MIN_INT);
+            return;
+        }
+        ensureRoom(11);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    /**
+     * Prints a float followed by a line separator, same as {@link java.io.PrintStream#println(float)}
+     */
+    public void printFloat(float value) {
+        if (value == (int) value && Math.abs(value) < PLAIN_WHOLE_FLOAT_LIMIT) {
+            if (value == 0 && Float.floatToRawIntBits(value) != 0) {
+                printChar('-');
+            }
+            printInt((int) value);
+            printChar('.');
+            printChar('0');
+        }
+        else {
+            print(Float.toString(value));
+        }
+        print(NEW_LINE);
+    }
+
+    public void printChar(int value) {
+        char character = (char) value;
+        if (character < 0x80) {
+            ensureRoom(1);
+            buffer[position++] = (byte) character;
+        }
+        else if (character < 0x800) {
+            ensureRoom(2);
+            buffer[position++] = (byte) (0xC0 | character >> 6);
+            buffer[position++] = (byte) (0x80 | character & 0x3F);
+        }
+        else if (Character.isSurrogate(character)) {
+            // A lone half of a surrogate pair cannot be encoded
+            printChar('?');
+        }
+        else {
+            ensureRoom(3);
+            buffer[position++] = (byte) (0xE0 | character >> 12);
+            buffer[position++] = (byte) (0x80 | character >> 6 & 0x3F);
+            buffer[position++] = (byte) (0x80 | character & 0x3F);
+        }
+    }
+
+    public void printBool(int value) {
+        print(value == 0 ? FALSE : TRUE);
+    }
+
+    public void print(String value) {
+        print(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param bytes UTF-8 encoded text
+     */
+    public void print(byte[] bytes) {
+        if (bytes.length > buffer.length - position) {
+            flush();
+            if (bytes.length > buffer.length) {
+                target.write(bytes, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Prints the exit message every engine ends a program with and flushes
+     * @param status value main returned
+     */
+    public void printExitStatus(int status) {
+        print(NEW_LINE);
+        print(EXIT_STATUS);
+        printInt(status);
+        print(NEW_LINE);
+        flush();
+    }
+
+    /**
+     * Hands everything buffered to the target
+     */
+    public void flush() {
+        if (position > 0) {
+            target.write(buffer, position);
+            position = 0;
+        }
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.length - position < bytes) {
+            flush();
+        }
+    }
+}
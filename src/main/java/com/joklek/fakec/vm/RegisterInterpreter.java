@@ -0,0 +1,358 @@
+package com.joklek.fakec.vm;
+
+import com.joklek.fakec.codegen.RegisterInstructionType;
+import com.joklek.fakec.codegen.RegisterProgram;
+import com.joklek.fakec.codegen.StringTable;
+
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Interpreter of the register machine. Frames are windows into one register file, a callee frame starts at the
+ * register its caller put the first argument into. Return addresses and base pointers of callers are kept on a
+ * separate frame stack, so the register file holds nothing but values. Both start small and grow on demand up to the
+ * stack limit of the {@link MemoryLayout}, the register file is reserved when a frame is entered and the frame stack
+ * at calls
+ */
+@SuppressWarnings({"squid:S1135", "squid:S106"})
+public class RegisterInterpreter implements VirtualMachine {
+
+    // Dense opcodes the code is decoded into, keep them contiguous so dispatch stays a jump table
+    private static final int MOV = 0;
+    private static final int LOADI = 1;
+    private static final int ADDI = 2;
+    private static final int ADDF = 3;
+    private static final int SUBI = 4;
+    private static final int SUBF = 5;
+    private static final int MULI = 6;
+    private static final int MULF = 7;
+    private static final int DIVI = 8;
+    private static final int DIVF = 9;
+    private static final int MOD = 10;
+    private static final int ADDK = 11;
+    private static final int SUBK = 12;
+    private static final int NEGI = 13;
+    private static final int NEGF = 14;
+    private static final int EQI = 15;
+    private static final int EQF = 16;
+    private static final int LTI = 17;
+    private static final int LTF = 18;
+    private static final int LEI = 19;
+    private static final int LEF = 20;
+    private static final int GTI = 21;
+    private static final int GTF = 22;
+    private static final int GEI = 23;
+    private static final int GEF = 24;
+    private static final int NEI = 25;
+    private static final int NEF = 26;
+    private static final int AND = 27;
+    private static final int OR = 28;
+    private static final int NOT = 29;
+    private static final int ENTER = 30;
+    private static final int LEA = 31;
+    private static final int LOADX = 32;
+    private static final int STOREX = 33;
+    private static final int CALL = 34;
+    private static final int RET = 35;
+    private static final int RET0 = 36;
+    private static final int EXIT = 37;
+    private static final int JMP = 38;
+    private static final int JMPZ = 39;
+    private static final int JMPNZ = 40;
+    private static final int RND = 41;
+    private static final int OUTI = 42;
+    private static final int OUTF = 43;
+    private static final int OUTS = 44;
+    private static final int OUTC = 45;
+    private static final int OUTB = 46;
+    private static final int INI = 47;
+    private static final int INF = 48;
+    private static final int INC = 49;
+    private static final int INS = 50;
+
+    private final String filename;
+    private final StringTable strings;
+    private final int[] code;
+    private final MemoryLayout layout;
+
+    private ProgramInput input;
+    private Random randomGen;
+    private ProgramOutput output;
+    private long executedInstructions;
+
+    public RegisterInterpreter(String filename, RegisterProgram program) {
+        this(filename, program.getCode(), program.getStringTable());
+    }
+
+    public RegisterInterpreter(String filename, RegisterProgram program, MemoryLayout layout) {
+        this(filename, program.getCode(), program.getStringTable(), layout);
+    }
+
+    public RegisterInterpreter(String filename, List<Integer> code, StringTable strings) {
+        this(filename, code, strings, MemoryLayout.defaults());
+    }
+
+    public RegisterInterpreter(String filename, List<Integer> code, StringTable strings, MemoryLayout layout) {
+        this.filename = filename;
+        this.strings = strings;
+        this.input = new ProgramInput();
+        this.randomGen = new Random();
+        this.output = new ProgramOutput();
+        this.code = decode(code);
+        this.layout = layout;
+    }
+
+    private static int[] decode(List<Integer> code) {
+        int[] decoded = new int[code.size()];
+        int offset = 0;
+        while (offset < decoded.length) {
+            RegisterInstructionType instruction = RegisterInstructionType.resolve(code.get(offset));
+            if (instruction == null) {
+                throw new IllegalArgumentException(String.format("Unsupported instruction with code %03X %d at offset %d", code.get(offset), code.get(offset), offset));
+            }
+            decoded[offset] = denseOpcode(instruction);
+            for (int i = 1; i <= instruction.getOps(); i++) {
+                decoded[offset + i] = code.get(offset + i);
+            }
+            offset += 1 + instruction.getOps();
+        }
+        return decoded;
+    }
+
+    @SuppressWarnings("squid:S1479")
+    private static int denseOpcode(RegisterInstructionType instruction) {
+        switch (instruction) {
+            case MOV: return MOV;
+            case LOADI: return LOADI;
+            case ADDI: return ADDI;
+            case ADDF: return ADDF;
+            case SUBI: return SUBI;
+            case SUBF: return SUBF;
+            case MULI: return MULI;
+            case MULF: return MULF;
+            case DIVI: return DIVI;
+            case DIVF: return DIVF;
+            case MOD: return MOD;
+            case ADDK: return ADDK;
+            case SUBK: return SUBK;
+            case NEGI: return NEGI;
+            case NEGF: return NEGF;
+            case EQI: return EQI;
+            case EQF: return EQF;
+            case LTI: return LTI;
+            case LTF: return LTF;
+            case LEI: return LEI;
+            case LEF: return LEF;
+            case GTI: return GTI;
+            case GTF: return GTF;
+            case GEI: return GEI;
+            case GEF: return GEF;
+            case NEI: return NEI;
+            case NEF: return NEF;
+            case AND: return AND;
+            case OR: return OR;
+            case NOT: return NOT;
+            case ENTER: return ENTER;
+            case LEA: return LEA;
+            case LOADX: return LOADX;
+            case STOREX: return STOREX;
+            case CALL: return CALL;
+            case RET: return RET;
+            case RET0: return RET0;
+            case EXIT: return EXIT;
+            case JMP: return JMP;
+            case JMPZ: return JMPZ;
+            case JMPNZ: return JMPNZ;
+            case RND: return RND;
+            case OUTI: return OUTI;
+            case OUTF: return OUTF;
+            case OUTS: return OUTS;
+            case OUTC: return OUTC;
+            case OUTB: return OUTB;
+            case INI: return INI;
+            case INF: return INF;
+            case INC: return INC;
+            case INS: return INS;
+            default:
+                throw new IllegalArgumentException(String.format("Instruction %s is not supported by the register engine", instruction));
+        }
+    }
+
+    /**
+     * @return number of instructions dispatched by the last {@link #execute()}
+     */
+    public long getExecutedInstructions() {
+        return executedInstructions;
+    }
+
+    @Override
+    public void setOutput(ProgramOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public void setInput(ProgramInput input) {
+        this.input = input;
+    }
+
+    @Override
+    @SuppressWarnings("squid:S3776")
+    public void execute() {
+        final ProgramOutput out = output;
+        final ProgramInput in = input;
+        final int[] c = code;
+        int[] r = new int[layout.getInitialStackSize()];
+        int[] f = new int[layout.getInitialStackSize()];
+        int ip = 0;
+        int bp = 0;
+        int fp = 0;
+        long executed = 0;
+
+        try {
+            while (true) {
+                executed++;
+                switch (c[ip]) {
+                    case MOV: r[bp + c[ip + 1]] = r[bp + c[ip + 2]]; ip += 3; break;
+                    case LOADI: r[bp + c[ip + 1]] = c[ip + 2]; ip += 3; break;
+
+                    case ADDI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] + r[bp + c[ip + 3]]; ip += 4; break;
+                    case ADDF: r[bp + c[ip + 1]] = bits(real(r[bp + c[ip + 2]]) + real(r[bp + c[ip + 3]])); ip += 4; break;
+                    case SUBI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] - r[bp + c[ip + 3]]; ip += 4; break;
+                    case SUBF: r[bp + c[ip + 1]] = bits(real(r[bp + c[ip + 2]]) - real(r[bp + c[ip + 3]])); ip += 4; break;
+                    case MULI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] * r[bp + c[ip + 3]]; ip += 4; break;
+                    case MULF: r[bp + c[ip + 1]] = bits(real(r[bp + c[ip + 2]]) * real(r[bp + c[ip + 3]])); ip += 4; break;
+                    case DIVI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] / r[bp + c[ip + 3]]; ip += 4; break;
+                    case DIVF: r[bp + c[ip + 1]] = bits(real(r[bp + c[ip + 2]]) / real(r[bp + c[ip + 3]])); ip += 4; break;
+                    case MOD: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] % r[bp + c[ip + 3]]; ip += 4; break;
+                    case ADDK: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] + c[ip + 3]; ip += 4; break;
+                    case SUBK: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] - c[ip + 3]; ip += 4; break;
+                    case NEGI: r[bp + c[ip + 1]] = -r[bp + c[ip + 2]]; ip += 3; break;
+                    case NEGF: r[bp + c[ip + 1]] = bits(-real(r[bp + c[ip + 2]])); ip += 3; break;
+
+                    case EQI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] == r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case EQF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) == real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+                    case LTI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] < r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case LTF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) < real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+                    case LEI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] <= r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case LEF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) <= real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+                    case GTI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] > r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case GTF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) > real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+                    case GEI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] >= r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case GEF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) >= real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+                    case NEI: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] != r[bp + c[ip + 3]] ? 1 : 0; ip += 4; break;
+                    case NEF: r[bp + c[ip + 1]] = real(r[bp + c[ip + 2]]) != real(r[bp + c[ip + 3]]) ? 1 : 0; ip += 4; break;
+
+                    case AND: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] == 1 && r[bp + c[ip + 3]] == 1 ? 1 : 0; ip += 4; break;
+                    case OR: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] == 1 || r[bp + c[ip + 3]] == 1 ? 1 : 0; ip += 4; break;
+                    case NOT: r[bp + c[ip + 1]] = r[bp + c[ip + 2]] == 1 ? 0 : 1; ip += 3; break;
+
+                    case ENTER:
+                        r = layout.reserve(r, bp + c[ip + 1]);
+                        if (r == null) {
+                            error("Stack overflown, exiting program");
+                            return;
+                        }
+                        ip += 2;
+                        break;
+                    case LEA: r[bp + c[ip + 1]] = bp + c[ip + 2]; ip += 3; break;
+                    case LOADX: r[bp + c[ip + 1]] = r[r[bp + c[ip + 2]]]; ip += 3; break;
+                    case STOREX: r[r[bp + c[ip + 1]]] = r[bp + c[ip + 2]]; ip += 3; break;
+
+                    case CALL:
+                        f = layout.reserve(f, fp + 2);
+                        if (f == null) {
+                            error("Stack overflown, exiting program");
+                            return;
+                        }
+                        f[fp++] = ip + 3;
+                        f[fp++] = bp;
+                        bp += c[ip + 1];
+                        ip = c[ip + 2];
+                        break;
+                    case RET:
+                        r[bp] = r[bp + c[ip + 1]];
+                        bp = f[--fp];
+                        ip = f[--fp];
+                        break;
+                    case RET0:
+                        r[bp] = 0;
+                        bp = f[--fp];
+                        ip = f[--fp];
+                        break;
+                    case EXIT:
+                        out.printExitStatus(r[bp + c[ip + 1]]);
+                        return;
+                    case JMP: ip = c[ip + 1]; break;
+                    case JMPZ: ip = r[bp + c[ip + 1]] == 0 ? c[ip + 2] : ip + 3; break;
+                    case JMPNZ: ip = r[bp + c[ip + 1]] != 0 ? c[ip + 2] : ip + 3; break;
+                    case RND: r[bp + c[ip + 1]] = randomGen.nextInt(r[bp + c[ip + 3]]) + r[bp + c[ip + 2]]; ip += 4; break;
+
+                    case OUTI: out.printInt(r[bp + c[ip + 1]]); ip += 2; break;
+                    case OUTF: out.printFloat(real(r[bp + c[ip + 1]])); ip += 2; break;
+                    case OUTS: out.print(strings.getEncoded(r[bp + c[ip + 1]])); ip += 2; break;
+                    case OUTC: out.printChar(r[bp + c[ip + 1]]); ip += 2; break;
+                    case OUTB: out.printBool(r[bp + c[ip + 1]]); ip += 2; break;
+
+                    case INI:
+                        out.flush();
+                        try {
+                            r[bp + c[ip + 1]] = in.readInt();
+                        }
+                        catch (InputMismatchException ex) {
+                            error("Incorrect integer entered");
+                            return;
+                        }
+                        ip += 2;
+                        break;
+                    case INF:
+                        out.flush();
+                        try {
+                            r[bp + c[ip + 1]] = bits(in.readFloat());
+                        }
+                        catch (InputMismatchException ex) {
+                            error("Incorrect float entered");
+                            return;
+                        }
+                        ip += 2;
+                        break;
+                    case INC:
+                        out.flush();
+                        String line = in.readLine();
+                        if (line.length() != 1) {
+                            error("Incorrect char entered");
+                            return;
+                        }
+                        r[bp + c[ip + 1]] = line.charAt(0);
+                        ip += 2;
+                        break;
+                    case INS:
+                        out.flush();
+                        r[bp + c[ip + 1]] = strings.add(in.readLine());
+                        ip += 2;
+                        break;
+                    default:
+                        error(String.format("Unsupported instruction with dense code %d", c[ip]));
+                        return;
+                }
+            }
+        }
+        finally {
+            executedInstructions = executed;
+            out.flush();
+        }
+    }
+
+    private static float real(int bits) {
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static int bits(float value) {
+        return Float.floatToIntBits(value);
+    }
+
+    private void error(String message) {
+        output.flush();
+        System.err.printf("%s:%d: error: %s%n", filename, 0, message);
+    }
+}
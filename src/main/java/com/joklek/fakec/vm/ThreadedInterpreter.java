@@ -0,0 +1,667 @@
+package com.joklek.fakec.vm;
+
+import com.joklek.fakec.codegen.InstructionResolver;
+import com.joklek.fakec.codegen.InstructionType;
+import com.joklek.fakec.codegen.StackDepths;
+import com.joklek.fakec.codegen.StringTable;
+
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Interpreter that decodes the code segment once when the program is loaded. Every opcode slot is resolved through
+ * {@link InstructionType} into a dense opcode, so the main loop dispatches on a jump table instead of a sparse switch, and
+ * jump targets index the code array directly. Registers live in locals of the main loop and the stack is accessed
+ * without per-push checks, room is reserved at calls, allocations and backward jumps as described in
+ * {@link MemoryLayout}.
+ */
+@SuppressWarnings({"squid:S1135", "squid:S106"})
+public class ThreadedInterpreter implements VirtualMachine {
+
+    // Dense opcodes the code segment is decoded into, keep them contiguous so dispatch stays a jump table
+    private static final int ADDI = 0;
+    private static final int ADDF = 1;
+    private static final int SUBI = 2;
+    private static final int SUBF = 3;
+    private static final int MULI = 4;
+    private static final int MULF = 5;
+    private static final int DIVI = 6;
+    private static final int DIVF = 7;
+    private static final int MOD = 8;
+    private static final int EQI = 9;
+    private static final int EQF = 10;
+    private static final int LTI = 11;
+    private static final int LTF = 12;
+    private static final int LEI = 13;
+    private static final int LEF = 14;
+    private static final int GTI = 15;
+    private static final int GTF = 16;
+    private static final int GEI = 17;
+    private static final int GEF = 18;
+    private static final int NEI = 19;
+    private static final int NEF = 20;
+    private static final int AND = 21;
+    private static final int OR = 22;
+    private static final int NOT = 23;
+    private static final int POP = 24;
+    private static final int POPF = 25;
+    private static final int PUSHI = 26;
+    private static final int PUSHF = 27;
+    private static final int PEEK = 28;
+    private static final int POKE = 29;
+    private static final int ALLOC = 30;
+    private static final int PEEKS = 31;
+    private static final int POKES = 32;
+    private static final int LEA = 33;
+    private static final int LD = 34;
+    private static final int CALL = 35;
+    private static final int RET = 36;
+    private static final int RET_V = 37;
+    private static final int EXIT = 38;
+    private static final int JMP = 39;
+    private static final int JMPZ = 40;
+    private static final int RND = 41;
+    private static final int STDOI = 42;
+    private static final int STDOF = 43;
+    private static final int STDOS = 44;
+    private static final int STDOC = 45;
+    private static final int STDOB = 46;
+    private static final int STDINI = 47;
+    private static final int STDINF = 48;
+    private static final int STDINC = 49;
+    private static final int STDINS = 50;
+    private static final int PEEK_PEEK = 51;
+    private static final int PEEK_PUSHI = 52;
+    private static final int POKE_POP = 53;
+    private static final int PEEK_PEEK_ADDI = 54;
+    private static final int PEEK_PUSHI_ADDI = 55;
+    private static final int PEEK_PEEK_MULI = 56;
+    private static final int PUSHI_PEEK_ADDI_POKE = 57;
+    private static final int PEEK_PUSHI_SUBI = 58;
+    private static final int JMPNZ = 59;
+    private static final int TAILCALL = 60;
+    private static final int JEQI = 61;
+    private static final int JLTI = 62;
+    private static final int JLEI = 63;
+    private static final int JGTI = 64;
+    private static final int JGEI = 65;
+    private static final int JNEI = 66;
+    private static final int JEQF = 67;
+    private static final int JLTF = 68;
+    private static final int JLEF = 69;
+    private static final int JGTF = 70;
+    private static final int JGEF = 71;
+    private static final int JNEF = 72;
+    private static final int JEQK = 73;
+    private static final int JLTK = 74;
+    private static final int JLEK = 75;
+    private static final int JGTK = 76;
+    private static final int JGEK = 77;
+    private static final int JNEK = 78;
+    private static final int INC = 79;
+    private static final int DEC = 80;
+    private static final int ADDI_IMM = 81;
+    private static final int TABLESWITCH = 82;
+    private static final int LOOKUPSWITCH = 83;
+
+    private final String filename;
+    private final StringTable strings;
+    private final int[] code;
+    private final int[] instructions;
+    private final MemoryLayout layout;
+    private final int[] heap;
+    private int[] maxDepths;
+
+    private ProgramInput input;
+    private Random randomGen;
+    private ProgramOutput output;
+
+    public ThreadedInterpreter(String filename, List<Integer> code, StringTable strings) {
+        this(filename, code, strings, new InstructionResolver());
+    }
+
+    public ThreadedInterpreter(String filename, List<Integer> code, StringTable strings, InstructionResolver resolver) {
+        this(filename, code, strings, resolver, MemoryLayout.defaults());
+    }
+
+    public ThreadedInterpreter(String filename, List<Integer> code, StringTable strings, InstructionResolver resolver, MemoryLayout layout) {
+        this.filename = filename;
+        this.strings = strings;
+        this.input = new ProgramInput();
+        this.randomGen = new Random();
+        this.output = new ProgramOutput();
+
+        this.code = new int[code.size()];
+        for (int i = 0; i < code.size(); i++) {
+            this.code[i] = code.get(i);
+        }
+        this.instructions = decode(this.code, resolver);
+        this.layout = layout;
+        this.heap = new int[layout.getHeapSize()];
+    }
+
+    private static int[] decode(int[] code, InstructionResolver resolver) {
+        int[] decoded = new int[code.length];
+        int offset = 0;
+        while (offset < code.length) {
+            InstructionType instruction = resolver.resolveInstruction(code[offset]);
+            if (instruction == null) {
+                throw new IllegalArgumentException(String.format("Unsupported instruction with code %03X %d at offset %d", code[offset], code[offset], offset));
+            }
+            decoded[offset] = denseOpcode(instruction);
+            offset += 1 + instruction.getOps(code, offset);
+        }
+        return decoded;
+    }
+
+    @SuppressWarnings("squid:S1479")
+    private static int denseOpcode(InstructionType instruction) {
+        switch (instruction) {
+            case ADDI: return ADDI;
+            case ADDF: return ADDF;
+            case SUBI: return SUBI;
+            case SUBF: return SUBF;
+            case MULI: return MULI;
+            case MULF: return MULF;
+            case DIVI: return DIVI;
+            case DIVF: return DIVF;
+            case MOD: return MOD;
+            case EQI: return EQI;
+            case EQF: return EQF;
+            case LTI: return LTI;
+            case LTF: return LTF;
+            case LEI: return LEI;
+            case LEF: return LEF;
+            case GTI: return GTI;
+            case GTF: return GTF;
+            case GEI: return GEI;
+            case GEF: return GEF;
+            case NEI: return NEI;
+            case NEF: return NEF;
+            case AND: return AND;
+            case OR: return OR;
+            case NOT: return NOT;
+            case POP: return POP;
+            case POPF: return POPF;
+            case PUSHI: return PUSHI;
+            case PUSHF: return PUSHF;
+            case PEEK: return PEEK;
+            case POKE: return POKE;
+            case ALLOC: return ALLOC;
+            case INC: return INC;
+            case DEC: return DEC;
+            case ADDI_IMM: return ADDI_IMM;
+            case PEEKS: return PEEKS;
+            case POKES: return POKES;
+            case LEA: return LEA;
+            case LD: return LD;
+            case CALL: return CALL;
+            case RET: return RET;
+            case RET_V: return RET_V;
+            case EXIT: return EXIT;
+            case JMP: return JMP;
+            case JMPZ: return JMPZ;
+            case JMPNZ: return JMPNZ;
+            case TAILCALL: return TAILCALL;
+            case TABLESWITCH: return TABLESWITCH;
+            case LOOKUPSWITCH: return LOOKUPSWITCH;
+            case RND: return RND;
+            case STDOI: return STDOI;
+            case STDOF: return STDOF;
+            case STDOS: return STDOS;
+            case STDOC: return STDOC;
+            case STDOB: return STDOB;
+            case STDINI: return STDINI;
+            case STDINF: return STDINF;
+            case STDINC: return STDINC;
+            case STDINS: return STDINS;
+            case PEEK_PEEK: return PEEK_PEEK;
+            case PEEK_PUSHI: return PEEK_PUSHI;
+            case POKE_POP: return POKE_POP;
+            case PEEK_PEEK_ADDI: return PEEK_PEEK_ADDI;
+            case PEEK_PUSHI_ADDI: return PEEK_PUSHI_ADDI;
+            case PEEK_PEEK_MULI: return PEEK_PEEK_MULI;
+            case PUSHI_PEEK_ADDI_POKE: return PUSHI_PEEK_ADDI_POKE;
+            case PEEK_PUSHI_SUBI: return PEEK_PUSHI_SUBI;
+            case JEQI: return JEQI;
+            case JLTI: return JLTI;
+            case JLEI: return JLEI;
+            case JGTI: return JGTI;
+            case JGEI: return JGEI;
+            case JNEI: return JNEI;
+            case JEQF: return JEQF;
+            case JLTF: return JLTF;
+            case JLEF: return JLEF;
+            case JGTF: return JGTF;
+            case JGEF: return JGEF;
+            case JNEF: return JNEF;
+            case JEQK: return JEQK;
+            case JLTK: return JLTK;
+            case JLEK: return JLEK;
+            case JGTK: return JGTK;
+            case JGEK: return JGEK;
+            case JNEK: return JNEK;
+            default:
+                throw new IllegalArgumentException(String.format("Instruction %s is not supported by the threaded engine", instruction));
+        }
+    }
+
+    /**
+     * Turns on the fast path for verified code, stack for a whole frame is reserved when a function is called
+     * @param depths result of verifying the code of this machine
+     */
+    public void setStackDepths(StackDepths depths) {
+        this.maxDepths = depths.toArray();
+    }
+
+    @Override
+    public void setOutput(ProgramOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public void setInput(ProgramInput input) {
+        this.input = input;
+    }
+
+    @Override
+    @SuppressWarnings("squid:S3776")
+    public void execute() {
+        final ProgramOutput out = output;
+        final ProgramInput in = input;
+        final int[] c = code;
+        final int[] ins = instructions;
+        final int[] h = heap;
+        final int[] d = maxDepths;
+        final int heapBase = layout.getHeapBase();
+        int[] m = new int[layout.getInitialStackSize()];
+        int[] f = new int[layout.getInitialStackSize()];
+        int ip = 0;
+        int sp = 0;
+        int bp = sp;
+        int fp = 0;
+        float fa;
+        float fb;
+        int a;
+        int b;
+
+        try {
+            while (true) {
+                int instruction = ins[ip];
+                jump: {
+                    switch (instruction) {
+                        case ADDI: sp--; m[sp - 1] += m[sp]; ip++; break;
+                        case ADDF:
+                            sp--;
+                            fb = Float.intBitsToFloat(m[sp]);
+                            fa = Float.intBitsToFloat(m[sp - 1]);
+                            m[sp - 1] = Float.floatToIntBits(fa + fb);
+                            ip++;
+                            break;
+                        case SUBI: sp--; m[sp - 1] -= m[sp]; ip++; break;
+                        case SUBF:
+                            sp--;
+                            fb = Float.intBitsToFloat(m[sp]);
+                            fa = Float.intBitsToFloat(m[sp - 1]);
+                            m[sp - 1] = Float.floatToIntBits(fa - fb);
+                            ip++;
+                            break;
+                        case MULI: sp--; m[sp - 1] *= m[sp]; ip++; break;
+                        case MULF:
+                            sp--;
+                            fb = Float.intBitsToFloat(m[sp]);
+                            fa = Float.intBitsToFloat(m[sp - 1]);
+                            m[sp - 1] = Float.floatToIntBits(fa * fb);
+                            ip++;
+                            break;
+                        case DIVI: sp--; m[sp - 1] /= m[sp]; ip++; break;
+                        case DIVF:
+                            sp--;
+                            fb = Float.intBitsToFloat(m[sp]);
+                            fa = Float.intBitsToFloat(m[sp - 1]);
+                            m[sp - 1] = Float.floatToIntBits(fa / fb);
+                            ip++;
+                            break;
+                        case MOD: sp--; m[sp - 1] %= m[sp]; ip++; break;
+
+                        case EQI: sp--; m[sp - 1] = m[sp - 1] == m[sp] ? 1 : 0; ip++; break;
+                        case NEI: sp--; m[sp - 1] = m[sp - 1] != m[sp] ? 1 : 0; ip++; break;
+                        case LTI: sp--; m[sp - 1] = m[sp - 1] < m[sp] ? 1 : 0; ip++; break;
+                        case LEI: sp--; m[sp - 1] = m[sp - 1] <= m[sp] ? 1 : 0; ip++; break;
+                        case GTI: sp--; m[sp - 1] = m[sp - 1] > m[sp] ? 1 : 0; ip++; break;
+                        case GEI: sp--; m[sp - 1] = m[sp - 1] >= m[sp] ? 1 : 0; ip++; break;
+                        case EQF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) == Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+                        case NEF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) != Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+                        case LTF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) < Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+                        case LEF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) <= Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+                        case GTF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) > Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+                        case GEF:
+                            sp--;
+                            m[sp - 1] = Float.intBitsToFloat(m[sp - 1]) >= Float.intBitsToFloat(m[sp]) ? 1 : 0;
+                            ip++;
+                            break;
+
+                        case AND: sp--; m[sp - 1] = m[sp - 1] == 1 && m[sp] == 1 ? 1 : 0; ip++; break;
+                        case OR: sp--; m[sp - 1] = m[sp - 1] == 1 || m[sp] == 1 ? 1 : 0; ip++; break;
+                        case NOT: m[sp - 1] = m[sp - 1] == 1 ? 0 : 1; ip++; break;
+
+                        case POP:
+                        case POPF:
+                            sp--; ip++; break;
+                        case PUSHI:
+                        case PUSHF:
+                            m[sp++] = c[ip + 1]; ip += 2; break;
+
+                        case PEEK: m[sp++] = m[bp + c[ip + 1]]; ip += 2; break;
+                        case POKE: m[bp + c[ip + 1]] = m[sp - 1]; ip += 2; break;
+                        case INC: m[bp + c[ip + 1]]++; ip += 2; break;
+                        case DEC: m[bp + c[ip + 1]]--; ip += 2; break;
+                        case ADDI_IMM: m[bp + c[ip + 1]] += c[ip + 2]; ip += 3; break;
+                        case ALLOC:
+                            a = c[ip + 1];
+                            if (d == null) {
+                                m = layout.reserve(m, sp + a);
+                                if (m == null) {
+                                    error("Stack overflown, exiting program");
+                                    return;
+                                }
+                            }
+                            sp += a;
+                            ip += 2;
+                            break;
+                        case PEEKS:
+                            a = m[sp - 1];
+                            m[sp - 1] = a < heapBase ? m[a] : h[a - heapBase];
+                            ip++;
+                            break;
+                        case POKES: sp--; m[bp + m[sp]] = m[sp - 1]; ip++; break;
+                        case LEA: m[sp - 1] = bp + m[sp - 1]; ip++; break;
+                        case LD:
+                            a = m[--sp];
+                            if (a < heapBase) {
+                                m[a] = m[sp - 1];
+                            }
+                            else {
+                                h[a - heapBase] = m[sp - 1];
+                            }
+                            ip++;
+                            break;
+
+                        case CALL:
+                            m = layout.reserve(m, d == null ? sp : sp - c[ip + 2] + d[c[ip + 1]]);
+                            if (m != null) {
+                                f = layout.reserve(f, fp + 2);
+                            }
+                            if (m == null || f == null) {
+                                error("Stack overflown, exiting program");
+                                return;
+                            }
+                            f[fp++] = ip + 3;
+                            f[fp++] = bp;
+                            bp = sp - c[ip + 2];
+                            ip = c[ip + 1];
+                            break;
+                        case TAILCALL:
+                            if (d != null) {
+                                m = layout.reserve(m, bp + d[c[ip + 1]]);
+                                if (m == null) {
+                                    error("Stack overflown, exiting program");
+                                    return;
+                                }
+                            }
+                            a = c[ip + 2];
+                            System.arraycopy(m, sp - a, m, bp, a);
+                            sp = bp + a;
+                            ip = c[ip + 1];
+                            break;
+                        case RET:
+                            sp = bp;
+                            bp = f[--fp];
+                            ip = f[--fp];
+                            break;
+                        case RET_V:
+                            a = m[sp - 1];
+                            sp = bp;
+                            bp = f[--fp];
+                            ip = f[--fp];
+                            m[sp++] = a;
+                            break;
+                        case EXIT:
+                            out.printExitStatus(m[--sp]);
+                            return;
+                        // Jumps only work out their target, the jump itself is taken after the switch
+                        case JMP: a = c[ip + 1]; break jump;
+                        case JMPZ: a = m[--sp] == 0 ? c[ip + 1] : ip + 2; break jump;
+                        case JMPNZ: a = m[--sp] != 0 ? c[ip + 1] : ip + 2; break jump;
+                        case TABLESWITCH:
+                            // Compared without sign, values below the lowest one wrap around past the count
+                            a = m[--sp] - c[ip + 2];
+                            a = Integer.compareUnsigned(a, c[ip + 3]) < 0 ? c[ip + 4 + a] : c[ip + 1];
+                            break jump;
+                        case LOOKUPSWITCH: a = lookup(c, ip, m[--sp]); break jump;
+                        // Compare jumps go to their target when the comparison holds
+                        case JEQI:
+                            sp -= 2;
+                            a = m[sp] == m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JLTI:
+                            sp -= 2;
+                            a = m[sp] < m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JLEI:
+                            sp -= 2;
+                            a = m[sp] <= m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JGTI:
+                            sp -= 2;
+                            a = m[sp] > m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JGEI:
+                            sp -= 2;
+                            a = m[sp] >= m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JNEI:
+                            sp -= 2;
+                            a = m[sp] != m[sp + 1] ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JEQF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) == Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JLTF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) < Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JLEF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) <= Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JGTF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) > Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JGEF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) >= Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JNEF:
+                            sp -= 2;
+                            a = Float.intBitsToFloat(m[sp]) != Float.intBitsToFloat(m[sp + 1]) ? c[ip + 1] : ip + 2;
+                            break jump;
+                        case JEQK:
+                            a = m[bp + c[ip + 2]] == c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+                        case JLTK:
+                            a = m[bp + c[ip + 2]] < c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+                        case JLEK:
+                            a = m[bp + c[ip + 2]] <= c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+                        case JGTK:
+                            a = m[bp + c[ip + 2]] > c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+                        case JGEK:
+                            a = m[bp + c[ip + 2]] >= c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+                        case JNEK:
+                            a = m[bp + c[ip + 2]] != c[ip + 3] ? c[ip + 1] : ip + 4;
+                            break jump;
+
+                        case RND:
+                            a = m[--sp];
+                            b = m[sp - 1];
+                            m[sp - 1] = randomGen.nextInt(b) + a;
+                            ip++;
+                            break;
+
+                        case STDOI: out.printInt(m[--sp]); ip++; break;
+                        case STDOF: out.printFloat(Float.intBitsToFloat(m[--sp])); ip++; break;
+                        case STDOS: out.print(strings.getEncoded(m[--sp])); ip++; break;
+                        case STDOC: out.printChar(m[--sp]); ip++; break;
+                        case STDOB: out.printBool(m[--sp]); ip++; break;
+
+                        case STDINI:
+                            out.flush();
+                            try {
+                                m[sp++] = in.readInt();
+                            }
+                            catch (InputMismatchException ex) {
+                                error("Incorrect integer entered");
+                                return;
+                            }
+                            ip++;
+                            break;
+                        case STDINF:
+                            out.flush();
+                            try {
+                                m[sp++] = Float.floatToIntBits(in.readFloat());
+                            }
+                            catch (InputMismatchException ex) {
+                                error("Incorrect float entered");
+                                return;
+                            }
+                            ip++;
+                            break;
+                        case STDINC:
+                            out.flush();
+                            String line = in.readLine();
+                            if (line.length() != 1) {
+                                error("Incorrect char entered");
+                                return;
+                            }
+                            m[sp++] = line.charAt(0);
+                            ip++;
+                            break;
+                        case STDINS:
+                            out.flush();
+                            m[sp++] = strings.add(in.readLine());
+                            ip++;
+                            break;
+
+                        case PEEK_PEEK:
+                            m[sp++] = m[bp + c[ip + 1]];
+                            m[sp++] = m[bp + c[ip + 2]];
+                            ip += 3;
+                            break;
+                        case PEEK_PUSHI:
+                            m[sp++] = m[bp + c[ip + 1]];
+                            m[sp++] = c[ip + 2];
+                            ip += 3;
+                            break;
+                        case POKE_POP: m[bp + c[ip + 1]] = m[--sp]; ip += 2; break;
+                        case PEEK_PEEK_ADDI: m[sp++] = m[bp + c[ip + 1]] + m[bp + c[ip + 2]]; ip += 3; break;
+                        case PEEK_PUSHI_ADDI: m[sp++] = m[bp + c[ip + 1]] + c[ip + 2]; ip += 3; break;
+                        case PEEK_PEEK_MULI: m[sp++] = m[bp + c[ip + 1]] * m[bp + c[ip + 2]]; ip += 3; break;
+                        case PEEK_PUSHI_SUBI: m[sp++] = m[bp + c[ip + 1]] - c[ip + 2]; ip += 3; break;
+                        case PUSHI_PEEK_ADDI_POKE:
+                            a = c[ip + 1] + m[bp + c[ip + 2]];
+                            m[sp++] = a;
+                            m[bp + c[ip + 3]] = a;
+                            ip += 4;
+                            break;
+                        default:
+                            error(String.format("Unsupported instruction with dense code %d", instruction));
+                            return;
+                    }
+                    // Every other instruction moved on by itself
+                    continue;
+                }
+                if (a < ip && d == null) {
+                    // Unverified loops may leave values on the stack, so room is checked once per iteration
+                    m = layout.reserve(m, sp);
+                    if (m == null) {
+                        error("Stack overflown, exiting program");
+                        return;
+                    }
+                }
+                ip = a;
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException ex) {
+            if (sp < 0) {
+                error("Stack underflown, exiting program");
+            }
+            else if (sp >= m.length) {
+                error("Stack overflown, exiting program");
+            }
+            else {
+                throw ex;
+            }
+        }
+        finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Binary search over the sorted entries of a lookup switch
+     * @param code code holding the switch
+     * @param ip offset of the switch
+     * @param value switched on value
+     * @return target of the entry holding the value, or the default target
+     */
+    private static int lookup(int[] code, int ip, int value) {
+        int low = 0;
+        int high = code[ip + 2] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int key = code[ip + 3 + 2 * middle];
+            if (key < value) {
+                low = middle + 1;
+            }
+            else if (key > value) {
+                high = middle - 1;
+            }
+            else {
+                return code[ip + 4 + 2 * middle];
+            }
+        }
+        return code[ip + 1];
+    }
+
+    private void error(String message) {
+        output.flush();
+        System.err.printf("%s:%d: error: %s%n", filename, 0, message);
+    }
+}
@@ -0,0 +1,24 @@
+package com.joklek.fakec.vm;
+
+/**
+ * Common entry point for every engine able to run generated FakeC bytecode
+ */
+public interface VirtualMachine {
+
+    /**
+     * Runs the loaded program until it exits or fails
+     */
+    void execute();
+
+    /**
+     * Replaces where the program prints to, by default output goes to {@link System#out}
+     * @param output output of the program
+     */
+    void setOutput(ProgramOutput output);
+
+    /**
+     * Replaces where the program reads from, by default input comes from the standard input of the process
+     * @param input input of the program
+     */
+    void setInput(ProgramInput input);
+}
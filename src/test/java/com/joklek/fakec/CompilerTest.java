@@ -0,0 +1,59 @@
+package com.joklek.fakec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.endsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CompilerTest {
+
+    private static final String FLOAT_COMPARISONS = "int main() { float a = 1.5; float b = 2.5; a = a * 1.0; " +
+            "output << ((a < b) == true), \" \", ((1.5 < 2.5) == true), \" \", (a != b) == true; return 0; }";
+
+    private final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream reported = new ByteArrayOutputStream();
+
+    private void compile(String source, String... flags) throws IOException {
+        Path file = Files.createTempFile("compiled", ".fc");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        String[] args = new String[flags.length + 1];
+        args[0] = file.toString();
+        System.arraycopy(flags, 0, args, 1, flags.length);
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        System.setOut(new PrintStream(printed));
+        System.setErr(new PrintStream(reported));
+        try {
+            Compiler.main(args);
+        }
+        finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void shouldMatchOutputsOfBackendsComparingFloats() throws IOException {
+        compile(FLOAT_COMPARISONS, "--compare");
+
+        assertThat(printed.toString(), endsWith(String.format("true true true%nProgram exited with status 0%n")));
+        assertThat(reported.toString(), containsString("Outputs match"));
+    }
+
+    @Test
+    void shouldRunProgramsDecodedFromStoredCompactCode() throws IOException {
+        compile(FLOAT_COMPARISONS, "--format=compact", "--engine=threaded");
+
+        assertThat(printed.toString(), endsWith(String.format("true true true%nProgram exited with status 0%n")));
+        assertThat(reported.toString(), containsString("Compact code takes"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.joklek.fakec;
+
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.ProgramImage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.run;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class InterpreterPoolTest {
+
+    private static final String SUM_INPUT = "int main() { int n = 0; int i = 0; int sum = 0; int x = 0; input >> n; " +
+            "while (i < n) { input >> x; sum = sum + x; i = i + 1; } output << sum; return 0; }";
+
+    private ProgramImage image(String source) {
+        IntermediateRepresentation representation = compile(source);
+        return new ProgramImage("test", representation.getInstructionBytes(), representation.getStringTable());
+    }
+
+    @Test
+    void shouldRunManyInputsInParallel() throws ExecutionException, InterruptedException {
+        try (InterpreterPool pool = new InterpreterPool(image(SUM_INPUT), 4)) {
+            List<Future<String>> runs = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                runs.add(pool.submit(String.format("3%n%d %d%n%d", i, i, -1)));
+            }
+
+            for (int i = 0; i < runs.size(); i++) {
+                assertThat(runs.get(i).get(), is(String.format("%d%nProgram exited with status 0%n", 2 * i - 1)));
+            }
+            assertThat(pool.getCreatedMachines(), is(lessThanOrEqualTo(4)));
+        }
+    }
+
+    @Test
+    void shouldRunAgainAfterReset() {
+        String source = "int main() { int seen = 0; string name = \"\"; input >> name; output << seen, \" \", name; " +
+                "seen = 5; return 0; }";
+        ProgramImage image = image(source);
+        int literals = image.newStringTable().size();
+        Interpreter interpreter = new Interpreter(image, MemoryLayout.defaults());
+
+        String first = run(interpreter, "first");
+        interpreter.reset();
+        String second = run(interpreter, "second");
+
+        assertThat(first, is(String.format("0 first%nProgram exited with status 0%n")));
+        assertThat(second, is(String.format("0 second%nProgram exited with status 0%n")));
+        assertThat(image.newStringTable().size(), is(literals));
+    }
+}
@@ -0,0 +1,108 @@
+package com.joklek.fakec;
+
+import com.joklek.fakec.codegen.BytecodeVerifier;
+import com.joklek.fakec.codegen.CodeGenerator;
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import com.joklek.fakec.lexing.Scanner;
+import com.joklek.fakec.parsing.Parser;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.data.TypeConverter;
+import com.joklek.fakec.parsing.types.operation.OperationConverter;
+import com.joklek.fakec.scope.Scope;
+import com.joklek.fakec.scope.ScopeChecker;
+import com.joklek.fakec.scope.ScopeResolver;
+import com.joklek.fakec.scope.TypeChecker;
+import com.joklek.fakec.vm.InputSource;
+import com.joklek.fakec.vm.OutputTarget;
+import com.joklek.fakec.vm.ProgramInput;
+import com.joklek.fakec.vm.ProgramOutput;
+import com.joklek.fakec.vm.VirtualMachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Takes test sources through the same steps the compiler does before generating code, and runs programs with their
+ * output captured
+ */
+public final class TestPrograms {
+
+    private TestPrograms() {
+    }
+
+    /**
+     * @return program with names resolved and types and scopes checked
+     */
+    public static Stmt.Program parse(String source) {
+        Parser parser = new Parser(new Scanner(source).scanTokens().getTokens(), new OperationConverter(), new TypeConverter());
+        Stmt.Program program = parser.parseProgram().getRootNode();
+        new ScopeResolver().resolveNames(program, new Scope());
+        new TypeChecker().checkForTypeErrors(program);
+        new ScopeChecker().checkScope(program);
+        return program;
+    }
+
+    /**
+     * @return stack machine code of the program, without any optimisation passes
+     */
+    public static IntermediateRepresentation compile(String source) {
+        return new CodeGenerator().generate(parse(source));
+    }
+
+    /**
+     * @return everything the machine printed
+     */
+    public static String run(VirtualMachine vm) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        vm.setOutput(new ProgramOutput(OutputTarget.stream(printed)));
+        vm.execute();
+        return new String(printed.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param input text the program reads
+     * @return everything the machine printed
+     */
+    public static String run(VirtualMachine vm, String input) {
+        vm.setInput(new ProgramInput(InputSource.text(input)));
+        return run(vm);
+    }
+
+    /**
+     * @return everything the machine printed, with errors it reported in between
+     */
+    public static String runWithErrors(VirtualMachine vm) {
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        System.setErr(new PrintStream(printed));
+        try {
+            vm.execute();
+        }
+        finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+        return printed.toString();
+    }
+
+    /**
+     * Verifies the code, so tests fail on code the machine would only run with stack checks, and runs it on the
+     * switch interpreter
+     * @return everything the program printed
+     */
+    public static String interpret(IntermediateRepresentation representation) {
+        new BytecodeVerifier().verify(representation);
+        return run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+    }
+
+    /**
+     * Generates code of an already checked program, verifies it and runs it on the switch interpreter
+     * @return everything the program printed
+     */
+    public static String interpret(Stmt.Program program) {
+        return interpret(new CodeGenerator().generate(program));
+    }
+}
@@ -0,0 +1,99 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BytecodeVerifierTest {
+
+    private final BytecodeVerifier verifier = new BytecodeVerifier();
+
+    @Test
+    void shouldRecordHighestPointOfEveryFunction() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label add = representation.newLabel();
+        representation.write(PUSHI, 1);
+        representation.write(PUSHI, 2);
+        representation.write(CALL, add, 2);
+        representation.write(EXIT);
+        representation.placeLabel(add);
+        representation.write(ALLOC, 1);
+        representation.write(PEEK, 0);
+        representation.write(PEEK, 1);
+        representation.write(ADDI);
+        representation.write(RET_V);
+
+        StackDepths depths = verifier.verify(representation);
+
+        assertThat(depths.getMaxDepth(0), is(2));
+        // Two arguments, one variable and both operands of the addition
+        assertThat(depths.getMaxDepth(add.getValue()), is(5));
+    }
+
+    @Test
+    void shouldRejectLoopThatLeavesValuesOnStack() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label loop = representation.newLabelAtCurrent();
+        representation.write(PUSHI, 1);
+        representation.write(JMP, loop);
+
+        VerificationException exception = assertThrows(VerificationException.class, () -> verifier.verify(representation));
+
+        assertThat(exception.getOffset(), is(loop.getValue()));
+    }
+
+    @Test
+    void shouldRejectPopsBelowFrameBase() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        representation.write(PUSHI, 1);
+        representation.write(ADDI);
+        representation.write(EXIT);
+
+        VerificationException exception = assertThrows(VerificationException.class, () -> verifier.verify(representation));
+
+        assertThat(exception.getOffset(), is(2));
+    }
+
+    @Test
+    void shouldRejectCallsWithDifferentArgumentCounts() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label function = representation.newLabel();
+        representation.write(PUSHI, 1);
+        representation.write(CALL, function, 1);
+        representation.write(PUSHI, 1);
+        representation.write(PUSHI, 2);
+        representation.write(CALL, function, 2);
+        representation.write(PUSHI, 0);
+        representation.write(EXIT);
+        representation.placeLabel(function);
+        representation.write(RET);
+
+        assertThrows(VerificationException.class, () -> verifier.verify(representation));
+    }
+
+    @Test
+    void shouldRejectTailCallsOfFunctionsReturningDifferently() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label caller = representation.newLabel();
+        Label callee = representation.newLabel();
+        Label tailCall = representation.newLabel();
+        representation.write(CALL, caller, 0);
+        representation.write(EXIT);
+        representation.placeLabel(caller);
+        representation.write(PUSHI, 1);
+        representation.write(JMPZ, tailCall);
+        representation.write(PUSHI, 1);
+        representation.write(RET_V);
+        representation.placeLabel(tailCall);
+        representation.write(TAILCALL, callee, 0);
+        representation.placeLabel(callee);
+        representation.write(RET);
+
+        VerificationException exception = assertThrows(VerificationException.class, () -> verifier.verify(representation));
+
+        assertThat(exception.getOffset(), is(caller.getValue()));
+    }
+}
@@ -0,0 +1,217 @@
+package com.joklek.fakec.codegen;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.ThreadedInterpreter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.run;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CodeGeneratorTest {
+
+    private List<InstructionType> types(IntermediateRepresentation representation) {
+        return representation.getInstructions().stream().map(Instruction::getType).collect(Collectors.toList());
+    }
+
+    private String runOnStackMachines(String source) {
+        IntermediateRepresentation representation = compile(source);
+        String switched = run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+        String threaded = run(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+        assertThat(threaded, is(switched));
+        return switched;
+    }
+
+    @Test
+    void shouldCallWithTargetAndArgumentCountAsOperands() {
+        IntermediateRepresentation representation = compile("int square(int n) { return n * n; } " +
+                "int main() { output << square(3); return 0; }");
+
+        List<Instruction> calls = representation.getInstructions().stream()
+                .filter(instruction -> instruction.getType() == CALL)
+                .collect(Collectors.toList());
+
+        assertThat(calls.size(), is(2));
+        assertThat(calls.get(1).getOperand(1), is(1));
+        // Functions whose frame is only their arguments need no setup
+        assertThat(types(representation), not(hasItem(ALLOC)));
+    }
+
+    /**
+     * Runs on machines whose stack could not hold a frame for every level of the recursion in given code
+     */
+    private String runInSmallStack(IntermediateRepresentation representation) {
+        new BytecodeVerifier().verify(representation);
+        MemoryLayout layout = MemoryLayout.withMaxStackSize(MemoryLayout.DEFAULT_INITIAL_STACK_SIZE);
+        String switched = run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable(), layout));
+        String threaded = run(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable(), new InstructionResolver(), layout));
+        assertThat(threaded, is(switched));
+        return switched;
+    }
+
+    @Test
+    void shouldTurnCallOfFunctionItselfInTailPositionIntoJump() {
+        IntermediateRepresentation representation = compile("int sum(int n, int total) { int step = n % 3; " +
+                "if (n == 0) { return total; } return (sum(n - 1, total + step)); } " +
+                "int main() { output << sum(100000, 0); return 0; }");
+
+        long calls = types(representation).stream().filter(type -> type == CALL).count();
+
+        assertThat(calls, is(2L));
+        assertThat(runInSmallStack(representation), is(String.format("100000%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldReuseFrameForTailCallsOfOtherFunctions() {
+        IntermediateRepresentation representation = compile("bool isEven(int n) { if (n == 0) { return true; } return isOdd(n - 1); } " +
+                "bool isOdd(int n) { if (n == 0) { return false; } return isEven(n - 1); } " +
+                "int main() { output << isEven(100001), \" \", isOdd(7); return 0; }");
+
+        long tailCalls = types(representation).stream().filter(type -> type == TAILCALL).count();
+
+        assertThat(tailCalls, is(2L));
+        assertThat(runInSmallStack(representation), is(String.format("false true%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldNotGiveFrameWithArraysToTailCalls() {
+        IntermediateRepresentation representation = compile("int first(int a) { return a; } " +
+                "int sum() { int[] values[3]; values[0] = 4; return first(values[0]); } " +
+                "int main() { output << sum(); return 0; }");
+
+        assertThat(types(representation), not(hasItem(TAILCALL)));
+    }
+
+    @Test
+    void shouldKeepArgumentsOfFunctionsCalledFromFramesWithoutVariables() {
+        String source = "int square(int n) { int result = n * n; return result; } " +
+                "int main() { output << square(7); return 0; }";
+
+        assertThat(runOnStackMachines(source), is(String.format("49%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldNotLeaveValuesOfVoidCallsOnStack() {
+        String source = "void show(int value) { output << value, \" \"; } " +
+                "int missing(int a) { if (a > 100) { return 1; } } " +
+                "int main() { int i = 0; while (i < 3) { show(i); i = i + 1; } output << missing(5); return 0; }";
+
+        assertThat(runOnStackMachines(source), is(String.format("0 1 2 0%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldNotLeaveAddressesOfArraysDeclaredInLoopsOnStack() {
+        String source = "int main() { int total = 0; " +
+                "for (int i = 0; i < 3; i++) { int[] values[2]; values[0] = i; values[1] = i * 2; total = total + values[0] + values[1]; } " +
+                "output << total; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        assertThat(runOnStackMachines(source), is(String.format("9%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldLeaveOneValueForUnaryOperations() {
+        String source = "int main() { int i = 5; bool b = true; " +
+                "output << i++, \" \", ++i, \" \", i--, \" \", --i, \" \", -i, \" \", i, \" \", !b, \" \", b; " +
+                "for (int j = 0; j < 3; j++) { i = i + j; } output << \" \", i; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        assertThat(runOnStackMachines(source), is(String.format("5 7 7 5 -5 5 false true 8%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldOnlyEvaluateRightSideOfLogicalOperationsWhenNeeded() {
+        String source = "bool check(int v, bool result) { output << v, \" \"; return result; } " +
+                "int main() { int[] values[2]; values[0] = 3; values[1] = 0; int i = 0; " +
+                "while (i < 2 AND values[i] != 0) { i++; } output << i, \" \"; " +
+                "if (check(1, false) AND check(2, true)) { output << \"a \"; } " +
+                "if (check(3, true) OR check(4, true)) { output << \"b \"; } " +
+                "bool both = check(5, true) AND (check(6, false) OR check(7, true)); " +
+                "output << both, \" \", check(8, false) OR false; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        assertThat(types(representation), not(hasItem(AND)));
+        assertThat(types(representation), not(hasItem(OR)));
+        assertThat(runOnStackMachines(source), is(String.format("1 1 3 b 5 6 7 true 8 false%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldJumpOnSingleComparisonsWithoutComparisonInstructions() {
+        String source = "int main() { int total = 0; " +
+                "for (int i = 0; i < 10; i++) { if (i == 3 OR !(i > 1)) { total = total + 100; } else if (total != i) { total = total + i; } } " +
+                "float step = 0.5; float f = 0.0; while (f < 2.0) { f = f + step; } " +
+                "float nan = 0.0 / 0.0; if (nan < 1.0) { output << \"lt \"; } if (nan >= 1.0) { output << \"ge \"; } " +
+                "if (nan != nan) { output << \"nan \"; } if (f == 2.0) { output << \"two \"; } output << total; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        List<InstructionType> types = types(representation);
+        assertThat(types, hasItem(JGEK));
+        assertThat(types, hasItem(JEQF));
+        assertThat(types, not(hasItem(LTI)));
+        assertThat(types, not(hasItem(NOT)));
+        // A failed float comparison is not the opposite one, it also fails for NaN
+        assertThat(types, hasItem(LTF));
+        assertThat(runOnStackMachines(source), is(String.format("nan two 341%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldUpdateVariablesInPlace() {
+        String source = "int main() { int total = 0; int j = 10; " +
+                "for (int k = 0; k < 5; k++) { total += k; total = 3 + total; j--; j -= 2; } " +
+                "int i = 0; int a = i++; int b = ++i; int c = j--; int d = (total += 7); " +
+                "output << total, \" \", i, \" \", a, \" \", b, \" \", c, \" \", d, \" \", j; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        List<InstructionType> types = types(representation);
+        assertThat(types, hasItem(INC));
+        assertThat(types, hasItem(DEC));
+        assertThat(types, hasItem(ADDI_IMM));
+        assertThat(types, not(hasItem(SUBI)));
+        assertThat(runOnStackMachines(source), is(String.format("32 2 0 2 -5 32 -6%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldJumpThroughSwitchesForChainsTestingOneVariable() {
+        String source = "int dense(int code) { if (code == 1) { return 10; } else if (code == 2) { return 20; } " +
+                "else if (code == 3 OR code == 4) { return 34; } else if (code == 2) { return 99; } else if (6 == code) { return 60; } return -1; } " +
+                "int sparse(int code) { if (code == 0) { return 1; } else if (code == 7) { return 2; } " +
+                "else if (code == 1000000) { return 3; } else if (code == 42) { return 4; } else { return 5; } } " +
+                "int main() { for (int i = -1; i < 8; i++) { output << dense(i), \" \"; } " +
+                "output << sparse(0), sparse(7), sparse(1000000), sparse(42), sparse(43), sparse(-2147483647 - 1), \" \"; " +
+                "char c = 'b'; int n = 0; while (n < 4) { if (c == 'a') { output << \"A\"; } else if (c == 'b') { output << \"B\"; c = 'd'; } " +
+                "else if (c == 'c') { output << \"C\"; } else if (c == 'd') { output << \"D\"; c = 'a'; } n++; } return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new BytecodeVerifier().verify(representation);
+        List<InstructionType> types = types(representation);
+        assertThat(types.stream().filter(type -> type == TABLESWITCH).count(), is(2L));
+        assertThat(types, hasItem(LOOKUPSWITCH));
+        assertThat(types, not(hasItem(JEQK)));
+        assertThat(types, not(hasItem(JNEK)));
+        assertThat(runOnStackMachines(source), is(String.format("-1 -1 10 20 34 34 -1 60 -1 123455 BDAA%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldTestShortChainsOneAfterAnother() {
+        IntermediateRepresentation representation = compile("int main() { int x = 2; " +
+                "if (x == 1) { output << 1; } else if (x == 2) { output << 2; } else if (x == 3) { output << 3; } " +
+                "if (x == 1) { output << 1; } else if (x > 2) { output << 2; } else if (x == 3) { output << 3; } else if (x == 4) { output << 4; } return 0; }");
+
+        List<InstructionType> types = types(representation);
+        assertThat(types, not(hasItem(TABLESWITCH)));
+        assertThat(types, not(hasItem(LOOKUPSWITCH)));
+    }
+}
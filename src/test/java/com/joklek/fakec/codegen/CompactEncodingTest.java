@@ -0,0 +1,80 @@
+package com.joklek.fakec.codegen;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.TestPrograms;
+import com.joklek.fakec.vm.MemoryLayout;
+import com.joklek.fakec.vm.ProgramImage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompactEncodingTest {
+
+    private String run(ProgramImage image) {
+        return TestPrograms.run(new Interpreter(image, MemoryLayout.defaults()));
+    }
+
+    private int[] toArray(List<Integer> code) {
+        return code.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    void shouldDecodeToGeneratedCode() {
+        IntermediateRepresentation representation = compile("int pick(int code) { if (code == 1) { return 10; } " +
+                "else if (code == 2) { return 20; } else if (code == 3) { return 30; } else if (code == 900) { return 90; } return 100000; } " +
+                "int main() { float f = 1.5; int total = 0; for (int i = 0; i < 5; i++) { total = total + pick(i); } " +
+                "output << total, \" \", pick(900); return 0; }");
+        List<Integer> code = representation.getInstructionBytes();
+        CompactEncoding encoding = new CompactEncoding();
+
+        byte[] compact = encoding.encode(code);
+
+        assertThat(encoding.decode(compact), is(toArray(code)));
+        assertThat(compact.length, lessThan(code.size() * 2));
+        ProgramImage image = new ProgramImage("test", compact, representation.getStringTable());
+        assertThat(image.getStackDepths(), is(notNullValue()));
+        assertThat(run(image), is(run(new ProgramImage("test", code, representation.getStringTable()))));
+    }
+
+    @Test
+    void shouldWidenOnlyJumpsThatDoNotReach() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label far = representation.newLabel();
+        representation.write(JMP, far);
+        Label near = representation.newLabelAtCurrent();
+        for (int i = 0; i < 42; i++) {
+            representation.write(PUSHI, 1);
+            representation.write(POP);
+        }
+        representation.write(JMP, near);
+        representation.placeLabel(far);
+        representation.write(PUSHI, 0);
+        representation.write(EXIT);
+        List<Integer> code = representation.getInstructionBytes();
+        CompactEncoding encoding = new CompactEncoding();
+
+        byte[] compact = encoding.encode(code);
+
+        // Pairs take 126 bytes, the jump back over them stays short and the one over the jump back too does not fit
+        assertThat(compact[0] & 0xFF, is(CompactEncoding.WIDE));
+        assertThat(compact[6] & 0xFF, is(PUSHI.getValue()));
+        assertThat(compact[132] & 0xFF, is(JMP.getValue()));
+        assertThat((int) compact[133], is(-126));
+        assertThat(encoding.decode(compact), is(toArray(code)));
+    }
+
+    @Test
+    void shouldRejectTargetsBetweenInstructions() {
+        byte[] compact = {(byte) JMP.getValue(), 1, (byte) EXIT.getValue()};
+
+        assertThrows(IllegalArgumentException.class, () -> new CompactEncoding().decode(compact));
+    }
+}
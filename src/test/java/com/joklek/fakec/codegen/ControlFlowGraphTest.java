@@ -0,0 +1,121 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ControlFlowGraphTest {
+
+    @Test
+    void shouldSplitFunctionsIntoBlocks() {
+        IntermediateRepresentation representation = compile("int twice(int a) { return a * 2; } " +
+                "int main() { int x = 1; if (x < 2) { x = twice(x); } output << x; return 0; }");
+
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+
+        assertThat(graphs.size(), is(3));
+        assertThat(graphs.get(1).getBlocks().size(), is(1));
+        ControlFlowGraph main = graphs.get(2);
+        assertThat(main.getBlocks().size(), is(3));
+        BasicBlock condition = main.getEntry();
+        BasicBlock then = main.getBlocks().get(1);
+        BasicBlock after = main.getBlocks().get(2);
+        assertThat(condition.getSuccessors(), is(Arrays.asList(after, then)));
+        assertThat(condition.getFallthrough(), is(then));
+        assertThat(after.getImmediateDominator(), is(condition));
+        assertThat(then.getImmediateDominator(), is(condition));
+        assertThat(condition.getImmediateDominator(), is(nullValue()));
+        assertThat(main.getLoops().isEmpty(), is(true));
+    }
+
+    @Test
+    void shouldFindNestedLoops() {
+        IntermediateRepresentation representation = compile("int main() { int total = 0; " +
+                "for (int i = 0; i < 3; i++) { int j = 0; while (j < i) { j++; } total = total + j; } " +
+                "output << total; return 0; }");
+
+        ControlFlowGraph main = ControlFlowGraph.build(representation).get(1);
+
+        List<Loop> loops = main.getLoops();
+        assertThat(loops.size(), is(2));
+        Loop outer = loops.get(0);
+        Loop inner = loops.get(1);
+        assertThat(inner.getParent(), is(outer));
+        assertThat(outer.getParent(), is(nullValue()));
+        assertThat(outer.getBlocks().containsAll(inner.getBlocks()), is(true));
+        assertThat(inner.getHeader().getLoopDepth(), is(2));
+        assertThat(outer.getHeader().getLoopDepth(), is(1));
+        assertThat(main.getEntry().getLoopDepth(), is(0));
+        for (BasicBlock block : inner.getBlocks()) {
+            assertThat(main.dominates(inner.getHeader(), block), is(true));
+            assertThat(main.dominates(outer.getHeader(), block), is(true));
+        }
+        for (BasicBlock latch : inner.getLatches()) {
+            assertThat(latch.getSuccessors().contains(inner.getHeader()), is(true));
+        }
+    }
+
+    @Test
+    void shouldLowerToSameCode() {
+        IntermediateRepresentation representation = compile("int main() { int i = 0; " +
+                "while (i < 10) { if (i % 2 == 0) { output << i; } i++; } return 0; }");
+        List<Integer> original = new ArrayList<>(representation.getInstructionBytes());
+
+        ControlFlowGraph.lower(representation, ControlFlowGraph.build(representation));
+
+        assertThat(representation.getInstructionBytes(), is(original));
+    }
+
+    @Test
+    void shouldAddJumpsWhenBlocksAreMoved() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label end = representation.newLabel();
+        representation.write(PUSHI, 1);
+        representation.write(JMPZ, end);
+        representation.write(PUSHI, 2);
+        representation.write(STDOI);
+        representation.placeLabel(end);
+        representation.write(EXIT);
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+
+        // Block printing the value is moved after the exit, so it has to jump back to it
+        List<BasicBlock> blocks = graphs.get(0).getBlocks();
+        Collections.swap(blocks, 1, 2);
+        ControlFlowGraph.lower(representation, graphs);
+
+        List<Instruction> instructions = representation.getInstructions();
+        assertThat(instructions.stream().map(Instruction::getType).toArray(),
+                is(new Object[]{PUSHI, JMPZ, JMP, EXIT, PUSHI, STDOI, JMP}));
+        assertThat(instructions.get(1).getOperand(0), is(6));
+        assertThat(instructions.get(2).getOperand(0), is(7));
+        assertThat(instructions.get(6).getOperand(0), is(6));
+    }
+
+    @Test
+    void shouldGiveSwitchesEdgeToEveryTarget() {
+        IntermediateRepresentation representation = compile("int main() { int x = 3; " +
+                "if (x == 1) { x = 5; } else if (x == 2) { x = 6; } else if (x == 3) { x = 7; } else if (x == 4) { x = 8; } " +
+                "output << x; return 0; }");
+        List<Integer> before = new ArrayList<>(representation.getInstructionBytes());
+
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        ControlFlowGraph main = graphs.get(1);
+
+        BasicBlock entry = main.getEntry();
+        assertThat(entry.getLastInstruction().getType(), is(TABLESWITCH));
+        assertThat(entry.getFallthrough(), is(nullValue()));
+        // Four branches and the block after them, which the missing else leaves as the default
+        assertThat(entry.getSuccessors().size(), is(5));
+        ControlFlowGraph.lower(representation, graphs);
+        assertThat(representation.getInstructionBytes(), is(before));
+    }
+}
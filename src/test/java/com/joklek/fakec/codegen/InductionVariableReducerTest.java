@@ -0,0 +1,92 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class InductionVariableReducerTest {
+
+    private long multiplicationsInLoop(IntermediateRepresentation representation) {
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        ControlFlowGraph main = graphs.get(graphs.size() - 1);
+        List<Instruction> loop = main.getLoops().get(0).getBlocks().stream()
+                .flatMap(block -> block.getInstructions().stream())
+                .collect(Collectors.toList());
+        return loop.stream().filter(instruction -> instruction.getType() == MULI).count();
+    }
+
+    @Test
+    void shouldReplaceRepeatedMultiplicationWithRunningSum() {
+        IntermediateRepresentation representation = compile("int main() { int total = 0; " +
+                "for (int i = 0; i < 10; i += 3) { total = total + i * 5 + (i * 5) % 7 - i * 5 / 2; } " +
+                "output << total; return 0; }");
+        String expected = interpret(representation);
+
+        int reduced = new InductionVariableReducer().reduce(representation);
+
+        assertThat(reduced, is(1));
+        assertThat(multiplicationsInLoop(representation), is(0L));
+        assertThat(interpret(representation), is(expected));
+    }
+
+    @Test
+    void shouldKeepSquareWhenUpdatingCostsMore() {
+        IntermediateRepresentation representation = compile("int main() { int n = 0; n = 50; int j = 1; " +
+                "while (j * j < n) { j++; } output << j; return 0; }");
+
+        int reduced = new InductionVariableReducer().reduce(representation);
+
+        // One multiplication is three instructions, keeping the square up to date takes eight
+        assertThat(reduced, is(0));
+        assertThat(multiplicationsInLoop(representation), is(1L));
+    }
+
+    @Test
+    void shouldReplaceRepeatedSquareOfCountingDownVariable() {
+        IntermediateRepresentation representation = compile("int main() { int total = 0; " +
+                "for (int j = 20; j + 5 > 0; j--) { total = total + j * j + (j * j) % 3 + (j * j) / 4 + (j * j) % 5 + (j * j) / 6; } " +
+                "output << total; return 0; }");
+        String expected = interpret(representation);
+
+        int reduced = new InductionVariableReducer().reduce(representation);
+
+        // Besides the square, j + 5 of the condition is worth keeping as it changes with a single instruction
+        assertThat(reduced, is(2));
+        assertThat(multiplicationsInLoop(representation), is(0L));
+        assertThat(interpret(representation), is(expected));
+    }
+
+    @Test
+    void shouldLeaveVariablesChangedMoreThanOnce() {
+        IntermediateRepresentation representation = compile("int main() { int total = 0; " +
+                "for (int i = 0; i < 10; i++) { if (i == 4) { i = i + 2; } total = total + i * 5 + i * 5 + i * 5 + i * 5; } " +
+                "output << total; return 0; }");
+
+        assertThat(new InductionVariableReducer().reduce(representation), is(0));
+    }
+
+    @Test
+    void shouldUpdateDerivedVariableInPlaceWhereCounterChanges() {
+        IntermediateRepresentation representation = compile("int main() { int total = 0; " +
+                "for (int i = 0; i < 10; i++) { total = total + i * 4; } output << total; return 0; }");
+        String expected = interpret(representation);
+
+        int reduced = new InductionVariableReducer().reduce(representation);
+
+        // A single use is enough, the derived variable changes with one instruction next to the INC of the counter
+        assertThat(reduced, is(1));
+        assertThat(multiplicationsInLoop(representation), is(0L));
+        List<Instruction> instructions = representation.getInstructions();
+        int increment = instructions.stream().map(Instruction::getType).collect(Collectors.toList()).indexOf(INC);
+        assertThat(instructions.get(increment + 1).getType(), is(ADDI_IMM));
+        assertThat(instructions.get(increment + 1).getOperand(1), is(4));
+        assertThat(interpret(representation), is(expected));
+    }
+}
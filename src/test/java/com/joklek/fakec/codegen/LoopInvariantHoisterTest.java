@@ -0,0 +1,78 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class LoopInvariantHoisterTest {
+
+    /**
+     * @return instructions of the innermost loop of the last function
+     */
+    private List<Instruction> loopCode(IntermediateRepresentation representation) {
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        ControlFlowGraph main = graphs.get(graphs.size() - 1);
+        Loop loop = main.getLoops().get(main.getLoops().size() - 1);
+        return loop.getBlocks().stream().flatMap(block -> block.getInstructions().stream()).collect(Collectors.toList());
+    }
+
+    private long count(List<Instruction> instructions, InstructionType type) {
+        return instructions.stream().filter(instruction -> instruction.getType() == type).count();
+    }
+
+    @Test
+    void shouldMoveInvariantExpressionsBeforeLoop() {
+        IntermediateRepresentation representation = compile("int main() { int n = 0; n = 5; int i = 0; int total = 0; " +
+                "while (i < n * n) { total = total + (n - 1) * 2; i++; } output << total; return 0; }");
+        String expected = interpret(representation);
+
+        int hoisted = new LoopInvariantHoister().hoist(representation);
+
+        assertThat(hoisted, is(2));
+        assertThat(count(loopCode(representation), MULI), is(0L));
+        assertThat(representation.getInstructions().get(2).getType(), is(ALLOC));
+        assertThat(representation.getInstructions().get(2).getOperand(0), is(5));
+        assertThat(interpret(representation), is(expected));
+    }
+
+    @Test
+    void shouldLeaveExpressionsOverChangedVariablesAndCalls() {
+        IntermediateRepresentation representation = compile("int twice(int a) { return a * 2; } " +
+                "int main() { int n = 0; n = 3; int total = 0; " +
+                "for (int i = 0; i < 4; i++) { total = total + i * 2 + twice(n) + n / i; } output << total; return 0; }");
+
+        int hoisted = new LoopInvariantHoister().hoist(representation);
+
+        assertThat(hoisted, is(0));
+        assertThat(count(loopCode(representation), CALL), is(1L));
+    }
+
+    @Test
+    void shouldMoveExpressionsOutOfWholeLoopNest() {
+        IntermediateRepresentation representation = compile("int main() { int n = 0; n = 4; int total = 0; " +
+                "for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { total = total + n * 3 + i * 2; } } " +
+                "output << total; return 0; }");
+        String expected = interpret(representation);
+
+        int hoisted = new LoopInvariantHoister().hoist(representation);
+
+        // n * 3 leaves both loops, i * 2 only the inner one
+        assertThat(hoisted, is(2));
+        List<ControlFlowGraph> graphs = ControlFlowGraph.build(representation);
+        ControlFlowGraph main = graphs.get(graphs.size() - 1);
+        Loop outer = main.getLoops().get(0);
+        Loop inner = main.getLoops().get(1);
+        List<Instruction> outerCode = outer.getBlocks().stream().flatMap(block -> block.getInstructions().stream()).collect(Collectors.toList());
+        assertThat(count(outerCode, MULI), is(1L));
+        assertThat(count(loopCode(representation), MULI), is(0L));
+        assertThat(inner.getParent(), is(outer));
+        assertThat(interpret(representation), is(expected));
+    }
+}
@@ -0,0 +1,123 @@
+package com.joklek.fakec.codegen;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.vm.ThreadedInterpreter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.run;
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class PeepholeOptimiserTest {
+
+    private List<InstructionType> types(IntermediateRepresentation representation) {
+        return representation.getInstructions().stream().map(Instruction::getType).collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldForwardStoredValue() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        representation.write(PUSHI, 4);
+        representation.write(POKE, 0);
+        representation.write(POP);
+        representation.write(PEEK, 0);
+        representation.write(EXIT);
+
+        int rewrites = new PeepholeOptimiser(EnumSet.of(PeepholeOptimiser.Rule.FORWARD_STORES)).optimise(representation);
+
+        assertThat(rewrites, is(1));
+        assertThat(types(representation), is(Arrays.asList(PUSHI, POKE, EXIT)));
+    }
+
+    @Test
+    void shouldDropUnusedPushesAndIdentitiesKeepingLabels() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        representation.write(PUSHI, 3);
+        Label loop = representation.newLabelAtCurrent();
+        representation.write(PEEK, 0);
+        representation.write(POP);
+        representation.write(PUSHI, 0);
+        representation.write(ADDI);
+        representation.write(PUSHI, 1);
+        representation.write(MULI);
+        representation.write(JMPZ, loop);
+        representation.write(PUSHI, 0);
+        representation.write(EXIT);
+
+        new PeepholeOptimiser().optimise(representation);
+
+        assertThat(types(representation), is(Arrays.asList(PUSHI, JMPZ, PUSHI, EXIT)));
+        // The loop label moved past the removed instructions and the jump follows it
+        assertThat(loop.getValue(), is(2));
+        assertThat(representation.getInstructionBytes().get(3), is(2));
+    }
+
+    @Test
+    void shouldThreadJumpsToJumps() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label middle = representation.newLabel();
+        Label end = representation.newLabel();
+        representation.write(PUSHI, 1);
+        representation.write(JMPZ, middle);
+        representation.write(PUSHI, 2);
+        representation.write(STDOI);
+        representation.placeLabel(middle);
+        representation.write(JMP, end);
+        representation.write(PUSHI, 3);
+        representation.write(STDOI);
+        representation.placeLabel(end);
+        representation.write(PUSHI, 0);
+        representation.write(EXIT);
+
+        new PeepholeOptimiser(EnumSet.of(PeepholeOptimiser.Rule.THREAD_JUMPS)).optimise(representation);
+
+        List<Instruction> instructions = representation.getInstructions();
+        assertThat(instructions.get(1).getType(), is(JMPZ));
+        assertThat(instructions.get(1).getLabel(0), is(end));
+    }
+
+    @Test
+    void shouldInvertBranchOverJump() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label skip = representation.newLabel();
+        Label loop = representation.newLabelAtCurrent();
+        representation.write(PUSHI, 1);
+        representation.write(NOT);
+        representation.write(JMPZ, skip);
+        representation.write(JMP, loop);
+        representation.placeLabel(skip);
+        representation.write(PUSHI, 0);
+        representation.write(EXIT);
+
+        new PeepholeOptimiser(EnumSet.of(PeepholeOptimiser.Rule.INVERT_BRANCHES)).optimise(representation);
+
+        // Branch over the jump becomes JMPNZ, then the NOT before it flips it back
+        assertThat(types(representation), is(Arrays.asList(PUSHI, JMPZ, PUSHI, EXIT)));
+        assertThat(representation.getInstructions().get(1).getLabel(0), is(loop));
+    }
+
+    @Test
+    void shouldKeepOutputOfOptimisedPrograms() {
+        String source = "int main() { int i = 0; int odd = 0; while (i < 20) { i = i + 1; " +
+                "if (i % 2 == 0) { continue; } if (!(i < 15)) { break; } odd = odd + i; } output << odd, \" \", i; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        new PeepholeOptimiser().optimise(representation);
+
+        // Compare jumps over the jumps of continue and break are inverted
+        assertThat(types(representation), hasItem(JEQI));
+        assertThat(types(representation), hasItem(JGEK));
+        new BytecodeVerifier().verify(representation);
+        String expected = String.format("49 15%nProgram exited with status 0%n");
+        assertThat(run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable())), is(expected));
+        assertThat(run(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable())), is(expected));
+    }
+}
@@ -0,0 +1,89 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class SuperinstructionFuserTest {
+
+    private OpcodeProfile profileOf(InstructionType... executed) {
+        OpcodeProfile profile = new OpcodeProfile();
+        for (InstructionType type : executed) {
+            profile.record(type.getValue());
+        }
+        return profile;
+    }
+
+    @Test
+    void shouldCountSequencesUpToMaxLength() {
+        OpcodeProfile profile = profileOf(PEEK, PEEK, ADDI, PEEK, PEEK, ADDI);
+
+        assertThat(profile.getDispatches(), is(6L));
+        assertThat(profile.getCount(Arrays.asList(PEEK, PEEK)), is(2L));
+        assertThat(profile.getCount(Arrays.asList(PEEK, PEEK, ADDI)), is(2L));
+        assertThat(profile.getCount(Arrays.asList(ADDI, PEEK, PEEK, ADDI)), is(1L));
+    }
+
+    @Test
+    void shouldReadWrittenProfile() throws Exception {
+        InstructionResolver resolver = new InstructionResolver();
+        OpcodeProfile profile = profileOf(POKE, POP, POKE, POP, JMP);
+        StringWriter writer = new StringWriter();
+        profile.write(writer, resolver);
+
+        OpcodeProfile read = OpcodeProfile.read(new StringReader(writer.toString()), resolver);
+
+        assertThat(read.getDispatches(), is(5L));
+        assertThat(read.getCount(Arrays.asList(POKE, POP)), is(2L));
+        assertThat(read.getCount(Arrays.asList(POP, JMP)), is(1L));
+    }
+
+    @Test
+    void shouldFuseHotSequencesAndRelocateLabels() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label start = representation.newLabelAtCurrent();
+        Label end = representation.newLabel();
+        representation.write(PEEK, 0);
+        representation.write(PEEK, 1);
+        representation.write(ADDI);
+        representation.write(POKE, 2);
+        representation.write(POP);
+        representation.write(JMPZ, end);
+        representation.write(JMP, start);
+        representation.placeLabel(end);
+        representation.write(EXIT);
+
+        int fused = new SuperinstructionFuser(profileOf(PEEK, PEEK, ADDI, POKE, POP)).fuse(representation);
+
+        assertThat(fused, is(2));
+        List<Integer> expected = Arrays.asList(
+                PEEK_PEEK_ADDI.getValue(), 0, 1,
+                POKE_POP.getValue(), 2,
+                JMPZ.getValue(), 9,
+                JMP.getValue(), 0,
+                EXIT.getValue());
+        assertThat(representation.getInstructionBytes(), is(expected));
+        assertThat(end.getValue(), is(9));
+    }
+
+    @Test
+    void shouldNotFuseOverJumpTargets() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        representation.write(PEEK, 0);
+        Label target = representation.newLabelAtCurrent();
+        representation.write(PEEK, 1);
+        representation.write(JMP, target);
+
+        int fused = new SuperinstructionFuser(profileOf(PEEK, PEEK, PEEK, PEEK)).fuse(representation);
+
+        assertThat(fused, is(0));
+        assertThat(representation.getInstructionBytes(), is(Arrays.asList(PEEK.getValue(), 0, PEEK.getValue(), 1, JMP.getValue(), 2)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.joklek.fakec.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.codegen.InstructionType.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class UnreachableCodeRemoverTest {
+
+    private List<InstructionType> types(IntermediateRepresentation representation) {
+        return representation.getInstructions().stream().map(Instruction::getType).collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldRemoveCodeAfterReturnAndFunctionsNeverCalled() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label main = representation.newLabel();
+        Label unused = representation.newLabel();
+        representation.write(CALL, main, 0);
+        representation.write(EXIT);
+        representation.placeLabel(unused);
+        representation.write(PUSHI, 1);
+        representation.write(RET_V);
+        representation.placeLabel(main);
+        representation.write(PUSHI, 0);
+        representation.write(RET_V);
+        representation.write(PUSHI, 0);
+        representation.write(RET_V);
+
+        int removed = new UnreachableCodeRemover().remove(representation);
+
+        assertThat(removed, is(4));
+        assertThat(types(representation), is(Arrays.asList(CALL, EXIT, PUSHI, RET_V)));
+        assertThat(main.getValue(), is(4));
+        assertThat(representation.getInstructionBytes().get(1), is(4));
+    }
+
+    @Test
+    void shouldRemoveJumpsToNextInstruction() {
+        IntermediateRepresentation representation = new IntermediateRepresentation();
+        Label end = representation.newLabel();
+        Label loop = representation.newLabelAtCurrent();
+        representation.write(PUSHI, 1);
+        representation.write(JMPZ, end);
+        representation.write(JMP, loop);
+        representation.write(JMP, end);
+        representation.placeLabel(end);
+        representation.write(EXIT);
+
+        new UnreachableCodeRemover().remove(representation);
+
+        // The second jump is never reached, so the first one is left jumping backwards and the exit stays labelled
+        assertThat(types(representation), is(Arrays.asList(PUSHI, JMPZ, JMP, EXIT)));
+        assertThat(end.getValue(), is(6));
+    }
+}
@@ -0,0 +1,93 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import com.joklek.fakec.codegen.RegisterCodeGenerator;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.vm.RegisterInterpreter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.parse;
+import static com.joklek.fakec.TestPrograms.run;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JvmCodeGeneratorTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "int main() { int i = 0; int sum = 0; while (i < 100) { sum = sum + i * 3 % 7; i = i + 1; } output << sum; return sum; }",
+            "int main() { float a = 1.5; float b = 2.25; output << a * b, a / b, a - b; output << a < b; return 3; }",
+            "int main() { float a = 1.5; float b = 2.5; a = a * 1.0; output << ((a < b) == true), (a >= b) == false, (a != b) == true; return 0; }",
+            "int main() { float z = 0.0; z = z * 1.0; float nan = z / z; float one = 1.0; " +
+                    "if (nan < one) { output << \"a\"; } else { output << \"b\"; } if (nan >= one) { output << \"c\"; } else { output << \"d\"; } if (nan > one OR nan <= one) { output << \"e\"; } " +
+                    "if (nan != one) { output << \"f\"; } if (!(nan == nan)) { output << \"g\"; } " +
+                    "int i = 0; while (nan < one AND i < 3) { i++; } output << i, (nan > one), (nan <= one); return 0; }",
+            "int main() { int[] array[5]; int i = 0; while (i < 5) { array[i] = i * i; i = i + 1; } output << array[3], array[4]; return 0; }",
+            "int main() { bool flag = true; if (flag AND !false) { output << \"yes\"; } else { output << \"no\"; } return 0; }",
+            "int main() { int i = 0; while (true) { i = i + 1; if (i == 3) { continue; } if (i > 6) { break; } output << i; } return i; }",
+            "int f(int n) { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } int main() { output << f(15); return 0; }",
+            "int main() { int total = 0; for (int i = 0; i < 10; i = i + 1) { if (i % 2 == 0) { total = total + i; } else if (i == 7) { total = total - 1; } } output << total; return 0; }",
+            "bool check(int v, bool result) { output << v; return result; } int main() { bool flag = true; flag = check(1, false) AND flag; if (check(2, true) OR check(3, true)) { output << flag; } output << (check(4, true) AND check(5, false)); return 0; }"
+    })
+    void shouldProduceSameOutputAsRegisterMachine(String source) {
+        Stmt.Program program = parse(source);
+
+        String expected = run(new RegisterInterpreter("test", new RegisterCodeGenerator().generate(program)));
+        String actual = run(new CompiledProgram("test", new JvmCodeGenerator().generate(program)));
+
+        assertThat(actual, is(expected));
+    }
+
+    @Test
+    void shouldPassArgumentsAndReturnValues() {
+        Stmt.Program program = parse("float half(float x) { return x / 2.0; } " +
+                "int add(int a, int b, int c) { return a + b * c; } " +
+                "int main() { int x = 2; output << add(x, add(1, 2, 3), x - 1), \" \"; output << half(5.0); return x; }");
+
+        String output = run(new CompiledProgram("test", new JvmCodeGenerator().generate(program)));
+
+        assertThat(output, is("9 2.5\n\nProgram exited with status 2\n"));
+    }
+
+    @Test
+    void shouldEvaluateAssignedValueBeforeArrayOffset() {
+        String source = "int main() { int[] a[3]; int i = 0; a[i++] = i * 10 + 7; output << i, \" \", a[0], \" \", a[1]; return 0; }";
+        IntermediateRepresentation representation = compile(source);
+
+        String output = run(new CompiledProgram("test", new JvmCodeGenerator().generate(parse(source))));
+
+        assertThat(output, is("1 7 0\nProgram exited with status 0\n"));
+        assertThat(output, is(run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable()))));
+    }
+
+    @Test
+    void shouldReportStackOverflowOnRunawayRecursion() {
+        Stmt.Program program = parse("int f(int n) { return f(n + 1) + 1; } int main() { return f(0); }");
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors));
+        try {
+            run(new CompiledProgram("test", new JvmCodeGenerator().generate(program)));
+        }
+        finally {
+            System.setErr(originalErr);
+        }
+
+        assertThat(errors.toString().trim(), is("test:0: error: Stack overflown, exiting program"));
+    }
+
+    @Test
+    void shouldRejectMixedTypeComparisons() {
+        Stmt.Program program = parse("int main() { int i = 1; float f = 2.0; if (i < f) { output << i; } return 0; }");
+
+        assertThrows(UnsupportedOperationException.class, () -> new JvmCodeGenerator().generate(program));
+    }
+}
@@ -0,0 +1,96 @@
+package com.joklek.fakec.jvm;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.codegen.CodeGenerator;
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.parse;
+import static com.joklek.fakec.TestPrograms.run;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class TieredCompilerTest {
+
+    private static final String HOT_CALLS = "int square(int n) { return n * n; } " +
+            "int main() { int i = 0; int sum = 0; while (i < 100) { sum = sum + square(i); i = i + 1; } output << sum; return 0; }";
+
+    private TieredCompiler tiers;
+
+    private String runTiered(String source, int invocationThreshold, int backEdgeThreshold, boolean background) {
+        Stmt.Program program = parse(source);
+        IntermediateRepresentation representation = new CodeGenerator().generate(program);
+        Interpreter interpreter = new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable());
+        tiers = new TieredCompiler(program, representation.getInstructionBytes().size(), representation.getStringTable(),
+                invocationThreshold, backEdgeThreshold, background);
+        interpreter.setTieredCompiler(tiers);
+        return run(interpreter);
+    }
+
+    private String runInterpreted(String source) {
+        IntermediateRepresentation representation = compile(source);
+        return run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+    }
+
+    @Test
+    void shouldCompileHotFunctionAndKeepOutput() {
+        String output = runTiered(HOT_CALLS, 10, 1_000_000, false);
+
+        assertThat(output, is(runInterpreted(HOT_CALLS)));
+        assertThat(tiers.getStatistics().getRequested(), is(1));
+        assertThat(tiers.getStatistics().getCompiled(), is(1));
+    }
+
+    @Test
+    void shouldNotCompileColdFunctions() {
+        runTiered(HOT_CALLS, 1000, 1_000_000, false);
+
+        assertThat(tiers.getStatistics().getRequested(), is(0));
+    }
+
+    @Test
+    void shouldCompileFunctionsWithHotLoops() {
+        String source = "int count(int n) { int i = 0; int sum = 0; while (i < n) { sum = sum + i; i = i + 1; } return sum; } " +
+                "int main() { int first = count(50); int second = count(60); int unused = 0; output << first, \" \", second; return 0; }";
+        String output = runTiered(source, 1000, 20, false);
+
+        assertThat(output, is("1225 1770\nProgram exited with status 0\n"));
+        assertThat(tiers.getStatistics().getCompiled(), is(1));
+    }
+
+    @Test
+    void shouldRecurseAsDeepCompiledAsInterpreted() {
+        String source = "int depth(int n) { if (n == 0) { return 0; } return depth(n - 1) + 1; } " +
+                "int main() { int result = depth(200000); output << result; return 0; }";
+
+        String output = runTiered(source, 10, 1_000_000, false);
+
+        assertThat(output, is(runInterpreted(source)));
+        assertThat(output, is(String.format("200000%nProgram exited with status 0%n")));
+        assertThat(tiers.getStatistics().getCompiled(), is(1));
+    }
+
+    @Test
+    void shouldKeepInterpretingFunctionsThatCannotBeCompiled() {
+        String source = "int below(int n) { float limit = 10.5; if (n < limit) { return 1; } return 0; } " +
+                "int main() { int i = 0; int sum = 0; while (i < 20) { sum = sum + below(i); i = i + 1; } output << sum; return 0; }";
+        String output = runTiered(source, 5, 1_000_000, false);
+
+        assertThat(output, is(runInterpreted(source)));
+        assertThat(tiers.getStatistics().getFailed(), is(1));
+    }
+
+    @Test
+    void shouldCompileInBackground() throws InterruptedException {
+        String output = runTiered(HOT_CALLS, 10, 1_000_000, true);
+
+        assertThat(output, is(runInterpreted(HOT_CALLS)));
+        assertThat(tiers.awaitCompilation(10, TimeUnit.SECONDS), is(true));
+        assertThat(tiers.getStatistics().getCompiled(), is(1));
+        assertThat(tiers.getStatistics().getPending(), is(0));
+    }
+}
@@ -0,0 +1,97 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IExpr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.data.DataType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.TestPrograms.parse;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ConstantFolderTest {
+
+    private List<IStmt> foldMain(String body) {
+        String source = "int main() { " + body + " return 0; }";
+        Stmt.Program program = parse(source);
+        new ConstantFolder().fold(program);
+        return program.getFunctions().get(0).getBody().getStatements();
+    }
+
+    private List<IExpr> printed(IStmt statement) {
+        return ((Stmt.Output) statement).getExpressions();
+    }
+
+    @Test
+    void shouldFoldArithmeticOverLiterals() {
+        List<IExpr> printed = printed(foldMain("output << 2 * 3 + 4, (1.5 - 0.5) * 4.0, 7 % 3 == 1;").get(0));
+
+        assertThat(((Expr.Literal) printed.get(0)).getValue(), is(10));
+        assertThat(((Expr.Literal) printed.get(1)).getValue(), is(4.0f));
+        assertThat(((Expr.Literal) printed.get(2)).getValue(), is(true));
+        assertThat(printed.get(2).getType(), is(DataType.BOOL));
+    }
+
+    @Test
+    void shouldFoldUnaryOperations() {
+        List<IExpr> printed = printed(foldMain("output << -(2 - 5), !(1 < 2), -2.5;").get(0));
+
+        assertThat(((Expr.Literal) printed.get(0)).getValue(), is(3));
+        assertThat(((Expr.Literal) printed.get(1)).getValue(), is(false));
+        assertThat(((Expr.Literal) printed.get(2)).getValue(), is(-2.5f));
+    }
+
+    @Test
+    void shouldLeaveDivisionByZeroToRun() {
+        List<IExpr> printed = printed(foldMain("output << 1 / 0, 5 % 0;").get(0));
+
+        assertThat(printed.get(0), instanceOf(Expr.Binary.class));
+        assertThat(printed.get(1), instanceOf(Expr.Binary.class));
+    }
+
+    @Test
+    void shouldPropagateVariablesThatAreNeverChanged() {
+        List<IStmt> statements = foldMain("int size = 4 * 2; int total = size + 1; int changed = 1; changed++; " +
+                "output << total, changed;");
+
+        assertThat(((Expr.Literal) ((Stmt.Var) statements.get(1)).getInitializer()).getValue(), is(9));
+        List<IExpr> printed = printed(statements.get(4));
+        assertThat(((Expr.Literal) printed.get(0)).getValue(), is(9));
+        assertThat(printed.get(1), instanceOf(Expr.Variable.class));
+    }
+
+    @Test
+    void shouldNotPropagateVariablesChangedByInputOrAssignment() {
+        List<IStmt> statements = foldMain("int read = 1; int set = 2; input >> read; set = 3; output << read + 1, set * 2;");
+
+        List<IExpr> printed = printed(statements.get(4));
+        assertThat(printed.get(0), instanceOf(Expr.Binary.class));
+        assertThat(printed.get(1), instanceOf(Expr.Binary.class));
+    }
+
+    @Test
+    void shouldFoldLoopConditions() {
+        List<IStmt> statements = foldMain("int limit = 3; int i = 0; while (i < limit * 2) { i = i + 1; }");
+
+        Expr.Binary condition = (Expr.Binary) ((Stmt.While) statements.get(2)).getCondition();
+        assertThat(((Expr.Literal) condition.getRight()).getValue(), is(6));
+    }
+
+    @Test
+    void shouldPrintFoldedFloatComparisonsLikeMachineComputesThem() {
+        String source = "int main() { float a = 1.5; float b = 2.5; a = a * 1.0; " +
+                "output << ((a < b) == true), \" \", ((1.5 < 2.5) == true), \" \", (a >= b) == false, \" \", (1.5 >= 2.5) == false; return 0; }";
+        Stmt.Program program = parse(source);
+
+        new ConstantFolder().fold(program);
+
+        assertThat(interpret(program), is(String.format("true true true true%nProgram exited with status 0%n")));
+        assertThat(interpret(program), is(interpret(parse(source))));
+    }
+}
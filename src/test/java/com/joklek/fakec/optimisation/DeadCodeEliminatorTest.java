@@ -0,0 +1,71 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.joklek.fakec.TestPrograms.parse;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class DeadCodeEliminatorTest {
+
+    private List<IStmt> eliminateInMain(String body) {
+        String source = "int main() { " + body + " }";
+        Stmt.Program program = parse(source);
+        new ConstantFolder().fold(program);
+        new DeadCodeEliminator().eliminate(program);
+        return program.getFunctions().get(0).getBody().getStatements();
+    }
+
+    @Test
+    void shouldDropStatementsAfterReturn() {
+        List<IStmt> statements = eliminateInMain("output << 1; return 0; output << 2;");
+
+        assertThat(statements.size(), is(2));
+        assertThat(statements.get(1), instanceOf(Stmt.Return.class));
+    }
+
+    @Test
+    void shouldDropStatementsAfterBreakAndContinue() {
+        List<IStmt> statements = eliminateInMain("int i = 0; while (i < 3) { i = i + 1; continue; output << i; } " +
+                "while (i < 6) { break; i = 6; } return 0;");
+
+        assertThat(((Stmt.While) statements.get(1)).getBody().getStatements().size(), is(2));
+        assertThat(((Stmt.While) statements.get(2)).getBody().getStatements().size(), is(1));
+    }
+
+    @Test
+    void shouldReplaceIfWithBranchThatAlwaysRuns() {
+        List<IStmt> statements = eliminateInMain("if (1 > 2) { output << 1; } else if (2 > 1) { output << 2; } " +
+                "else { output << 3; } return 0;");
+
+        assertThat(statements.get(0), instanceOf(Stmt.Block.class));
+        Stmt.Output output = (Stmt.Output) ((Stmt.Block) statements.get(0)).getStatements().get(0);
+        assertThat(((Expr.Literal) output.getExpressions().get(0)).getValue(), is(2));
+    }
+
+    @Test
+    void shouldKeepBranchesWithUnknownConditions() {
+        List<IStmt> statements = eliminateInMain("int a = 0; input >> a; if (false) { output << 1; } " +
+                "else if (a > 1) { output << 2; } else if (true) { output << 3; } else { output << 4; } return 0;");
+
+        Stmt.If ifStmt = (Stmt.If) statements.get(2);
+        assertThat(ifStmt.getBranches().size(), is(1));
+        Stmt.Output elseOutput = (Stmt.Output) ifStmt.getElseBranch().getStatements().get(0);
+        assertThat(((Expr.Literal) elseOutput.getExpressions().get(0)).getValue(), is(3));
+    }
+
+    @Test
+    void shouldDropLoopsThatNeverRunAndCodeAfterEndlessOnes() {
+        List<IStmt> statements = eliminateInMain("int i = 0; while (false) { i = 1; } if (false) { i = 2; } " +
+                "while (true) { i = i + 1; } return 0;");
+
+        assertThat(statements.size(), is(2));
+        assertThat(statements.get(1), instanceOf(Stmt.While.class));
+    }
+}
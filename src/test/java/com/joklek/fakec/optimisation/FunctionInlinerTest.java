@@ -0,0 +1,106 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.TestPrograms.parse;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class FunctionInlinerTest {
+
+    private List<String> functionNames(Stmt.Program program) {
+        return program.getFunctions().stream().map(function -> function.getName().getLexeme()).collect(Collectors.toList());
+    }
+
+    private int calls(Stmt.Program program) {
+        int[] calls = {0};
+        program.accept(new AstWalker() {
+            @Override
+            public Void visitCallExpr(Expr.Call callExpr) {
+                calls[0]++;
+                return super.visitCallExpr(callExpr);
+            }
+        });
+        return calls[0];
+    }
+
+    @Test
+    void shouldSubstituteReturnedExpression() {
+        String source = "int sq(int a) { return a * a; } " +
+                "int main() { int total = 0; for (int i = 0; i < 5; i++) { total = total + sq(i) + sq(i + 1); } " +
+                "output << total; return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        int inlined = new FunctionInliner().inline(program);
+
+        assertThat(inlined, is(2));
+        assertThat(calls(program), is(0));
+        assertThat(functionNames(program), is(List.of("main")));
+        assertThat(interpret(program), is(expected));
+    }
+
+    @Test
+    void shouldSubstituteArrayArgumentsInReturnedExpression() {
+        String source = "int ends(int[] a, int last) { return a[0] + a[last]; } " +
+                "int main() { int[] values[4]; values[0] = 3; values[3] = 40; output << ends(values, 3), \" \", ends(values, 0); return 0; }";
+        Stmt.Program program = parse(source);
+
+        int inlined = new FunctionInliner().inline(program);
+
+        assertThat(inlined, is(2));
+        assertThat(calls(program), is(0));
+        assertThat(interpret(program), is(String.format("43 6%nProgram exited with status 0%n")));
+    }
+
+    @Test
+    void shouldInlineFunctionWithSeveralReturnsIntoTemporary() {
+        String source = "int max(int a, int b) { if (a > b) { return a; } return b; } " +
+                "int main() { int total = 0; for (int i = 0; i < 6; i++) { total = total + max(i, 3) * 2; output << max(total, 10); } " +
+                "return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        int inlined = new FunctionInliner().inline(program);
+
+        assertThat(inlined, is(2));
+        assertThat(calls(program), is(0));
+        assertThat(functionNames(program), is(List.of("main")));
+        assertThat(interpret(program), is(expected));
+    }
+
+    @Test
+    void shouldLeaveRecursiveFunctions() {
+        Stmt.Program program = parse("int fact(int n) { if (n < 2) { return 1; } return n * fact(n - 1); } " +
+                "int main() { output << fact(5); return 0; }");
+
+        int inlined = new FunctionInliner().inline(program);
+
+        assertThat(inlined, is(0));
+        assertThat(calls(program), is(2));
+        assertThat(interpret(program).startsWith("120\n"), is(true));
+    }
+
+    @Test
+    void shouldInlineLargeFunctionOnlyWithSingleCallSite() {
+        String body = "(int n) { int total = 0; for (int i = 0; i < n; i++) { total = total + i * i; " +
+                "if (total > 100) { total = total - 100; } } output << total; output << \" \"; return total; } ";
+        String source = "int once" + body + "int twice" + body +
+                "int main() { int a = once(20); int b = twice(5); b = b + twice(7); output << a + b; return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        int inlined = new FunctionInliner().inline(program);
+
+        assertThat(inlined, is(1));
+        assertThat(functionNames(program), is(List.of("twice", "main")));
+        assertThat(calls(program), is(2));
+        assertThat(interpret(program), is(expected));
+    }
+}
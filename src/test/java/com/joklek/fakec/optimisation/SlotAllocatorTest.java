@@ -0,0 +1,77 @@
+package com.joklek.fakec.optimisation;
+
+import com.joklek.fakec.codegen.FrameSlots;
+import com.joklek.fakec.parsing.ast.Stmt;
+import org.junit.jupiter.api.Test;
+
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.TestPrograms.parse;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class SlotAllocatorTest {
+
+    private int frameOfMain(Stmt.Program program) {
+        return FrameSlots.of(program.getFunctions().get(program.getFunctions().size() - 1));
+    }
+
+    @Test
+    void shouldShareSlotsOfSiblingBlocksAndLoops() {
+        String source = "int main() { int total = 0; " +
+                "for (int i = 0; i < 3; i++) { int a = i * 2; total = total + a; } " +
+                "for (int j = 0; j < 3; j++) { float b = 1.5; total = total + j; } " +
+                "if (total > 3) { int c = 4; total = total + c; } else { float d = 2.0; output << d; } " +
+                "output << total; return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        int saved = new SlotAllocator().allocate(program);
+
+        assertThat(saved, is(4));
+        assertThat(frameOfMain(program), is(3));
+        assertThat(interpret(program), is(expected));
+    }
+
+    @Test
+    void shouldKeepVariablesUsedInLoopsLiveUntilLoopEnds() {
+        String source = "int main() { int step = 3; int total = 0; int count = 0; " +
+                "while (count < 4) { int doubled = count * 2; total = total + doubled + step; count++; } " +
+                "int after = total * 2; output << after; return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        new SlotAllocator().allocate(program);
+
+        assertThat(frameOfMain(program), is(4));
+        assertThat(interpret(program), is(expected));
+    }
+
+    @Test
+    void shouldKeepOwnSlotsForParametersArraysAndVariablesWithoutValue() {
+        String source = "int sum(int n) { int[] values[3]; int total; total = 0; int i = 0; while (i < 3) { values[i] = n + i; i++; } " +
+                "int j = 0; while (j < 3) { total = total + values[j]; j++; } return total; } " +
+                "int main() { output << sum(4); return 0; }";
+        String expected = interpret(parse(source));
+        Stmt.Program program = parse(source);
+
+        new SlotAllocator().allocate(program);
+
+        // Parameter, array address and elements, total, and one slot for both counters
+        assertThat(FrameSlots.of(program.getFunctions().get(0)), is(7));
+        assertThat(interpret(program), is(expected));
+    }
+
+    @Test
+    void shouldKeepSlotsOfInlinedArrayParametersWhileElementsAreRead() {
+        String source = "int sum(int[] a, int n) { int s = 0; for (int i = 0; i < n; i++) { s = s + a[i]; } return s; } " +
+                "int main() { int[] values[5]; for (int i = 0; i < 5; i++) { values[i] = i * 10 + 7; } " +
+                "int total = sum(values, 5); output << total; return 0; }";
+        Stmt.Program program = parse(source);
+
+        int inlined = new FunctionInliner().inline(program);
+        new SlotAllocator().allocate(program);
+
+        assertThat(inlined, is(1));
+        assertThat(interpret(program), is(String.format("135%nProgram exited with status 0%n")));
+    }
+}
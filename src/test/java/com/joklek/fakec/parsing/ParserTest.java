@@ -0,0 +1,87 @@
+package com.joklek.fakec.parsing;
+
+import com.joklek.fakec.lexing.Scanner;
+import com.joklek.fakec.parsing.ast.Expr;
+import com.joklek.fakec.parsing.ast.IStmt;
+import com.joklek.fakec.parsing.ast.Stmt;
+import com.joklek.fakec.parsing.types.data.TypeConverter;
+import com.joklek.fakec.parsing.types.operation.OperationConverter;
+import com.joklek.fakec.parsing.types.operation.OperationType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.joklek.fakec.TestPrograms.interpret;
+import static com.joklek.fakec.TestPrograms.parse;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ParserTest {
+
+    private ParserResults parseMain(String body) {
+        String source = "int main() { " + body + " return 0; }";
+        return new Parser(new Scanner(source).scanTokens().getTokens(), new OperationConverter(), new TypeConverter()).parseProgram();
+    }
+
+    private Expr.Assign assignment(IStmt statement) {
+        return (Expr.Assign) ((Stmt.Expression) statement).getExpression();
+    }
+
+    @Test
+    void shouldDesugarCompoundAssignmentOfVariable() {
+        ParserResults results = parseMain("int x = 1; x -= 2 * 3;");
+        List<IStmt> statements = results.getRootNode().getFunctions().get(0).getBody().getStatements();
+
+        Expr.Assign assign = assignment(statements.get(1));
+
+        assertThat(results.hasErrors(), is(false));
+        assertThat(assign.getName().getLexeme(), is("x"));
+        Expr.Binary value = (Expr.Binary) assign.getValue();
+        assertThat(value.getOperator().getType(), is(OperationType.SUB));
+        assertThat(((Expr.Variable) value.getLeft()).getName().getLexeme(), is("x"));
+        assertThat(value.getRight(), instanceOf(Expr.Binary.class));
+    }
+
+    @Test
+    void shouldDesugarCompoundAssignmentOfArrayElement() {
+        ParserResults results = parseMain("int[] a[3]; int i = 1; a[i + 1] *= 4;");
+        List<IStmt> statements = results.getRootNode().getFunctions().get(0).getBody().getStatements();
+
+        Expr.Assign assign = assignment(statements.get(2));
+
+        assertThat(results.hasErrors(), is(false));
+        assertThat(assign.getName().getLexeme(), is("a"));
+        assertThat(assign.getOffset(), instanceOf(Expr.Binary.class));
+        Expr.Binary value = (Expr.Binary) assign.getValue();
+        assertThat(value.getOperator().getType(), is(OperationType.MULT));
+        assertThat(((Expr.ArrayAccess) value.getLeft()).getOffset(), is(assign.getOffset()));
+    }
+
+    @Test
+    void shouldRejectCompoundAssignmentOfElementWithSideEffectsInOffset() {
+        ParserResults increment = parseMain("int[] a[2]; int i = 0; a[i++] += 5;");
+        ParserResults call = parseMain("int[] a[2]; a[main()] -= 1;");
+        ParserResults nested = parseMain("int[] a[2]; int i = 0; a[a[i = 1]] /= 2;");
+
+        assertThat(increment.getErrors().size(), is(1));
+        assertThat(increment.getErrors().get(0).getMessage(), is("Offset of compound assignment target can not have side effects."));
+        assertThat(call.hasErrors(), is(true));
+        assertThat(nested.hasErrors(), is(true));
+    }
+
+    @Test
+    void shouldKeepSideEffectsInOffsetOfPlainAssignment() {
+        ParserResults results = parseMain("int[] a[2]; int i = 0; a[i++] = 5;");
+
+        assertThat(results.hasErrors(), is(false));
+    }
+
+    @Test
+    void shouldUpdateArrayElementsInPlace() {
+        String source = "int main() { int[] a[2]; a[0] = 10; a[1] = 10; int i = 0; a[i] += 5; i++; a[i] += 5; a[i - 1] *= 2; " +
+                "output << a[0], \" \", a[1]; return 0; }";
+
+        assertThat(interpret(parse(source)), is(String.format("30 15%nProgram exited with status 0%n")));
+    }
+}
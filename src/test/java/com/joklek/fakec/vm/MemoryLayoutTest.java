@@ -0,0 +1,71 @@
+package com.joklek.fakec.vm;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import org.junit.jupiter.api.Test;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.runWithErrors;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MemoryLayoutTest {
+
+    private static final String DEEP_RECURSION = "int depth(int n) { if (n == 0) { return 0; } return depth(n - 1) + 1; } " +
+            "int main() { int result = depth(20000); output << result; return 0; }";
+
+    @Test
+    void shouldKeepStackWhenItHasRoom() {
+        MemoryLayout layout = MemoryLayout.defaults();
+        int[] stack = new int[layout.getInitialStackSize()];
+
+        assertThat(layout.reserve(stack, 100), is(sameInstance(stack)));
+    }
+
+    @Test
+    void shouldGrowStackKeepingValues() {
+        MemoryLayout layout = new MemoryLayout(2048, 100_000, 0);
+        int[] stack = new int[2048];
+        stack[2047] = 42;
+
+        int[] grown = layout.reserve(stack, 2000);
+
+        assertThat(grown.length, is(4096));
+        assertThat(grown[2047], is(42));
+    }
+
+    @Test
+    void shouldRefuseToGrowPastLimit() {
+        MemoryLayout layout = new MemoryLayout(2048, 4096, 0);
+
+        assertThat(layout.reserve(new int[2048], 4096), is(nullValue()));
+    }
+
+    @Test
+    void shouldRejectInvalidLayout() {
+        assertThrows(IllegalArgumentException.class, () -> new MemoryLayout(4096, 2048, 0));
+    }
+
+    @Test
+    void shouldRecurseDeeperThanInitialStack() {
+        IntermediateRepresentation representation = compile(DEEP_RECURSION);
+        MemoryLayout layout = MemoryLayout.defaults();
+
+        String expected = "20000\nProgram exited with status 0\n";
+        assertThat(runWithErrors(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable(), layout)), is(expected));
+        assertThat(runWithErrors(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable(), representation.getResolver(), layout)), is(expected));
+    }
+
+    @Test
+    void shouldReportOverflowAtStackLimit() {
+        IntermediateRepresentation representation = compile(DEEP_RECURSION);
+        MemoryLayout small = MemoryLayout.withMaxStackSize(10_000);
+
+        String expected = "test:0: error: Stack overflown, exiting program\n";
+        assertThat(runWithErrors(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable(), small)), is(expected));
+        assertThat(runWithErrors(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable(), representation.getResolver(), small)), is(expected));
+    }
+}
@@ -0,0 +1,108 @@
+package com.joklek.fakec.vm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProgramInputTest {
+
+    private Scanner scanner(String text) {
+        return new Scanner(text).useLocale(Locale.ROOT);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "42", "-7", "+7", "  \t\n 12 ", "2147483647", "-2147483648", "007"})
+    void shouldReadIntegersLikeScanner(String text) {
+        assertThat(new ProgramInput(InputSource.text(text)).readInt(), is(scanner(text).nextInt()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2147483648", "-2147483649", "1.5", "abc", "-", "12a"})
+    void shouldRejectIntegersLikeScanner(String text) {
+        assertThrows(InputMismatchException.class, () -> scanner(text).nextInt());
+        assertThrows(InputMismatchException.class, () -> new ProgramInput(InputSource.text(text)).readInt());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "-0", "1.5", "-2.25", "0.1", "3.14159", "16777215", "16777217", "1.", ".5",
+            "123456789.123456789", "1e5", "0.0000000001", "NaN", "Infinity"})
+    void shouldReadFloatsLikeScanner(String text) {
+        float expected = scanner(text).nextFloat();
+
+        assertThat(Float.floatToIntBits(new ProgramInput(InputSource.text(text)).readFloat()), is(Float.floatToIntBits(expected)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"abc", ".", "-", "1.2.3"})
+    void shouldRejectFloatsLikeScanner(String text) {
+        assertThrows(InputMismatchException.class, () -> scanner(text).nextFloat());
+        assertThrows(InputMismatchException.class, () -> new ProgramInput(InputSource.text(text)).readFloat());
+    }
+
+    @Test
+    void shouldLeaveMismatchedTokenUnread() {
+        ProgramInput input = new ProgramInput(InputSource.text("word 5"));
+
+        assertThrows(InputMismatchException.class, input::readInt);
+        assertThat(input.readLine(), is("word 5"));
+    }
+
+    @Test
+    void shouldReadLinesLikeScanner() {
+        String text = "5\nfirst line\r\nsecond\rąžuolas\n\nlast";
+        Scanner scanner = scanner(text);
+        ProgramInput input = new ProgramInput(InputSource.text(text));
+
+        assertThat(input.readInt(), is(scanner.nextInt()));
+        for (int i = 0; i < 6; i++) {
+            assertThat(input.readLine(), is(scanner.nextLine()));
+        }
+        assertThrows(NoSuchElementException.class, input::readLine);
+    }
+
+    @Test
+    void shouldFailAtEndOfInput() {
+        ProgramInput input = new ProgramInput(InputSource.text("1 \n "));
+
+        assertThat(input.readInt(), is(1));
+        assertThrows(NoSuchElementException.class, input::readInt);
+    }
+
+    @Test
+    void shouldReadTokensAndLinesAcrossChunks() {
+        StringBuilder text = new StringBuilder();
+        long expectedSum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            text.append(i * 31).append(i % 10 == 0 ? '\n' : ' ');
+            expectedSum += i * 31;
+        }
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        text.append('\n').append(longLine).append('\n');
+        ProgramInput input = new ProgramInput(InputSource.channel(Channels.newChannel(
+                new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)))));
+
+        long sum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            sum += input.readInt();
+        }
+        input.readLine();
+
+        assertThat(sum, is(expectedSum));
+        assertThat(input.readLine(), is(longLine.toString()));
+    }
+}
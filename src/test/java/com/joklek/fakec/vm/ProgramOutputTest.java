@@ -0,0 +1,107 @@
+package com.joklek.fakec.vm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ProgramOutputTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ProgramOutput output = new ProgramOutput(OutputTarget.stream(bytes));
+
+    private String printed() throws UnsupportedEncodingException {
+        output.flush();
+        return bytes.toString("UTF-8");
+    }
+
+    private String printedByPrintStream(Consumer<PrintStream> printing) throws UnsupportedEncodingException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(expected, true, "UTF-8");
+        printing.accept(stream);
+        return expected.toString("UTF-8");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 7, -7, 10, 1234567890, -1234567890, Integer.MAX_VALUE, Integer.MIN_VALUE})
+    void shouldPrintIntegersLikePrintStream(int value) throws UnsupportedEncodingException {
+        output.printInt(value);
+
+        assertThat(printed(), is(printedByPrintStream(stream -> stream.print(value))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(floats = {0f, -0f, 1f, -3f, 2.5f, 0.1f, 1234567f, 9999999f, 1e7f, 1.5e10f, -1e-5f, Float.NaN, Float.POSITIVE_INFINITY})
+    void shouldPrintFloatsLikePrintStream(float value) throws UnsupportedEncodingException {
+        output.printFloat(value);
+
+        assertThat(printed(), is(printedByPrintStream(stream -> stream.println(value))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(chars = {'a', '\n', 'ą', '€'})
+    void shouldPrintCharsLikePrintStream(char value) throws UnsupportedEncodingException {
+        output.printChar(value);
+
+        assertThat(printed(), is(printedByPrintStream(stream -> stream.print(value))));
+    }
+
+    @Test
+    void shouldPrintBooleansAndExitStatus() throws UnsupportedEncodingException {
+        output.printBool(1);
+        output.printBool(0);
+        output.printExitStatus(3);
+
+        assertThat(printed(), is(printedByPrintStream(stream -> stream.printf("truefalse%nProgram exited with status %d%n", 3))));
+    }
+
+    @Test
+    void shouldOnlyWriteWhenFlushedOrFull() {
+        List<Integer> writes = new ArrayList<>();
+        ProgramOutput counted = new ProgramOutput((buffer, length) -> writes.add(length));
+
+        for (int i = 0; i < 1000; i++) {
+            counted.printInt(1000000 + i);
+        }
+        assertThat(writes.size(), is(0));
+        for (int i = 0; i < 1000; i++) {
+            counted.printInt(1000000 + i);
+        }
+        counted.flush();
+
+        assertThat(writes.size(), is(2));
+        assertThat(writes.get(0) + writes.get(1), is(14000));
+    }
+
+    @Test
+    void shouldWriteTextLargerThanBuffer() throws UnsupportedEncodingException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        output.printChar('>');
+        output.print(large.toString());
+
+        assertThat(printed(), is(">" + large));
+    }
+
+    @Test
+    void shouldWriteToChannel() throws UnsupportedEncodingException {
+        ProgramOutput channelOutput = new ProgramOutput(OutputTarget.channel(Channels.newChannel(bytes)));
+
+        channelOutput.printInt(42);
+        channelOutput.flush();
+
+        assertThat(bytes.toString("UTF-8"), is("42"));
+    }
+}
@@ -0,0 +1,32 @@
+package com.joklek.fakec.vm;
+
+import com.joklek.fakec.Interpreter;
+import com.joklek.fakec.codegen.IntermediateRepresentation;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static com.joklek.fakec.TestPrograms.compile;
+import static com.joklek.fakec.TestPrograms.run;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ThreadedInterpreterTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "int main() { int i = 0; int sum = 0; while (i < 100) { sum = sum + i * 3 % 7; i = i + 1; } output << sum; return sum; }",
+            "int f(int n) { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } int main() { output << f(15), \"\\n\"; return 0; }",
+            "int main() { float a = 1.5; float b = 2.25; output << a * b, a / b, a - b; output << a < b, a == b; return 3; }",
+            "int main() { float a = 1.5; float b = 2.5; a = a * 1.0; output << ((a < b) == true), (a >= b) == false, (a != b) == true; return 0; }",
+            "int main() { int[] array[5]; int i = 0; while (i < 5) { array[i] = i * i; i = i + 1; } output << array[3], array[4]; return 0; }",
+            "int main() { bool flag = true; if (flag AND !false) { output << \"yes\"; } else { output << \"no\"; } return 0; }"
+    })
+    void shouldProduceSameOutputAsSwitchEngine(String source) {
+        IntermediateRepresentation representation = compile(source);
+
+        String expected = run(new Interpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+        String actual = run(new ThreadedInterpreter("test", representation.getInstructionBytes(), representation.getStringTable()));
+
+        assertThat(actual, is(expected));
+    }
+}